@@ -0,0 +1,100 @@
+package net.elost.http_client.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-process HTTP server for the benchmarks, so measurements don't include a real network.
+ * <ul>
+ *   <li>{@code GET /text/<size>} returns size bytes of text</li>
+ *   <li>{@code GET /binary/<size>} returns size random bytes as application/octet-stream</li>
+ *   <li>{@code POST /echo} returns the request body with the request content type</li>
+ * </ul>
+ */
+class BenchmarkServer {
+  static {
+    // the JDK server writes headers and body separately; with Nagle on, keep-alive responses
+    // stall on the client's delayed ACK and every pooled request measures ~40ms
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  private final Map<String, byte[]> bodies = new ConcurrentHashMap<>();
+  private final ExecutorService executor = Executors.newFixedThreadPool(8);
+  private final HttpServer server;
+
+  BenchmarkServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 512);
+    server.createContext("/text/", exchange -> respond(exchange, "application/text", body(exchange, false)));
+    server.createContext("/binary/", exchange -> respond(exchange, "application/octet-stream", body(exchange, true)));
+    server.createContext("/echo", exchange -> respond(
+        exchange, exchange.getRequestHeaders().getFirst("Content-Type"), readAll(exchange.getRequestBody())
+    ));
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  String baseUrl() {
+    return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+  }
+
+  void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private byte[] body(HttpExchange exchange, boolean binary) {
+    String path = exchange.getRequestURI().getPath();
+    int size = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+    return bodies.computeIfAbsent(path, key -> content(size, binary));
+  }
+
+  private static byte[] content(int size, boolean binary) {
+    byte[] content = new byte[size];
+    if (binary) {
+      new Random(42).nextBytes(content);
+    }
+    else {
+      byte[] line = "the quick brown fox jumps over the lazy dog\n".getBytes(StandardCharsets.UTF_8);
+      for (int i = 0; i < size; i++) {
+        content[i] = line[i % line.length];
+      }
+    }
+    return content;
+  }
+
+  private static void respond(HttpExchange exchange, String contentType, byte[] body) throws IOException {
+    try {
+      exchange.getResponseHeaders().set("Content-Type", contentType == null ? "application/text" : contentType);
+      exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    }
+    finally {
+      exchange.close();
+    }
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+}
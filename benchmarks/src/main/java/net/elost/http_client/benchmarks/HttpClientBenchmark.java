@@ -0,0 +1,89 @@
+package net.elost.http_client.benchmarks;
+
+import net.elost.http_client.ConnectionPool;
+import net.elost.http_client.HttpClientImpl;
+import net.elost.http_client.HttpMethod;
+import net.elost.http_client.HttpResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link HttpClientImpl#sendRequest} against the in-process server, for small and large, text and binary bodies,
+ * on both the {@link java.net.HttpURLConnection} and the pooled transport.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpClientBenchmark {
+
+  @Param({"256", "1048576"})
+  public int size;
+
+  @Param({"text", "binary"})
+  public String type;
+
+  @Param({"url-connection", "pooled"})
+  public String transport;
+
+  private BenchmarkServer server;
+  private ConnectionPool pool;
+  private HttpClientImpl client;
+  private String url;
+  private String echoUrl;
+  private String input;
+  private String contentType;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    server = new BenchmarkServer();
+    client = new HttpClientImpl(1000, 10000);
+    if ("pooled".equals(transport)) {
+      pool = new ConnectionPool().maxConnectionsPerHost(64);
+      client.connectionPool(pool);
+    }
+    url = server.baseUrl() + type + "/" + size;
+    echoUrl = server.baseUrl() + "echo";
+    StringBuilder builder = new StringBuilder(size);
+    for (int i = 0; i < size; i++) {
+      builder.append((char) ('a' + i % 26));
+    }
+    input = builder.toString();
+    contentType = "binary".equals(type) ? "application/octet-stream" : "application/text";
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (pool != null) {
+      pool.close();
+    }
+    server.stop();
+  }
+
+  @Benchmark
+  public HttpResponse get() {
+    return client.sendRequest(HttpMethod.GET, url, null, "", Collections.emptyMap());
+  }
+
+  @Benchmark
+  public HttpResponse post() {
+    return client.sendRequest(HttpMethod.POST, echoUrl, input, contentType, Collections.emptyMap());
+  }
+}
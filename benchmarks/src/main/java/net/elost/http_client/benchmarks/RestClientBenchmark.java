@@ -0,0 +1,100 @@
+package net.elost.http_client.benchmarks;
+
+import com.google.gson.reflect.TypeToken;
+import net.elost.http_client.ConnectionPool;
+import net.elost.http_client.HttpClientImpl;
+import net.elost.http_client.RestClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON round-trips through {@link RestClient}: the input is serialized, echoed back by the in-process server
+ * and deserialized into a Class or a generic Type target.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RestClientBenchmark {
+  private static final Type USER_LIST = new TypeToken<List<User>>() { }.getType();
+
+  @Param({"1", "1000"})
+  public int users;
+
+  private BenchmarkServer server;
+  private ConnectionPool pool;
+  private RestClient client;
+  private String echoUrl;
+  private User user;
+  private List<User> userList;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    server = new BenchmarkServer();
+    pool = new ConnectionPool().maxConnectionsPerHost(64);
+    echoUrl = server.baseUrl() + "echo";
+    client = new RestClient(echoUrl, new HttpClientImpl(1000, 10000).connectionPool(pool));
+    user = new User(1, "user-1");
+    userList = new ArrayList<>(users);
+    for (int i = 0; i < users; i++) {
+      userList.add(new User(i, "user-" + i));
+    }
+    User echoed = classTarget();
+    List<User> echoedList = typeTarget();
+    if (!"user-1".equals(echoed.name) || echoedList.get(users - 1).id != users - 1) {
+      throw new IllegalStateException("Echoed users are not bound, the benchmark would measure empty objects");
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    pool.close();
+    server.stop();
+  }
+
+  @Benchmark
+  public User classTarget() {
+    return client.post(echoUrl, user, User.class);
+  }
+
+  @Benchmark
+  public List<User> typeTarget() {
+    return client.post(echoUrl, userList, USER_LIST);
+  }
+
+  /**
+   * Single-word fields, so inputs written with Gson's default naming bind to results read with
+   * LOWER_CASE_WITH_UNDERSCORES.
+   */
+  public static class User {
+    private long id;
+    private String name;
+
+    public User() {
+    }
+
+    User(long id, String name) {
+      this.id = id;
+      this.name = name;
+    }
+  }
+}
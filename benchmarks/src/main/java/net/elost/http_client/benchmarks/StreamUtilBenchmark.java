@@ -0,0 +1,65 @@
+package net.elost.http_client.benchmarks;
+
+import net.elost.http_client.StreamUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StreamUtil#toByteArray} with and without a known length. The source reports no available bytes,
+ * like a socket stream, so the unknown-length read can't presize its buffer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamUtilBenchmark {
+
+  @Param({"1024", "65536", "4194304"})
+  public int size;
+
+  private byte[] content;
+
+  @Setup
+  public void setUp() {
+    content = new byte[size];
+    new Random(42).nextBytes(content);
+  }
+
+  @Benchmark
+  public byte[] unknownLength() throws IOException {
+    return StreamUtil.toByteArray(new SocketLikeInputStream(content));
+  }
+
+  @Benchmark
+  public byte[] knownLength() throws IOException {
+    return StreamUtil.toByteArray(new SocketLikeInputStream(content), content.length);
+  }
+
+  private static class SocketLikeInputStream extends ByteArrayInputStream {
+
+    SocketLikeInputStream(byte[] content) {
+      super(content);
+    }
+
+    @Override
+    public synchronized int available() {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,239 @@
+package net.elost.http_client.processor;
+
+import java.util.List;
+
+import javax.lang.model.type.TypeKind;
+
+/**
+ * Source of the {@code TypeAdapter} generated for one {@code @JsonModel} class. Names are fully qualified, so the
+ * generated code doesn't clash with classes of the model's package.
+ * <p>
+ * {@code int}, {@code long}, {@code double} and {@code String} fields are read, and except for {@code double}
+ * written, directly on the JSON stream; other fields use the Gson adapter of their declared type.
+ */
+class AdapterSource {
+  private static final String GSON = "com.google.gson.";
+  private static final String TOKEN = GSON + "stream.JsonToken.";
+
+  private final String packageName;
+  private final String adapterName;
+  private final String modelName;
+  private final List<JsonModelProcessor.Field> fields;
+  private final StringBuilder source = new StringBuilder();
+
+  AdapterSource(String packageName, String adapterName, String modelName, List<JsonModelProcessor.Field> fields) {
+    this.packageName = packageName;
+    this.adapterName = adapterName;
+    this.modelName = modelName;
+    this.fields = fields;
+  }
+
+  @Override
+  public String toString() {
+    if (source.length() == 0) {
+      generate();
+    }
+    return source.toString();
+  }
+
+  private void generate() {
+    if (!packageName.isEmpty()) {
+      line(0, "package %s;", packageName);
+      line(0, "");
+    }
+    line(0, "/**");
+    line(0, " * Generated by %s from {@link %s}, do not edit.", JsonModelProcessor.class.getName(), modelName);
+    line(0, " */");
+    line(0, "public final class %s extends %sTypeAdapter<%s> {", adapterName, GSON, modelName);
+    line(1, "private static final java.lang.String[] IDENTITY_NAMES = {%s};", names(false));
+    line(1, "private static final java.lang.String[] LOWER_CASE_NAMES = {%s};", names(true));
+    line(0, "");
+    line(1, "private final java.lang.String[] names;");
+    line(1, "private final java.util.Map<java.lang.String, java.lang.Integer> indexes = new java.util.HashMap<>();");
+    for (int i = 0; i < fields.size(); i++) {
+      if (delegated(fields.get(i))) {
+        line(1, "private final %sTypeAdapter<%s> adapter%d;", GSON, adapterType(fields.get(i)), i);
+      }
+    }
+    line(0, "");
+    line(1, "public %s(%sGson gson, %sFieldNamingPolicy naming) {", adapterName, GSON, GSON);
+    line(2, "names = naming == %sFieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES", GSON);
+    line(4, "? LOWER_CASE_NAMES");
+    line(4, ": IDENTITY_NAMES;");
+    line(2, "for (int i = 0; i < names.length; i++) {");
+    line(3, "indexes.put(names[i], i);");
+    line(2, "}");
+    for (int i = 0; i < fields.size(); i++) {
+      JsonModelProcessor.Field field = fields.get(i);
+      if (delegated(field)) {
+        String type = adapterType(field);
+        if (type.indexOf('<') >= 0) {
+          line(2, "adapter%d = gson.getAdapter(new %sreflect.TypeToken<%s>() {});", i, GSON, type);
+        }
+        else {
+          line(2, "adapter%d = gson.getAdapter(%s.class);", i, type);
+        }
+      }
+    }
+    line(1, "}");
+    line(0, "");
+    generateWrite();
+    line(0, "");
+    generateRead();
+    if (fields.stream().anyMatch(JsonModelProcessor.Field::isString)) {
+      line(0, "");
+      generateReadString();
+    }
+    line(0, "}");
+  }
+
+  private void generateWrite() {
+    line(1, "@Override");
+    line(1, "public void write(%sstream.JsonWriter out, %s value) throws java.io.IOException {", GSON, modelName);
+    line(2, "if (value == null) {");
+    line(3, "out.nullValue();");
+    line(3, "return;");
+    line(2, "}");
+    line(2, "out.beginObject();");
+    for (int i = 0; i < fields.size(); i++) {
+      JsonModelProcessor.Field field = fields.get(i);
+      line(2, "out.name(names[%d]);", i);
+      if (field.isString() || field.kind() == TypeKind.INT || field.kind() == TypeKind.LONG) {
+        line(2, "out.value(value.%s);", field.name);
+      }
+      else {
+        line(2, "adapter%d.write(out, value.%s);", i, field.name);
+      }
+    }
+    line(2, "out.endObject();");
+    line(1, "}");
+  }
+
+  private void generateRead() {
+    line(1, "@Override");
+    line(1, "public %s read(%sstream.JsonReader in) throws java.io.IOException {", modelName, GSON);
+    line(2, "if (in.peek() == %sNULL) {", TOKEN);
+    line(3, "in.nextNull();");
+    line(3, "return null;");
+    line(2, "}");
+    line(2, "%s value = new %s();", modelName, modelName);
+    line(2, "try {");
+    line(3, "in.beginObject();");
+    line(3, "while (in.hasNext()) {");
+    line(4, "java.lang.Integer index = indexes.get(in.nextName());");
+    line(4, "if (index == null) {");
+    line(5, "in.skipValue();");
+    line(5, "continue;");
+    line(4, "}");
+    line(4, "switch (index) {");
+    for (int i = 0; i < fields.size(); i++) {
+      line(5, "case %d:", i);
+      readField(fields.get(i), i);
+      line(6, "break;");
+    }
+    line(5, "default:");
+    line(6, "in.skipValue();");
+    line(4, "}");
+    line(3, "}");
+    line(3, "in.endObject();");
+    line(2, "}");
+    line(2, "catch (java.lang.IllegalStateException | java.lang.NumberFormatException e) {");
+    line(3, "throw new %sJsonSyntaxException(e);", GSON);
+    line(2, "}");
+    line(2, "return value;");
+    line(1, "}");
+  }
+
+  private void readField(JsonModelProcessor.Field field, int index) {
+    if (field.isString()) {
+      line(6, "value.%s = readString(in);", field.name);
+    }
+    else if (field.kind() == TypeKind.INT || field.kind() == TypeKind.LONG || field.kind() == TypeKind.DOUBLE) {
+      // null leaves the default value, like Gson does for primitive fields
+      line(6, "if (in.peek() == %sNULL) {", TOKEN);
+      line(7, "in.nextNull();");
+      line(6, "}");
+      line(6, "else {");
+      String next = field.kind() == TypeKind.INT ? "Int" : field.kind() == TypeKind.LONG ? "Long" : "Double";
+      line(7, "value.%s = in.next%s();", field.name, next);
+      line(6, "}");
+    }
+    else if (field.kind().isPrimitive()) {
+      line(6, "%s field%d = adapter%d.read(in);", adapterType(field), index, index);
+      line(6, "if (field%d != null) {", index);
+      line(7, "value.%s = field%d;", field.name, index);
+      line(6, "}");
+    }
+    else {
+      line(6, "value.%s = adapter%d.read(in);", field.name, index);
+    }
+  }
+
+  private void generateReadString() {
+    line(1, "private static java.lang.String readString(%sstream.JsonReader in) throws java.io.IOException {", GSON);
+    line(2, "%sstream.JsonToken token = in.peek();", GSON);
+    line(2, "if (token == %sNULL) {", TOKEN);
+    line(3, "in.nextNull();");
+    line(3, "return null;");
+    line(2, "}");
+    line(2, "return token == %sBOOLEAN ? java.lang.Boolean.toString(in.nextBoolean()) : in.nextString();", TOKEN);
+    line(1, "}");
+  }
+
+  private static boolean delegated(JsonModelProcessor.Field field) {
+    return !field.isString() && field.kind() != TypeKind.INT && field.kind() != TypeKind.LONG;
+  }
+
+  private static String adapterType(JsonModelProcessor.Field field) {
+    switch (field.kind()) {
+      case BOOLEAN:
+        return "java.lang.Boolean";
+      case BYTE:
+        return "java.lang.Byte";
+      case SHORT:
+        return "java.lang.Short";
+      case CHAR:
+        return "java.lang.Character";
+      case FLOAT:
+        return "java.lang.Float";
+      case DOUBLE:
+        return "java.lang.Double";
+      default:
+        return field.type.toString();
+    }
+  }
+
+  private String names(boolean lowerCase) {
+    StringBuilder names = new StringBuilder();
+    for (JsonModelProcessor.Field field : fields) {
+      if (names.length() > 0) {
+        names.append(", ");
+      }
+      names.append('"').append(escape(lowerCase ? field.lowerCaseName : field.identityName)).append('"');
+    }
+    return names.toString();
+  }
+
+  private static String escape(String name) {
+    StringBuilder escaped = new StringBuilder();
+    for (char c : name.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        escaped.append('\\').append(c);
+      }
+      else if (c < 0x20 || c > 0x7e) {
+        escaped.append(String.format("\\u%04x", (int) c));
+      }
+      else {
+        escaped.append(c);
+      }
+    }
+    return escaped.toString();
+  }
+
+  private void line(int indent, String format, Object... args) {
+    for (int i = 0; i < indent; i++) {
+      source.append("  ");
+    }
+    source.append(args.length == 0 ? format : String.format(format, args)).append('\n');
+  }
+}
@@ -0,0 +1,249 @@
+package net.elost.http_client.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a streaming Gson {@code TypeAdapter} for each class annotated with
+ * {@code net.elost.http_client.JsonModel}. The adapter is named after the class with {@code _JsonAdapter} appended
+ * and knows the field names of both the {@code IDENTITY} and the {@code LOWER_CASE_WITH_UNDERSCORES} naming policy,
+ * so one adapter serves both the input and the result side of {@code GsonJsonSerializer}.
+ * <p>
+ * Fields are bound the way Gson's reflective adapter binds them: all non-static, non-transient fields of the class
+ * and its superclasses, subclass fields first, named by {@code @SerializedName} if present.
+ */
+public class JsonModelProcessor extends AbstractProcessor {
+  static final String JSON_MODEL = "net.elost.http_client.JsonModel";
+  private static final String SERIALIZED_NAME = "com.google.gson.annotations.SerializedName";
+  private static final String SUFFIX = "_JsonAdapter";
+
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    Set<String> types = new HashSet<>();
+    types.add(JSON_MODEL);
+    return types;
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    for (TypeElement annotation : annotations) {
+      for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+        if (element.getKind() != ElementKind.CLASS) {
+          error(element, "@JsonModel is only supported on classes");
+          continue;
+        }
+        TypeElement type = (TypeElement) element;
+        List<Field> fields = fields(type);
+        if (fields != null && checkType(type)) {
+          write(type, fields);
+        }
+      }
+    }
+    return true;
+  }
+
+  private boolean checkType(TypeElement type) {
+    if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+      error(type, "@JsonModel class must not be abstract");
+      return false;
+    }
+    if (!type.getTypeParameters().isEmpty()) {
+      error(type, "@JsonModel class must not be generic");
+      return false;
+    }
+    for (Element e = type; e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()) {
+      if (e.getModifiers().contains(Modifier.PRIVATE)) {
+        error(type, "@JsonModel class and its enclosing classes must not be private");
+        return false;
+      }
+      TypeElement enclosing = (TypeElement) e;
+      if (enclosing.getNestingKind() == NestingKind.MEMBER && !e.getModifiers().contains(Modifier.STATIC)) {
+        error(type, "@JsonModel class must not be an inner class, make it static");
+        return false;
+      }
+      if (enclosing.getNestingKind() == NestingKind.LOCAL || enclosing.getNestingKind() == NestingKind.ANONYMOUS) {
+        error(type, "@JsonModel class must not be a local class");
+        return false;
+      }
+    }
+    List<ExecutableElement> constructors = ElementFilter.constructorsIn(type.getEnclosedElements());
+    for (ExecutableElement constructor : constructors) {
+      if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+        return true;
+      }
+    }
+    error(type, "@JsonModel class needs a non-private no-arg constructor");
+    return false;
+  }
+
+  private List<Field> fields(TypeElement type) {
+    List<Field> fields = new ArrayList<>();
+    Set<String> identityNames = new HashSet<>();
+    Set<String> lowerCaseNames = new HashSet<>();
+    PackageElement modelPackage = processingEnv.getElementUtils().getPackageOf(type);
+    boolean valid = true;
+    for (TypeElement current = type; current != null; current = superclass(current)) {
+      PackageElement declaringPackage = processingEnv.getElementUtils().getPackageOf(current);
+      for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+        Set<Modifier> modifiers = field.getModifiers();
+        if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+          continue;
+        }
+        if (modifiers.contains(Modifier.PRIVATE)
+            || !modifiers.contains(Modifier.PUBLIC) && !declaringPackage.equals(modelPackage)) {
+          error(field, "@JsonModel fields must be accessible from the class's package, they must not be private");
+          valid = false;
+          continue;
+        }
+        if (modifiers.contains(Modifier.FINAL)) {
+          error(field, "@JsonModel fields must not be final");
+          valid = false;
+          continue;
+        }
+        if (!bindable(field.asType())) {
+          error(field, "@JsonModel fields must not use type variables");
+          valid = false;
+          continue;
+        }
+        Field bound = new Field(field, serializedName(field));
+        if (!identityNames.add(bound.identityName) | !lowerCaseNames.add(bound.lowerCaseName)) {
+          error(field, String.format("%s declares multiple JSON fields named %s", type, bound.lowerCaseName));
+          valid = false;
+          continue;
+        }
+        fields.add(bound);
+      }
+    }
+    return valid ? fields : null;
+  }
+
+  private TypeElement superclass(TypeElement type) {
+    TypeMirror superclass = type.getSuperclass();
+    if (superclass.getKind() != TypeKind.DECLARED) {
+      return null;
+    }
+    TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+    return element.getQualifiedName().contentEquals("java.lang.Object") ? null : element;
+  }
+
+  private static boolean bindable(TypeMirror type) {
+    switch (type.getKind()) {
+      case ARRAY:
+        return bindable(((ArrayType) type).getComponentType());
+      case DECLARED:
+        for (TypeMirror argument : ((DeclaredType) type).getTypeArguments()) {
+          if (argument.getKind() != TypeKind.WILDCARD && !bindable(argument)) {
+            return false;
+          }
+        }
+        return true;
+      default:
+        return type.getKind().isPrimitive();
+    }
+  }
+
+  private static String serializedName(VariableElement field) {
+    for (AnnotationMirror annotation : field.getAnnotationMirrors()) {
+      if (((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName()
+          .contentEquals(SERIALIZED_NAME)) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value
+            : annotation.getElementValues().entrySet()) {
+          if (value.getKey().getSimpleName().contentEquals("value")) {
+            return (String) value.getValue().getValue();
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  private void write(TypeElement type, List<Field> fields) {
+    String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+    String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+    String simpleName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1))
+        .replace('$', '_') + SUFFIX;
+    String adapterName = packageName.isEmpty() ? simpleName : packageName + '.' + simpleName;
+    try {
+      JavaFileObject file = processingEnv.getFiler().createSourceFile(adapterName, type);
+      try (Writer writer = file.openWriter()) {
+        writer.write(new AdapterSource(packageName, simpleName, type.getQualifiedName().toString(), fields).toString());
+      }
+    }
+    catch (IOException e) {
+      error(type, String.format("Can't write %s: %s", adapterName, e.getMessage()));
+    }
+  }
+
+  private void error(Element element, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+
+  /**
+   * Same as Gson's {@code FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES}.
+   */
+  static String lowerCaseWithUnderscores(String name) {
+    StringBuilder translation = new StringBuilder();
+    for (int i = 0; i < name.length(); i++) {
+      char character = name.charAt(i);
+      if (Character.isUpperCase(character) && translation.length() != 0) {
+        translation.append('_');
+      }
+      translation.append(character);
+    }
+    return translation.toString().toLowerCase(Locale.ENGLISH);
+  }
+
+  static class Field {
+    final String name;
+    final TypeMirror type;
+    final String identityName;
+    final String lowerCaseName;
+
+    Field(VariableElement field, String serializedName) {
+      this.name = field.getSimpleName().toString();
+      this.type = field.asType();
+      this.identityName = serializedName != null ? serializedName : name;
+      this.lowerCaseName = serializedName != null ? serializedName : lowerCaseWithUnderscores(name);
+    }
+
+    TypeKind kind() {
+      return type.getKind();
+    }
+
+    boolean isString() {
+      return type.getKind() == TypeKind.DECLARED && type.toString().equals("java.lang.String");
+    }
+  }
+}
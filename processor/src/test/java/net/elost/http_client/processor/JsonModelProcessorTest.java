@@ -0,0 +1,177 @@
+package net.elost.http_client.processor;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import net.elost.http_client.GeneratedAdapterFactory;
+import net.elost.http_client.GsonJsonSerializer;
+import net.elost.http_client.JsonModel;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JsonModelProcessorTest {
+
+  private static final String ORDER = String.join("\n",
+      "package com.example;",
+      "",
+      "import java.util.List;",
+      "import com.google.gson.annotations.SerializedName;",
+      "import net.elost.http_client.JsonModel;",
+      "",
+      "public class Api {",
+      "  @JsonModel",
+      "  public static class Order extends Base {",
+      "    String orderId;",
+      "    int itemCount;",
+      "    long totalCents;",
+      "    double weight;",
+      "    boolean gift;",
+      "    Integer priority;",
+      "    List<Item> items;",
+      "    @SerializedName(\"ref\") String reference;",
+      "    transient String ignored;",
+      "    static String shared;",
+      "  }",
+      "",
+      "  @JsonModel",
+      "  public static class Item {",
+      "    public String itemName;",
+      "    public char size;",
+      "  }",
+      "}",
+      "",
+      "class Base {",
+      "  String createdBy;",
+      "}"
+  );
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void generatedAdaptersBindLikeReflection() throws Exception {
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    File classes = compile(ORDER, "com/example/Api.java", diagnostics);
+    assertTrue(diagnostics.getDiagnostics().toString(), classes != null);
+
+    try (URLClassLoader loader = new URLClassLoader(new URL[] {classes.toURI().toURL()}, getClass().getClassLoader())) {
+      Class<?> order = loader.loadClass("com.example.Api$Order");
+      Class<?> adapter = loader.loadClass("com.example.Api_Order_JsonAdapter");
+      Gson generated = new GsonBuilder()
+          .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+          .registerTypeAdapterFactory(new GeneratedAdapterFactory(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES))
+          .create();
+      Gson reflective = new GsonBuilder()
+          .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+          .create();
+      assertEquals(adapter, generated.getAdapter(order).getClass());
+
+      String json = "{\"order_id\": \"A-1\", \"item_count\": \"2\", \"total_cents\": 1250, \"weight\": 1.5,"
+          + " \"gift\": true, \"priority\": null, \"ref\": \"r\", \"ignored\": \"x\", \"unknown\": {\"a\": [1]},"
+          + " \"created_by\": \"tim\", \"items\": [{\"item_name\": \"cup\", \"size\": \"M\"}, null]}";
+      Object parsed = generated.fromJson(json, order);
+      assertEquals(reflective.toJson(reflective.fromJson(json, order)), reflective.toJson(parsed));
+      assertEquals(reflective.toJson(parsed), generated.toJson(parsed));
+      assertNull(generated.fromJson("null", order));
+
+      Object empty = order.getConstructor().newInstance();
+      assertEquals("{\"item_count\":0,\"total_cents\":0,\"weight\":0.0,\"gift\":false}", generated.toJson(empty));
+      assertEquals(new Gson().toJson(parsed), new GsonJsonSerializer().toJson(parsed));
+    }
+  }
+
+  @Test
+  public void rejectsFieldsItCannotAccess() throws Exception {
+    String source = String.join("\n",
+        "package com.example;",
+        "",
+        "@net.elost.http_client.JsonModel",
+        "public class User {",
+        "  private String userName;",
+        "  final int userId = 1;",
+        "}"
+    );
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+
+    assertNull(compile(source, "com/example/User.java", diagnostics));
+    List<String> errors = new ArrayList<>();
+    for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+      if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+        errors.add(diagnostic.getMessage(null));
+      }
+    }
+    assertEquals(Arrays.asList(
+        "@JsonModel fields must be accessible from the class's package, they must not be private",
+        "@JsonModel fields must not be final"
+    ), errors);
+  }
+
+  @Test
+  public void namesFieldsLikeGson() {
+    assertEquals("user_name", JsonModelProcessor.lowerCaseWithUnderscores("userName"));
+    assertEquals("u_r_l_path", JsonModelProcessor.lowerCaseWithUnderscores("URLPath"));
+    assertEquals("id", JsonModelProcessor.lowerCaseWithUnderscores("id"));
+  }
+
+  @Test
+  public void skipsClassesWithoutAnnotation() throws Exception {
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    File classes = compile(
+        "package com.example;\n\npublic class Plain {\n  String name;\n}\n", "com/example/Plain.java", diagnostics
+    );
+
+    assertTrue(new File(classes, "com/example/Plain.class").exists());
+    assertFalse(new File(classes, "com/example/Plain_JsonAdapter.class").exists());
+  }
+
+  private File compile(String source, String path, DiagnosticCollector<JavaFileObject> diagnostics)
+      throws IOException, URISyntaxException {
+    File sources = folder.newFolder();
+    File classes = folder.newFolder();
+    File file = new File(sources, path);
+    assertTrue(file.getParentFile().mkdirs());
+    Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    try (StandardJavaFileManager files = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+      files.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(classes));
+      files.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singletonList(sources));
+      files.setLocation(StandardLocation.CLASS_PATH, Arrays.asList(location(Gson.class), location(JsonModel.class)));
+      JavaCompiler.CompilationTask task = compiler.getTask(
+          null, files, diagnostics, Arrays.asList("-source", "8", "-target", "8", "-Xlint:-options"), null,
+          files.getJavaFileObjects(file)
+      );
+      task.setProcessors(Collections.singletonList(new JsonModelProcessor()));
+      return task.call() ? classes : null;
+    }
+  }
+
+  private static File location(Class<?> type) throws URISyntaxException {
+    return new File(type.getProtectionDomain().getCodeSource().getLocation().toURI());
+  }
+}
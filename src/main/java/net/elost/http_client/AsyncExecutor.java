@@ -0,0 +1,36 @@
+package net.elost.http_client;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool running the blocking calls behind async methods of clients without a non-blocking transport. A call holds
+ * its thread for the whole round trip, so these calls must not run on
+ * {@link java.util.concurrent.ForkJoinPool#commonPool()}, where they would starve parallel streams and other
+ * CPU-bound work of the JVM.
+ * <p>
+ * Up to {@link #MAX_THREADS} calls run at once, further ones queue. Idle threads end after a minute.
+ */
+final class AsyncExecutor {
+  static final int MAX_THREADS = 64;
+  static final ExecutorService SHARED = newExecutor();
+
+  private AsyncExecutor() {
+  }
+
+  private static ExecutorService newExecutor() {
+    AtomicInteger count = new AtomicInteger();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        MAX_THREADS, MAX_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+          Thread thread = new Thread(task, "http-client-async-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+    );
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+}
@@ -0,0 +1,59 @@
+package net.elost.http_client;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * One call of a batch run by {@link BatchExecutor}. The host is used for the per-host concurrency limit.
+ */
+public final class BatchCall<T> {
+  private final String url;
+  private final String host;
+  private final Supplier<T> call;
+
+  private BatchCall(String url, String host, Supplier<T> call) {
+    this.url = url;
+    this.host = host;
+    this.call = call;
+  }
+
+  /**
+   * @param url  url the call goes to, used to limit concurrent calls per host
+   * @param call blocking call, e.g. {@code () -> restClient.get(url, null, User.class)}
+   */
+  public static <T> BatchCall<T> of(String url, Supplier<T> call) {
+    try {
+      URL endpoint = new URL(url);
+      String host = endpoint.getPort() == -1 ? endpoint.getHost() : endpoint.getHost() + ":" + endpoint.getPort();
+      return new BatchCall<>(url, host, call);
+    }
+    catch (MalformedURLException e) {
+      throw new IllegalArgumentException(String.format("Malformed batch call url: %s", url), e);
+    }
+  }
+
+  public static BatchCall<HttpResponse> request(
+      HttpClient client,
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    return of(url, () -> client.sendRequest(method, url, input, contentType, headers));
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  String getHost() {
+    return host;
+  }
+
+  T call() {
+    return call.get();
+  }
+}
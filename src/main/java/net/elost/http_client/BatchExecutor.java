@@ -0,0 +1,292 @@
+package net.elost.http_client;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Runs batches of independent blocking calls with a global and a per-host concurrency limit.
+ * <p>
+ * Calls that would exceed a limit wait in a queue without holding a thread, so a slow host doesn't
+ * keep calls to other hosts waiting. A failed call doesn't affect the others, each one gets its own
+ * {@link BatchResult}:
+ * <pre>
+ *   BatchExecutor batches = new BatchExecutor().maxConcurrency(32).maxConcurrencyPerHost(8);
+ *   List&lt;BatchCall&lt;User&gt;&gt; calls = urls.stream()
+ *       .map(url -&gt; BatchCall.of(url, () -&gt; restClient.get(url, null, User.class)))
+ *       .collect(Collectors.toList());
+ *   for (BatchResult&lt;User&gt; result : batches.executeAll(calls)) {
+ *     ...
+ *   }
+ * </pre>
+ * An executor is thread-safe and the limits apply to all batches it runs at the same time.
+ * Configure it before the first batch.
+ */
+public class BatchExecutor implements Closeable {
+  private static final AtomicInteger threadCount = new AtomicInteger();
+
+  private int maxConcurrency = 64;
+  private int maxConcurrencyPerHost = 5;
+  private ExecutorService executor;
+  private boolean ownsExecutor;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Deque<Task<?>> pending = new ArrayDeque<>();
+  private final Map<String, Integer> runningPerHost = new HashMap<>();
+  private int running;
+
+  /**
+   * Maximum number of calls running at the same time. Defaults to 64.
+   */
+  public BatchExecutor maxConcurrency(int maxConcurrency) {
+    if (maxConcurrency < 1) {
+      throw new IllegalArgumentException("maxConcurrency must be positive");
+    }
+    this.maxConcurrency = maxConcurrency;
+    return this;
+  }
+
+  /**
+   * Maximum number of calls to the same host and port running at the same time. Defaults to 5,
+   * the default per-host limit of {@link ConnectionPool}.
+   */
+  public BatchExecutor maxConcurrencyPerHost(int maxConcurrencyPerHost) {
+    if (maxConcurrencyPerHost < 1) {
+      throw new IllegalArgumentException("maxConcurrencyPerHost must be positive");
+    }
+    this.maxConcurrencyPerHost = maxConcurrencyPerHost;
+    return this;
+  }
+
+  /**
+   * Executor the calls run on. By default a cached pool of daemon threads is created and shut down on close;
+   * an executor set here is not shut down.
+   */
+  public BatchExecutor executor(ExecutorService executor) {
+    this.executor = executor;
+    return this;
+  }
+
+  /**
+   * Runs the calls and waits for all of them to complete.
+   *
+   * @return results in the order of the calls
+   */
+  public <T> List<BatchResult<T>> executeAll(List<BatchCall<T>> calls) {
+    Batch<T> batch = submit(calls);
+    @SuppressWarnings("unchecked")
+    BatchResult<T>[] results = new BatchResult[calls.size()];
+    for (int i = 0; i < results.length; i++) {
+      BatchResult<T> result = batch.take();
+      results[result.getIndex()] = result;
+    }
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Runs the calls and returns their results as they complete. Closing the stream before it is consumed
+   * cancels the calls that didn't start yet.
+   */
+  public <T> Stream<BatchResult<T>> executeAsCompleted(List<BatchCall<T>> calls) {
+    Batch<T> batch = submit(calls);
+    Iterator<BatchResult<T>> results = new Iterator<BatchResult<T>>() {
+      private int taken;
+
+      @Override
+      public boolean hasNext() {
+        return taken < calls.size();
+      }
+
+      @Override
+      public BatchResult<T> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        taken++;
+        return batch.take();
+      }
+    };
+    return StreamSupport
+        .stream(Spliterators.spliterator(results, calls.size(), Spliterator.NONNULL), false)
+        .onClose(batch::cancel);
+  }
+
+  /**
+   * Shuts down the default executor. Calls that are already running complete.
+   */
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      if (ownsExecutor) {
+        executor.shutdown();
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  private <T> Batch<T> submit(List<BatchCall<T>> calls) {
+    Batch<T> batch = new Batch<>();
+    lock.lock();
+    try {
+      for (int i = 0; i < calls.size(); i++) {
+        pending.add(new Task<>(batch, i, calls.get(i)));
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+    dispatch();
+    return batch;
+  }
+
+  private void dispatch() {
+    boolean rejected;
+    do {
+      List<Task<?>> ready = new ArrayList<>();
+      ExecutorService executor;
+      lock.lock();
+      try {
+        Iterator<Task<?>> tasks = pending.iterator();
+        while (running < maxConcurrency && tasks.hasNext()) {
+          Task<?> task = tasks.next();
+          String host = task.call.getHost();
+          int hostRunning = runningPerHost.getOrDefault(host, 0);
+          if (hostRunning < maxConcurrencyPerHost) {
+            tasks.remove();
+            runningPerHost.put(host, hostRunning + 1);
+            running++;
+            ready.add(task);
+          }
+        }
+        executor = executor();
+      }
+      finally {
+        lock.unlock();
+      }
+
+      // a rejected task frees its slot, so the queue is scanned again until all tasks are started or failed
+      rejected = false;
+      for (Task<?> task : ready) {
+        try {
+          executor.execute(task);
+        }
+        catch (RejectedExecutionException e) {
+          task.complete(null, e);
+          rejected = true;
+        }
+      }
+    }
+    while (rejected);
+  }
+
+  private ExecutorService executor() {
+    if (executor == null) {
+      executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "http-client-batch-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+      ownsExecutor = true;
+    }
+    return executor;
+  }
+
+  private void finished(Task<?> task) {
+    lock.lock();
+    try {
+      running--;
+      String host = task.call.getHost();
+      int hostRunning = runningPerHost.get(host) - 1;
+      if (hostRunning == 0) {
+        runningPerHost.remove(host);
+      }
+      else {
+        runningPerHost.put(host, hostRunning);
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  private void cancel(Batch<?> batch) {
+    lock.lock();
+    try {
+      pending.removeIf(task -> task.batch == batch);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  private class Batch<T> {
+    private final BlockingQueue<BatchResult<T>> completed = new LinkedBlockingQueue<>();
+
+    BatchResult<T> take() {
+      try {
+        return completed.take();
+      }
+      catch (InterruptedException e) {
+        cancel();
+        Thread.currentThread().interrupt();
+        throw new HttpCallException("Interrupted while waiting for batch results", e);
+      }
+    }
+
+    void cancel() {
+      BatchExecutor.this.cancel(this);
+    }
+  }
+
+  private class Task<T> implements Runnable {
+    private final Batch<T> batch;
+    private final int index;
+    private final BatchCall<T> call;
+
+    Task(Batch<T> batch, int index, BatchCall<T> call) {
+      this.batch = batch;
+      this.index = index;
+      this.call = call;
+    }
+
+    @Override
+    public void run() {
+      T value = null;
+      Throwable error = null;
+      try {
+        value = call.call();
+      }
+      catch (RuntimeException | Error e) {
+        error = e;
+      }
+      complete(value, error);
+      dispatch();
+    }
+
+    void complete(T value, Throwable error) {
+      finished(this);
+      batch.completed.add(new BatchResult<>(index, call, value, error));
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package net.elost.http_client;
+
+/**
+ * Outcome of a single {@link BatchCall}: either its value or the exception it failed with.
+ */
+public final class BatchResult<T> {
+  private final int index;
+  private final BatchCall<T> call;
+  private final T value;
+  private final Throwable error;
+
+  BatchResult(int index, BatchCall<T> call, T value, Throwable error) {
+    this.index = index;
+    this.call = call;
+    this.value = value;
+    this.error = error;
+  }
+
+  /**
+   * @return position of the call in the submitted list
+   */
+  public int getIndex() {
+    return index;
+  }
+
+  public BatchCall<T> getCall() {
+    return call;
+  }
+
+  public boolean isSuccess() {
+    return error == null;
+  }
+
+  /**
+   * @return the value of the call, or null if it failed
+   */
+  public T getValue() {
+    return value;
+  }
+
+  /**
+   * @return the exception the call failed with, or null if it succeeded
+   */
+  public Throwable getError() {
+    return error;
+  }
+
+  /**
+   * @return the value of the call, rethrowing the exception it failed with
+   */
+  public T get() {
+    if (error instanceof RuntimeException) {
+      throw (RuntimeException) error;
+    }
+    if (error instanceof Error) {
+      throw (Error) error;
+    }
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return "#" + index + " " + call.getUrl() + ": " + (isSuccess() ? "success" : error.toString());
+  }
+}
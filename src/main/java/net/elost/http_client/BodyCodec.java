@@ -0,0 +1,36 @@
+package net.elost.http_client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+
+/**
+ * Binary wire format for inputs and results of {@link RestClient} calls, used instead of JSON text when set with
+ * {@link RestClient#codec(BodyCodec)}. Implementations must be thread-safe and bind classes like the
+ * {@link JsonSerializer} of the client does, so the same DTO classes work with both formats.
+ * Malformed bodies are reported with {@link com.google.gson.JsonParseException}.
+ * <p>
+ * Transports keep responses as bytes only for binary content types, so codecs must use one of them:
+ * {@code application/octet-stream}, {@code application/cbor}, {@code application/msgpack},
+ * {@code application/x-msgpack} or a type ending with {@code +cbor} or {@code +msgpack}.
+ *
+ * @see CborCodec
+ */
+public interface BodyCodec {
+
+  /**
+   * @return media type of encoded bodies, sent as Content-Type and preferred in Accept
+   */
+  String contentType();
+
+  /**
+   * Writes the value to the stream. Does not close the stream.
+   */
+  void encode(Object value, OutputStream out) throws IOException;
+
+  /**
+   * Reads a value of the given type from the whole stream. Does not close the stream.
+   */
+  <T> T decode(InputStream in, Type type) throws IOException;
+}
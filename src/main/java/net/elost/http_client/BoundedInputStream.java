@@ -0,0 +1,79 @@
+package net.elost.http_client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stops a response body at a maximum size while it is read, either failing the read or ending the body early.
+ */
+final class BoundedInputStream extends FilterInputStream {
+  private final long limit;
+  private final boolean truncate;
+  private long remaining;
+
+  /**
+   * @param truncate whether to end the body at the limit instead of throwing an {@link IOException}
+   */
+  BoundedInputStream(InputStream in, long limit, boolean truncate) {
+    super(in);
+    this.limit = limit;
+    this.truncate = truncate;
+    this.remaining = limit;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (remaining == 0) {
+      checkEnded();
+      return -1;
+    }
+    int b = in.read();
+    if (b != -1) {
+      remaining--;
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (remaining == 0) {
+      checkEnded();
+      return -1;
+    }
+    int read = in.read(b, off, (int) Math.min(len, remaining));
+    if (read > 0) {
+      remaining -= read;
+    }
+    return read;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = in.skip(Math.min(n, remaining));
+    remaining -= skipped;
+    return skipped;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return (int) Math.min(in.available(), remaining);
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  /**
+   * @throws IOException if the body goes on past the limit and isn't truncated
+   */
+  private void checkEnded() throws IOException {
+    if (!truncate && in.read() != -1) {
+      throw new IOException(String.format("Response body exceeds the limit of %d bytes", limit));
+    }
+  }
+}
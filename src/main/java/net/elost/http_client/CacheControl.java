@@ -0,0 +1,107 @@
+package net.elost.http_client;
+
+import java.util.Locale;
+
+/**
+ * Directives of a Cache-Control header that matter to {@link CachingHttpClient}.
+ */
+final class CacheControl {
+  static final CacheControl NONE = new CacheControl(false, false, -1, false, false, false);
+
+  private final boolean noStore;
+  private final boolean noCache;
+  private final long maxAgeSeconds;
+  private final boolean isPublic;
+  private final boolean isPrivate;
+  private final boolean hasSharedMaxAge;
+
+  private CacheControl(
+      boolean noStore,
+      boolean noCache,
+      long maxAgeSeconds,
+      boolean isPublic,
+      boolean isPrivate,
+      boolean hasSharedMaxAge
+  ) {
+    this.noStore = noStore;
+    this.noCache = noCache;
+    this.maxAgeSeconds = maxAgeSeconds;
+    this.isPublic = isPublic;
+    this.isPrivate = isPrivate;
+    this.hasSharedMaxAge = hasSharedMaxAge;
+  }
+
+  static CacheControl parse(String header) {
+    if (header == null || header.isEmpty()) {
+      return NONE;
+    }
+    boolean noStore = false;
+    boolean noCache = false;
+    long maxAge = -1;
+    boolean isPublic = false;
+    boolean isPrivate = false;
+    boolean hasSharedMaxAge = false;
+    for (String directive : header.split(",")) {
+      String[] nameValue = directive.trim().split("=", 2);
+      String name = nameValue[0].trim().toLowerCase(Locale.ROOT);
+      switch (name) {
+        case "no-store":
+          noStore = true;
+          break;
+        case "no-cache":
+          noCache = true;
+          break;
+        case "max-age":
+          maxAge = nameValue.length == 2 ? parseSeconds(nameValue[1]) : -1;
+          break;
+        case "public":
+          isPublic = true;
+          break;
+        case "private":
+          isPrivate = true;
+          break;
+        case "s-maxage":
+          hasSharedMaxAge = true;
+          break;
+        default:
+      }
+    }
+    return new CacheControl(noStore, noCache, maxAge, isPublic, isPrivate, hasSharedMaxAge);
+  }
+
+  private static long parseSeconds(String value) {
+    try {
+      return Math.max(0, Long.parseLong(value.trim().replace("\"", "")));
+    }
+    catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  boolean isNoStore() {
+    return noStore;
+  }
+
+  boolean isNoCache() {
+    return noCache;
+  }
+
+  boolean isPublic() {
+    return isPublic;
+  }
+
+  boolean isPrivate() {
+    return isPrivate;
+  }
+
+  boolean hasSharedMaxAge() {
+    return hasSharedMaxAge;
+  }
+
+  /**
+   * @return max-age in seconds, or -1 if absent
+   */
+  long getMaxAgeSeconds() {
+    return maxAgeSeconds;
+  }
+}
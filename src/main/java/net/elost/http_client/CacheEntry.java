@@ -0,0 +1,346 @@
+package net.elost.http_client;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cached GET response with the bookkeeping of RFC 7234: freshness lifetime, age, validators and Vary.
+ * Entries are immutable; a 304 revalidation creates a new entry sharing the body and the parsed results.
+ */
+final class CacheEntry {
+  private static final int FORMAT_VERSION = 1;
+
+  private final String url;
+  private final int code;
+  private final String body;
+  private final byte[] binaryBody;
+  private final Map<String, List<String>> headers;
+  private final Map<String, String> varyHeaders;
+  private final long requestTimeMillis;
+  private final long responseTimeMillis;
+  private final ParsedResults parsedResults;
+
+  private CacheEntry(
+      String url,
+      int code,
+      String body,
+      byte[] binaryBody,
+      Map<String, List<String>> headers,
+      Map<String, String> varyHeaders,
+      long requestTimeMillis,
+      long responseTimeMillis,
+      ParsedResults parsedResults
+  ) {
+    this.url = url;
+    this.code = code;
+    this.body = body;
+    this.binaryBody = binaryBody;
+    this.headers = headers;
+    this.varyHeaders = varyHeaders;
+    this.requestTimeMillis = requestTimeMillis;
+    this.responseTimeMillis = responseTimeMillis;
+    this.parsedResults = parsedResults;
+  }
+
+  /**
+   * @return entry for the response, or null if the response may not be stored
+   */
+  static CacheEntry of(
+      HttpResponse response,
+      Map<String, String> requestHeaders,
+      long requestTimeMillis,
+      long responseTimeMillis,
+      boolean shared
+  ) {
+    Map<String, List<String>> headers = response.getResponseHeaders() == null
+        ? Collections.emptyMap()
+        : response.getResponseHeaders();
+    CacheControl cacheControl = CacheControl.parse(Headers.first(headers, "Cache-Control"));
+    if (response.getCode() != 200 || cacheControl.isNoStore() || response.getResponseBodyFile() != null
+        || shared && cacheControl.isPrivate()) {
+      return null;
+    }
+    if (Headers.get(requestHeaders, "Authorization") != null
+        && !cacheControl.isPublic() && !cacheControl.hasSharedMaxAge()) {
+      // the entry isn't keyed on the credentials, so only responses meant for everyone can be served to others
+      return null;
+    }
+    Map<String, String> varyHeaders = varyHeaders(Headers.first(headers, "Vary"), requestHeaders);
+    if (varyHeaders == null) {
+      return null;
+    }
+    CacheEntry entry = new CacheEntry(
+        response.getUrl(), response.getCode(), response.getResponseBody(), response.getResponseBinaryBody(),
+        new LinkedHashMap<>(headers), varyHeaders, requestTimeMillis, responseTimeMillis, new ParsedResults()
+    );
+    return entry.freshnessLifetimeMillis() > 0 || entry.hasValidators() ? entry : null;
+  }
+
+  /**
+   * @return values of the request headers named in Vary, or null for "Vary: *", which can never match
+   */
+  private static Map<String, String> varyHeaders(String vary, Map<String, String> requestHeaders) {
+    if (vary == null || vary.trim().isEmpty()) {
+      return Collections.emptyMap();
+    }
+    Map<String, String> values = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    for (String name : vary.split(",")) {
+      String trimmed = name.trim();
+      if (trimmed.equals("*")) {
+        return null;
+      }
+      if (!trimmed.isEmpty()) {
+        values.put(trimmed, Headers.get(requestHeaders, trimmed));
+      }
+    }
+    return values;
+  }
+
+  /**
+   * @return whether the cached response can be served for a request with these headers
+   */
+  boolean matches(Map<String, String> requestHeaders) {
+    for (Map.Entry<String, String> vary : varyHeaders.entrySet()) {
+      String value = Headers.get(requestHeaders, vary.getKey());
+      if (value == null ? vary.getValue() != null : !value.equals(vary.getValue())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  boolean isFresh(long nowMillis, CacheControl request) {
+    if (request.isNoCache() || CacheControl.parse(Headers.first(headers, "Cache-Control")).isNoCache()) {
+      return false;
+    }
+    long age = currentAgeMillis(nowMillis);
+    long lifetime = freshnessLifetimeMillis();
+    if (request.getMaxAgeSeconds() >= 0) {
+      lifetime = Math.min(lifetime, TimeUnit.SECONDS.toMillis(request.getMaxAgeSeconds()));
+    }
+    return age < lifetime;
+  }
+
+  boolean hasValidators() {
+    return Headers.first(headers, "ETag") != null || Headers.first(headers, "Last-Modified") != null;
+  }
+
+  /**
+   * @return request headers turned into a conditional request with this entry's validators
+   */
+  Map<String, String> conditionalHeaders(Map<String, String> requestHeaders) {
+    Map<String, String> conditional = new HashMap<>(requestHeaders);
+    String etag = Headers.first(headers, "ETag");
+    if (etag != null) {
+      conditional.put("If-None-Match", etag);
+    }
+    String lastModified = Headers.first(headers, "Last-Modified");
+    if (lastModified != null) {
+      conditional.put("If-Modified-Since", lastModified);
+    }
+    return conditional;
+  }
+
+  /**
+   * @return entry updated with the headers of a 304 response, keeping the stored body and parsed results
+   */
+  CacheEntry revalidated(HttpResponse notModified, long requestTimeMillis, long responseTimeMillis) {
+    Map<String, List<String>> updated = new LinkedHashMap<>(headers);
+    if (notModified.getResponseHeaders() != null) {
+      notModified.getResponseHeaders().forEach((name, values) -> {
+        if (name != null && !name.equalsIgnoreCase("Content-Length")) {
+          updated.keySet().removeIf(existing -> existing != null && existing.equalsIgnoreCase(name));
+          updated.put(name, values);
+        }
+      });
+    }
+    return new CacheEntry(
+        url, code, body, binaryBody, updated, varyHeaders, requestTimeMillis, responseTimeMillis, parsedResults
+    );
+  }
+
+  /**
+   * @return a new response object for the caller, sharing the body and the parsed results of this entry
+   */
+  HttpResponse toResponse(HttpMethod method, String requestBody) {
+    HttpResponse response = new HttpResponse()
+        .httpMethod(method)
+        .url(url)
+        .requestBody(requestBody)
+        .code(code)
+        .responseBody(body)
+        .responseBinaryBody(binaryBody)
+        .responseHeaders(headers);
+    response.parsedResults(parsedResults);
+    return response;
+  }
+
+  /**
+   * @return approximate heap footprint in bytes
+   */
+  long size() {
+    long size = 256 + (body == null ? 0 : 2L * body.length()) + (binaryBody == null ? 0 : binaryBody.length);
+    for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+      size += header.getKey() == null ? 0 : 2L * header.getKey().length();
+      for (String value : header.getValue()) {
+        size += 32 + 2L * value.length();
+      }
+    }
+    return size;
+  }
+
+  private long freshnessLifetimeMillis() {
+    long maxAge = CacheControl.parse(Headers.first(headers, "Cache-Control")).getMaxAgeSeconds();
+    if (maxAge >= 0) {
+      return TimeUnit.SECONDS.toMillis(maxAge);
+    }
+    long date = dateHeader("Date");
+    long served = date == -1 ? responseTimeMillis : date;
+    String expires = Headers.first(headers, "Expires");
+    if (expires != null) {
+      long expiresAt = parseDate(expires);
+      return expiresAt == -1 ? 0 : Math.max(0, expiresAt - served);
+    }
+    long lastModified = dateHeader("Last-Modified");
+    if (lastModified != -1 && lastModified < served) {
+      // heuristic freshness suggested by RFC 7234 4.2.2
+      return (served - lastModified) / 10;
+    }
+    return 0;
+  }
+
+  private long currentAgeMillis(long nowMillis) {
+    long date = dateHeader("Date");
+    long apparentAge = date == -1 ? 0 : Math.max(0, responseTimeMillis - date);
+    long ageHeader = 0;
+    String age = Headers.first(headers, "Age");
+    if (age != null) {
+      try {
+        ageHeader = TimeUnit.SECONDS.toMillis(Long.parseLong(age.trim()));
+      }
+      catch (NumberFormatException ignored) {
+      }
+    }
+    long correctedAge = ageHeader + (responseTimeMillis - requestTimeMillis);
+    return Math.max(apparentAge, correctedAge) + (nowMillis - responseTimeMillis);
+  }
+
+  private long dateHeader(String name) {
+    String value = Headers.first(headers, name);
+    return value == null ? -1 : parseDate(value);
+  }
+
+  private static long parseDate(String value) {
+    try {
+      return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+    }
+    catch (DateTimeParseException e) {
+      return -1;
+    }
+  }
+
+  void writeTo(String key, DataOutputStream out) throws IOException {
+    out.writeInt(FORMAT_VERSION);
+    out.writeUTF(key);
+    out.writeUTF(url);
+    out.writeInt(code);
+    out.writeLong(requestTimeMillis);
+    out.writeLong(responseTimeMillis);
+    writeNullableBytes(out, body == null ? null : body.getBytes(StandardCharsets.UTF_8));
+    writeNullableBytes(out, binaryBody);
+    out.writeInt(headers.size());
+    for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+      writeNullableString(out, header.getKey());
+      out.writeInt(header.getValue().size());
+      for (String value : header.getValue()) {
+        out.writeUTF(value);
+      }
+    }
+    out.writeInt(varyHeaders.size());
+    for (Map.Entry<String, String> vary : varyHeaders.entrySet()) {
+      out.writeUTF(vary.getKey());
+      writeNullableString(out, vary.getValue());
+    }
+  }
+
+  /**
+   * Reads the key written by {@link #writeTo}, without the rest of the entry.
+   */
+  static String readKey(DataInputStream in) throws IOException {
+    if (in.readInt() != FORMAT_VERSION) {
+      throw new IOException("Unknown cache entry format");
+    }
+    return in.readUTF();
+  }
+
+  static CacheEntry readFrom(DataInputStream in) throws IOException {
+    readKey(in);
+    String url = in.readUTF();
+    int code = in.readInt();
+    long requestTime = in.readLong();
+    long responseTime = in.readLong();
+    byte[] bodyBytes = readNullableBytes(in);
+    String body = bodyBytes == null ? null : new String(bodyBytes, StandardCharsets.UTF_8);
+    byte[] binaryBody = readNullableBytes(in);
+    int headerCount = in.readInt();
+    Map<String, List<String>> headers = new LinkedHashMap<>();
+    for (int i = 0; i < headerCount; i++) {
+      String name = readNullableString(in);
+      int valueCount = in.readInt();
+      List<String> values = new ArrayList<>(valueCount);
+      for (int j = 0; j < valueCount; j++) {
+        values.add(in.readUTF());
+      }
+      headers.put(name, values);
+    }
+    int varyCount = in.readInt();
+    Map<String, String> varyHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    for (int i = 0; i < varyCount; i++) {
+      varyHeaders.put(in.readUTF(), readNullableString(in));
+    }
+    return new CacheEntry(
+        url, code, body, binaryBody, headers, varyHeaders, requestTime, responseTime, new ParsedResults()
+    );
+  }
+
+  private static void writeNullableBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes == null ? -1 : bytes.length);
+    if (bytes != null) {
+      out.write(bytes);
+    }
+  }
+
+  private static byte[] readNullableBytes(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length == -1) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  private static String readNullableString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+}
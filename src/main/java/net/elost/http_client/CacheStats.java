@@ -0,0 +1,42 @@
+package net.elost.http_client;
+
+/**
+ * Point-in-time snapshot of {@link ResponseCache} counters.
+ */
+public class CacheStats {
+  private final long hits;
+  private final long misses;
+  private final long revalidations;
+
+  CacheStats(long hits, long misses, long revalidations) {
+    this.hits = hits;
+    this.misses = misses;
+    this.revalidations = revalidations;
+  }
+
+  /**
+   * @return requests served from the cache without contacting the server
+   */
+  public long getHits() {
+    return hits;
+  }
+
+  /**
+   * @return requests that downloaded a response from the server
+   */
+  public long getMisses() {
+    return misses;
+  }
+
+  /**
+   * @return conditional requests answered with 304 Not Modified, served from the cache without a body download
+   */
+  public long getRevalidations() {
+    return revalidations;
+  }
+
+  @Override
+  public String toString() {
+    return "hits: " + hits + ", misses: " + misses + ", revalidations: " + revalidations;
+  }
+}
@@ -0,0 +1,128 @@
+package net.elost.http_client;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caches the addresses resolved by another resolver for their TTL, or for a fixed time if the resolver doesn't
+ * report TTLs, as {@link DnsResolver#SYSTEM} doesn't.
+ * <pre>
+ *   ConnectionPool pool = new ConnectionPool()
+ *       .dnsResolver(new CachingDnsResolver(DnsResolver.SYSTEM).ttlMillis(30_000));
+ * </pre>
+ * Hosts looked up late in their TTL are resolved again in the background, so calls to busy hosts don't wait
+ * for DNS when their entries expire. Failed lookups aren't cached.
+ */
+public class CachingDnsResolver implements DnsResolver {
+  private static final ExecutorService REFRESHER = Executors.newSingleThreadExecutor(task -> {
+    Thread thread = new Thread(task, "http-client-dns-refresh");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final DnsResolver delegate;
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private long ttlMillis = TimeUnit.MINUTES.toMillis(1);
+  private double refreshAfter = 0.75;
+
+  public CachingDnsResolver(DnsResolver delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * Time to cache addresses for when the resolver doesn't report their TTL. Defaults to one minute.
+   */
+  public CachingDnsResolver ttlMillis(long ttlMillis) {
+    this.ttlMillis = ttlMillis;
+    return this;
+  }
+
+  /**
+   * Fraction of the TTL after which a lookup also starts resolving the host again in the background.
+   * Defaults to 0.75, 1 disables background refreshes.
+   */
+  public CachingDnsResolver refreshAfter(double fraction) {
+    if (fraction <= 0 || fraction > 1) {
+      throw new IllegalArgumentException("fraction must be greater than 0 and at most 1");
+    }
+    this.refreshAfter = fraction;
+    return this;
+  }
+
+  @Override
+  public List<InetAddress> resolve(String host) throws UnknownHostException {
+    Entry entry = entries.get(host);
+    long now = System.nanoTime();
+    if (entry == null || now - entry.expiresAt >= 0) {
+      return load(host);
+    }
+    if (now - entry.refreshAt >= 0 && entry.refreshing.compareAndSet(false, true)) {
+      REFRESHER.execute(() -> refresh(host, entry));
+    }
+    return entry.addresses;
+  }
+
+  /**
+   * Drops the cached addresses of the host, e.g. after connects to all of them failed.
+   */
+  public void invalidate(String host) {
+    entries.remove(host);
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  private List<InetAddress> load(String host) throws UnknownHostException {
+    List<InetAddress> addresses = delegate.resolve(host);
+    if (addresses.isEmpty()) {
+      throw new UnknownHostException(host);
+    }
+    addresses = Collections.unmodifiableList(new ArrayList<>(addresses));
+    long ttl = delegate.ttlMillis(host, addresses);
+    if (ttl < 0) {
+      ttl = ttlMillis;
+    }
+    if (ttl > 0) {
+      entries.put(host, new Entry(addresses, ttl, refreshAfter));
+    }
+    else {
+      entries.remove(host);
+    }
+    return addresses;
+  }
+
+  private void refresh(String host, Entry entry) {
+    try {
+      load(host);
+    }
+    catch (UnknownHostException | RuntimeException e) {
+      // the cached addresses are used until they expire
+      entry.refreshing.set(false);
+    }
+  }
+
+  private static class Entry {
+    private final List<InetAddress> addresses;
+    private final long expiresAt;
+    private final long refreshAt;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    Entry(List<InetAddress> addresses, long ttlMillis, double refreshAfter) {
+      long now = System.nanoTime();
+      long ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+      this.addresses = addresses;
+      this.expiresAt = now + ttlNanos;
+      this.refreshAt = refreshAfter >= 1 ? expiresAt : now + (long) (ttlNanos * refreshAfter);
+    }
+  }
+}
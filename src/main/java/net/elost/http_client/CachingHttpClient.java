@@ -0,0 +1,153 @@
+package net.elost.http_client;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Serves GET responses from a {@link ResponseCache} following Cache-Control, Expires, ETag and Last-Modified.
+ * Stale entries with a validator are revalidated with a conditional request; a 304 response is served from the cache
+ * without downloading the body again. Other methods go to the server and invalidate the cached response of the url.
+ * <p>
+ * {@link RestClient} reuses the result deserialized from a cached response for later hits of the same entry,
+ * so results of cached calls are shared and must not be modified.
+ * <pre>
+ *   ResponseCache cache = new ResponseCache().maxMemoryBytes(50 * 1024 * 1024);
+ *   RestClient client = new RestClient(url, new CachingHttpClient(new HttpClientImpl(1000, 5000), cache));
+ * </pre>
+ * Streaming requests and uploads are not cached. Responses to requests with an Authorization header are only stored if
+ * they are marked {@code public} or have an {@code s-maxage}, as entries are not keyed on credentials.
+ */
+public class CachingHttpClient extends ForwardingHttpClient {
+  private final ResponseCache cache;
+
+  public CachingHttpClient(HttpClient delegate, ResponseCache cache) {
+    super(delegate);
+    this.cache = cache;
+  }
+
+  public ResponseCache getCache() {
+    return cache;
+  }
+
+  @Override
+  public HttpResponse sendRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    if (method != HttpMethod.GET) {
+      return invalidate(url, super.sendRequest(method, url, input, contentType, headers));
+    }
+    CacheControl requestCacheControl = CacheControl.parse(Headers.get(headers, "Cache-Control"));
+    if (requestCacheControl.isNoStore()) {
+      return super.sendRequest(method, url, input, contentType, headers);
+    }
+    long requestTime = System.currentTimeMillis();
+    CacheEntry entry = lookup(url, headers);
+    if (entry != null && entry.isFresh(requestTime, requestCacheControl)) {
+      cache.recordHit();
+      return entry.toResponse(method, input);
+    }
+    Map<String, String> requestHeaders = entry == null ? headers : entry.conditionalHeaders(headers);
+    HttpResponse response = super.sendRequest(method, url, input, contentType, requestHeaders);
+    return store(url, headers, entry, response, requestTime, input);
+  }
+
+  @Override
+  public HttpResponse upload(
+      HttpMethod method,
+      String url,
+      RequestBody body,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    return invalidate(url, super.upload(method, url, body, contentType, headers));
+  }
+
+  @Override
+  public CompletableFuture<HttpResponse> sendRequestAsync(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    if (method != HttpMethod.GET) {
+      return super.sendRequestAsync(method, url, input, contentType, headers)
+          .thenApply(response -> invalidate(url, response));
+    }
+    CacheControl requestCacheControl = CacheControl.parse(Headers.get(headers, "Cache-Control"));
+    if (requestCacheControl.isNoStore()) {
+      return super.sendRequestAsync(method, url, input, contentType, headers);
+    }
+    long requestTime = System.currentTimeMillis();
+    CacheEntry entry = lookup(url, headers);
+    if (entry != null && entry.isFresh(requestTime, requestCacheControl)) {
+      cache.recordHit();
+      return CompletableFuture.completedFuture(entry.toResponse(method, input));
+    }
+    Map<String, String> requestHeaders = entry == null ? headers : entry.conditionalHeaders(headers);
+    return super.sendRequestAsync(method, url, input, contentType, requestHeaders)
+        .thenApply(response -> store(url, headers, entry, response, requestTime, input));
+  }
+
+  @Override
+  public <T> T sendRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers,
+      ResponseHandler<T> handler
+  ) {
+    HttpResponse response = sendRequest(method, url, input, contentType, headers);
+    try {
+      return handler.handle(response, response.bufferedBody());
+    }
+    catch (IOException e) {
+      throw new HttpCallException(String.format("Can't read response from api call to %s", url), e);
+    }
+  }
+
+  private CacheEntry lookup(String url, Map<String, String> headers) {
+    CacheEntry entry = cache.get(url);
+    return entry != null && entry.matches(headers) ? entry : null;
+  }
+
+  private HttpResponse store(
+      String url,
+      Map<String, String> headers,
+      CacheEntry entry,
+      HttpResponse response,
+      long requestTime,
+      String input
+  ) {
+    long responseTime = System.currentTimeMillis();
+    if (entry != null && response.getCode() == 304) {
+      CacheEntry revalidated = entry.revalidated(response, requestTime, responseTime);
+      cache.put(url, revalidated);
+      cache.recordRevalidation();
+      return revalidated.toResponse(response.getHttpMethod(), input);
+    }
+    cache.recordMiss();
+    CacheEntry stored = CacheEntry.of(response, headers, requestTime, responseTime, cache.isShared());
+    if (stored == null) {
+      if (entry != null) {
+        cache.remove(url);
+      }
+      return response;
+    }
+    cache.put(url, stored);
+    return stored.toResponse(response.getHttpMethod(), input);
+  }
+
+  private HttpResponse invalidate(String url, HttpResponse response) {
+    if (response.getCode() < 400) {
+      cache.remove(url);
+    }
+    return response;
+  }
+}
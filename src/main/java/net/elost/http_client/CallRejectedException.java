@@ -0,0 +1,13 @@
+package net.elost.http_client;
+
+/**
+ * Thrown without calling the server when a {@link CircuitBreakingHttpClient} circuit is open or a
+ * {@link ConcurrencyLimitingHttpClient} limit is reached.
+ */
+public class CallRejectedException extends HttpCallException {
+  private static final long serialVersionUID = -2760236305337409012L;
+
+  public CallRejectedException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,182 @@
+package net.elost.http_client;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.URL;
+
+/**
+ * Reports the events of one call to an {@link HttpEventListener}. Without a listener every call shares
+ * {@link #NONE}, which does nothing and doesn't wrap streams, so tracing costs no allocation.
+ */
+final class CallTracer {
+  static final CallTracer NONE = new CallTracer(null, null);
+
+  private final HttpEventListener listener;
+  private final HttpCall call;
+
+  private CallTracer(HttpEventListener listener, HttpCall call) {
+    this.listener = listener;
+    this.call = call;
+  }
+
+  static CallTracer start(HttpEventListener listener, HttpMethod method, URL url) {
+    if (listener == null) {
+      return NONE;
+    }
+    HttpCall call = new HttpCall(method, url, System.nanoTime());
+    listener.callStart(call, call.getStartNanos());
+    return new CallTracer(listener, call);
+  }
+
+  void dnsStart(String host) {
+    if (listener != null) {
+      listener.dnsStart(call, host, System.nanoTime());
+    }
+  }
+
+  void dnsEnd(String host, InetAddress address) {
+    if (listener != null) {
+      listener.dnsEnd(call, host, address, System.nanoTime());
+    }
+  }
+
+  void connectStart() {
+    if (listener != null) {
+      listener.connectStart(call, System.nanoTime());
+    }
+  }
+
+  void connectEnd() {
+    if (listener != null) {
+      listener.connectEnd(call, System.nanoTime());
+    }
+  }
+
+  void firstByteReceived(int code) {
+    if (listener != null) {
+      listener.firstByteReceived(call, code, System.nanoTime());
+    }
+  }
+
+  void callEnd() {
+    if (listener != null) {
+      listener.callEnd(call, System.nanoTime());
+    }
+  }
+
+  void callFailed(Throwable error) {
+    if (listener != null) {
+      listener.callFailed(call, error, System.nanoTime());
+    }
+  }
+
+  /**
+   * @return stream reporting requestBodyEnd with the number of bytes written when closed
+   */
+  OutputStream requestBody(OutputStream out) {
+    return listener == null ? out : new CountingOutputStream(out);
+  }
+
+  /**
+   * @return stream reporting responseBodyEnd with the number of bytes read at its end or when closed
+   */
+  InputStream responseBody(InputStream in) {
+    return listener == null ? in : new CountingInputStream(in);
+  }
+
+  private class CountingOutputStream extends FilterOutputStream {
+    private long count;
+    private boolean closed;
+
+    private CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+      super.close();
+      if (!closed) {
+        closed = true;
+        listener.requestBodyEnd(call, count, System.nanoTime());
+      }
+    }
+  }
+
+  private class CountingInputStream extends FilterInputStream {
+    private long count;
+    private boolean ended;
+
+    private CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = in.read();
+      if (b == -1) {
+        end();
+      }
+      else {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = in.read(b, off, len);
+      if (read == -1) {
+        end();
+      }
+      else {
+        count += read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = in.skip(n);
+      count += skipped;
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        in.close();
+      }
+      finally {
+        end();
+      }
+    }
+
+    private void end() {
+      if (!ended) {
+        ended = true;
+        listener.responseBodyEnd(call, count, System.nanoTime());
+      }
+    }
+  }
+}
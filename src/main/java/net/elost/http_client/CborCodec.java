@@ -0,0 +1,64 @@
+package net.elost.http_client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+
+/**
+ * {@link BodyCodec} for CBOR (RFC 7049), {@code application/cbor}. Values are bound by Gson, with the same field
+ * naming as the default {@link GsonJsonSerializer}, so DTOs map to the same keys as in JSON.
+ * <pre>
+ *   RestClient client = new RestClient(url, httpClient).codec(new CborCodec());
+ * </pre>
+ * Values are written straight to CBOR, containers with indefinite length. Bodies are read into a Gson tree first,
+ * numbers as integers when CBOR has them as integers, byte strings as base64 strings.
+ */
+public class CborCodec implements BodyCodec {
+  private final Gson serializer;
+  private final Gson deserializer;
+
+  public CborCodec() {
+    this(
+        GeneratedAdapterFactory.register(new GsonBuilder(), FieldNamingPolicy.IDENTITY).create(),
+        GeneratedAdapterFactory.register(new GsonBuilder(), FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create()
+    );
+  }
+
+  /**
+   * @param serializer   Gson binding inputs
+   * @param deserializer Gson binding results
+   */
+  public CborCodec(Gson serializer, Gson deserializer) {
+    this.serializer = serializer;
+    this.deserializer = deserializer;
+  }
+
+  @Override
+  public String contentType() {
+    return "application/cbor";
+  }
+
+  @Override
+  public void encode(Object value, OutputStream out) throws IOException {
+    CborWriter writer = new CborWriter(out);
+    if (value == null) {
+      writer.nullValue();
+    }
+    else {
+      serializer.toJson(value, value.getClass(), writer);
+    }
+    writer.flush();
+  }
+
+  @Override
+  public <T> T decode(InputStream in, Type type) throws IOException {
+    JsonElement tree = CborParser.parse(StreamUtil.toByteArray(in));
+    return deserializer.fromJson(tree, type);
+  }
+}
@@ -0,0 +1,236 @@
+package net.elost.http_client;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * Reads a CBOR data item into a Gson tree. Integers become long or {@link BigInteger} values, floating point
+ * numbers doubles, byte strings base64 strings, map keys strings. Tags other than bignums are skipped.
+ */
+final class CborParser {
+  private static final int BREAK = 0xff;
+
+  private final byte[] data;
+  private int position;
+
+  private CborParser(byte[] data) {
+    this.data = data;
+  }
+
+  /**
+   * @throws JsonSyntaxException if the data is not exactly one well-formed CBOR data item
+   */
+  static JsonElement parse(byte[] data) {
+    CborParser parser = new CborParser(data);
+    JsonElement element = parser.readItem(parser.readByte());
+    if (parser.position != data.length) {
+      throw new JsonSyntaxException(String.format("Unexpected data after CBOR item at offset %d", parser.position));
+    }
+    return element;
+  }
+
+  private JsonElement readItem(int initial) {
+    int majorType = initial >>> 5;
+    int info = initial & 0x1f;
+    switch (majorType) {
+      case 0:
+        return new JsonPrimitive(unsigned(readArgument(info)));
+      case 1:
+        long argument = readArgument(info);
+        if (argument >= 0) {
+          return new JsonPrimitive(-1 - argument);
+        }
+        return new JsonPrimitive(new BigInteger(Long.toUnsignedString(argument)).negate().subtract(BigInteger.ONE));
+      case 2:
+        return new JsonPrimitive(Base64.getEncoder().encodeToString(readString(info, 2)));
+      case 3:
+        return new JsonPrimitive(new String(readString(info, 3), StandardCharsets.UTF_8));
+      case 4:
+        return readArray(info);
+      case 5:
+        return readMap(info);
+      case 6:
+        return readTagged(readArgument(info));
+      default:
+        return readSimple(info);
+    }
+  }
+
+  private JsonArray readArray(int info) {
+    JsonArray array = new JsonArray();
+    if (info == 31) {
+      for (int next = readByte(); next != BREAK; next = readByte()) {
+        array.add(readItem(next));
+      }
+      return array;
+    }
+    for (long i = readLength(info); i > 0; i--) {
+      array.add(readItem(readByte()));
+    }
+    return array;
+  }
+
+  private JsonObject readMap(int info) {
+    JsonObject object = new JsonObject();
+    if (info == 31) {
+      for (int next = readByte(); next != BREAK; next = readByte()) {
+        object.add(readKey(next), readItem(readByte()));
+      }
+      return object;
+    }
+    for (long i = readLength(info); i > 0; i--) {
+      object.add(readKey(readByte()), readItem(readByte()));
+    }
+    return object;
+  }
+
+  private String readKey(int initial) {
+    if (initial >>> 5 == 3) {
+      return new String(readString(initial & 0x1f, 3), StandardCharsets.UTF_8);
+    }
+    JsonElement key = readItem(initial);
+    if (!key.isJsonPrimitive()) {
+      throw new JsonSyntaxException(String.format("Unsupported CBOR map key %s at offset %d", key, position));
+    }
+    return key.getAsString();
+  }
+
+  private JsonElement readTagged(long tag) {
+    int next = readByte();
+    if ((tag == 2 || tag == 3) && next >>> 5 == 2) {
+      BigInteger magnitude = new BigInteger(1, readString(next & 0x1f, 2));
+      return new JsonPrimitive(tag == 2 ? magnitude : magnitude.negate().subtract(BigInteger.ONE));
+    }
+    return readItem(next);
+  }
+
+  private JsonElement readSimple(int info) {
+    switch (info) {
+      case 20:
+        return new JsonPrimitive(false);
+      case 21:
+        return new JsonPrimitive(true);
+      case 22:
+      case 23:
+        return JsonNull.INSTANCE;
+      case 25:
+        return new JsonPrimitive(halfToDouble((int) readUnsigned(2)));
+      case 26:
+        return new JsonPrimitive((double) Float.intBitsToFloat((int) readUnsigned(4)));
+      case 27:
+        return new JsonPrimitive(Double.longBitsToDouble(readUnsigned(8)));
+      default:
+        throw new JsonSyntaxException(String.format("Unsupported CBOR simple value %d at offset %d", info, position));
+    }
+  }
+
+  /**
+   * Reads a byte or text string, concatenating the chunks of an indefinite-length one.
+   */
+  private byte[] readString(int info, int majorType) {
+    if (info != 31) {
+      int length = checkedLength(readLength(info));
+      int start = position;
+      position += length;
+      byte[] bytes = new byte[length];
+      System.arraycopy(data, start, bytes, 0, length);
+      return bytes;
+    }
+    ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+    for (int next = readByte(); next != BREAK; next = readByte()) {
+      if (next >>> 5 != majorType || (next & 0x1f) == 31) {
+        throw new JsonSyntaxException(String.format("Malformed CBOR string chunk at offset %d", position));
+      }
+      byte[] chunk = readString(next & 0x1f, majorType);
+      chunks.write(chunk, 0, chunk.length);
+    }
+    return chunks.toByteArray();
+  }
+
+  private long readLength(int info) {
+    long length = readArgument(info);
+    if (length < 0) {
+      throw new JsonSyntaxException(String.format("CBOR length too large at offset %d", position));
+    }
+    return length;
+  }
+
+  private int checkedLength(long length) {
+    if (length > data.length - position) {
+      throw truncated();
+    }
+    return (int) length;
+  }
+
+  private long readArgument(int info) {
+    if (info < 24) {
+      return info;
+    }
+    switch (info) {
+      case 24:
+        return readUnsigned(1);
+      case 25:
+        return readUnsigned(2);
+      case 26:
+        return readUnsigned(4);
+      case 27:
+        return readUnsigned(8);
+      default:
+        throw new JsonSyntaxException(String.format("Malformed CBOR argument %d at offset %d", info, position));
+    }
+  }
+
+  private long readUnsigned(int count) {
+    if (data.length - position < count) {
+      throw truncated();
+    }
+    long value = 0;
+    for (int i = 0; i < count; i++) {
+      value = value << 8 | data[position++] & 0xff;
+    }
+    return value;
+  }
+
+  private int readByte() {
+    if (position == data.length) {
+      throw truncated();
+    }
+    return data[position++] & 0xff;
+  }
+
+  private JsonSyntaxException truncated() {
+    return new JsonSyntaxException(String.format("Truncated CBOR data at offset %d", position));
+  }
+
+  /**
+   * @return the value as a long if it fits, otherwise as an unsigned 64 bit integer
+   */
+  private static Number unsigned(long value) {
+    return value >= 0 ? (Number) value : new BigInteger(Long.toUnsignedString(value));
+  }
+
+  private static double halfToDouble(int half) {
+    int exponent = half >>> 10 & 0x1f;
+    int mantissa = half & 0x3ff;
+    double value;
+    if (exponent == 0) {
+      value = Math.scalb((double) mantissa, -24);
+    }
+    else if (exponent == 31) {
+      value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+    }
+    else {
+      value = Math.scalb((double) (mantissa + 1024), exponent - 25);
+    }
+    return (half & 0x8000) != 0 ? -value : value;
+  }
+}
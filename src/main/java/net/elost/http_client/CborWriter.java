@@ -0,0 +1,273 @@
+package net.elost.http_client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * {@link JsonWriter} writing CBOR instead of JSON text, so Gson type adapters serialize straight to CBOR.
+ * Arrays and objects are written with indefinite length, names and values are buffered and written to the stream
+ * on {@link #flush()}.
+ */
+final class CborWriter extends JsonWriter {
+  private static final Writer UNUSED = new Writer() {
+    @Override
+    public void write(char[] buffer, int offset, int length) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+  };
+  private static final BigInteger MIN_LONG = BigInteger.valueOf(Long.MIN_VALUE);
+  private static final BigInteger MAX_LONG = BigInteger.valueOf(Long.MAX_VALUE);
+
+  private final OutputStream out;
+  private byte[] buffer = new byte[512];
+  private int length;
+  private String deferredName;
+
+  CborWriter(OutputStream out) {
+    super(UNUSED);
+    this.out = out;
+  }
+
+  @Override
+  public JsonWriter beginArray() throws IOException {
+    writeDeferredName();
+    writeByte(0x9f);
+    return this;
+  }
+
+  @Override
+  public JsonWriter endArray() throws IOException {
+    writeByte(0xff);
+    return this;
+  }
+
+  @Override
+  public JsonWriter beginObject() throws IOException {
+    writeDeferredName();
+    writeByte(0xbf);
+    return this;
+  }
+
+  @Override
+  public JsonWriter endObject() throws IOException {
+    if (deferredName != null) {
+      throw new IllegalStateException(String.format("Name %s has no value", deferredName));
+    }
+    writeByte(0xff);
+    return this;
+  }
+
+  @Override
+  public JsonWriter name(String name) throws IOException {
+    if (name == null) {
+      throw new NullPointerException("name == null");
+    }
+    if (deferredName != null) {
+      throw new IllegalStateException(String.format("Name %s has no value", deferredName));
+    }
+    deferredName = name;
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(String value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    writeDeferredName();
+    writeText(value);
+    return this;
+  }
+
+  @Override
+  public JsonWriter nullValue() throws IOException {
+    if (deferredName != null) {
+      if (!getSerializeNulls()) {
+        // like JsonWriter, the name of a null value is left out with the value
+        deferredName = null;
+        return this;
+      }
+      writeDeferredName();
+    }
+    writeByte(0xf6);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(boolean value) throws IOException {
+    writeDeferredName();
+    writeByte(value ? 0xf5 : 0xf4);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(double value) throws IOException {
+    if (!isLenient() && (Double.isNaN(value) || Double.isInfinite(value))) {
+      throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+    }
+    writeDeferredName();
+    writeDouble(value);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(long value) throws IOException {
+    writeDeferredName();
+    writeInteger(value);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(Number value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+      return value(value.longValue());
+    }
+    if (value instanceof Double || value instanceof Float) {
+      return value(value.doubleValue());
+    }
+    if (value instanceof BigInteger) {
+      BigInteger integer = (BigInteger) value;
+      if (integer.compareTo(MIN_LONG) >= 0 && integer.compareTo(MAX_LONG) <= 0) {
+        return value(integer.longValue());
+      }
+      writeDeferredName();
+      writeBigInteger(integer);
+      return this;
+    }
+    // BigDecimal and Gson's lazily parsed numbers keep their digits as text
+    String text = value.toString();
+    try {
+      return value(Long.parseLong(text));
+    }
+    catch (NumberFormatException e) {
+      return value(new BigDecimal(text).doubleValue());
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.write(buffer, 0, length);
+    length = 0;
+    out.flush();
+  }
+
+  /**
+   * Writes what is buffered, but does not close the stream.
+   */
+  @Override
+  public void close() throws IOException {
+    flush();
+  }
+
+  private void writeDeferredName() {
+    if (deferredName != null) {
+      writeText(deferredName);
+      deferredName = null;
+    }
+  }
+
+  private void writeText(String text) {
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    writeHead(3, bytes.length);
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, buffer, length, bytes.length);
+    length += bytes.length;
+  }
+
+  private void writeInteger(long value) {
+    if (value >= 0) {
+      writeHead(0, value);
+    }
+    else {
+      writeHead(1, -1 - value);
+    }
+  }
+
+  /**
+   * Writes a bignum, tag 2 with the magnitude of a positive value or tag 3 with the magnitude of -1 - value.
+   */
+  private void writeBigInteger(BigInteger value) {
+    boolean negative = value.signum() < 0;
+    byte[] bytes = (negative ? value.negate().subtract(BigInteger.ONE) : value).toByteArray();
+    int offset = bytes[0] == 0 ? 1 : 0;
+    writeHead(6, negative ? 3 : 2);
+    writeHead(2, bytes.length - offset);
+    ensureCapacity(bytes.length - offset);
+    System.arraycopy(bytes, offset, buffer, length, bytes.length - offset);
+    length += bytes.length - offset;
+  }
+
+  private void writeDouble(double value) {
+    float single = (float) value;
+    if (single == value) {
+      writeByte(0xfa);
+      writeBytes(Float.floatToIntBits(single), 4);
+    }
+    else {
+      writeByte(0xfb);
+      writeBytes(Double.doubleToLongBits(value), 8);
+    }
+  }
+
+  /**
+   * Writes the major type with its argument in the shortest form.
+   */
+  private void writeHead(int majorType, long argument) {
+    int type = majorType << 5;
+    if (argument < 24) {
+      writeByte(type | (int) argument);
+    }
+    else if (argument <= 0xff) {
+      writeByte(type | 24);
+      writeBytes(argument, 1);
+    }
+    else if (argument <= 0xffff) {
+      writeByte(type | 25);
+      writeBytes(argument, 2);
+    }
+    else if (argument <= 0xffffffffL) {
+      writeByte(type | 26);
+      writeBytes(argument, 4);
+    }
+    else {
+      writeByte(type | 27);
+      writeBytes(argument, 8);
+    }
+  }
+
+  private void writeBytes(long value, int count) {
+    ensureCapacity(count);
+    for (int shift = (count - 1) * 8; shift >= 0; shift -= 8) {
+      buffer[length++] = (byte) (value >>> shift);
+    }
+  }
+
+  private void writeByte(int value) {
+    ensureCapacity(1);
+    buffer[length++] = (byte) value;
+  }
+
+  private void ensureCapacity(int count) {
+    if (length + count > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+    }
+  }
+}
@@ -0,0 +1,252 @@
+package net.elost.http_client;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fails calls fast with a {@link CallRejectedException} while the host they go to is failing, instead of letting
+ * them wait for timeouts.
+ * <pre>
+ *   HttpClient client = new CircuitBreakingHttpClient(new HttpClientImpl(1000, 5000))
+ *       .failureRateThreshold(50)
+ *       .slowCallThreshold(2000, 80)
+ *       .openDuration(10_000);
+ * </pre>
+ * Each host has a circuit that keeps the outcomes of its last {@link #window(int, int) calls}. A call fails if it
+ * throws an {@link HttpCallException} or gets a 5xx status, and is slow if it takes longer than the slow call
+ * threshold. When the failure rate or the slow call rate reaches its threshold, the circuit opens and rejects calls
+ * for the open duration. Then it lets a few probe calls through: if they all succeed in time the circuit closes,
+ * otherwise it opens again.
+ */
+public class CircuitBreakingHttpClient extends GuardingHttpClient {
+  private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+  private double failureRateThreshold = 50;
+  private long slowCallThresholdNanos = -1;
+  private double slowCallRateThreshold = 100;
+  private int windowSize = 100;
+  private int minimumCalls = 20;
+  private long openDurationNanos = TimeUnit.SECONDS.toNanos(30);
+  private int halfOpenProbes = 3;
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  public CircuitBreakingHttpClient(HttpClient delegate) {
+    super(delegate);
+  }
+
+  /**
+   * Percentage of failed calls in the window that opens the circuit. Defaults to 50.
+   */
+  public CircuitBreakingHttpClient failureRateThreshold(double percent) {
+    this.failureRateThreshold = percent;
+    return this;
+  }
+
+  /**
+   * Calls slower than {@code millis} are slow; the circuit opens when their percentage in the window reaches
+   * {@code ratePercent}. Slow calls aren't tracked by default.
+   */
+  public CircuitBreakingHttpClient slowCallThreshold(long millis, double ratePercent) {
+    this.slowCallThresholdNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    this.slowCallRateThreshold = ratePercent;
+    return this;
+  }
+
+  /**
+   * Number of recent calls the rates are computed from, and the number of calls needed before the circuit may open.
+   * Defaults to 100 and 20. Applies to hosts called for the first time afterwards.
+   */
+  public CircuitBreakingHttpClient window(int size, int minimumCalls) {
+    if (size < 1 || minimumCalls < 1 || minimumCalls > size) {
+      throw new IllegalArgumentException("size and minimumCalls must be positive, minimumCalls at most size");
+    }
+    this.windowSize = size;
+    this.minimumCalls = minimumCalls;
+    return this;
+  }
+
+  /**
+   * Time an open circuit rejects calls before it lets probe calls through. Defaults to 30 seconds.
+   */
+  public CircuitBreakingHttpClient openDuration(long millis) {
+    this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    return this;
+  }
+
+  /**
+   * Number of probe calls that must succeed to close the circuit again. Defaults to 3.
+   */
+  public CircuitBreakingHttpClient halfOpenProbes(int probes) {
+    if (probes < 1) {
+      throw new IllegalArgumentException("probes must be positive");
+    }
+    this.halfOpenProbes = probes;
+    return this;
+  }
+
+  /**
+   * @return state of the circuit of each host called so far, by host[:port]
+   */
+  public Map<String, CircuitStats> getCircuits() {
+    Map<String, CircuitStats> stats = new TreeMap<>();
+    circuits.forEach((host, circuit) -> stats.put(host, circuit.stats()));
+    return stats;
+  }
+
+  @Override
+  Permit acquire(String host) {
+    Circuit circuit = circuits.get(host);
+    if (circuit == null) {
+      circuit = circuits.computeIfAbsent(host, key -> new Circuit(key, windowSize));
+    }
+    return circuit.acquire();
+  }
+
+  private class Circuit {
+    private final String host;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final boolean[] failed;
+    private final boolean[] slow;
+    private int next;
+    private int calls;
+    private int failures;
+    private int slowCalls;
+    private State state = State.CLOSED;
+    private long generation;
+    private long openedAt;
+    private int probesStarted;
+    private int probesSucceeded;
+    private long rejected;
+
+    Circuit(String host, int windowSize) {
+      this.host = host;
+      this.failed = new boolean[windowSize];
+      this.slow = new boolean[windowSize];
+    }
+
+    Permit acquire() {
+      lock.lock();
+      try {
+        if (state == State.OPEN) {
+          if (System.nanoTime() - openedAt < openDurationNanos) {
+            rejected++;
+            throw new CallRejectedException(String.format("Circuit to %s is open", host));
+          }
+          transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+          if (probesStarted >= halfOpenProbes) {
+            rejected++;
+            throw new CallRejectedException(String.format("Circuit to %s is half-open and probing", host));
+          }
+          probesStarted++;
+        }
+        long permitGeneration = generation;
+        return new Permit() {
+          @Override
+          public void release(boolean callFailed, long elapsedNanos) {
+            boolean callSlow = slowCallThresholdNanos >= 0 && elapsedNanos > slowCallThresholdNanos;
+            record(permitGeneration, callFailed, callSlow);
+          }
+
+          @Override
+          public void ignore() {
+            unused(permitGeneration);
+          }
+        };
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+
+    private void record(long permitGeneration, boolean callFailed, boolean callSlow) {
+      lock.lock();
+      try {
+        if (permitGeneration != generation) {
+          // the call started before the circuit changed state
+          return;
+        }
+        if (state == State.HALF_OPEN) {
+          if (callFailed || callSlow) {
+            transition(State.OPEN);
+          }
+          else if (++probesSucceeded >= halfOpenProbes) {
+            transition(State.CLOSED);
+          }
+          return;
+        }
+        if (calls == failed.length) {
+          failures -= failed[next] ? 1 : 0;
+          slowCalls -= slow[next] ? 1 : 0;
+        }
+        else {
+          calls++;
+        }
+        failed[next] = callFailed;
+        slow[next] = callSlow;
+        failures += callFailed ? 1 : 0;
+        slowCalls += callSlow ? 1 : 0;
+        next = (next + 1) % failed.length;
+        boolean tooManyFailures = rate(failures) >= failureRateThreshold;
+        boolean tooManySlowCalls = slowCallThresholdNanos >= 0 && rate(slowCalls) >= slowCallRateThreshold;
+        if (calls >= minimumCalls && (tooManyFailures || tooManySlowCalls)) {
+          transition(State.OPEN);
+        }
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+
+    private void unused(long permitGeneration) {
+      lock.lock();
+      try {
+        if (permitGeneration == generation && state == State.HALF_OPEN) {
+          probesStarted--;
+        }
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+
+    private void transition(State newState) {
+      state = newState;
+      generation++;
+      probesStarted = 0;
+      probesSucceeded = 0;
+      if (newState == State.OPEN) {
+        openedAt = System.nanoTime();
+      }
+      if (newState == State.CLOSED) {
+        next = 0;
+        calls = 0;
+        failures = 0;
+        slowCalls = 0;
+      }
+    }
+
+    private double rate(int count) {
+      return calls == 0 ? 0 : count * 100.0 / calls;
+    }
+
+    CircuitStats stats() {
+      lock.lock();
+      try {
+        return new CircuitStats(state, calls, rate(failures), rate(slowCalls), rejected);
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package net.elost.http_client;
+
+/**
+ * Point-in-time snapshot of a {@link CircuitBreakingHttpClient} circuit.
+ */
+public class CircuitStats {
+  private final CircuitBreakingHttpClient.State state;
+  private final int calls;
+  private final double failureRate;
+  private final double slowCallRate;
+  private final long rejected;
+
+  CircuitStats(
+      CircuitBreakingHttpClient.State state,
+      int calls,
+      double failureRate,
+      double slowCallRate,
+      long rejected
+  ) {
+    this.state = state;
+    this.calls = calls;
+    this.failureRate = failureRate;
+    this.slowCallRate = slowCallRate;
+    this.rejected = rejected;
+  }
+
+  public CircuitBreakingHttpClient.State getState() {
+    return state;
+  }
+
+  /**
+   * @return calls in the window since the circuit last closed
+   */
+  public int getCalls() {
+    return calls;
+  }
+
+  /**
+   * @return percentage of failed calls in the window
+   */
+  public double getFailureRate() {
+    return failureRate;
+  }
+
+  /**
+   * @return percentage of slow calls in the window
+   */
+  public double getSlowCallRate() {
+    return slowCallRate;
+  }
+
+  /**
+   * @return calls rejected since the client was created
+   */
+  public long getRejected() {
+    return rejected;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "state: %s, calls: %d, failure rate: %.1f%%, slow call rate: %.1f%%, rejected: %d",
+        state, calls, failureRate, slowCallRate, rejected
+    );
+  }
+}
@@ -0,0 +1,230 @@
+package net.elost.http_client;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets concurrent identical GET requests share one call (single-flight). A GET sent while the same GET is in flight
+ * doesn't go to the server, it waits for the response of the call in flight. Requests are identical if they have the
+ * same url, body, content type and headers, ignoring the headers named in {@link #ignoreHeaders(String...)}.
+ * <pre>
+ *   RestClient client = new RestClient(url, new CoalescingHttpClient(new HttpClientImpl(1000, 5000)));
+ * </pre>
+ * Requests that joined a call get the same {@link HttpResponse}, or the same exception, as the request that started
+ * it, and {@link RestClient} deserializes the shared response only once per result type, so results of coalesced
+ * calls are shared and must not be modified. Responses passed to response handlers are buffered first.
+ * Other methods, streaming requests and uploads go to the server as they are.
+ */
+public class CoalescingHttpClient extends ForwardingHttpClient {
+  private final ConcurrentMap<Key, Flight> flights = new ConcurrentHashMap<>();
+  private final AtomicLong flightCount = new AtomicLong();
+  private final AtomicLong coalescedCount = new AtomicLong();
+  private final AtomicInteger maxJoined = new AtomicInteger();
+  private Set<String> ignoredHeaders = Collections.emptySet();
+
+  public CoalescingHttpClient(HttpClient delegate) {
+    super(delegate);
+  }
+
+  /**
+   * Headers that may differ between requests sharing a call, e.g. request ids for tracing.
+   * The call in flight is sent with the headers of the request that started it.
+   */
+  public CoalescingHttpClient ignoreHeaders(String... names) {
+    Set<String> ignored = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    Collections.addAll(ignored, names);
+    this.ignoredHeaders = ignored;
+    return this;
+  }
+
+  public CoalescingStats getStats() {
+    return new CoalescingStats(flightCount.get(), coalescedCount.get(), maxJoined.get(), flights.size());
+  }
+
+  @Override
+  public HttpResponse sendRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    if (method != HttpMethod.GET) {
+      return super.sendRequest(method, url, input, contentType, headers);
+    }
+    Key key = new Key(url, input, contentType, headers, ignoredHeaders);
+    Flight flight = new Flight();
+    Flight inFlight = flights.putIfAbsent(key, flight);
+    if (inFlight != null) {
+      return join(inFlight);
+    }
+    flightCount.incrementAndGet();
+    try {
+      HttpResponse response = super.sendRequest(method, url, input, contentType, headers);
+      response.shareParsedResults();
+      flight.response.complete(response);
+      return response;
+    }
+    catch (RuntimeException | Error e) {
+      // errors complete the flight too, or the callers that joined it would wait forever
+      flight.response.completeExceptionally(e);
+      throw e;
+    }
+    finally {
+      land(key, flight);
+    }
+  }
+
+  @Override
+  public CompletableFuture<HttpResponse> sendRequestAsync(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    if (method != HttpMethod.GET) {
+      return super.sendRequestAsync(method, url, input, contentType, headers);
+    }
+    Key key = new Key(url, input, contentType, headers, ignoredHeaders);
+    Flight flight = new Flight();
+    Flight inFlight = flights.putIfAbsent(key, flight);
+    if (inFlight != null) {
+      inFlight.joined.incrementAndGet();
+      coalescedCount.incrementAndGet();
+      return inFlight.response.thenApply(response -> response);
+    }
+    flightCount.incrementAndGet();
+    CompletableFuture<HttpResponse> call;
+    try {
+      call = super.sendRequestAsync(method, url, input, contentType, headers);
+    }
+    catch (RuntimeException | Error e) {
+      flight.response.completeExceptionally(e);
+      land(key, flight);
+      throw e;
+    }
+    call.whenComplete((response, error) -> {
+      // the flight lands before its waiters run, so their follow-up requests start a new call
+      land(key, flight);
+      if (error != null) {
+        flight.response.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+      }
+      else {
+        response.shareParsedResults();
+        flight.response.complete(response);
+      }
+    });
+    return flight.response.thenApply(response -> response);
+  }
+
+  @Override
+  public <T> T sendRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers,
+      ResponseHandler<T> handler
+  ) {
+    if (method != HttpMethod.GET) {
+      return super.sendRequest(method, url, input, contentType, headers, handler);
+    }
+    HttpResponse response = sendRequest(method, url, input, contentType, headers);
+    try {
+      return handler.handle(response, response.bufferedBody());
+    }
+    catch (IOException e) {
+      throw new HttpCallException(String.format("Can't read response from api call to %s", url), e);
+    }
+  }
+
+  private HttpResponse join(Flight flight) {
+    flight.joined.incrementAndGet();
+    coalescedCount.incrementAndGet();
+    try {
+      return flight.response.join();
+    }
+    catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private void land(Key key, Flight flight) {
+    flights.remove(key, flight);
+    maxJoined.accumulateAndGet(flight.joined.get(), Math::max);
+  }
+
+  private static class Flight {
+    private final CompletableFuture<HttpResponse> response = new CompletableFuture<>();
+    private final AtomicInteger joined = new AtomicInteger();
+  }
+
+  private static final class Key {
+    private final String url;
+    private final String input;
+    private final String contentType;
+    private final Map<String, String> headers;
+    private final int hash;
+
+    Key(String url, String input, String contentType, Map<String, String> headers, Set<String> ignoredHeaders) {
+      this.url = url;
+      this.input = input;
+      this.contentType = contentType;
+      this.headers = normalized(headers, ignoredHeaders);
+      this.hash = Objects.hash(url, input, contentType, this.headers);
+    }
+
+    private static Map<String, String> normalized(Map<String, String> headers, Set<String> ignoredHeaders) {
+      if (headers.isEmpty()) {
+        return Collections.emptyMap();
+      }
+      Map<String, String> result = new HashMap<>();
+      headers.forEach((name, value) -> {
+        if (!ignoredHeaders.contains(name)) {
+          result.put(name.toLowerCase(Locale.ROOT), value);
+        }
+      });
+      return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return hash == other.hash
+          && url.equals(other.url)
+          && Objects.equals(input, other.input)
+          && Objects.equals(contentType, other.contentType)
+          && headers.equals(other.headers);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package net.elost.http_client;
+
+/**
+ * Point-in-time snapshot of {@link CoalescingHttpClient} counters.
+ */
+public class CoalescingStats {
+  private final long flights;
+  private final long coalesced;
+  private final int maxCoalesced;
+  private final int inFlight;
+
+  CoalescingStats(long flights, long coalesced, int maxCoalesced, int inFlight) {
+    this.flights = flights;
+    this.coalesced = coalesced;
+    this.maxCoalesced = maxCoalesced;
+    this.inFlight = inFlight;
+  }
+
+  /**
+   * @return calls sent to the server
+   */
+  public long getFlights() {
+    return flights;
+  }
+
+  /**
+   * @return requests that shared a call started by another request instead of sending their own
+   */
+  public long getCoalesced() {
+    return coalesced;
+  }
+
+  /**
+   * @return most requests a single call was shared with
+   */
+  public int getMaxCoalesced() {
+    return maxCoalesced;
+  }
+
+  /**
+   * @return calls in flight right now
+   */
+  public int getInFlight() {
+    return inFlight;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "flights: %d, coalesced: %d, max coalesced: %d, in flight: %d", flights, coalesced, maxCoalesced, inFlight
+    );
+  }
+}
@@ -0,0 +1,39 @@
+package net.elost.http_client;
+
+/**
+ * Point-in-time snapshot of a {@link ConcurrencyLimitingHttpClient} host limit.
+ */
+public class ConcurrencyLimitStats {
+  private final int limit;
+  private final int inFlight;
+  private final long rejected;
+
+  ConcurrencyLimitStats(int limit, int inFlight, long rejected) {
+    this.limit = limit;
+    this.inFlight = inFlight;
+    this.rejected = rejected;
+  }
+
+  /**
+   * @return calls allowed in flight at the moment
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  public int getInFlight() {
+    return inFlight;
+  }
+
+  /**
+   * @return calls rejected since the client was created
+   */
+  public long getRejected() {
+    return rejected;
+  }
+
+  @Override
+  public String toString() {
+    return "limit: " + limit + ", in flight: " + inFlight + ", rejected: " + rejected;
+  }
+}
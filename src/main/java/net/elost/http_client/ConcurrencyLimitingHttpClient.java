@@ -0,0 +1,165 @@
+package net.elost.http_client;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caps the calls in flight to each host with a limit that adapts to the host's health (AIMD). Calls over the limit
+ * fail fast with a {@link CallRejectedException}, so a degraded host can't tie up all calling threads.
+ * <pre>
+ *   HttpClient client = new ConcurrencyLimitingHttpClient(new HttpClientImpl(1000, 5000))
+ *       .limits(20, 1, 200)
+ *       .latencyThreshold(500);
+ * </pre>
+ * Each successful call raises the limit by one while at least half of it is in use. A failed call, i.e. one that threw
+ * an {@link HttpCallException} or got a 5xx status, or a call slower than the latency threshold multiplies the limit
+ * by the backoff ratio. Like TCP congestion control, the limit backs off once per round trip: calls that were already
+ * in flight when it was lowered don't lower it again, so a burst of failures doesn't collapse it to the minimum.
+ * Calls without an outcome, e.g. rejected by a {@link CircuitBreakingHttpClient} further down, don't change it.
+ */
+public class ConcurrencyLimitingHttpClient extends GuardingHttpClient {
+  private final ConcurrentMap<String, Limit> limits = new ConcurrentHashMap<>();
+  private int initialLimit = 20;
+  private int minLimit = 1;
+  private int maxLimit = 200;
+  private long latencyThresholdNanos = -1;
+  private double backoffRatio = 0.9;
+
+  public ConcurrencyLimitingHttpClient(HttpClient delegate) {
+    super(delegate);
+  }
+
+  /**
+   * Limit of a host when it is called for the first time, and the bounds the limit adapts within.
+   * Defaults to 20, 1 and 200.
+   */
+  public ConcurrencyLimitingHttpClient limits(int initial, int min, int max) {
+    if (min < 1 || initial < min || max < initial) {
+      throw new IllegalArgumentException("Limits must satisfy 1 <= min <= initial <= max");
+    }
+    this.initialLimit = initial;
+    this.minLimit = min;
+    this.maxLimit = max;
+    return this;
+  }
+
+  /**
+   * Calls slower than this lower the limit like failed calls. Latency isn't taken into account by default.
+   */
+  public ConcurrencyLimitingHttpClient latencyThreshold(long millis) {
+    this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    return this;
+  }
+
+  /**
+   * Factor the limit is multiplied with on a failed or slow call. Defaults to 0.9.
+   */
+  public ConcurrencyLimitingHttpClient backoffRatio(double backoffRatio) {
+    if (backoffRatio <= 0 || backoffRatio >= 1) {
+      throw new IllegalArgumentException("backoffRatio must be between 0 and 1");
+    }
+    this.backoffRatio = backoffRatio;
+    return this;
+  }
+
+  /**
+   * @return limit of each host called so far, by host[:port]
+   */
+  public Map<String, ConcurrencyLimitStats> getLimits() {
+    Map<String, ConcurrencyLimitStats> stats = new TreeMap<>();
+    limits.forEach((host, limit) -> stats.put(host, limit.stats()));
+    return stats;
+  }
+
+  @Override
+  Permit acquire(String host) {
+    Limit limit = limits.get(host);
+    if (limit == null) {
+      limit = limits.computeIfAbsent(host, key -> new Limit(key, initialLimit));
+    }
+    return limit.acquire();
+  }
+
+  private class Limit {
+    private final String host;
+    private final ReentrantLock lock = new ReentrantLock();
+    private double limit;
+    private int inFlight;
+    private long rejected;
+    private long lastBackoffNanos = System.nanoTime() - 1;
+
+    Limit(String host, int limit) {
+      this.host = host;
+      this.limit = limit;
+    }
+
+    Permit acquire() {
+      long acquiredNanos;
+      lock.lock();
+      try {
+        if (inFlight >= (int) limit) {
+          rejected++;
+          throw new CallRejectedException(String.format(
+              "Concurrency limit of %d calls to %s reached", (int) limit, host
+          ));
+        }
+        inFlight++;
+        acquiredNanos = System.nanoTime();
+      }
+      finally {
+        lock.unlock();
+      }
+      return new Permit() {
+        @Override
+        public void release(boolean failed, long elapsedNanos) {
+          boolean slow = latencyThresholdNanos >= 0 && elapsedNanos > latencyThresholdNanos;
+          completed(failed || slow, acquiredNanos);
+        }
+
+        @Override
+        public void ignore() {
+          lock.lock();
+          try {
+            inFlight--;
+          }
+          finally {
+            lock.unlock();
+          }
+        }
+      };
+    }
+
+    private void completed(boolean dropped, long acquiredNanos) {
+      lock.lock();
+      try {
+        int used = inFlight--;
+        if (dropped) {
+          if (acquiredNanos - lastBackoffNanos > 0) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+            lastBackoffNanos = System.nanoTime();
+          }
+        }
+        else if (used * 2 >= limit) {
+          limit = Math.min(maxLimit, limit + 1);
+        }
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+
+    ConcurrencyLimitStats stats() {
+      lock.lock();
+      try {
+        return new ConcurrencyLimitStats((int) limit, inFlight, rejected);
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,372 @@
+package net.elost.http_client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Keep-alive connection pool for {@link HttpClientImpl}.
+ * <p>
+ * Connections are kept per route (scheme, host and port). A pool is thread-safe and is meant
+ * to be shared by all clients talking to the same hosts:
+ * <pre>
+ *   ConnectionPool pool = new ConnectionPool().maxConnectionsPerHost(20).idleTimeoutMillis(30_000);
+ *   HttpClient client = new HttpClientImpl(1000, 5000).connectionPool(pool);
+ * </pre>
+ * Configure the pool before the first request; settings are not meant to be changed while it is in use.
+ */
+public class ConnectionPool implements Closeable {
+  private int maxConnectionsPerHost = 5;
+  private long idleTimeoutMillis = TimeUnit.MINUTES.toMillis(1);
+  private long maxLifetimeMillis;
+  private long leaseTimeoutMillis;
+  private boolean validateOnBorrow = true;
+  private SSLSocketFactory sslSocketFactory;
+  private DnsResolver dnsResolver = DnsResolver.SYSTEM;
+  private long connectStaggerMillis = 250;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition connectionReleased = lock.newCondition();
+  private final Map<String, Route> routes = new HashMap<>();
+  private ScheduledExecutorService evictor;
+  private boolean closed;
+
+  /**
+   * Maximum number of connections (leased and idle) per route. Defaults to 5.
+   */
+  public ConnectionPool maxConnectionsPerHost(int maxConnectionsPerHost) {
+    if (maxConnectionsPerHost < 1) {
+      throw new IllegalArgumentException("maxConnectionsPerHost must be positive");
+    }
+    this.maxConnectionsPerHost = maxConnectionsPerHost;
+    return this;
+  }
+
+  /**
+   * Idle connections older than this are closed. Defaults to one minute, 0 disables idle eviction.
+   */
+  public ConnectionPool idleTimeoutMillis(long idleTimeoutMillis) {
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    return this;
+  }
+
+  /**
+   * Connections are not reused after this much time since they were opened. 0 (the default) means unlimited.
+   */
+  public ConnectionPool maxLifetimeMillis(long maxLifetimeMillis) {
+    this.maxLifetimeMillis = maxLifetimeMillis;
+    return this;
+  }
+
+  /**
+   * How long a request waits for a connection when the per-host limit is reached. 0 (the default) waits indefinitely.
+   */
+  public ConnectionPool leaseTimeoutMillis(long leaseTimeoutMillis) {
+    this.leaseTimeoutMillis = leaseTimeoutMillis;
+    return this;
+  }
+
+  /**
+   * Whether to check that an idle connection was not closed by the server before reusing it. Connections idle for
+   * less than a second are only checked for unexpected data, without the short read that detects a close. Defaults
+   * to true.
+   */
+  public ConnectionPool validateOnBorrow(boolean validateOnBorrow) {
+    this.validateOnBorrow = validateOnBorrow;
+    return this;
+  }
+
+  /**
+   * Socket factory for https routes. Defaults to {@link SSLSocketFactory#getDefault()}.
+   */
+  public ConnectionPool sslSocketFactory(SSLSocketFactory sslSocketFactory) {
+    this.sslSocketFactory = sslSocketFactory;
+    return this;
+  }
+
+  /**
+   * Resolver for the hosts of new connections. Defaults to {@link DnsResolver#SYSTEM}, which relies on the JVM-wide
+   * address cache; a {@link CachingDnsResolver} caches addresses in the pool instead.
+   */
+  public ConnectionPool dnsResolver(DnsResolver dnsResolver) {
+    this.dnsResolver = dnsResolver;
+    return this;
+  }
+
+  /**
+   * Head start each address of a host with several addresses gets before the next one is tried alongside it.
+   * An address that fails to connect moves on to the next one right away. Defaults to 250 ms.
+   */
+  public ConnectionPool connectStaggerMillis(long connectStaggerMillis) {
+    this.connectStaggerMillis = connectStaggerMillis;
+    return this;
+  }
+
+  public PoolStats getStats() {
+    lock.lock();
+    try {
+      int leased = 0;
+      int idle = 0;
+      int pending = 0;
+      for (Route route : routes.values()) {
+        leased += route.leased;
+        idle += route.idle.size();
+        pending += route.pending;
+      }
+      return new PoolStats(leased, idle, pending);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return stats keyed by route, e.g. {@code https://example.com:443}
+   */
+  public Map<String, PoolStats> getRouteStats() {
+    lock.lock();
+    try {
+      Map<String, PoolStats> stats = new LinkedHashMap<>();
+      routes.forEach((key, route) -> stats.put(key, new PoolStats(route.leased, route.idle.size(), route.pending)));
+      return stats;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Closes idle connections that exceeded the idle timeout or max lifetime.
+   * Runs periodically in the background; can also be called directly.
+   */
+  public void evictExpired() {
+    List<PooledConnection> expired = new ArrayList<>();
+    lock.lock();
+    try {
+      long now = System.nanoTime();
+      Iterator<Route> routeIterator = routes.values().iterator();
+      while (routeIterator.hasNext()) {
+        Route route = routeIterator.next();
+        route.idle.removeIf(connection -> {
+          boolean isExpired = connection.isExpired(now, idleTimeoutMillis, maxLifetimeMillis);
+          if (isExpired) {
+            expired.add(connection);
+          }
+          return isExpired;
+        });
+        if (route.isUnused()) {
+          routeIterator.remove();
+        }
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+    expired.forEach(PooledConnection::close);
+  }
+
+  /**
+   * Closes all idle connections. Leased connections are closed when released.
+   */
+  @Override
+  public void close() {
+    List<PooledConnection> idle = new ArrayList<>();
+    lock.lock();
+    try {
+      closed = true;
+      routes.values().forEach(route -> {
+        idle.addAll(route.idle);
+        route.idle.clear();
+      });
+      if (evictor != null) {
+        evictor.shutdownNow();
+      }
+      connectionReleased.signalAll();
+    }
+    finally {
+      lock.unlock();
+    }
+    idle.forEach(PooledConnection::close);
+  }
+
+  /**
+   * @param fresh whether to open a new connection rather than reuse an idle one, which is closed instead
+   */
+  PooledConnection lease(
+      String scheme,
+      String host,
+      int port,
+      int connectTimeoutMillis,
+      int readTimeoutMillis,
+      boolean fresh,
+      CallTracer tracer
+  ) throws IOException {
+    String route = scheme + "://" + host + ":" + port;
+    while (true) {
+      PooledConnection connection = acquire(route);
+      if (connection == null) {
+        connection = openConnection(route, scheme, host, port, connectTimeoutMillis, tracer);
+      }
+      else if (fresh || validateOnBorrow && !connection.isAlive()) {
+        release(connection, false);
+        continue;
+      }
+      connection.setReadTimeout(readTimeoutMillis);
+      return connection;
+    }
+  }
+
+  void release(PooledConnection connection, boolean reusable) {
+    boolean keep;
+    lock.lock();
+    try {
+      Route route = routes.get(connection.getRoute());
+      route.leased--;
+      keep = reusable && !closed && !connection.isExpired(System.nanoTime(), 0, maxLifetimeMillis);
+      if (keep) {
+        connection.markIdle();
+        route.idle.addFirst(connection);
+      }
+      connectionReleased.signalAll();
+    }
+    finally {
+      lock.unlock();
+    }
+    if (!keep) {
+      connection.close();
+    }
+  }
+
+  /**
+   * Takes a lease on the route. Returns an idle connection to reuse, or null when the caller may open a new one.
+   */
+  private PooledConnection acquire(String routeKey) throws IOException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(leaseTimeoutMillis);
+    lock.lock();
+    try {
+      Route route = routes.computeIfAbsent(routeKey, key -> new Route());
+      route.pending++;
+      try {
+        while (true) {
+          if (closed) {
+            throw new IOException("Connection pool is closed");
+          }
+          PooledConnection connection;
+          while ((connection = route.idle.pollFirst()) != null) {
+            if (!connection.isExpired(System.nanoTime(), idleTimeoutMillis, maxLifetimeMillis)) {
+              route.leased++;
+              return connection;
+            }
+            connection.close();
+          }
+          if (route.leased < maxConnectionsPerHost) {
+            route.leased++;
+            startEvictor();
+            return null;
+          }
+          awaitRelease(routeKey, deadline);
+        }
+      }
+      finally {
+        route.pending--;
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  private void awaitRelease(String route, long deadline) throws IOException {
+    try {
+      if (leaseTimeoutMillis <= 0) {
+        connectionReleased.await();
+        return;
+      }
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0 || connectionReleased.awaitNanos(remaining) <= 0) {
+        throw new SocketTimeoutException(String.format(
+            "Timed out after %s ms waiting for a connection to %s", leaseTimeoutMillis, route
+        ));
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for a connection to " + route, e);
+    }
+  }
+
+  private PooledConnection openConnection(
+      String route,
+      String scheme,
+      String host,
+      int port,
+      int connectTimeoutMillis,
+      CallTracer tracer
+  ) throws IOException {
+    try {
+      boolean secure = "https".equalsIgnoreCase(scheme);
+      SSLSocketFactory factory = secure && sslSocketFactory == null
+          ? (SSLSocketFactory) SSLSocketFactory.getDefault()
+          : sslSocketFactory;
+      return PooledConnection.open(
+          route, secure, host, port, connectTimeoutMillis, factory, dnsResolver, connectStaggerMillis, tracer
+      );
+    }
+    catch (IOException | RuntimeException | Error e) {
+      if (e instanceof ConnectException && dnsResolver instanceof CachingDnsResolver) {
+        // none of the cached addresses took the connection, they may be stale
+        ((CachingDnsResolver) dnsResolver).invalidate(host);
+      }
+      lock.lock();
+      try {
+        routes.get(route).leased--;
+        connectionReleased.signalAll();
+      }
+      finally {
+        lock.unlock();
+      }
+      throw e;
+    }
+  }
+
+  private void startEvictor() {
+    if (evictor != null || idleTimeoutMillis <= 0 && maxLifetimeMillis <= 0) {
+      return;
+    }
+    evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "http-client-pool-evictor");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long period = Math.max(1000, Math.min(
+        idleTimeoutMillis > 0 ? idleTimeoutMillis : Long.MAX_VALUE,
+        maxLifetimeMillis > 0 ? maxLifetimeMillis : Long.MAX_VALUE
+    ) / 2);
+    evictor.scheduleWithFixedDelay(this::evictExpired, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  private static class Route {
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private int leased;
+    private int pending;
+
+    private boolean isUnused() {
+      return idle.isEmpty() && leased == 0 && pending == 0;
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package net.elost.http_client;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Resolves host names for new connections, see {@link ConnectionPool#dnsResolver(DnsResolver)},
+ * {@link Http2Client#dnsResolver(DnsResolver)} and {@link NioHttpClient#dnsResolver(DnsResolver)}. The
+ * {@code HttpURLConnection} transport resolves inside the JDK and doesn't use it.
+ * Implementations must be thread-safe. Wrap a resolver in a {@link CachingDnsResolver} to cache its results
+ * in the client instead of relying on the JVM-wide {@link InetAddress} cache.
+ */
+@FunctionalInterface
+public interface DnsResolver {
+  DnsResolver SYSTEM = host -> Arrays.asList(InetAddress.getAllByName(host));
+
+  /**
+   * @return addresses of the host in the order to try them, never empty
+   * @throws UnknownHostException if the host can't be resolved
+   */
+  List<InetAddress> resolve(String host) throws UnknownHostException;
+
+  /**
+   * @return how long the addresses just resolved may be cached, or a negative value if the resolver doesn't know,
+   *     e.g. because the records' TTLs aren't available to it
+   */
+  default long ttlMillis(String host, List<InetAddress> addresses) {
+    return -1;
+  }
+}
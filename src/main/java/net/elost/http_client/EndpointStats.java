@@ -0,0 +1,72 @@
+package net.elost.http_client;
+
+/**
+ * Point-in-time snapshot of one endpoint of a {@link LoadBalancingHttpClient}.
+ */
+public class EndpointStats {
+  private final boolean ejected;
+  private final int inFlight;
+  private final double ewmaLatencyMillis;
+  private final long requests;
+  private final long failures;
+  private final long ejections;
+
+  EndpointStats(boolean ejected, int inFlight, double ewmaLatencyMillis, long requests, long failures, long ejections) {
+    this.ejected = ejected;
+    this.inFlight = inFlight;
+    this.ewmaLatencyMillis = ewmaLatencyMillis;
+    this.requests = requests;
+    this.failures = failures;
+    this.ejections = ejections;
+  }
+
+  /**
+   * @return true if the endpoint gets no calls until a probe succeeds
+   */
+  public boolean isEjected() {
+    return ejected;
+  }
+
+  /**
+   * @return calls in flight right now
+   */
+  public int getInFlight() {
+    return inFlight;
+  }
+
+  /**
+   * @return moving average of call latency
+   */
+  public double getEwmaLatencyMillis() {
+    return ewmaLatencyMillis;
+  }
+
+  /**
+   * @return calls sent to the endpoint
+   */
+  public long getRequests() {
+    return requests;
+  }
+
+  /**
+   * @return calls that failed or got a 5xx status
+   */
+  public long getFailures() {
+    return failures;
+  }
+
+  /**
+   * @return times the endpoint was ejected
+   */
+  public long getEjections() {
+    return ejections;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "ejected: %s, in flight: %d, latency: %.1f ms, requests: %d, failures: %d, ejections: %d",
+        ejected, inFlight, ewmaLatencyMillis, requests, failures, ejections
+    );
+  }
+}
@@ -0,0 +1,82 @@
+package net.elost.http_client;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Client that forwards every call to another client. Extend it to add behavior around an existing client,
+ * e.g. {@link CachingHttpClient}. The four-argument calls go through the overridable five-argument ones.
+ */
+public abstract class ForwardingHttpClient implements HttpClient {
+  private final HttpClient delegate;
+
+  protected ForwardingHttpClient(HttpClient delegate) {
+    this.delegate = delegate;
+  }
+
+  protected HttpClient delegate() {
+    return delegate;
+  }
+
+  @Override
+  public HttpResponse sendRequest(HttpMethod method, String url, String input, String contentType) {
+    return sendRequest(method, url, input, contentType, Collections.emptyMap());
+  }
+
+  @Override
+  public HttpResponse sendRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    return delegate.sendRequest(method, url, input, contentType, headers);
+  }
+
+  @Override
+  public HttpResponse upload(
+      HttpMethod method,
+      String url,
+      RequestBody body,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    return delegate.upload(method, url, body, contentType, headers);
+  }
+
+  @Override
+  public CompletableFuture<HttpResponse> sendRequestAsync(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    return delegate.sendRequestAsync(method, url, input, contentType, headers);
+  }
+
+  @Override
+  public <T> T sendRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers,
+      ResponseHandler<T> handler
+  ) {
+    return delegate.sendRequest(method, url, input, contentType, headers, handler);
+  }
+
+  @Override
+  public StreamingHttpResponse sendStreamingRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    return delegate.sendStreamingRequest(method, url, input, contentType, headers);
+  }
+}
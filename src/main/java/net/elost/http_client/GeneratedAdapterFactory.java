@@ -0,0 +1,81 @@
+package net.elost.http_client;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Finds the type adapters generated for {@link JsonModel} classes, named after the class with {@code _JsonAdapter}
+ * appended, e.g. {@code com.example.User_JsonAdapter} or {@code com.example.Api_User_JsonAdapter} for the nested
+ * class {@code Api.User}. Types without a generated adapter are left to the other factories of the Gson instance.
+ * <pre>
+ *   Gson gson = new GsonBuilder()
+ *       .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+ *       .registerTypeAdapterFactory(new GeneratedAdapterFactory(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES))
+ *       .create();
+ * </pre>
+ * Generated adapters apply only the field naming policy of the factory and {@code @SerializedName}, no exclusion
+ * strategies or versioning, and write fields with the adapter of their declared type.
+ */
+public class GeneratedAdapterFactory implements TypeAdapterFactory {
+  static final String SUFFIX = "_JsonAdapter";
+
+  private final FieldNamingPolicy naming;
+
+  /**
+   * @param naming {@link FieldNamingPolicy#IDENTITY} or {@link FieldNamingPolicy#LOWER_CASE_WITH_UNDERSCORES},
+   *               the policies generated adapters know the names for
+   */
+  public GeneratedAdapterFactory(FieldNamingPolicy naming) {
+    if (naming != FieldNamingPolicy.IDENTITY && naming != FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES) {
+      throw new IllegalArgumentException(String.format("Generated adapters don't support %s naming", naming));
+    }
+    this.naming = naming;
+  }
+
+  static GsonBuilder register(GsonBuilder builder, FieldNamingPolicy naming) {
+    return builder
+        .setFieldNamingPolicy(naming)
+        .registerTypeAdapterFactory(new GeneratedAdapterFactory(naming));
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+    Class<? super T> rawType = type.getRawType();
+    if (!rawType.isAnnotationPresent(JsonModel.class)) {
+      return null;
+    }
+    Class<?> adapterClass;
+    try {
+      adapterClass = Class.forName(adapterName(rawType), true, rawType.getClassLoader());
+    }
+    catch (ClassNotFoundException e) {
+      return null;
+    }
+    try {
+      Constructor<?> constructor = adapterClass.getConstructor(Gson.class, FieldNamingPolicy.class);
+      return (TypeAdapter<T>) constructor.newInstance(gson, naming);
+    }
+    catch (NoSuchMethodException | InstantiationException | IllegalAccessException e) {
+      throw new IllegalStateException(String.format("Can't create generated adapter %s", adapterClass.getName()), e);
+    }
+    catch (InvocationTargetException e) {
+      throw new IllegalStateException(
+          String.format("Can't create generated adapter %s", adapterClass.getName()), e.getCause()
+      );
+    }
+  }
+
+  static String adapterName(Class<?> type) {
+    String name = type.getName();
+    int packageEnd = name.lastIndexOf('.') + 1;
+    return name.substring(0, packageEnd) + name.substring(packageEnd).replace('$', '_') + SUFFIX;
+  }
+}
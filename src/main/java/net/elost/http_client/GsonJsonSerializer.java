@@ -0,0 +1,154 @@
+package net.elost.http_client;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+/**
+ * {@link JsonSerializer} backed by long-lived {@link Gson} instances, so type adapters are built once per type
+ * and then reused from Gson's cache.
+ * <p>
+ * By default inputs are written with Gson's default field naming and results are read with
+ * {@link FieldNamingPolicy#LOWER_CASE_WITH_UNDERSCORES}, which is how {@link RestClient} has always behaved.
+ * {@link JsonModel} classes are bound with their generated adapters instead of reflection.
+ */
+public class GsonJsonSerializer implements JsonSerializer {
+  private final Gson serializer;
+  private final Gson deserializer;
+
+  public GsonJsonSerializer() {
+    this(
+        GeneratedAdapterFactory.register(new GsonBuilder(), FieldNamingPolicy.IDENTITY).create(),
+        GeneratedAdapterFactory.register(new GsonBuilder(), FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create()
+    );
+  }
+
+  /**
+   * Uses the same Gson for both directions.
+   */
+  public GsonJsonSerializer(Gson gson) {
+    this(gson, gson);
+  }
+
+  public GsonJsonSerializer(Gson serializer, Gson deserializer) {
+    this.serializer = serializer;
+    this.deserializer = deserializer;
+  }
+
+  /**
+   * Builds and caches the type adapters for the given types up front, so the first call using them
+   * does not pay for reflection.
+   */
+  public GsonJsonSerializer warmUp(Type... types) {
+    for (Type type : types) {
+      TypeToken<?> token = TypeToken.get(type);
+      serializer.getAdapter(token);
+      deserializer.getAdapter(token);
+    }
+    return this;
+  }
+
+  @Override
+  public String toJson(Object value) {
+    return serializer.toJson(value);
+  }
+
+  @Override
+  public <T> T fromJson(String json, Class<T> resultClass) {
+    return deserializer.fromJson(json, resultClass);
+  }
+
+  @Override
+  public <T> T fromJson(String json, Type typeOfResult) {
+    return deserializer.fromJson(json, typeOfResult);
+  }
+
+  @Override
+  public <T> T fromJson(Reader json, Type typeOfResult) {
+    return deserializer.fromJson(json, typeOfResult);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> Iterator<T> fromJsonArray(Reader json, Type elementType) {
+    TypeAdapter<T> adapter = (TypeAdapter<T>) deserializer.getAdapter(TypeToken.get(elementType));
+    return new ArrayIterator<>(new JsonReader(json), adapter);
+  }
+
+  private static class ArrayIterator<T> implements Iterator<T> {
+    private final JsonReader reader;
+    private final TypeAdapter<T> adapter;
+    private boolean started;
+    private boolean finished;
+
+    private ArrayIterator(JsonReader reader, TypeAdapter<T> adapter) {
+      this.reader = reader;
+      this.adapter = adapter;
+      reader.setLenient(true);
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (finished) {
+        return false;
+      }
+      try {
+        if (!started) {
+          started = true;
+          if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            finished = true;
+            return false;
+          }
+          reader.beginArray();
+        }
+        if (reader.hasNext()) {
+          return true;
+        }
+        reader.endArray();
+        finished = true;
+        return false;
+      }
+      catch (IOException e) {
+        throw wrap(e);
+      }
+      catch (IllegalStateException e) {
+        throw new JsonSyntaxException(e);
+      }
+    }
+
+    @Override
+    public T next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      try {
+        return adapter.read(reader);
+      }
+      catch (IOException e) {
+        throw wrap(e);
+      }
+      catch (IllegalStateException e) {
+        throw new JsonSyntaxException(e);
+      }
+    }
+
+    private static JsonParseException wrap(IOException e) {
+      return e instanceof MalformedJsonException ? new JsonSyntaxException(e) : new JsonIOException(e);
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package net.elost.http_client;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Base of clients that admit calls per host and learn from their outcomes. Every call takes a {@link Permit} before
+ * it is forwarded and releases it with the outcome: failed if the call threw an {@link HttpCallException} or got a
+ * 5xx status. Calls whose handler threw after a response was received count by their status. Streaming calls hold
+ * their permit until the response is closed, so the body download counts towards the limit and the latency.
+ */
+abstract class GuardingHttpClient extends ForwardingHttpClient {
+
+  GuardingHttpClient(HttpClient delegate) {
+    super(delegate);
+  }
+
+  /**
+   * @param host host[:port] of the call
+   * @throws CallRejectedException if the call must not be sent
+   */
+  abstract Permit acquire(String host);
+
+  interface Permit {
+    void release(boolean failed, long elapsedNanos);
+
+    /**
+     * The call ended without an outcome, e.g. it was rejected further down or its response handler threw.
+     */
+    void ignore();
+  }
+
+  @Override
+  public HttpResponse sendRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    return guard(url, status -> {
+      HttpResponse response = super.sendRequest(method, url, input, contentType, headers);
+      status[0] = response.getCode();
+      return response;
+    });
+  }
+
+  @Override
+  public HttpResponse upload(
+      HttpMethod method,
+      String url,
+      RequestBody body,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    return guard(url, status -> {
+      HttpResponse response = super.upload(method, url, body, contentType, headers);
+      status[0] = response.getCode();
+      return response;
+    });
+  }
+
+  @Override
+  public CompletableFuture<HttpResponse> sendRequestAsync(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    String host = host(url);
+    if (host == null) {
+      return super.sendRequestAsync(method, url, input, contentType, headers);
+    }
+    Permit permit;
+    try {
+      permit = acquire(host);
+    }
+    catch (CallRejectedException e) {
+      CompletableFuture<HttpResponse> rejected = new CompletableFuture<>();
+      rejected.completeExceptionally(e);
+      return rejected;
+    }
+    long start = System.nanoTime();
+    CompletableFuture<HttpResponse> future;
+    try {
+      future = super.sendRequestAsync(method, url, input, contentType, headers);
+    }
+    catch (RuntimeException | Error e) {
+      complete(permit, -1, e, start);
+      throw e;
+    }
+    return future.whenComplete((response, error) -> complete(
+        permit, response == null ? -1 : response.getCode(), error, start
+    ));
+  }
+
+  @Override
+  public <T> T sendRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers,
+      ResponseHandler<T> handler
+  ) {
+    return guard(url, status -> super.sendRequest(method, url, input, contentType, headers, (response, body) -> {
+      status[0] = response.getCode();
+      return handler.handle(response, body);
+    }));
+  }
+
+  @Override
+  public StreamingHttpResponse sendStreamingRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    String host = host(url);
+    if (host == null) {
+      return super.sendStreamingRequest(method, url, input, contentType, headers);
+    }
+    Permit permit = acquire(host);
+    long start = System.nanoTime();
+    StreamingHttpResponse response;
+    try {
+      response = super.sendStreamingRequest(method, url, input, contentType, headers);
+    }
+    catch (RuntimeException | Error e) {
+      complete(permit, -1, e, start);
+      throw e;
+    }
+    int status = response.getCode();
+    return new StreamingHttpResponse(response, () -> complete(permit, status, null, start));
+  }
+
+  /**
+   * @param call sends the call and stores the response status in the array as soon as it is known
+   */
+  private <T> T guard(String url, Function<int[], T> call) {
+    String host = host(url);
+    int[] status = {-1};
+    if (host == null) {
+      return call.apply(status);
+    }
+    Permit permit = acquire(host);
+    long start = System.nanoTime();
+    Throwable error = null;
+    try {
+      return call.apply(status);
+    }
+    catch (RuntimeException | Error e) {
+      error = e;
+      throw e;
+    }
+    finally {
+      complete(permit, status[0], error, start);
+    }
+  }
+
+  private static void complete(Permit permit, int status, Throwable error, long start) {
+    long elapsedNanos = System.nanoTime() - start;
+    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    if (status != -1) {
+      permit.release(status >= 500, elapsedNanos);
+    }
+    else if (cause instanceof HttpCallException && !(cause instanceof CallRejectedException)) {
+      permit.release(true, elapsedNanos);
+    }
+    else {
+      permit.ignore();
+    }
+  }
+
+  /**
+   * @return host[:port] of the url, or null if it is malformed and the call is left to fail in the delegate
+   */
+  static String host(String url) {
+    try {
+      URL endpoint = new URL(url);
+      return endpoint.getPort() == -1 ? endpoint.getHost() : endpoint.getHost() + ":" + endpoint.getPort();
+    }
+    catch (MalformedURLException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,195 @@
+package net.elost.http_client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects to the first reachable address of a host (RFC 8305). Addresses are tried in order, alternating between
+ * IPv6 and IPv4; each attempt gets a head start of the stagger delay before the next one starts alongside it,
+ * and a failed attempt starts the next one right away. The first connected socket wins, the others are closed.
+ */
+final class HappyEyeballs {
+  private static final ExecutorService CONNECTORS = Executors.newCachedThreadPool(task -> {
+    Thread thread = new Thread(task, "http-client-connect");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private HappyEyeballs() {
+  }
+
+  /**
+   * @param connectTimeoutMillis time to connect to any of the addresses, 0 for no timeout
+   */
+  static Socket connect(
+      List<InetAddress> addresses,
+      int port,
+      int connectTimeoutMillis,
+      long staggerMillis
+  ) throws IOException {
+    if (addresses.size() == 1) {
+      Socket socket = new Socket();
+      try {
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(addresses.get(0), port), connectTimeoutMillis);
+        return socket;
+      }
+      catch (IOException | RuntimeException e) {
+        closeQuietly(socket);
+        throw e;
+      }
+    }
+    return race(interleave(addresses), port, connectTimeoutMillis, TimeUnit.MILLISECONDS.toNanos(staggerMillis));
+  }
+
+  private static Socket race(
+      List<InetAddress> addresses,
+      int port,
+      int connectTimeoutMillis,
+      long staggerNanos
+  ) throws IOException {
+    long deadline = connectTimeoutMillis > 0
+        ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis)
+        : Long.MAX_VALUE;
+    BlockingQueue<Attempt> finished = new LinkedBlockingQueue<>();
+    List<Attempt> attempts = new ArrayList<>(addresses.size());
+    IOException failure = null;
+    try {
+      startNext(addresses, port, deadline, attempts, finished);
+      int running = 1;
+      while (true) {
+        long now = System.nanoTime();
+        if (deadline != Long.MAX_VALUE && now - deadline >= 0) {
+          throw new SocketTimeoutException(String.format(
+              "Connect timed out after %d ms trying %d addresses", connectTimeoutMillis, attempts.size()
+          ));
+        }
+        long wait = attempts.size() < addresses.size() ? staggerNanos : Long.MAX_VALUE;
+        if (deadline != Long.MAX_VALUE) {
+          wait = Math.min(wait, deadline - now);
+        }
+        Attempt done = finished.poll(wait, TimeUnit.NANOSECONDS);
+        if (done == null) {
+          // the stagger delay passed, start the next attempt alongside the running ones
+          if (attempts.size() < addresses.size()) {
+            startNext(addresses, port, deadline, attempts, finished);
+            running++;
+          }
+          continue;
+        }
+        running--;
+        if (done.failure == null) {
+          attempts.remove(done);
+          return done.socket;
+        }
+        if (failure == null) {
+          failure = done.failure;
+        }
+        else {
+          failure.addSuppressed(done.failure);
+        }
+        if (attempts.size() < addresses.size()) {
+          startNext(addresses, port, deadline, attempts, finished);
+          running++;
+        }
+        else if (running == 0) {
+          throw failure;
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while connecting");
+    }
+    finally {
+      attempts.forEach(attempt -> closeQuietly(attempt.socket));
+    }
+  }
+
+  private static void startNext(
+      List<InetAddress> addresses,
+      int port,
+      long deadline,
+      List<Attempt> attempts,
+      BlockingQueue<Attempt> finished
+  ) {
+    Attempt attempt = new Attempt(addresses.get(attempts.size()), port, deadline);
+    attempts.add(attempt);
+    CONNECTORS.execute(() -> {
+      attempt.run();
+      finished.add(attempt);
+    });
+  }
+
+  /**
+   * @return the addresses alternating between the family of the first address and the other family
+   */
+  static List<InetAddress> interleave(List<InetAddress> addresses) {
+    boolean firstIpv6 = addresses.get(0) instanceof Inet6Address;
+    List<InetAddress> preferred = new ArrayList<>();
+    List<InetAddress> other = new ArrayList<>();
+    for (InetAddress address : addresses) {
+      (address instanceof Inet6Address == firstIpv6 ? preferred : other).add(address);
+    }
+    List<InetAddress> result = new ArrayList<>(addresses.size());
+    for (int i = 0; i < Math.max(preferred.size(), other.size()); i++) {
+      if (i < preferred.size()) {
+        result.add(preferred.get(i));
+      }
+      if (i < other.size()) {
+        result.add(other.get(i));
+      }
+    }
+    return result;
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    }
+    catch (IOException e) {
+      // nothing to do
+    }
+  }
+
+  private static class Attempt {
+    private final InetSocketAddress address;
+    private final long deadline;
+    private final Socket socket = new Socket();
+    private volatile IOException failure;
+
+    Attempt(InetAddress address, int port, long deadline) {
+      this.address = new InetSocketAddress(address, port);
+      this.deadline = deadline;
+    }
+
+    void run() {
+      try {
+        socket.setTcpNoDelay(true);
+        long remaining = deadline == Long.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (deadline != Long.MAX_VALUE && remaining <= 0) {
+          throw new SocketTimeoutException("Connect timed out");
+        }
+        socket.connect(address, (int) Math.min(Integer.MAX_VALUE, remaining));
+      }
+      catch (IOException e) {
+        failure = e;
+      }
+      catch (RuntimeException e) {
+        failure = new IOException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package net.elost.http_client;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Case-insensitive lookups in header maps built by callers or by {@link java.net.HttpURLConnection},
+ * which keep the case of the header names as they were sent. {@link HttpHeaders} are looked up directly.
+ */
+final class Headers {
+
+  private Headers() {
+  }
+
+  static String first(Map<String, List<String>> headers, String name) {
+    for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+      if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+        return header.getValue().get(0);
+      }
+    }
+    return null;
+  }
+
+  static String get(Map<String, String> headers, String name) {
+    if (headers instanceof HttpHeaders) {
+      return headers.get(name);
+    }
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      if (name.equalsIgnoreCase(header.getKey())) {
+        return header.getValue();
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,81 @@
+package net.elost.http_client;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps per-host {@link LatencyHistogram}s of call latency and time to first byte, plus failure counts.
+ * Share one instance between clients to aggregate them:
+ * <pre>
+ *   HostLatencyListener metrics = new HostLatencyListener();
+ *   HttpClientImpl client = new HttpClientImpl(1000, 5000).eventListener(metrics);
+ *   ...
+ *   metrics.getHosts().forEach((host, latency) -&gt; log.info("{}: {}", host, latency));
+ * </pre>
+ */
+public class HostLatencyListener implements HttpEventListener {
+  private final ConcurrentMap<String, HostLatency> hosts = new ConcurrentHashMap<>();
+
+  @Override
+  public void firstByteReceived(HttpCall call, int code, long nanoTime) {
+    host(call).timeToFirstByte.record(nanoTime - call.getStartNanos());
+  }
+
+  @Override
+  public void callEnd(HttpCall call, long nanoTime) {
+    host(call).latency.record(nanoTime - call.getStartNanos());
+  }
+
+  @Override
+  public void callFailed(HttpCall call, Throwable error, long nanoTime) {
+    host(call).failures.increment();
+  }
+
+  public Map<String, HostLatency> getHosts() {
+    return Collections.unmodifiableMap(hosts);
+  }
+
+  /**
+   * @return latency of calls to the host, or null if there were none
+   */
+  public HostLatency getHost(String host) {
+    return hosts.get(host);
+  }
+
+  private HostLatency host(HttpCall call) {
+    HostLatency latency = hosts.get(call.getHost());
+    return latency != null ? latency : hosts.computeIfAbsent(call.getHost(), host -> new HostLatency());
+  }
+
+  public static class HostLatency {
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram timeToFirstByte = new LatencyHistogram();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * @return time from the start of a call until its response was read, for calls that didn't fail
+     */
+    public LatencyHistogram getLatency() {
+      return latency;
+    }
+
+    /**
+     * @return time from the start of a call until the response status and headers were read
+     */
+    public LatencyHistogram getTimeToFirstByte() {
+      return timeToFirstByte;
+    }
+
+    public long getFailures() {
+      return failures.sum();
+    }
+
+    @Override
+    public String toString() {
+      return "latency: [" + latency + "], time to first byte: [" + timeToFirstByte + "], failures: " + getFailures();
+    }
+  }
+}
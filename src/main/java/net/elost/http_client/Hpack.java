@@ -0,0 +1,479 @@
+package net.elost.http_client;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * HPACK header compression (RFC 7541) for {@link Http2Connection}.
+ */
+final class Hpack {
+  static final int DEFAULT_TABLE_SIZE = 4096;
+
+  private static final String[][] STATIC_TABLE = {
+      {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"}, {":path", "/index.html"},
+      {":scheme", "http"}, {":scheme", "https"}, {":status", "200"}, {":status", "204"}, {":status", "206"},
+      {":status", "304"}, {":status", "400"}, {":status", "404"}, {":status", "500"}, {"accept-charset", ""},
+      {"accept-encoding", "gzip, deflate"}, {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""},
+      {"access-control-allow-origin", ""}, {"age", ""}, {"allow", ""}, {"authorization", ""},
+      {"cache-control", ""}, {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""},
+      {"content-length", ""}, {"content-location", ""}, {"content-range", ""}, {"content-type", ""},
+      {"cookie", ""}, {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""}, {"from", ""}, {"host", ""},
+      {"if-match", ""}, {"if-modified-since", ""}, {"if-none-match", ""}, {"if-range", ""},
+      {"if-unmodified-since", ""}, {"last-modified", ""}, {"link", ""}, {"location", ""}, {"max-forwards", ""},
+      {"proxy-authenticate", ""}, {"proxy-authorization", ""}, {"range", ""}, {"referer", ""}, {"refresh", ""},
+      {"retry-after", ""}, {"server", ""}, {"set-cookie", ""}, {"strict-transport-security", ""},
+      {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""}, {"www-authenticate", ""}
+  };
+
+  private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+  private static final Map<String, Integer> STATIC_ENTRIES = new HashMap<>();
+
+  /**
+   * Headers sent as "never indexed" literals, so their values don't end up in the compression context.
+   */
+  private static final Set<String> SENSITIVE = new HashSet<>(Arrays.asList(
+      "authorization", "proxy-authorization", "cookie"
+  ));
+
+  /**
+   * Headers whose values rarely repeat, so indexing them would only evict useful entries.
+   */
+  private static final Set<String> NOT_INDEXED = new HashSet<>(Arrays.asList(
+      ":path", "content-length", "if-none-match", "if-modified-since", "range"
+  ));
+
+  /**
+   * Huffman codes of RFC 7541 Appendix B, indexed by symbol; 256 is EOS.
+   */
+  private static final int[] HUFFMAN_CODES = {
+      0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+      0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+      0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+      0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+      0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+      0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+      0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+      0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+      0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+      0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+      0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+      0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+      0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+      0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+      0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+      0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+      0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+      0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+      0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+      0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+      0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+      0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+      0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+      0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+      0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+      0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+      0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+      0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+      0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+      0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+      0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+      0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+      0x3fffffff
+  };
+
+  private static final byte[] HUFFMAN_LENGTHS = {
+      13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+      28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+      6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+      5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+      13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+      7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+      15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+      6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+      20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+      24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+      22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+      21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+      26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+      19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+      20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+      26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+      30
+  };
+
+  /**
+   * Huffman decoding tree: children of node n are at 2n and 2n + 1, leaves hold the negated symbol minus one.
+   */
+  private static final int[] HUFFMAN_TREE = new int[2 * 2 * 257];
+
+  static {
+    for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+      STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+      STATIC_ENTRIES.put(STATIC_TABLE[i][0] + '\0' + STATIC_TABLE[i][1], i + 1);
+    }
+
+    int nodes = 1;
+    for (int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++) {
+      int node = 0;
+      for (int bit = HUFFMAN_LENGTHS[symbol] - 1; bit >= 0; bit--) {
+        int child = 2 * node + ((HUFFMAN_CODES[symbol] >>> bit) & 1);
+        if (bit == 0) {
+          HUFFMAN_TREE[child] = -symbol - 1;
+        }
+        else {
+          if (HUFFMAN_TREE[child] == 0) {
+            HUFFMAN_TREE[child] = nodes++;
+          }
+          node = HUFFMAN_TREE[child];
+        }
+      }
+    }
+  }
+
+  private Hpack() {
+  }
+
+  /**
+   * Encodes request header blocks. Not thread-safe: header blocks must be encoded in the order they are sent.
+   */
+  static final class Encoder {
+    private final DynamicTable table = new DynamicTable(DEFAULT_TABLE_SIZE);
+    private int pendingSizeUpdate = -1;
+
+    /**
+     * Applies the SETTINGS_HEADER_TABLE_SIZE of the peer. The table is never made larger than the default.
+     */
+    void setMaxTableSize(int peerMaxTableSize) {
+      int size = Math.min(peerMaxTableSize, DEFAULT_TABLE_SIZE);
+      if (size != table.maxSize) {
+        table.resize(size);
+        pendingSizeUpdate = pendingSizeUpdate == -1 ? size : Math.min(pendingSizeUpdate, size);
+      }
+    }
+
+    /**
+     * @param headers lower-case names, pseudo-headers first
+     */
+    byte[] encode(Map<String, String> headers) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+      if (pendingSizeUpdate != -1) {
+        if (pendingSizeUpdate < table.maxSize) {
+          // the table shrank and grew again since the last block; both sizes must be signalled
+          writeInteger(out, 0x20, 5, pendingSizeUpdate);
+        }
+        writeInteger(out, 0x20, 5, table.maxSize);
+        pendingSizeUpdate = -1;
+      }
+      for (Map.Entry<String, String> header : headers.entrySet()) {
+        encodeHeader(out, header.getKey(), header.getValue());
+      }
+      return out.toByteArray();
+    }
+
+    private void encodeHeader(ByteArrayOutputStream out, String name, String value) {
+      boolean sensitive = SENSITIVE.contains(name);
+      if (!sensitive) {
+        Integer index = STATIC_ENTRIES.get(name + '\0' + value);
+        if (index == null) {
+          index = table.indexOf(name, value);
+        }
+        if (index != null) {
+          writeInteger(out, 0x80, 7, index);
+          return;
+        }
+      }
+
+      Integer nameIndex = STATIC_NAMES.get(name);
+      if (nameIndex == null) {
+        nameIndex = table.indexOfName(name);
+      }
+      boolean indexed = !sensitive && !NOT_INDEXED.contains(name);
+      if (indexed) {
+        writeInteger(out, 0x40, 6, nameIndex == null ? 0 : nameIndex);
+      }
+      else {
+        writeInteger(out, sensitive ? 0x10 : 0x00, 4, nameIndex == null ? 0 : nameIndex);
+      }
+      if (nameIndex == null) {
+        writeString(out, name);
+      }
+      writeString(out, value);
+      if (indexed) {
+        table.add(name, value);
+      }
+    }
+  }
+
+  /**
+   * Decodes response header blocks. Not thread-safe: header blocks must be decoded in the order they are received,
+   * including blocks of streams that were already cancelled.
+   */
+  static final class Decoder {
+    private final int maxTableSize;
+    private final DynamicTable table;
+
+    /**
+     * @param maxTableSize SETTINGS_HEADER_TABLE_SIZE sent to the peer
+     */
+    Decoder(int maxTableSize) {
+      this.maxTableSize = maxTableSize;
+      this.table = new DynamicTable(maxTableSize);
+    }
+
+    void decode(byte[] block, BiConsumer<String, String> headers) throws ProtocolException {
+      int[] position = {0};
+      boolean headerSeen = false;
+      while (position[0] < block.length) {
+        int first = block[position[0]] & 0xff;
+        if ((first & 0x80) != 0) {
+          int index = readInteger(block, position, 7);
+          headers.accept(name(index), value(index));
+          headerSeen = true;
+        }
+        else if ((first & 0x40) != 0) {
+          int index = readInteger(block, position, 6);
+          String name = index == 0 ? readString(block, position) : name(index);
+          String value = readString(block, position);
+          table.add(name, value);
+          headers.accept(name, value);
+          headerSeen = true;
+        }
+        else if ((first & 0x20) != 0) {
+          if (headerSeen) {
+            throw new ProtocolException("HPACK dynamic table size update after a header field");
+          }
+          int size = readInteger(block, position, 5);
+          if (size > maxTableSize) {
+            throw new ProtocolException("HPACK dynamic table size update above the advertised maximum: " + size);
+          }
+          table.resize(size);
+        }
+        else {
+          // literal without indexing (0000) or never indexed (0001), both with a 4-bit prefix
+          int index = readInteger(block, position, 4);
+          String name = index == 0 ? readString(block, position) : name(index);
+          headers.accept(name, readString(block, position));
+          headerSeen = true;
+        }
+      }
+    }
+
+    private String name(int index) throws ProtocolException {
+      return entry(index)[0];
+    }
+
+    private String value(int index) throws ProtocolException {
+      return entry(index)[1];
+    }
+
+    private String[] entry(int index) throws ProtocolException {
+      if (index >= 1 && index <= STATIC_TABLE.length) {
+        return STATIC_TABLE[index - 1];
+      }
+      String[] entry = table.get(index);
+      if (entry == null) {
+        throw new ProtocolException("Invalid HPACK table index: " + index);
+      }
+      return entry;
+    }
+  }
+
+  /**
+   * Entries added by header blocks, newest first. Indexes continue after the static table.
+   */
+  private static final class DynamicTable {
+    private final ArrayDeque<String[]> entries = new ArrayDeque<>();
+    private int size;
+    private int maxSize;
+
+    DynamicTable(int maxSize) {
+      this.maxSize = maxSize;
+    }
+
+    void add(String name, String value) {
+      int entrySize = entrySize(name, value);
+      evict(maxSize - entrySize);
+      if (entrySize <= maxSize) {
+        entries.addFirst(new String[] {name, value});
+        size += entrySize;
+      }
+    }
+
+    void resize(int maxSize) {
+      this.maxSize = maxSize;
+      evict(maxSize);
+    }
+
+    String[] get(int index) {
+      int position = index - STATIC_TABLE.length - 1;
+      if (position < 0 || position >= entries.size()) {
+        return null;
+      }
+      Iterator<String[]> iterator = entries.iterator();
+      for (int i = 0; i < position; i++) {
+        iterator.next();
+      }
+      return iterator.next();
+    }
+
+    Integer indexOf(String name, String value) {
+      int index = STATIC_TABLE.length + 1;
+      for (String[] entry : entries) {
+        if (entry[0].equals(name) && entry[1].equals(value)) {
+          return index;
+        }
+        index++;
+      }
+      return null;
+    }
+
+    Integer indexOfName(String name) {
+      int index = STATIC_TABLE.length + 1;
+      for (String[] entry : entries) {
+        if (entry[0].equals(name)) {
+          return index;
+        }
+        index++;
+      }
+      return null;
+    }
+
+    private void evict(int targetSize) {
+      while (size > Math.max(targetSize, 0) && !entries.isEmpty()) {
+        String[] evicted = entries.removeLast();
+        size -= entrySize(evicted[0], evicted[1]);
+      }
+    }
+
+    private static int entrySize(String name, String value) {
+      return name.length() + value.length() + 32;
+    }
+  }
+
+  static void writeInteger(ByteArrayOutputStream out, int flags, int prefixBits, int value) {
+    int max = (1 << prefixBits) - 1;
+    if (value < max) {
+      out.write(flags | value);
+      return;
+    }
+    out.write(flags | max);
+    value -= max;
+    while (value >= 0x80) {
+      out.write((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  static int readInteger(byte[] block, int[] position, int prefixBits) throws ProtocolException {
+    int max = (1 << prefixBits) - 1;
+    int value = block[position[0]++] & max;
+    if (value < max) {
+      return value;
+    }
+    for (int shift = 0; shift < 28; shift += 7) {
+      if (position[0] >= block.length) {
+        throw new ProtocolException("Truncated HPACK integer");
+      }
+      int b = block[position[0]++] & 0xff;
+      value += (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        if (value < 0) {
+          break;
+        }
+        return value;
+      }
+    }
+    throw new ProtocolException("HPACK integer overflow");
+  }
+
+  private static void writeString(ByteArrayOutputStream out, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+    long huffmanBits = 0;
+    for (byte b : bytes) {
+      huffmanBits += HUFFMAN_LENGTHS[b & 0xff];
+    }
+    int huffmanLength = (int) ((huffmanBits + 7) / 8);
+    if (huffmanLength >= bytes.length) {
+      writeInteger(out, 0x00, 7, bytes.length);
+      out.write(bytes, 0, bytes.length);
+      return;
+    }
+
+    writeInteger(out, 0x80, 7, huffmanLength);
+    long buffer = 0;
+    int bits = 0;
+    for (byte b : bytes) {
+      int symbol = b & 0xff;
+      buffer = (buffer << HUFFMAN_LENGTHS[symbol]) | HUFFMAN_CODES[symbol];
+      bits += HUFFMAN_LENGTHS[symbol];
+      while (bits >= 8) {
+        bits -= 8;
+        out.write((int) (buffer >>> bits));
+      }
+    }
+    if (bits > 0) {
+      // pad with the most significant bits of EOS, which are all ones
+      out.write((int) ((buffer << (8 - bits)) | (0xff >>> bits)));
+    }
+  }
+
+  private static String readString(byte[] block, int[] position) throws ProtocolException {
+    if (position[0] >= block.length) {
+      throw new ProtocolException("Truncated HPACK string");
+    }
+    boolean huffman = (block[position[0]] & 0x80) != 0;
+    int length = readInteger(block, position, 7);
+    if (length > block.length - position[0]) {
+      throw new ProtocolException("Truncated HPACK string");
+    }
+    int start = position[0];
+    position[0] += length;
+    if (!huffman) {
+      return new String(block, start, length, StandardCharsets.ISO_8859_1);
+    }
+    return huffmanDecode(block, start, length);
+  }
+
+  private static String huffmanDecode(byte[] block, int start, int length) throws ProtocolException {
+    StringBuilder result = new StringBuilder(length * 8 / 5);
+    int node = 0;
+    int depth = 0;
+    boolean allOnes = true;
+    for (int i = start; i < start + length; i++) {
+      int b = block[i] & 0xff;
+      for (int bit = 7; bit >= 0; bit--) {
+        int one = (b >>> bit) & 1;
+        int child = HUFFMAN_TREE[2 * node + one];
+        depth++;
+        allOnes &= one == 1;
+        if (child < 0) {
+          int symbol = -child - 1;
+          if (symbol == 256) {
+            throw new ProtocolException("EOS in Huffman-encoded HPACK string");
+          }
+          result.append((char) symbol);
+          node = 0;
+          depth = 0;
+          allOnes = true;
+        }
+        else {
+          node = child;
+        }
+      }
+    }
+    if (depth > 7 || !allOnes) {
+      throw new ProtocolException("Invalid padding in Huffman-encoded HPACK string");
+    }
+    return result.toString();
+  }
+}
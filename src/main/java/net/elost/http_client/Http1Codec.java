@@ -0,0 +1,459 @@
+package net.elost.http_client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Minimal HTTP/1.1 wire format support used by the pooled socket and NIO transports.
+ */
+final class Http1Codec {
+  private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+  private Http1Codec() {
+  }
+
+  static void writeRequestHead(OutputStream out, String method, String target, Map<String, String> headers)
+      throws IOException {
+    StringBuilder head = new StringBuilder(256);
+    head.append(method).append(' ').append(target).append(" HTTP/1.1\r\n");
+    headers.forEach((name, value) -> head.append(name).append(": ").append(value).append("\r\n"));
+    head.append("\r\n");
+    out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+  static StatusLine readStatusLine(InputStream in) throws IOException {
+    return parseStatusLine(readLine(in));
+  }
+
+  static StatusLine parseStatusLine(String statusLine) throws ProtocolException {
+    if (!statusLine.startsWith("HTTP/1.") || statusLine.length() < 12) {
+      throw new ProtocolException("Unexpected status line: " + statusLine);
+    }
+    try {
+      return new StatusLine(statusLine.charAt(7) == '0', Integer.parseInt(statusLine.substring(9, 12)));
+    }
+    catch (NumberFormatException e) {
+      throw new ProtocolException("Unexpected status line: " + statusLine);
+    }
+  }
+
+  /**
+   * @param connection value of the Connection header, may be null
+   * @return whether the connection stays open after the response: HTTP/1.1 connections unless they are closed,
+   *     HTTP/1.0 ones only if the server asks to keep them alive
+   */
+  static boolean isKeepAlive(StatusLine status, String connection) {
+    if (hasToken(connection, "close")) {
+      return false;
+    }
+    return !status.http10 || hasToken(connection, "keep-alive");
+  }
+
+  private static boolean hasToken(String header, String token) {
+    if (header == null) {
+      return false;
+    }
+    for (String value : header.split(",")) {
+      if (value.trim().equalsIgnoreCase(token)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Reads header lines up to and including the empty line that terminates them.
+   * The returned map is case-insensitive on header names.
+   */
+  static Map<String, List<String>> readHeaders(InputStream in) throws IOException {
+    return parseHeaderLines(readHeaderLines(in));
+  }
+
+  /**
+   * Reads header lines up to and including the empty line that terminates them, without parsing them into a map.
+   */
+  static List<String> readHeaderLines(InputStream in) throws IOException {
+    List<String> lines = new ArrayList<>(16);
+    String line;
+    while (!(line = readLine(in)).isEmpty()) {
+      if (line.indexOf(':') <= 0) {
+        throw new ProtocolException("Malformed header line: " + line);
+      }
+      lines.add(line);
+    }
+    return lines;
+  }
+
+  /**
+   * @param lines header lines checked by {@link #readHeaderLines}
+   */
+  static Map<String, List<String>> parseHeaderLines(List<String> lines) {
+    Map<String, List<String>> headers = newHeaderMap();
+    for (String line : lines) {
+      int separator = line.indexOf(':');
+      headers.computeIfAbsent(line.substring(0, separator).trim(), key -> new ArrayList<>(1))
+          .add(line.substring(separator + 1).trim());
+    }
+    return toUnmodifiableHeaders(headers);
+  }
+
+  /**
+   * @return value of the first line of the header, looked up ignoring case, or null if there is none
+   */
+  static String findHeader(List<String> lines, String name) {
+    for (String line : lines) {
+      int separator = line.indexOf(':');
+      int end = separator;
+      while (end > 0 && Character.isWhitespace(line.charAt(end - 1))) {
+        end--;
+      }
+      if (end == name.length() && line.regionMatches(true, 0, name, 0, end)) {
+        return line.substring(separator + 1).trim();
+      }
+    }
+    return null;
+  }
+
+  static Map<String, List<String>> newHeaderMap() {
+    return new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+  }
+
+  static void addHeaderLine(Map<String, List<String>> headers, String line) throws ProtocolException {
+    int separator = line.indexOf(':');
+    if (separator <= 0) {
+      throw new ProtocolException("Malformed header line: " + line);
+    }
+    String name = line.substring(0, separator).trim();
+    String value = line.substring(separator + 1).trim();
+    headers.computeIfAbsent(name, key -> new ArrayList<>(1)).add(value);
+  }
+
+  static Map<String, List<String>> toUnmodifiableHeaders(Map<String, List<String>> headers) {
+    headers.replaceAll((name, values) -> Collections.unmodifiableList(values));
+    return Collections.unmodifiableMap(headers);
+  }
+
+  static String firstHeader(Map<String, List<String>> headers, String name) {
+    List<String> values = headers.get(name);
+    return values == null || values.isEmpty() ? null : values.get(0);
+  }
+
+  static long parseChunkSize(String line) throws ProtocolException {
+    int extension = line.indexOf(';');
+    String size = (extension == -1 ? line : line.substring(0, extension)).trim();
+    try {
+      long length = Long.parseLong(size, 16);
+      if (length >= 0 && size.charAt(0) != '+') {
+        return length;
+      }
+    }
+    catch (NumberFormatException ignored) {
+    }
+    throw new ProtocolException("Malformed chunk size: " + line);
+  }
+
+  /**
+   * @throws ProtocolException if the value is not a non-negative decimal number
+   */
+  static long parseContentLength(String value) throws ProtocolException {
+    try {
+      long length = Long.parseLong(value.trim());
+      if (length >= 0 && value.trim().charAt(0) != '+') {
+        return length;
+      }
+    }
+    catch (NumberFormatException ignored) {
+    }
+    throw new ProtocolException("Malformed Content-Length: " + value);
+  }
+
+  static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+    int b;
+    while ((b = in.read()) != '\n') {
+      if (b == -1) {
+        throw new EOFException("Connection closed while reading response head");
+      }
+      if (line.size() >= MAX_LINE_LENGTH) {
+        throw new ProtocolException("Response line exceeds " + MAX_LINE_LENGTH + " bytes");
+      }
+      line.write(b);
+    }
+    String result = new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+    return result.endsWith("\r") ? result.substring(0, result.length() - 1) : result;
+  }
+
+  /**
+   * Version and code of a response status line.
+   */
+  static final class StatusLine {
+    final boolean http10;
+    final int code;
+
+    StatusLine(boolean http10, int code) {
+      this.http10 = http10;
+      this.code = code;
+    }
+  }
+
+  /**
+   * Response body stream that knows whether the message has been read to its end,
+   * which is what decides if the connection can go back to the pool.
+   */
+  abstract static class BodyInputStream extends InputStream {
+    abstract boolean isComplete();
+  }
+
+  static class EmptyInputStream extends BodyInputStream {
+    @Override
+    public int read() {
+      return -1;
+    }
+
+    @Override
+    boolean isComplete() {
+      return true;
+    }
+  }
+
+  static class FixedLengthInputStream extends BodyInputStream {
+    private final InputStream in;
+    private long remaining;
+
+    FixedLengthInputStream(InputStream in, long length) {
+      this.in = in;
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining == 0) {
+        return -1;
+      }
+      int read = in.read(b, off, (int) Math.min(len, remaining));
+      if (read == -1) {
+        throw new EOFException("Connection closed with " + remaining + " bytes of body remaining");
+      }
+      remaining -= read;
+      return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(in.available(), remaining);
+    }
+
+    @Override
+    boolean isComplete() {
+      return remaining == 0;
+    }
+  }
+
+  static class ChunkedInputStream extends BodyInputStream {
+    private final InputStream in;
+    private long chunkRemaining;
+    private boolean complete;
+
+    ChunkedInputStream(InputStream in) {
+      this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (complete) {
+        return -1;
+      }
+      if (chunkRemaining == 0) {
+        chunkRemaining = readChunkSize();
+        if (chunkRemaining == 0) {
+          readHeaderLines(in);
+          complete = true;
+          return -1;
+        }
+      }
+      int read = in.read(b, off, (int) Math.min(len, chunkRemaining));
+      if (read == -1) {
+        throw new EOFException("Connection closed in the middle of a chunk");
+      }
+      chunkRemaining -= read;
+      if (chunkRemaining == 0) {
+        readLine(in);
+      }
+      return read;
+    }
+
+    private long readChunkSize() throws IOException {
+      return parseChunkSize(readLine(in));
+    }
+
+    @Override
+    boolean isComplete() {
+      return complete;
+    }
+  }
+
+  /**
+   * Body delimited by the server closing the connection; such a connection is never reused.
+   */
+  static class UntilCloseInputStream extends BodyInputStream {
+    private final InputStream in;
+
+    UntilCloseInputStream(InputStream in) {
+      this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return in.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return in.read(b, off, len);
+    }
+
+    @Override
+    boolean isComplete() {
+      return false;
+    }
+  }
+
+  /**
+   * Request body stream for a declared Content-Length. Closing it checks the length and flushes,
+   * but keeps the connection open.
+   */
+  static class FixedLengthOutputStream extends OutputStream {
+    private final OutputStream out;
+    private long remaining;
+    private boolean closed;
+
+    FixedLengthOutputStream(OutputStream out, long length) {
+      this.out = out;
+      this.remaining = length;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len > remaining) {
+        throw new ProtocolException("Request body exceeds the declared Content-Length");
+      }
+      out.write(b, off, len);
+      remaining -= len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (remaining != 0) {
+        throw new ProtocolException("Request body is " + remaining + " bytes shorter than the declared Content-Length");
+      }
+      out.flush();
+    }
+  }
+
+  /**
+   * Request body stream in chunked transfer encoding. Small writes are buffered into chunks of up to 8 KB.
+   * Closing it writes the last chunk and flushes, but keeps the connection open.
+   */
+  static class ChunkedOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final byte[] buffer = new byte[8192];
+    private int count;
+    private boolean closed;
+
+    ChunkedOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (count == buffer.length) {
+        flushBuffer();
+      }
+      buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len >= buffer.length) {
+        flushBuffer();
+        writeChunk(b, off, len);
+        return;
+      }
+      if (len > buffer.length - count) {
+        flushBuffer();
+      }
+      System.arraycopy(b, off, buffer, count, len);
+      count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      flushBuffer();
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      flushBuffer();
+      out.write("0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+      out.flush();
+    }
+
+    private void flushBuffer() throws IOException {
+      if (count > 0) {
+        writeChunk(buffer, 0, count);
+        count = 0;
+      }
+    }
+
+    private void writeChunk(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return;
+      }
+      out.write((Integer.toHexString(len) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+      out.write(b, off, len);
+      out.write('\r');
+      out.write('\n');
+    }
+  }
+}
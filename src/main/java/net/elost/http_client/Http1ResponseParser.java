@@ -0,0 +1,200 @@
+package net.elost.http_client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental HTTP/1.1 response parser for the non-blocking transport.
+ * Bytes are fed as they arrive from the socket; {@link #feed(ByteBuffer)} returns true once the message is complete.
+ */
+class Http1ResponseParser {
+  private static final int MAX_LINE_LENGTH = 64 * 1024;
+  // the declared length is the peer's claim, the buffer grows past this as the bytes arrive
+  private static final int MAX_PRESIZE = 64 * 1024;
+
+  private enum State {
+    STATUS_LINE, HEADERS, FIXED_BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, UNTIL_CLOSE, DONE
+  }
+
+  private State state = State.STATUS_LINE;
+  private final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+  private Http1Codec.StatusLine status;
+  private int code;
+  private Map<String, List<String>> headers;
+  private ByteArrayOutputStream body;
+  private long remaining;
+  private boolean keepAlive;
+  private boolean receivedAny;
+
+  boolean feed(ByteBuffer buffer) throws IOException {
+    receivedAny |= buffer.hasRemaining();
+    while (buffer.hasRemaining() && state != State.DONE) {
+      switch (state) {
+        case FIXED_BODY:
+        case CHUNK_DATA:
+          copyBody(buffer);
+          break;
+        case UNTIL_CLOSE:
+          copyAll(buffer);
+          break;
+        default:
+          if (readLine(buffer)) {
+            onLine(takeLine());
+          }
+      }
+    }
+    return state == State.DONE;
+  }
+
+  /**
+   * Signals that the peer closed the connection. Returns true if that completed a close-delimited body.
+   */
+  boolean endOfStream() throws EOFException {
+    if (state == State.UNTIL_CLOSE) {
+      state = State.DONE;
+      keepAlive = false;
+      return true;
+    }
+    if (state == State.DONE) {
+      return true;
+    }
+    throw new EOFException("Connection closed before the response was complete");
+  }
+
+  boolean hasReceivedAny() {
+    return receivedAny;
+  }
+
+  boolean isKeepAlive() {
+    return keepAlive;
+  }
+
+  int getCode() {
+    return code;
+  }
+
+  Map<String, List<String>> getHeaders() {
+    return headers;
+  }
+
+  String getHeader(String name) {
+    return Http1Codec.firstHeader(headers, name);
+  }
+
+  byte[] getBody() {
+    return body.toByteArray();
+  }
+
+  private void onLine(String value) throws IOException {
+    switch (state) {
+      case STATUS_LINE:
+        status = Http1Codec.parseStatusLine(value);
+        code = status.code;
+        headers = Http1Codec.newHeaderMap();
+        state = State.HEADERS;
+        break;
+      case HEADERS:
+        if (value.isEmpty()) {
+          onHeadersComplete();
+        }
+        else {
+          Http1Codec.addHeaderLine(headers, value);
+        }
+        break;
+      case CHUNK_SIZE:
+        remaining = Http1Codec.parseChunkSize(value);
+        state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+        break;
+      case CHUNK_END:
+        state = State.CHUNK_SIZE;
+        break;
+      case TRAILERS:
+        if (value.isEmpty()) {
+          state = State.DONE;
+        }
+        break;
+      default:
+        throw new IllegalStateException("Unexpected line in state " + state);
+    }
+  }
+
+  private void onHeadersComplete() throws ProtocolException {
+    headers = Http1Codec.toUnmodifiableHeaders(headers);
+    if (code >= 100 && code < 200) {
+      state = State.STATUS_LINE;
+      return;
+    }
+    keepAlive = Http1Codec.isKeepAlive(status, getHeader("Connection"));
+    String transferEncoding = getHeader("Transfer-Encoding");
+    String contentLength = getHeader("Content-Length");
+    if (code == 204 || code == 304) {
+      body = new ByteArrayOutputStream(0);
+      state = State.DONE;
+    }
+    else if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+      body = new ByteArrayOutputStream();
+      state = State.CHUNK_SIZE;
+    }
+    else if (contentLength != null) {
+      remaining = Http1Codec.parseContentLength(contentLength);
+      body = new ByteArrayOutputStream((int) Math.min(remaining, MAX_PRESIZE));
+      state = remaining == 0 ? State.DONE : State.FIXED_BODY;
+    }
+    else {
+      body = new ByteArrayOutputStream();
+      state = State.UNTIL_CLOSE;
+    }
+  }
+
+  private void copyBody(ByteBuffer buffer) {
+    int length = (int) Math.min(buffer.remaining(), remaining);
+    copy(buffer, length);
+    remaining -= length;
+    if (remaining == 0) {
+      state = state == State.FIXED_BODY ? State.DONE : State.CHUNK_END;
+    }
+  }
+
+  private void copyAll(ByteBuffer buffer) {
+    copy(buffer, buffer.remaining());
+  }
+
+  private void copy(ByteBuffer buffer, int length) {
+    if (buffer.hasArray()) {
+      body.write(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+      ((Buffer) buffer).position(buffer.position() + length);
+    }
+    else {
+      byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      body.write(bytes, 0, length);
+    }
+  }
+
+  private boolean readLine(ByteBuffer buffer) throws ProtocolException {
+    while (buffer.hasRemaining()) {
+      byte b = buffer.get();
+      if (b == '\n') {
+        return true;
+      }
+      if (line.size() >= MAX_LINE_LENGTH) {
+        throw new ProtocolException("Response line exceeds " + MAX_LINE_LENGTH + " bytes");
+      }
+      line.write(b);
+    }
+    return false;
+  }
+
+  private String takeLine() {
+    String value = new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+    line.reset();
+    return value.endsWith("\r") ? value.substring(0, value.length() - 1) : value;
+  }
+}
@@ -0,0 +1,613 @@
+package net.elost.http_client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * HTTP/2 client. All requests to a host share one connection, each request being a stream of it, so concurrent
+ * requests need neither a connection pool nor a connection per request.
+ * <p>
+ * {@code https} URLs negotiate HTTP/2 with ALPN, which needs JDK 8u252 or later; calls to servers that don't
+ * select {@code h2} fail. Plain {@code http} URLs speak HTTP/2 with prior knowledge (h2c), for internal services
+ * known to support it; there is no upgrade from HTTP/1.1.
+ * <p>
+ * HPACK and flow control are tuned with {@link #headerTableSize(int)}, {@link #initialWindowSize(int)},
+ * {@link #connectionWindowSize(int)} and {@link #maxFrameSize(int)}, which apply to connections opened afterwards.
+ * Futures of async calls are completed on the callback executor ({@link ForkJoinPool#commonPool()} by default);
+ * the request itself is sent on the calling thread.
+ */
+public class Http2Client implements HttpClient, Closeable {
+  private static final Set<String> CONNECTION_HEADERS = new HashSet<>(Arrays.asList(
+      "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade", "host", "te", "content-length"
+  ));
+
+  private final int connectTimeoutMillis;
+  private final int readTimeoutMillis;
+  private final Executor callbackExecutor;
+  private final ScheduledExecutorService timeouts;
+  private int headerTableSize = 4096;
+  private int initialWindowSize = 1024 * 1024;
+  private int connectionWindowSize = 16 * 1024 * 1024;
+  private int maxFrameSize = Http2Codec.DEFAULT_MAX_FRAME_SIZE;
+  private SSLSocketFactory sslSocketFactory;
+  private DnsResolver dnsResolver = DnsResolver.SYSTEM;
+  private long connectStaggerMillis = 250;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Map<String, CompletableFuture<Http2Connection>> connections = new HashMap<>();
+  private boolean closed;
+
+  /**
+   * Timeouts of 0 mean no timeout, as in {@link HttpClientImpl}.
+   */
+  public Http2Client(int connectTimeoutMillis, int readTimeoutMillis) {
+    this(connectTimeoutMillis, readTimeoutMillis, ForkJoinPool.commonPool());
+  }
+
+  public Http2Client(int connectTimeoutMillis, int readTimeoutMillis, Executor callbackExecutor) {
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.readTimeoutMillis = readTimeoutMillis;
+    this.callbackExecutor = callbackExecutor;
+    this.timeouts = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = new Thread(task, "http-client-h2-timeouts");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Size of the HPACK dynamic table for response headers (SETTINGS_HEADER_TABLE_SIZE). Defaults to 4096 bytes.
+   */
+  public Http2Client headerTableSize(int headerTableSize) {
+    if (headerTableSize < 0) {
+      throw new IllegalArgumentException("headerTableSize must not be negative");
+    }
+    this.headerTableSize = headerTableSize;
+    return this;
+  }
+
+  /**
+   * Response bytes the server may send on a stream before the client has read them (SETTINGS_INITIAL_WINDOW_SIZE).
+   * Defaults to 1 MB.
+   */
+  public Http2Client initialWindowSize(int initialWindowSize) {
+    if (initialWindowSize < 1) {
+      throw new IllegalArgumentException("initialWindowSize must be positive");
+    }
+    this.initialWindowSize = initialWindowSize;
+    return this;
+  }
+
+  /**
+   * Response bytes the server may send on all streams of a connection before the client has read them.
+   * Defaults to 16 MB, at least the protocol's initial 65535 bytes.
+   */
+  public Http2Client connectionWindowSize(int connectionWindowSize) {
+    if (connectionWindowSize < Http2Codec.DEFAULT_WINDOW_SIZE) {
+      throw new IllegalArgumentException("connectionWindowSize must be at least " + Http2Codec.DEFAULT_WINDOW_SIZE);
+    }
+    this.connectionWindowSize = connectionWindowSize;
+    return this;
+  }
+
+  /**
+   * Largest frame payload the server may send (SETTINGS_MAX_FRAME_SIZE). Defaults to 16384 bytes.
+   */
+  public Http2Client maxFrameSize(int maxFrameSize) {
+    if (maxFrameSize < Http2Codec.DEFAULT_MAX_FRAME_SIZE || maxFrameSize > Http2Codec.MAX_MAX_FRAME_SIZE) {
+      throw new IllegalArgumentException(String.format(
+          "maxFrameSize must be between %d and %d", Http2Codec.DEFAULT_MAX_FRAME_SIZE, Http2Codec.MAX_MAX_FRAME_SIZE
+      ));
+    }
+    this.maxFrameSize = maxFrameSize;
+    return this;
+  }
+
+  /**
+   * Socket factory for https connections. Defaults to {@link SSLSocketFactory#getDefault()}.
+   */
+  public Http2Client sslSocketFactory(SSLSocketFactory sslSocketFactory) {
+    this.sslSocketFactory = sslSocketFactory;
+    return this;
+  }
+
+  /**
+   * Resolver for the hosts of new connections. Defaults to {@link DnsResolver#SYSTEM}, which relies on the JVM-wide
+   * address cache; a {@link CachingDnsResolver} caches addresses in the client instead.
+   */
+  public Http2Client dnsResolver(DnsResolver dnsResolver) {
+    this.dnsResolver = dnsResolver;
+    return this;
+  }
+
+  /**
+   * Head start each address of a host with several addresses gets before the next one is tried alongside it.
+   * An address that fails to connect moves on to the next one right away. Defaults to 250 ms.
+   */
+  public Http2Client connectStaggerMillis(long connectStaggerMillis) {
+    this.connectStaggerMillis = connectStaggerMillis;
+    return this;
+  }
+
+  @Override
+  public HttpResponse sendRequest(HttpMethod method, String url, String input, String contentType) {
+    return sendRequest(method, url, input, contentType, Collections.emptyMap());
+  }
+
+  @Override
+  public HttpResponse sendRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    return upload(method, url, RequestBody.ofString(input), contentType, headers);
+  }
+
+  /**
+   * Streams any body, within the flow-control window the server grants.
+   */
+  @Override
+  public HttpResponse upload(
+      HttpMethod method,
+      String url,
+      RequestBody body,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    URL endpoint = parseUrl(url);
+    Http2Connection.Stream stream = startStream(method, endpoint, body, contentType, headers, false);
+    try {
+      stream.awaitResponse();
+      return toResponse(method, endpoint, body.describe(), stream);
+    }
+    catch (IOException e) {
+      stream.fail(e);
+      throw callFailed(endpoint, e);
+    }
+  }
+
+  @Override
+  public CompletableFuture<HttpResponse> sendRequestAsync(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    try {
+      URL endpoint = parseUrl(url);
+      return await(method, endpoint, input, startStream(
+          method, endpoint, RequestBody.ofString(input), contentType, headers, true
+      ));
+    }
+    catch (HttpCallException e) {
+      CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+      future.completeExceptionally(e);
+      return future;
+    }
+  }
+
+  @Override
+  public <T> T sendRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers,
+      ResponseHandler<T> handler
+  ) {
+    URL endpoint = parseUrl(url);
+    Http2Connection.Stream stream = startStream(
+        method, endpoint, RequestBody.ofString(input), contentType, headers, false
+    );
+    try (InputStream body = stream.responseBody()) {
+      HttpResponse response = awaitHead(method, endpoint, input, stream);
+      return handler.handle(response, body);
+    }
+    catch (IOException e) {
+      throw new HttpCallException(String.format("Can't read response from api call to %s", endpoint), e);
+    }
+  }
+
+  @Override
+  public StreamingHttpResponse sendStreamingRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    URL endpoint = parseUrl(url);
+    Http2Connection.Stream stream = startStream(
+        method, endpoint, RequestBody.ofString(input), contentType, headers, false
+    );
+    HttpResponse response = awaitHead(method, endpoint, input, stream);
+    return new StreamingHttpResponse(response, stream.responseBody(), contentLength(response), stream::close);
+  }
+
+  /**
+   * Closes all connections, failing the requests still in flight.
+   */
+  @Override
+  public void close() {
+    List<CompletableFuture<Http2Connection>> open;
+    lock.lock();
+    try {
+      closed = true;
+      open = new ArrayList<>(connections.values());
+      connections.clear();
+    }
+    finally {
+      lock.unlock();
+    }
+    for (CompletableFuture<Http2Connection> connection : open) {
+      connection.thenAccept(Http2Connection::close);
+    }
+    timeouts.shutdownNow();
+  }
+
+  private Http2Connection.Stream startStream(
+      HttpMethod method,
+      URL url,
+      RequestBody body,
+      String contentType,
+      Map<String, String> headers,
+      boolean bufferBody
+  ) {
+    boolean hasBody = method != HttpMethod.GET;
+    Map<String, String> requestHeaders = requestHeaders(
+        method, url, contentType, hasBody ? body.contentLength() : -1, headers
+    );
+    Http2Connection.Stream stream = newStream(url, requestHeaders, !hasBody, bufferBody);
+    if (hasBody) {
+      try (OutputStream out = stream.requestBody()) {
+        body.writeTo(out);
+      }
+      catch (IOException e) {
+        stream.fail(e);
+        throw new HttpCallException(String.format(
+            "Failed to send request body %s to %s", body.describe(), url
+        ), e);
+      }
+    }
+    return stream;
+  }
+
+  private Http2Connection.Stream newStream(
+      URL url,
+      Map<String, String> headers,
+      boolean endStream,
+      boolean bufferBody
+  ) {
+    Http2Connection connection = connection(url);
+    try {
+      return connection.newStream(headers, endStream, bufferBody);
+    }
+    catch (IOException e) {
+      if (connection.isUsable()) {
+        throw callFailed(url, e);
+      }
+      // the connection was shut down before the stream was opened, e.g. by GOAWAY; retry once on a new one
+      try {
+        return connection(url).newStream(headers, endStream, bufferBody);
+      }
+      catch (IOException retryFailure) {
+        throw callFailed(url, retryFailure);
+      }
+    }
+  }
+
+  /**
+   * Returns the connection to the url's host, opening one if there is none or the current one can't take new
+   * streams. Concurrent callers wait for the same connection to open.
+   */
+  private Http2Connection connection(URL url) {
+    String route = url.getProtocol().toLowerCase(Locale.ROOT) + "://" + authority(url);
+    CompletableFuture<Http2Connection> connection;
+    boolean open = false;
+    lock.lock();
+    try {
+      if (closed) {
+        throw new HttpCallException("Client is closed");
+      }
+      connection = connections.get(route);
+      if (connection == null || connection.isDone() && !connection.join().isUsable()) {
+        connection = new CompletableFuture<>();
+        connections.put(route, connection);
+        open = true;
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+
+    if (open) {
+      openConnection(url, route, connection);
+    }
+    try {
+      return connection.join();
+    }
+    catch (CompletionException e) {
+      throw (HttpCallException) e.getCause();
+    }
+  }
+
+  private void openConnection(URL url, String route, CompletableFuture<Http2Connection> future) {
+    Http2Connection connection;
+    try {
+      connection = connect(url, route);
+    }
+    catch (IOException | RuntimeException e) {
+      lock.lock();
+      try {
+        connections.remove(route, future);
+      }
+      finally {
+        lock.unlock();
+      }
+      future.completeExceptionally(new HttpCallException(String.format(
+          "Failed to connect to url: %s. Reason: %s", url, e.getMessage()
+      ), e));
+      return;
+    }
+
+    boolean closedMeanwhile;
+    lock.lock();
+    try {
+      closedMeanwhile = closed;
+    }
+    finally {
+      lock.unlock();
+    }
+    if (closedMeanwhile) {
+      connection.close();
+      future.completeExceptionally(new HttpCallException("Client is closed"));
+    }
+    else {
+      future.complete(connection);
+    }
+  }
+
+  private Http2Connection connect(URL url, String route) throws IOException {
+    boolean secure = "https".equalsIgnoreCase(url.getProtocol());
+    int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+    Socket socket = connectSocket(url.getHost(), port);
+    try {
+      if (secure) {
+        socket = startTls(socket, url.getHost(), port);
+      }
+      return Http2Connection.open(
+          route, socket, headerTableSize, initialWindowSize, connectionWindowSize, maxFrameSize, connectTimeoutMillis,
+          readTimeoutMillis
+      );
+    }
+    catch (IOException | RuntimeException e) {
+      try {
+        socket.close();
+      }
+      catch (IOException ignored) {
+      }
+      throw e;
+    }
+  }
+
+  private Socket connectSocket(String host, int port) throws IOException {
+    List<InetAddress> addresses = dnsResolver.resolve(host);
+    if (addresses.isEmpty()) {
+      throw new UnknownHostException(host);
+    }
+    try {
+      return HappyEyeballs.connect(addresses, port, connectTimeoutMillis, connectStaggerMillis);
+    }
+    catch (ConnectException e) {
+      if (dnsResolver instanceof CachingDnsResolver) {
+        // none of the cached addresses took the connection, they may be stale
+        ((CachingDnsResolver) dnsResolver).invalidate(host);
+      }
+      throw e;
+    }
+  }
+
+  private Socket startTls(Socket plain, String host, int port) throws IOException {
+    SSLSocketFactory factory = sslSocketFactory == null
+        ? (SSLSocketFactory) SSLSocketFactory.getDefault()
+        : sslSocketFactory;
+    SSLSocket socket = (SSLSocket) factory.createSocket(plain, host, port, true);
+    SSLParameters parameters = socket.getSSLParameters();
+    parameters.setEndpointIdentificationAlgorithm("HTTPS");
+    parameters.setApplicationProtocols(new String[] {"h2"});
+    socket.setSSLParameters(parameters);
+    socket.startHandshake();
+    if (!"h2".equals(socket.getApplicationProtocol())) {
+      socket.close();
+      throw new IOException(host + ":" + port + " doesn't support HTTP/2");
+    }
+    return socket;
+  }
+
+  private CompletableFuture<HttpResponse> await(
+      HttpMethod method,
+      URL url,
+      String input,
+      Http2Connection.Stream stream
+  ) {
+    CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+    scheduleTimeout(stream);
+    stream.completion().whenCompleteAsync((ignored, error) -> {
+      try {
+        if (error != null) {
+          throw error instanceof CompletionException ? error.getCause() : error;
+        }
+        future.complete(toResponse(method, url, input, stream));
+      }
+      catch (IOException e) {
+        future.completeExceptionally(callFailed(url, e));
+      }
+      catch (Throwable e) {
+        future.completeExceptionally(e);
+      }
+    }, callbackExecutor);
+    return future;
+  }
+
+  /**
+   * Fails the stream once no frame was received for it for the read timeout.
+   */
+  private void scheduleTimeout(Http2Connection.Stream stream) {
+    if (readTimeoutMillis > 0) {
+      timeouts.schedule(() -> checkTimeout(stream), readTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void checkTimeout(Http2Connection.Stream stream) {
+    if (stream.completion().isDone()) {
+      return;
+    }
+    long remaining = TimeUnit.MILLISECONDS.toNanos(readTimeoutMillis) - stream.idleNanos();
+    if (remaining <= 0) {
+      stream.fail(new SocketTimeoutException("Read timed out"));
+    }
+    else {
+      timeouts.schedule(() -> checkTimeout(stream), remaining, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private HttpResponse awaitHead(HttpMethod method, URL url, String requestBody, Http2Connection.Stream stream) {
+    try {
+      stream.awaitResponse();
+    }
+    catch (IOException e) {
+      stream.fail(e);
+      throw callFailed(url, e);
+    }
+    return new HttpResponse()
+        .httpMethod(method)
+        .url(url.toString())
+        .requestBody(requestBody)
+        .code(stream.getStatus())
+        .responseHeaders(stream.getHeaders());
+  }
+
+  private static HttpResponse toResponse(
+      HttpMethod method,
+      URL url,
+      String requestBody,
+      Http2Connection.Stream stream
+  ) throws IOException {
+    byte[] body;
+    try (InputStream in = stream.responseBody()) {
+      body = StreamUtil.toByteArray(in);
+    }
+    HttpResponse response = new HttpResponse()
+        .httpMethod(method)
+        .url(url.toString())
+        .requestBody(requestBody)
+        .code(stream.getStatus())
+        .responseHeaders(stream.getHeaders());
+
+    String contentType = Headers.first(stream.getHeaders(), "content-type");
+    if (stream.getStatus() < 400 && TextDecoder.isBinary(contentType)) {
+      response.responseBinaryBody(body);
+    }
+    else {
+      response.responseBody(new String(body, TextDecoder.charset(contentType)));
+    }
+    return response;
+  }
+
+  private static Map<String, String> requestHeaders(
+      HttpMethod method,
+      URL url,
+      String contentType,
+      long contentLength,
+      Map<String, String> headers
+  ) {
+    String host = Headers.get(headers, "Host");
+    Map<String, String> requestHeaders = new LinkedHashMap<>();
+    requestHeaders.put(":method", method.name());
+    requestHeaders.put(":scheme", url.getProtocol().toLowerCase(Locale.ROOT));
+    requestHeaders.put(":authority", host == null ? authority(url) : host);
+    requestHeaders.put(":path", url.getFile().isEmpty() ? "/" : url.getFile());
+    requestHeaders.put("accept", "*/*");
+    if (contentType != null && !contentType.isEmpty()) {
+      requestHeaders.put("content-type", contentType);
+    }
+    // HTTP/2 header names are lowercase, and connection-specific headers are not allowed
+    headers.forEach((name, value) -> {
+      String lowercase = name.toLowerCase(Locale.ROOT);
+      if (value != null && !CONNECTION_HEADERS.contains(lowercase)) {
+        requestHeaders.put(lowercase, value);
+      }
+    });
+    if (contentLength >= 0) {
+      requestHeaders.put("content-length", String.valueOf(contentLength));
+    }
+    return requestHeaders;
+  }
+
+  private static String authority(URL url) {
+    return url.getPort() == -1 ? url.getHost() : url.getHost() + ":" + url.getPort();
+  }
+
+  private static long contentLength(HttpResponse response) {
+    String value = Headers.first(response.getResponseHeaders(), "content-length");
+    try {
+      return value == null ? -1 : Long.parseLong(value);
+    }
+    catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static URL parseUrl(String url) {
+    try {
+      URL endpoint = new URL(url);
+      if (!"http".equalsIgnoreCase(endpoint.getProtocol()) && !"https".equalsIgnoreCase(endpoint.getProtocol())) {
+        throw new MalformedURLException("Unsupported protocol " + endpoint.getProtocol());
+      }
+      return endpoint;
+    }
+    catch (MalformedURLException e) {
+      throw new HttpCallException(String.format("Failed to connect to url: %s", url), e);
+    }
+  }
+
+  private static HttpCallException callFailed(URL url, IOException e) {
+    if (e instanceof SocketTimeoutException) {
+      return new HttpCallException(String.format("Read timed out calling %s", url), e);
+    }
+    return new HttpCallException(String.format("Failed to call api endpoint [%s]", url), e);
+  }
+}
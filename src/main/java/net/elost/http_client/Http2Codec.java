@@ -0,0 +1,181 @@
+package net.elost.http_client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTTP/2 framing (RFC 7540 section 4) for {@link Http2Connection}.
+ */
+final class Http2Codec {
+  static final byte[] CONNECTION_PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+  static final int DEFAULT_WINDOW_SIZE = 65535;
+  static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+  static final int MAX_MAX_FRAME_SIZE = 16777215;
+
+  static final int TYPE_DATA = 0x0;
+  static final int TYPE_HEADERS = 0x1;
+  static final int TYPE_PRIORITY = 0x2;
+  static final int TYPE_RST_STREAM = 0x3;
+  static final int TYPE_SETTINGS = 0x4;
+  static final int TYPE_PUSH_PROMISE = 0x5;
+  static final int TYPE_PING = 0x6;
+  static final int TYPE_GOAWAY = 0x7;
+  static final int TYPE_WINDOW_UPDATE = 0x8;
+  static final int TYPE_CONTINUATION = 0x9;
+
+  static final int FLAG_END_STREAM = 0x1;
+  static final int FLAG_ACK = 0x1;
+  static final int FLAG_END_HEADERS = 0x4;
+  static final int FLAG_PADDED = 0x8;
+  static final int FLAG_PRIORITY = 0x20;
+
+  static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+  static final int SETTINGS_ENABLE_PUSH = 0x2;
+  static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+  static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+  static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+  static final int NO_ERROR = 0x0;
+  static final int PROTOCOL_ERROR = 0x1;
+  static final int FLOW_CONTROL_ERROR = 0x3;
+  static final int FRAME_SIZE_ERROR = 0x6;
+  static final int REFUSED_STREAM = 0x7;
+  static final int CANCEL = 0x8;
+  static final int COMPRESSION_ERROR = 0x9;
+
+  private static final String[] ERROR_NAMES = {
+      "NO_ERROR", "PROTOCOL_ERROR", "INTERNAL_ERROR", "FLOW_CONTROL_ERROR", "SETTINGS_TIMEOUT", "STREAM_CLOSED",
+      "FRAME_SIZE_ERROR", "REFUSED_STREAM", "CANCEL", "COMPRESSION_ERROR", "CONNECT_ERROR", "ENHANCE_YOUR_CALM",
+      "INADEQUATE_SECURITY", "HTTP_1_1_REQUIRED"
+  };
+
+  private Http2Codec() {
+  }
+
+  static final class Frame {
+    final int type;
+    final int flags;
+    final int streamId;
+    final byte[] payload;
+
+    private Frame(int type, int flags, int streamId, byte[] payload) {
+      this.type = type;
+      this.flags = flags;
+      this.streamId = streamId;
+      this.payload = payload;
+    }
+
+    boolean hasFlag(int flag) {
+      return (flags & flag) != 0;
+    }
+  }
+
+  /**
+   * @return the next frame, or null if the peer closed the connection between frames
+   */
+  static Frame readFrame(InputStream in, int maxFrameSize) throws IOException {
+    byte[] header = new byte[9];
+    int first = in.read();
+    if (first == -1) {
+      return null;
+    }
+    header[0] = (byte) first;
+    readFully(in, header, 1, header.length - 1);
+
+    int length = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+    if (length > maxFrameSize) {
+      throw new ProtocolException(String.format("HTTP/2 frame of %d bytes exceeds SETTINGS_MAX_FRAME_SIZE", length));
+    }
+    byte[] payload = new byte[length];
+    readFully(in, payload, 0, length);
+    return new Frame(header[3] & 0xff, header[4] & 0xff, readInt(header, 5) & 0x7fffffff, payload);
+  }
+
+  static void writeFrame(OutputStream out, int type, int flags, int streamId, byte[] payload) throws IOException {
+    writeFrame(out, type, flags, streamId, payload, 0, payload.length);
+  }
+
+  static void writeFrame(
+      OutputStream out,
+      int type,
+      int flags,
+      int streamId,
+      byte[] payload,
+      int offset,
+      int length
+  ) throws IOException {
+    out.write(length >>> 16);
+    out.write(length >>> 8);
+    out.write(length);
+    out.write(type);
+    out.write(flags);
+    writeInt(out, streamId);
+    out.write(payload, offset, length);
+  }
+
+  static byte[] settings(int... idsAndValues) {
+    byte[] payload = new byte[idsAndValues.length / 2 * 6];
+    for (int i = 0, position = 0; i < idsAndValues.length; i += 2, position += 6) {
+      payload[position] = (byte) (idsAndValues[i] >>> 8);
+      payload[position + 1] = (byte) idsAndValues[i];
+      putInt(payload, position + 2, idsAndValues[i + 1]);
+    }
+    return payload;
+  }
+
+  static byte[] intPayload(int value) {
+    byte[] payload = new byte[4];
+    putInt(payload, 0, value);
+    return payload;
+  }
+
+  static byte[] goAway(int lastStreamId, int errorCode) {
+    byte[] payload = new byte[8];
+    putInt(payload, 0, lastStreamId);
+    putInt(payload, 4, errorCode);
+    return payload;
+  }
+
+  static int readInt(byte[] bytes, int offset) {
+    return ((bytes[offset] & 0xff) << 24)
+        | ((bytes[offset + 1] & 0xff) << 16)
+        | ((bytes[offset + 2] & 0xff) << 8)
+        | (bytes[offset + 3] & 0xff);
+  }
+
+  static String errorName(int errorCode) {
+    return errorCode >= 0 && errorCode < ERROR_NAMES.length
+        ? ERROR_NAMES[errorCode]
+        : "0x" + Integer.toHexString(errorCode);
+  }
+
+  private static void putInt(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte) (value >>> 24);
+    bytes[offset + 1] = (byte) (value >>> 16);
+    bytes[offset + 2] = (byte) (value >>> 8);
+    bytes[offset + 3] = (byte) value;
+  }
+
+  private static void writeInt(OutputStream out, int value) throws IOException {
+    out.write(value >>> 24);
+    out.write(value >>> 16);
+    out.write(value >>> 8);
+    out.write(value);
+  }
+
+  private static void readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+    while (length > 0) {
+      int read = in.read(buffer, offset, length);
+      if (read == -1) {
+        throw new EOFException("Connection closed in the middle of an HTTP/2 frame");
+      }
+      offset += read;
+      length -= read;
+    }
+  }
+}
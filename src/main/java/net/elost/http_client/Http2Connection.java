@@ -0,0 +1,1112 @@
+package net.elost.http_client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static net.elost.http_client.Http2Codec.*;
+
+/**
+ * A multiplexed HTTP/2 connection of an {@link Http2Client}. Streams are opened and written by the calling threads,
+ * all frames are read by one reader thread per connection.
+ * <p>
+ * {@code writeLock} serializes frames on the socket and guards the HPACK encoder, {@code lock} guards the streams
+ * and the flow-control windows. {@code writeLock} may be taken while holding nothing or before {@code lock},
+ * never while holding {@code lock}.
+ */
+class Http2Connection implements Closeable {
+  private final String route;
+  private final Socket socket;
+  private final InputStream in;
+  private final OutputStream out;
+  private final int initialWindowSize;
+  private final int connectionWindowSize;
+  private final int maxFrameSize;
+  private final long readTimeoutNanos;
+  private final long streamWaitNanos;
+
+  private final ReentrantLock writeLock = new ReentrantLock();
+  private final Hpack.Encoder encoder = new Hpack.Encoder();
+  private final Hpack.Decoder decoder;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition changed = lock.newCondition();
+  private final Map<Integer, Stream> streams = new HashMap<>();
+  private int nextStreamId = 1;
+  private int openStreams;
+  private int peerMaxConcurrentStreams = Integer.MAX_VALUE;
+  private int peerInitialWindowSize = DEFAULT_WINDOW_SIZE;
+  private volatile int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+  private long sendWindow = DEFAULT_WINDOW_SIZE;
+  private int unacknowledged;
+  private boolean shutdown;
+  private IOException failure;
+
+  private Http2Connection(
+      String route,
+      Socket socket,
+      int headerTableSize,
+      int initialWindowSize,
+      int connectionWindowSize,
+      int maxFrameSize,
+      int connectTimeoutMillis,
+      int readTimeoutMillis
+  ) throws IOException {
+    this.route = route;
+    this.socket = socket;
+    this.in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+    this.out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+    this.initialWindowSize = initialWindowSize;
+    this.connectionWindowSize = connectionWindowSize;
+    this.maxFrameSize = maxFrameSize;
+    this.readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(readTimeoutMillis);
+    this.streamWaitNanos = TimeUnit.MILLISECONDS.toNanos(
+        readTimeoutMillis > 0 ? readTimeoutMillis : connectTimeoutMillis
+    );
+    this.decoder = new Hpack.Decoder(headerTableSize);
+  }
+
+  /**
+   * Sends the connection preface and the local settings over a connected socket and starts the reader thread.
+   * Waiting for a stream slot is bounded by the read timeout, or the connect timeout if reads don't time out.
+   */
+  static Http2Connection open(
+      String route,
+      Socket socket,
+      int headerTableSize,
+      int initialWindowSize,
+      int connectionWindowSize,
+      int maxFrameSize,
+      int connectTimeoutMillis,
+      int readTimeoutMillis
+  ) throws IOException {
+    Http2Connection connection = new Http2Connection(
+        route, socket, headerTableSize, initialWindowSize, connectionWindowSize, maxFrameSize, connectTimeoutMillis,
+        readTimeoutMillis
+    );
+    connection.start(headerTableSize);
+    return connection;
+  }
+
+  private void start(int headerTableSize) throws IOException {
+    out.write(CONNECTION_PREFACE);
+    writeFrame(out, TYPE_SETTINGS, 0, 0, settings(
+        SETTINGS_ENABLE_PUSH, 0,
+        SETTINGS_HEADER_TABLE_SIZE, headerTableSize,
+        SETTINGS_INITIAL_WINDOW_SIZE, initialWindowSize,
+        SETTINGS_MAX_FRAME_SIZE, maxFrameSize
+    ));
+    if (connectionWindowSize > DEFAULT_WINDOW_SIZE) {
+      writeFrame(out, TYPE_WINDOW_UPDATE, 0, 0, intPayload(connectionWindowSize - DEFAULT_WINDOW_SIZE));
+    }
+    out.flush();
+
+    Thread reader = new Thread(this::readFrames, "http-client-h2-" + route);
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  String getRoute() {
+    return route;
+  }
+
+  /**
+   * @return whether new streams can be opened, i.e. the connection neither failed nor received GOAWAY
+   */
+  boolean isUsable() {
+    lock.lock();
+    try {
+      return failure == null && !shutdown;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Opens a stream and sends its header block, waiting while the peer's SETTINGS_MAX_CONCURRENT_STREAMS is reached.
+   *
+   * @throws SocketTimeoutException if no stream slot frees up in time
+   * @param endStream   whether the request has no body
+   * @param bufferBody  whether the response body is read only after it is complete, so received data is
+   *                    acknowledged to the peer right away instead of when it is read
+   */
+  Stream newStream(Map<String, String> headers, boolean endStream, boolean bufferBody) throws IOException {
+    lock.lock();
+    try {
+      long deadline = streamWaitNanos == 0 ? Long.MAX_VALUE : System.nanoTime() + streamWaitNanos;
+      while (failure == null && !shutdown && openStreams >= peerMaxConcurrentStreams) {
+        if (deadline != Long.MAX_VALUE && deadline - System.nanoTime() <= 0) {
+          throw new SocketTimeoutException(String.format(
+              "Timed out waiting for one of %d concurrent streams of HTTP/2 connection to %s",
+              peerMaxConcurrentStreams, route
+          ));
+        }
+        await(changed, deadline);
+      }
+      checkUsable();
+      openStreams++;
+    }
+    finally {
+      lock.unlock();
+    }
+
+    writeLock.lock();
+    try {
+      Stream stream;
+      lock.lock();
+      try {
+        if (failure != null || shutdown) {
+          openStreams--;
+          changed.signalAll();
+          checkUsable();
+        }
+        stream = new Stream(nextStreamId, peerInitialWindowSize, bufferBody);
+        stream.localEnded = endStream;
+        streams.put(stream.id, stream);
+        nextStreamId += 2;
+        if (nextStreamId < 0) {
+          // stream ids are exhausted, later requests go to a new connection
+          shutdown = true;
+        }
+      }
+      finally {
+        lock.unlock();
+      }
+      writeHeaders(stream.id, encoder.encode(headers), endStream);
+      return stream;
+    }
+    catch (IOException e) {
+      fail(e);
+      throw e;
+    }
+    finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Sends GOAWAY and fails the streams still in flight.
+   */
+  @Override
+  public void close() {
+    writeLock.lock();
+    try {
+      writeFrame(out, TYPE_GOAWAY, 0, 0, goAway(0, NO_ERROR));
+      out.flush();
+    }
+    catch (IOException ignored) {
+    }
+    finally {
+      writeLock.unlock();
+    }
+    fail(new IOException("Connection to " + route + " is closed"));
+  }
+
+  private void checkUsable() throws IOException {
+    if (failure != null) {
+      throw new IOException("HTTP/2 connection to " + route + " failed", failure);
+    }
+    if (shutdown) {
+      throw new IOException("HTTP/2 connection to " + route + " is shut down");
+    }
+  }
+
+  private void writeHeaders(int streamId, byte[] block, boolean endStream) throws IOException {
+    int frameSize = peerMaxFrameSize;
+    int length = Math.min(block.length, frameSize);
+    int flags = (endStream ? FLAG_END_STREAM : 0) | (length == block.length ? FLAG_END_HEADERS : 0);
+    writeFrame(out, TYPE_HEADERS, flags, streamId, block, 0, length);
+    for (int offset = length; offset < block.length; offset += length) {
+      length = Math.min(block.length - offset, frameSize);
+      int continuationFlags = offset + length == block.length ? FLAG_END_HEADERS : 0;
+      writeFrame(out, TYPE_CONTINUATION, continuationFlags, streamId, block, offset, length);
+    }
+    out.flush();
+  }
+
+  /**
+   * Sends request body data in frames that fit both flow-control windows, waiting for WINDOW_UPDATE when they are
+   * exhausted.
+   */
+  private void writeData(Stream stream, byte[] data, int offset, int length, boolean endStream) throws IOException {
+    if (length == 0 && !endStream) {
+      return;
+    }
+    do {
+      int chunk;
+      lock.lock();
+      try {
+        long deadline = deadline();
+        while (true) {
+          checkUsable();
+          stream.checkWritable();
+          if (length == 0 || Math.min(sendWindow, stream.sendWindow) > 0) {
+            break;
+          }
+          await(changed, deadline);
+        }
+        chunk = (int) Math.min(Math.min(length, Math.min(sendWindow, stream.sendWindow)), peerMaxFrameSize);
+        sendWindow -= chunk;
+        stream.sendWindow -= chunk;
+      }
+      finally {
+        lock.unlock();
+      }
+
+      boolean last = endStream && chunk == length;
+      writeLock.lock();
+      try {
+        writeFrame(out, TYPE_DATA, last ? FLAG_END_STREAM : 0, stream.id, data, offset, chunk);
+        out.flush();
+      }
+      catch (IOException e) {
+        fail(e);
+        throw e;
+      }
+      finally {
+        writeLock.unlock();
+      }
+      offset += chunk;
+      length -= chunk;
+
+      if (last) {
+        lock.lock();
+        try {
+          stream.localEnded = true;
+          closeIfDone(stream);
+        }
+        finally {
+          lock.unlock();
+        }
+      }
+    }
+    while (length > 0);
+  }
+
+  /**
+   * Returns flow-control credit for response data the application has read, or that was discarded.
+   */
+  private void consumed(Stream stream, int bytes) {
+    int connectionIncrement = 0;
+    int streamIncrement = 0;
+    lock.lock();
+    try {
+      if (failure != null) {
+        return;
+      }
+      unacknowledged += bytes;
+      if (unacknowledged >= connectionWindowSize / 2) {
+        connectionIncrement = unacknowledged;
+        unacknowledged = 0;
+      }
+      if (stream != null && !stream.remoteEnded && !stream.reset) {
+        stream.unacknowledged += bytes;
+        if (stream.unacknowledged >= initialWindowSize / 2) {
+          streamIncrement = stream.unacknowledged;
+          stream.unacknowledged = 0;
+        }
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+
+    if (connectionIncrement > 0 || streamIncrement > 0) {
+      writeLock.lock();
+      try {
+        if (connectionIncrement > 0) {
+          writeFrame(out, TYPE_WINDOW_UPDATE, 0, 0, intPayload(connectionIncrement));
+        }
+        if (streamIncrement > 0) {
+          writeFrame(out, TYPE_WINDOW_UPDATE, 0, stream.id, intPayload(streamIncrement));
+        }
+        out.flush();
+      }
+      catch (IOException e) {
+        fail(e);
+      }
+      finally {
+        writeLock.unlock();
+      }
+    }
+  }
+
+  private void resetStream(int streamId, int errorCode) {
+    writeLock.lock();
+    try {
+      writeFrame(out, TYPE_RST_STREAM, 0, streamId, intPayload(errorCode));
+      out.flush();
+    }
+    catch (IOException e) {
+      fail(e);
+    }
+    finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Removes the stream once both sides are done with it. Must be called holding {@code lock}.
+   */
+  private void closeIfDone(Stream stream) {
+    if (!stream.closed && stream.localEnded && (stream.remoteEnded || stream.reset)) {
+      stream.closed = true;
+      streams.remove(stream.id);
+      openStreams--;
+      changed.signalAll();
+      if (shutdown && streams.isEmpty()) {
+        closeSocket();
+      }
+    }
+  }
+
+  private void fail(IOException e) {
+    List<Stream> failed;
+    lock.lock();
+    try {
+      if (failure != null) {
+        return;
+      }
+      failure = e;
+      shutdown = true;
+      failed = new ArrayList<>(streams.values());
+      for (Stream stream : failed) {
+        if (!stream.remoteEnded && stream.failure == null) {
+          stream.failure = e;
+        }
+        stream.closed = true;
+        stream.changed.signalAll();
+      }
+      streams.clear();
+      openStreams = 0;
+      changed.signalAll();
+    }
+    finally {
+      lock.unlock();
+    }
+    closeSocket();
+    failed.forEach(Stream::signalCompletion);
+  }
+
+  private void closeSocket() {
+    try {
+      socket.close();
+    }
+    catch (IOException ignored) {
+    }
+  }
+
+  private void readFrames() {
+    IOException error = null;
+    try {
+      int headersStreamId = 0;
+      int headersFlags = 0;
+      ByteArrayOutputStream headerBlock = null;
+      Frame frame;
+      while ((frame = readFrame(in, maxFrameSize)) != null) {
+        if (headerBlock != null && (frame.type != TYPE_CONTINUATION || frame.streamId != headersStreamId)) {
+          throw new ProtocolException("Expected CONTINUATION of the header block of stream " + headersStreamId);
+        }
+        switch (frame.type) {
+          case TYPE_DATA:
+            onData(frame);
+            break;
+          case TYPE_HEADERS:
+            byte[] fragment = headerBlockFragment(frame);
+            if (frame.hasFlag(FLAG_END_HEADERS)) {
+              onHeaders(frame.streamId, fragment, frame.hasFlag(FLAG_END_STREAM));
+            }
+            else {
+              headersStreamId = frame.streamId;
+              headersFlags = frame.flags;
+              headerBlock = new ByteArrayOutputStream();
+              headerBlock.write(fragment, 0, fragment.length);
+            }
+            break;
+          case TYPE_CONTINUATION:
+            if (headerBlock == null) {
+              throw new ProtocolException("CONTINUATION without a header block");
+            }
+            headerBlock.write(frame.payload, 0, frame.payload.length);
+            if (frame.hasFlag(FLAG_END_HEADERS)) {
+              onHeaders(headersStreamId, headerBlock.toByteArray(), (headersFlags & FLAG_END_STREAM) != 0);
+              headerBlock = null;
+            }
+            break;
+          case TYPE_RST_STREAM:
+            checkLength(frame, 4, 4);
+            onReset(frame.streamId, readInt(frame.payload, 0));
+            break;
+          case TYPE_SETTINGS:
+            onSettings(frame);
+            break;
+          case TYPE_PUSH_PROMISE:
+            throw new ProtocolException("PUSH_PROMISE received although push is disabled");
+          case TYPE_PING:
+            checkLength(frame, 8, 8);
+            if (!frame.hasFlag(FLAG_ACK)) {
+              writeControlFrame(TYPE_PING, FLAG_ACK, frame.payload);
+            }
+            break;
+          case TYPE_GOAWAY:
+            checkLength(frame, 8, Integer.MAX_VALUE);
+            onGoAway(readInt(frame.payload, 0) & 0x7fffffff, readInt(frame.payload, 4));
+            break;
+          case TYPE_WINDOW_UPDATE:
+            checkLength(frame, 4, 4);
+            onWindowUpdate(frame.streamId, readInt(frame.payload, 0) & 0x7fffffff);
+            break;
+          default:
+            // PRIORITY and unknown frame types are ignored
+        }
+      }
+      error = new EOFException("HTTP/2 connection closed by " + route);
+    }
+    catch (ProtocolException e) {
+      int errorCode = e instanceof FrameSizeException ? FRAME_SIZE_ERROR : PROTOCOL_ERROR;
+      writeControlFrameQuietly(TYPE_GOAWAY, 0, goAway(0, errorCode));
+      error = e;
+    }
+    catch (IOException e) {
+      error = e;
+    }
+    catch (RuntimeException e) {
+      error = new IOException("Failed to read HTTP/2 frames from " + route, e);
+    }
+    finally {
+      // an Error ends the reader too, the connection must not look usable afterwards
+      fail(error != null ? error : new IOException("HTTP/2 reader of " + route + " stopped"));
+    }
+  }
+
+  private static void checkLength(Frame frame, int min, int max) throws FrameSizeException {
+    if (frame.payload.length < min || frame.payload.length > max) {
+      throw new FrameSizeException(String.format(
+          "HTTP/2 frame of type %d with a payload of %d bytes", frame.type, frame.payload.length
+      ));
+    }
+  }
+
+  private byte[] headerBlockFragment(Frame frame) throws ProtocolException {
+    int start = 0;
+    int end = frame.payload.length;
+    if (frame.hasFlag(FLAG_PADDED)) {
+      if (end == 0) {
+        throw new ProtocolException("Invalid padding in HEADERS of stream " + frame.streamId);
+      }
+      end -= frame.payload[start++] & 0xff;
+    }
+    if (frame.hasFlag(FLAG_PRIORITY)) {
+      start += 5;
+    }
+    if (start > end) {
+      throw new ProtocolException("Invalid padding in HEADERS of stream " + frame.streamId);
+    }
+    byte[] fragment = new byte[end - start];
+    System.arraycopy(frame.payload, start, fragment, 0, fragment.length);
+    return fragment;
+  }
+
+  private void onData(Frame frame) throws ProtocolException {
+    int start = 0;
+    int end = frame.payload.length;
+    if (frame.hasFlag(FLAG_PADDED)) {
+      if (end == 0) {
+        throw new ProtocolException("Invalid padding in DATA of stream " + frame.streamId);
+      }
+      end -= frame.payload[start++] & 0xff;
+      if (end < start) {
+        throw new ProtocolException("Invalid padding in DATA of stream " + frame.streamId);
+      }
+    }
+
+    Stream stream;
+    int credit = frame.payload.length;
+    boolean completed = false;
+    lock.lock();
+    try {
+      stream = streams.get(frame.streamId);
+      if (stream != null && !stream.reset) {
+        stream.lastActivityNanos = System.nanoTime();
+        if (end > start) {
+          stream.data.add(ByteBuffer.wrap(frame.payload, start, end - start));
+          if (!stream.bufferBody) {
+            // the data itself is credited when the application reads it
+            credit -= end - start;
+          }
+        }
+        if (frame.hasFlag(FLAG_END_STREAM)) {
+          stream.remoteEnded = true;
+          completed = true;
+          closeIfDone(stream);
+        }
+        stream.changed.signalAll();
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+    if (credit > 0) {
+      consumed(stream, credit);
+    }
+    if (completed) {
+      stream.signalCompletion();
+    }
+  }
+
+  private void onHeaders(int streamId, byte[] block, boolean endStream) throws ProtocolException {
+    String[] statusValue = {null};
+    Map<String, List<String>> headers = new LinkedHashMap<>();
+    // decoded even for unknown streams, to keep the HPACK dynamic table in sync
+    decoder.decode(block, (name, value) -> {
+      if (name.equals(":status")) {
+        statusValue[0] = value;
+      }
+      else if (!name.startsWith(":")) {
+        headers.computeIfAbsent(name, key -> new ArrayList<>(1)).add(value);
+      }
+    });
+    int status = statusValue[0] == null ? -1 : parseStatus(statusValue[0]);
+
+    Stream stream;
+    boolean completed = false;
+    lock.lock();
+    try {
+      stream = streams.get(streamId);
+      if (stream == null || stream.reset) {
+        return;
+      }
+      stream.lastActivityNanos = System.nanoTime();
+      if (stream.status == -1) {
+        if (status == -1) {
+          stream.failure = new ProtocolException("Response of stream " + streamId + " has no :status");
+          completed = true;
+        }
+        else if (status >= 200) {
+          stream.status = status;
+          stream.headers = Collections.unmodifiableMap(headers);
+        }
+      }
+      // informational responses and trailers are dropped
+      if (endStream) {
+        if (stream.status == -1 && stream.failure == null) {
+          stream.failure = new ProtocolException("Stream " + streamId + " ended without a final response");
+        }
+        stream.remoteEnded = true;
+        completed = true;
+        closeIfDone(stream);
+      }
+      stream.changed.signalAll();
+    }
+    finally {
+      lock.unlock();
+    }
+    if (completed) {
+      stream.signalCompletion();
+    }
+  }
+
+  private static int parseStatus(String value) throws ProtocolException {
+    try {
+      return Integer.parseInt(value);
+    }
+    catch (NumberFormatException e) {
+      throw new ProtocolException("Malformed :status " + value);
+    }
+  }
+
+  private void onReset(int streamId, int errorCode) {
+    Stream stream;
+    lock.lock();
+    try {
+      stream = streams.get(streamId);
+      if (stream == null) {
+        return;
+      }
+      stream.reset = true;
+      if (!stream.remoteEnded || errorCode != NO_ERROR) {
+        stream.failure = new IOException(String.format(
+            "Stream %d to %s reset by the server: %s", streamId, route, errorName(errorCode)
+        ));
+      }
+      stream.localEnded = true;
+      closeIfDone(stream);
+      stream.changed.signalAll();
+      changed.signalAll();
+    }
+    finally {
+      lock.unlock();
+    }
+    stream.signalCompletion();
+  }
+
+  private void onSettings(Frame frame) throws IOException {
+    if (frame.hasFlag(FLAG_ACK)) {
+      return;
+    }
+    if (frame.payload.length % 6 != 0) {
+      throw new FrameSizeException("SETTINGS payload of " + frame.payload.length + " bytes");
+    }
+    int headerTableSize = -1;
+    lock.lock();
+    try {
+      for (int position = 0; position < frame.payload.length; position += 6) {
+        int id = ((frame.payload[position] & 0xff) << 8) | (frame.payload[position + 1] & 0xff);
+        int value = readInt(frame.payload, position + 2);
+        switch (id) {
+          case SETTINGS_HEADER_TABLE_SIZE:
+            headerTableSize = value < 0 ? Integer.MAX_VALUE : value;
+            break;
+          case SETTINGS_MAX_CONCURRENT_STREAMS:
+            peerMaxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+            break;
+          case SETTINGS_INITIAL_WINDOW_SIZE:
+            if (value < 0) {
+              throw new ProtocolException("SETTINGS_INITIAL_WINDOW_SIZE above the maximum window size");
+            }
+            int delta = value - peerInitialWindowSize;
+            streams.values().forEach(stream -> stream.sendWindow += delta);
+            peerInitialWindowSize = value;
+            break;
+          case SETTINGS_MAX_FRAME_SIZE:
+            if (value < DEFAULT_MAX_FRAME_SIZE || value > MAX_MAX_FRAME_SIZE) {
+              throw new ProtocolException("Invalid SETTINGS_MAX_FRAME_SIZE " + value);
+            }
+            peerMaxFrameSize = value;
+            break;
+          default:
+            // SETTINGS_ENABLE_PUSH, SETTINGS_MAX_HEADER_LIST_SIZE and unknown settings need no action
+        }
+      }
+      changed.signalAll();
+    }
+    finally {
+      lock.unlock();
+    }
+
+    writeLock.lock();
+    try {
+      if (headerTableSize != -1) {
+        encoder.setMaxTableSize(headerTableSize);
+      }
+      writeFrame(out, TYPE_SETTINGS, FLAG_ACK, 0, new byte[0]);
+      out.flush();
+    }
+    finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void onGoAway(int lastStreamId, int errorCode) {
+    List<Stream> refused = new ArrayList<>();
+    lock.lock();
+    try {
+      shutdown = true;
+      for (Stream stream : new ArrayList<>(streams.values())) {
+        if (stream.id > lastStreamId) {
+          stream.reset = true;
+          stream.localEnded = true;
+          stream.failure = new IOException(String.format(
+              "Stream %d refused by %s with GOAWAY: %s", stream.id, route, errorName(errorCode)
+          ));
+          closeIfDone(stream);
+          stream.changed.signalAll();
+          refused.add(stream);
+        }
+      }
+      changed.signalAll();
+      if (streams.isEmpty()) {
+        closeSocket();
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+    refused.forEach(Stream::signalCompletion);
+  }
+
+  private void onWindowUpdate(int streamId, int increment) throws ProtocolException {
+    if (increment == 0) {
+      throw new ProtocolException("WINDOW_UPDATE with an increment of 0");
+    }
+    lock.lock();
+    try {
+      if (streamId == 0) {
+        sendWindow += increment;
+        if (sendWindow > Integer.MAX_VALUE) {
+          throw new ProtocolException("Connection flow-control window above the maximum");
+        }
+      }
+      else {
+        Stream stream = streams.get(streamId);
+        if (stream != null) {
+          stream.sendWindow += increment;
+        }
+      }
+      changed.signalAll();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  private void writeControlFrame(int type, int flags, byte[] payload) throws IOException {
+    writeLock.lock();
+    try {
+      writeFrame(out, type, flags, 0, payload);
+      out.flush();
+    }
+    finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void writeControlFrameQuietly(int type, int flags, byte[] payload) {
+    try {
+      writeControlFrame(type, flags, payload);
+    }
+    catch (IOException ignored) {
+    }
+  }
+
+  private long deadline() {
+    return readTimeoutNanos == 0 ? Long.MAX_VALUE : System.nanoTime() + readTimeoutNanos;
+  }
+
+  private static void await(Condition condition, long deadlineNanos) throws IOException {
+    try {
+      if (deadlineNanos == Long.MAX_VALUE) {
+        condition.await();
+        return;
+      }
+      long remaining = deadlineNanos - System.nanoTime();
+      if (remaining <= 0) {
+        throw new SocketTimeoutException("Read timed out");
+      }
+      condition.awaitNanos(remaining);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the HTTP/2 connection");
+    }
+  }
+
+  /**
+   * One request/response exchange. All fields are guarded by the connection lock.
+   */
+  class Stream implements Closeable {
+    private final int id;
+    private final boolean bufferBody;
+    private final Condition changed = lock.newCondition();
+    private final ArrayDeque<ByteBuffer> data = new ArrayDeque<>();
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private long sendWindow;
+    private int unacknowledged;
+    private int status = -1;
+    private Map<String, List<String>> headers;
+    private boolean localEnded;
+    private boolean remoteEnded;
+    private boolean reset;
+    private boolean closed;
+    private IOException failure;
+    private long lastActivityNanos = System.nanoTime();
+
+    private Stream(int id, long sendWindow, boolean bufferBody) {
+      this.id = id;
+      this.sendWindow = sendWindow;
+      this.bufferBody = bufferBody;
+    }
+
+    /**
+     * Waits for the final response headers.
+     */
+    void awaitResponse() throws IOException {
+      lock.lock();
+      try {
+        long deadline = deadline();
+        while (status == -1) {
+          if (failure != null) {
+            throw failure;
+          }
+          await(changed, deadline);
+        }
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+
+    int getStatus() {
+      lock.lock();
+      try {
+        return status;
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+
+    Map<String, List<String>> getHeaders() {
+      lock.lock();
+      try {
+        return headers;
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Completes when the response is complete or the stream failed. Completed on the reader thread.
+     */
+    CompletableFuture<Void> completion() {
+      return completion;
+    }
+
+    /**
+     * @return nanoseconds since a frame was last received for the stream
+     */
+    long idleNanos() {
+      lock.lock();
+      try {
+        return System.nanoTime() - lastActivityNanos;
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * The request body, sent in DATA frames. Closing it ends the stream.
+     */
+    OutputStream requestBody() {
+      return new RequestBodyStream();
+    }
+
+    /**
+     * The response body, valid after {@link #awaitResponse()}. Reads time out like the socket reads of
+     * the HTTP/1.1 transports.
+     */
+    InputStream responseBody() {
+      return new ResponseBodyStream();
+    }
+
+    /**
+     * Fails the stream and resets it, e.g. when the caller gave up waiting for it.
+     */
+    void fail(IOException e) {
+      lock.lock();
+      try {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+      finally {
+        lock.unlock();
+      }
+      close();
+    }
+
+    /**
+     * Resets the stream unless it is complete, discarding unread response data.
+     */
+    @Override
+    public void close() {
+      boolean sendReset;
+      int discarded = 0;
+      lock.lock();
+      try {
+        sendReset = !reset && !(localEnded && remoteEnded) && Http2Connection.this.failure == null;
+        if (failure == null && !remoteEnded) {
+          failure = new IOException("Stream " + id + " was cancelled");
+        }
+        if (sendReset) {
+          reset = true;
+        }
+        for (ByteBuffer chunk : data) {
+          discarded += chunk.remaining();
+        }
+        data.clear();
+        localEnded = true;
+        closeIfDone(this);
+        changed.signalAll();
+        Http2Connection.this.changed.signalAll();
+      }
+      finally {
+        lock.unlock();
+      }
+      if (sendReset) {
+        resetStream(id, CANCEL);
+      }
+      if (discarded > 0 && !bufferBody) {
+        consumed(null, discarded);
+      }
+      signalCompletion();
+    }
+
+    private void checkWritable() throws IOException {
+      if (failure != null) {
+        throw failure;
+      }
+      if (reset) {
+        throw new IOException("Stream " + id + " was reset");
+      }
+    }
+
+    private void signalCompletion() {
+      IOException error;
+      boolean done;
+      lock.lock();
+      try {
+        error = failure;
+        done = remoteEnded || failure != null;
+      }
+      finally {
+        lock.unlock();
+      }
+      if (error != null) {
+        completion.completeExceptionally(error);
+      }
+      else if (done) {
+        completion.complete(null);
+      }
+    }
+
+    private class RequestBodyStream extends OutputStream {
+      private final byte[] buffer = new byte[DEFAULT_MAX_FRAME_SIZE];
+      private int count;
+      private boolean closed;
+
+      @Override
+      public void write(int b) throws IOException {
+        if (count == buffer.length) {
+          flush();
+        }
+        buffer[count++] = (byte) b;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        if (len >= buffer.length) {
+          flush();
+          writeData(Stream.this, b, off, len, false);
+          return;
+        }
+        if (len > buffer.length - count) {
+          flush();
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+      }
+
+      @Override
+      public void flush() throws IOException {
+        if (count > 0) {
+          writeData(Stream.this, buffer, 0, count, false);
+          count = 0;
+        }
+      }
+
+      @Override
+      public void close() throws IOException {
+        if (!closed) {
+          closed = true;
+          writeData(Stream.this, buffer, 0, count, true);
+          count = 0;
+        }
+      }
+    }
+
+    private class ResponseBodyStream extends InputStream {
+
+      @Override
+      public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+          return 0;
+        }
+        int read;
+        lock.lock();
+        try {
+          long deadline = deadline();
+          while (data.isEmpty()) {
+            if (failure != null) {
+              throw failure;
+            }
+            if (remoteEnded) {
+              return -1;
+            }
+            await(changed, deadline);
+          }
+          ByteBuffer chunk = data.peek();
+          read = Math.min(len, chunk.remaining());
+          chunk.get(b, off, read);
+          if (!chunk.hasRemaining()) {
+            data.poll();
+          }
+        }
+        finally {
+          lock.unlock();
+        }
+        if (!bufferBody) {
+          consumed(Stream.this, read);
+        }
+        return read;
+      }
+
+      @Override
+      public int available() {
+        lock.lock();
+        try {
+          return data.isEmpty() ? 0 : data.peek().remaining();
+        }
+        finally {
+          lock.unlock();
+        }
+      }
+
+      @Override
+      public void close() {
+        Stream.this.close();
+      }
+    }
+  }
+
+  /**
+   * A frame with a payload length its type doesn't allow, answered with GOAWAY FRAME_SIZE_ERROR.
+   */
+  private static class FrameSizeException extends ProtocolException {
+    private static final long serialVersionUID = 1L;
+
+    FrameSizeException(String message) {
+      super(message);
+    }
+  }
+}
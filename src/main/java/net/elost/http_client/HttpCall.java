@@ -0,0 +1,42 @@
+package net.elost.http_client;
+
+import java.net.URL;
+
+/**
+ * A call as seen by an {@link HttpEventListener}. The same instance is passed to every event of the call.
+ */
+public final class HttpCall {
+  private final HttpMethod httpMethod;
+  private final URL url;
+  private final long startNanos;
+
+  HttpCall(HttpMethod httpMethod, URL url, long startNanos) {
+    this.httpMethod = httpMethod;
+    this.url = url;
+    this.startNanos = startNanos;
+  }
+
+  public HttpMethod getHttpMethod() {
+    return httpMethod;
+  }
+
+  public URL getUrl() {
+    return url;
+  }
+
+  public String getHost() {
+    return url.getHost();
+  }
+
+  /**
+   * @return {@link System#nanoTime()} at the start of the call, the base for durations in event callbacks
+   */
+  public long getStartNanos() {
+    return startNanos;
+  }
+
+  @Override
+  public String toString() {
+    return httpMethod + " " + url;
+  }
+}
@@ -6,15 +6,40 @@ package net.elost.http_client;
 public class HttpCallException extends RuntimeException {
   private static final long serialVersionUID = 4901565145984329597L;
 
+  private final int status;
+  private final String responseBody;
+
   public HttpCallException(String message) {
-    super(message);
+    this(message, null, -1, null);
   }
 
   public HttpCallException(String message, Throwable cause) {
-    super(message, cause);
+    this(message, cause, -1, null);
   }
 
   public HttpCallException(Exception e) {
     super(e);
+    this.status = -1;
+    this.responseBody = null;
+  }
+
+  public HttpCallException(String message, Throwable cause, int status, String responseBody) {
+    super(message, cause);
+    this.status = status;
+    this.responseBody = responseBody;
+  }
+
+  /**
+   * @return status of the response the call failed with, or -1 if none was received
+   */
+  public int getStatus() {
+    return status;
+  }
+
+  /**
+   * @return start of the body of the response the call failed with, or null if it wasn't read
+   */
+  public String getResponseBody() {
+    return responseBody;
   }
 }
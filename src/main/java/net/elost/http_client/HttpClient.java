@@ -1,10 +1,95 @@
 package net.elost.http_client;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface HttpClient {
 
   HttpResponse sendRequest(HttpMethod method, String path, String input, String contentType);
 
   HttpResponse sendRequest(HttpMethod method, String url, String input, String contentType, Map<String, String> headers);
+
+  /**
+   * Sends a request with a body of bytes, a stream, a file or a writer callback.
+   * The default implementation supports only {@link RequestBody#ofString(String)} bodies;
+   * {@link HttpClientImpl} streams any body with constant memory.
+   */
+  default HttpResponse upload(
+      HttpMethod method,
+      String url,
+      RequestBody body,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    if (body instanceof RequestBody.StringBody) {
+      return sendRequest(method, url, ((RequestBody.StringBody) body).getBody(), contentType, headers);
+    }
+    throw new UnsupportedOperationException(getClass().getSimpleName() + " supports only string request bodies");
+  }
+
+  default CompletableFuture<HttpResponse> sendRequestAsync(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType
+  ) {
+    return sendRequestAsync(method, url, input, contentType, Collections.emptyMap());
+  }
+
+  /**
+   * The default implementation runs the blocking call on a shared pool of up to 64 daemon threads, not on
+   * {@link java.util.concurrent.ForkJoinPool#commonPool()}, which a call would block for its whole round trip; calls
+   * beyond that wait in a queue. {@link HttpClientImpl#asyncExecutor(java.util.concurrent.Executor)} sets another
+   * executor, {@link NioHttpClient} and {@link Http2Client} override it with non-blocking transports.
+   */
+  default CompletableFuture<HttpResponse> sendRequestAsync(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    return CompletableFuture.supplyAsync(
+        () -> sendRequest(method, url, input, contentType, headers), AsyncExecutor.SHARED
+    );
+  }
+
+  /**
+   * Sends a request and passes the response body to the handler as a stream.
+   * The default implementation buffers the response first; {@link HttpClientImpl} streams it from the connection.
+   */
+  default <T> T sendRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers,
+      ResponseHandler<T> handler
+  ) {
+    HttpResponse response = sendRequest(method, url, input, contentType, headers);
+    try {
+      return handler.handle(response, response.bufferedBody());
+    }
+    catch (IOException e) {
+      throw new HttpCallException(String.format("Can't read response from api call to %s", url), e);
+    }
+  }
+
+  /**
+   * Sends a request and returns as soon as the response status and headers are read.
+   * The body is left on the connection until the returned response is read and closed.
+   * The default implementation buffers the response first; {@link HttpClientImpl} streams it from the connection.
+   */
+  default StreamingHttpResponse sendStreamingRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    HttpResponse response = sendRequest(method, url, input, contentType, headers);
+    return new StreamingHttpResponse(response, response.bufferedBody(), -1, () -> { });
+  }
 }
@@ -3,12 +3,33 @@ package net.elost.http_client;
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.HashMap;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 public class HttpClientImpl implements HttpClient {
+  private static final HttpHeaders ACCEPT_ENCODING = HttpHeaders.of("Accept-Encoding", "gzip, deflate");
+  private static final int ERROR_BODY_CAPTURE_BYTES = 8192;
+
   private int connectTimeoutMillis;
   private int readTimeoutMillis;
+  private ConnectionPool connectionPool;
+  private HttpEventListener eventListener;
+  private Executor asyncExecutor;
+  private boolean acceptCompressedResponses = true;
+  private long compressRequestsAbove = -1;
+  private long maxBodySize = -1;
+  private long maxErrorBodySize = -1;
+  private long spillToFileAbove = -1;
+  private Path spillDirectory;
 
   /**
    * <b>IMPORTANT</b>
@@ -27,9 +48,93 @@ public class HttpClientImpl implements HttpClient {
     this.readTimeoutMillis = readTimeoutMillis;
   }
 
+  /**
+   * Switches the client to the pooled transport: requests go over keep-alive sockets leased from the pool
+   * instead of a new {@link HttpURLConnection} per call. The pool can be shared between clients.
+   */
+  public HttpClientImpl connectionPool(ConnectionPool connectionPool) {
+    this.connectionPool = connectionPool;
+    return this;
+  }
+
+  /**
+   * Reports connect, request, response and failure events of every call to the listener,
+   * e.g. a {@link HostLatencyListener}.
+   */
+  public HttpClientImpl eventListener(HttpEventListener eventListener) {
+    this.eventListener = eventListener;
+    return this;
+  }
+
+  /**
+   * Executor running the blocking calls behind {@link #sendRequestAsync}, and so behind the async methods
+   * of a {@link RestClient} using this client. Defaults to a pool of up to 64 daemon threads shared by all clients,
+   * further calls queue; on JDK 21 and later {@link VirtualThreads#newExecutor(String)} lets thousands of calls wait
+   * for their responses at the same time.
+   */
+  public HttpClientImpl asyncExecutor(Executor asyncExecutor) {
+    this.asyncExecutor = asyncExecutor;
+    return this;
+  }
+
+  /**
+   * Whether to send {@code Accept-Encoding: gzip, deflate} and decompress gzip and deflate response bodies
+   * while they are read. Enabled by default. Decoded responses don't carry the Content-Encoding
+   * and Content-Length headers, see {@link HttpResponse#getResponseWireBytes()} for the compressed size.
+   */
+  public HttpClientImpl acceptCompressedResponses(boolean acceptCompressedResponses) {
+    this.acceptCompressedResponses = acceptCompressedResponses;
+    return this;
+  }
+
+  /**
+   * Compresses request bodies larger than the threshold, and bodies of unknown length, with gzip
+   * and sends them with {@code Content-Encoding: gzip}. The server must support compressed requests.
+   * Bodies of requests that set their own Content-Encoding are sent as is. Disabled by default.
+   *
+   * @param thresholdBytes minimum body size to compress, or a negative value to disable compression
+   */
+  public HttpClientImpl compressRequestsAbove(long thresholdBytes) {
+    this.compressRequestsAbove = thresholdBytes;
+    return this;
+  }
+
+  /**
+   * Fails calls whose response body is larger than the limit with an {@link HttpCallException}. The limit is
+   * checked against Content-Length before the body is read, and against the bytes read, after decompression,
+   * while it is read. Applies to buffered responses and response handlers, not to streaming responses.
+   * Unlimited by default.
+   */
+  public HttpClientImpl maxBodySize(long bytes) {
+    this.maxBodySize = bytes;
+    return this;
+  }
+
+  /**
+   * Cuts bodies of error responses (status 400 and above) off at the limit, the call still returns the response.
+   * Unlimited by default.
+   */
+  public HttpClientImpl maxErrorBodySize(long bytes) {
+    this.maxErrorBodySize = bytes;
+    return this;
+  }
+
+  /**
+   * Writes binary response bodies, e.g. application/octet-stream, larger than the threshold to a temporary file
+   * instead of keeping them in memory, see {@link HttpResponse#getResponseBodyFile()}. Disabled by default.
+   *
+   * @param thresholdBytes largest body to keep in memory, or a negative value to disable spilling
+   * @param directory      directory for the files, or null for the default temporary directory
+   */
+  public HttpClientImpl spillToFileAbove(long thresholdBytes, Path directory) {
+    this.spillToFileAbove = Math.min(thresholdBytes, Integer.MAX_VALUE - 9);
+    this.spillDirectory = directory;
+    return this;
+  }
+
   @Override
   public HttpResponse sendRequest(HttpMethod method, String url, String input, String contentType) {
-    return this.sendRequest(method, url, input, contentType, new HashMap<>());
+    return this.sendRequest(method, url, input, contentType, HttpHeaders.EMPTY);
   }
 
   @Override
@@ -40,18 +145,118 @@ public class HttpClientImpl implements HttpClient {
       String contentType,
       Map<String, String> headers
   ) {
-    HttpURLConnection connection = prepareConnection(method, url, contentType, headers);
+    return upload(method, url, RequestBody.ofString(input), contentType, headers);
+  }
+
+  @Override
+  public CompletableFuture<HttpResponse> sendRequestAsync(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    if (asyncExecutor == null) {
+      return HttpClient.super.sendRequestAsync(method, url, input, contentType, headers);
+    }
+    return CompletableFuture.supplyAsync(() -> sendRequest(method, url, input, contentType, headers), asyncExecutor);
+  }
+
+  @Override
+  public HttpResponse upload(
+      HttpMethod method,
+      String url,
+      RequestBody body,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    body = encodeRequestBody(method, body, headers);
+    HttpExchange connection = prepareConnection(method, url, body, contentType, headers);
 
     try {
       connect(connection);
-      return trySendRequest(method, connection, input);
+      HttpResponse response = trySendRequest(method, connection, body);
+      connection.getTracer().callEnd();
+      return response;
+    }
+    catch (RuntimeException | Error e) {
+      connection.getTracer().callFailed(e);
+      throw e;
     }
     finally {
-      connection.disconnect();
+      connection.release();
     }
   }
 
-  private void connect(HttpURLConnection connection) {
+  @Override
+  public <T> T sendRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers,
+      ResponseHandler<T> handler
+  ) {
+    RequestBody body = encodeRequestBody(method, RequestBody.ofString(input), headers);
+    HttpExchange connection = prepareConnection(method, url, body, contentType, headers);
+
+    try {
+      connect(connection);
+      HttpResponse response = trySendRequestHead(method, connection, body);
+      T result = tryHandleResponse(connection, response, handler);
+      connection.getTracer().callEnd();
+      return result;
+    }
+    catch (RuntimeException | Error e) {
+      connection.getTracer().callFailed(e);
+      throw e;
+    }
+    finally {
+      connection.release();
+    }
+  }
+
+  @Override
+  public StreamingHttpResponse sendStreamingRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    RequestBody body = encodeRequestBody(method, RequestBody.ofString(input), headers);
+    HttpExchange connection = prepareConnection(method, url, body, contentType, headers);
+
+    try {
+      connect(connection);
+      HttpResponse response = trySendRequestHead(method, connection, body);
+      ResponseBodyStream responseBody = responseStream(connection, response.getCode() < 400);
+      long contentLength = responseBody.isDecoded() ? -1 : contentLength(connection);
+      return new StreamingHttpResponse(response, responseBody, contentLength, () -> {
+        connection.getTracer().callEnd();
+        connection.release();
+      });
+    }
+    catch (IOException e) {
+      HttpCallException failure = new HttpCallException(String.format(
+          "Can't read response from api call to %s",
+          connection.getURL()
+      ), e);
+      failed(connection, failure);
+      throw failure;
+    }
+    catch (RuntimeException | Error e) {
+      failed(connection, e);
+      throw e;
+    }
+  }
+
+  private void failed(HttpExchange connection, Throwable e) {
+    connection.getTracer().callFailed(e);
+    connection.release();
+  }
+
+  private void connect(HttpExchange connection) {
     try {
       connection.connect();
     }
@@ -59,47 +264,161 @@ public class HttpClientImpl implements HttpClient {
       throw new HttpCallException(String.format(
           "Failed to connect to url: %s. Reason: %s",
           connection.getURL(), e.getMessage()
-      ));
+      ), e);
     }
   }
 
-  private HttpResponse trySendRequest(HttpMethod method, HttpURLConnection connection, String input) {
+  private HttpResponse trySendRequest(HttpMethod method, HttpExchange connection, RequestBody body) {
+    HttpResponse response = trySendRequestHead(method, connection, body);
+
+    boolean successStatus = response.getCode() < 400;
+    ResponseBodyStream responseBody = tryResponseStream(connection, successStatus);
+    InputStream bounded = bounded(connection, responseBody, successStatus);
+
+    if (successStatus && isBinary(connection)) {
+      tryReadBinaryResult(connection, responseBody, bounded, response);
+    }
+    else {
+      String result = tryReadResultString(connection, responseBody, bounded, successStatus);
+      response.responseBody(result);
+    }
+
+    return response
+        .responseWireBytes(responseBody.getWireBytes())
+        .responseBodyBytes(responseBody.getBodyBytes());
+  }
+
+  /**
+   * Sends the request and reads the response status and headers, leaving the body unread.
+   */
+  private HttpResponse trySendRequestHead(HttpMethod method, HttpExchange connection, RequestBody body) {
     if (method != HttpMethod.GET) {
-      sendRequestBody(connection, input);
+      sendRequestBody(connection, body);
     }
 
     int status = getResponseCode(connection);
+    connection.getTracer().firstByteReceived(status);
 
-    HttpResponse response = new HttpResponse()
+    boolean decoded = contentEncoding(connection) != null;
+    Supplier<Map<String, List<String>>> headers = decoded
+        ? () -> withoutEncodingHeaders(connection.getHeaderFields())
+        : connection::getHeaderFields;
+
+    return new HttpResponse()
         .httpMethod(method)
         .url(connection.getURL().toString())
-        .requestBody(input)
+        .requestBody(body.describe())
         .code(status)
-        .responseHeaders(connection.getHeaderFields());
+        .responseHeaders(headers);
+  }
 
-    boolean successStatus = status < 400;
+  private <T> T tryHandleResponse(HttpExchange connection, HttpResponse response, ResponseHandler<T> handler) {
+    boolean successStatus = response.getCode() < 400;
+    try (ResponseBodyStream body = responseStream(connection, successStatus)) {
+      T result = handler.handle(response, bounded(connection, body, successStatus));
+      response.responseWireBytes(body.getWireBytes()).responseBodyBytes(body.getBodyBytes());
+      return result;
+    }
+    catch (IOException e) {
+      throw new HttpCallException(String.format(
+          "Can't read response from api call to %s",
+          connection.getURL()
+      ), e);
+    }
+  }
 
-    if (successStatus) {
-      if (isOctetStream(connection)) {
-        byte[] result = tryReadBinaryResult(connection);
-        response.responseBinaryBody(result);
+  private ResponseBodyStream tryResponseStream(HttpExchange connection, boolean success) {
+    try {
+      return responseStream(connection, success);
+    }
+    catch (IOException e) {
+      throw new HttpCallException(String.format(
+          "Can't read response from api call to %s",
+          connection.getURL()
+      ), e);
+    }
+  }
+
+  private ResponseBodyStream responseStream(HttpExchange connection, boolean success) throws IOException {
+    InputStream stream = success ? connection.getInputStream() : connection.getErrorStream();
+    InputStream raw = connection.getTracer().responseBody(
+        stream == null ? new ByteArrayInputStream(new byte[0]) : stream
+    );
+    return ResponseBodyStream.open(raw, contentEncoding(connection));
+  }
+
+  /**
+   * @return "gzip" or "deflate" if the response body should be decompressed, null otherwise
+   */
+  private String contentEncoding(HttpExchange connection) {
+    if (!acceptCompressedResponses) {
+      return null;
+    }
+    String encoding = connection.getHeaderField("Content-Encoding");
+    if (encoding == null) {
+      return null;
+    }
+    String normalized = encoding.trim().toLowerCase(Locale.ROOT);
+    if (normalized.equals("gzip") || normalized.equals("x-gzip")) {
+      return "gzip";
+    }
+    return normalized.equals("deflate") ? "deflate" : null;
+  }
+
+  private static Map<String, List<String>> withoutEncodingHeaders(Map<String, List<String>> headers) {
+    Map<String, List<String>> result = new LinkedHashMap<>(headers);
+    result.keySet().removeIf(name -> "Content-Encoding".equalsIgnoreCase(name)
+        || "Content-Length".equalsIgnoreCase(name));
+    return Collections.unmodifiableMap(result);
+  }
+
+  private RequestBody encodeRequestBody(HttpMethod method, RequestBody body, Map<String, String> headers) {
+    if (compressRequestsAbove < 0 || method == HttpMethod.GET || Headers.get(headers, "Content-Encoding") != null) {
+      return body;
+    }
+    long contentLength = body.contentLength();
+    return contentLength == -1 || contentLength > compressRequestsAbove ? RequestBody.gzip(body) : body;
+  }
+
+  private Map<String, String> requestHeaders(Map<String, String> headers, RequestBody body) {
+    boolean acceptEncoding = acceptCompressedResponses && Headers.get(headers, "Accept-Encoding") == null;
+    String contentEncoding = body.contentEncoding();
+    if (!acceptEncoding && contentEncoding == null) {
+      return headers;
+    }
+    HttpHeaders result = acceptEncoding ? ACCEPT_ENCODING.with(headers) : HttpHeaders.copyOf(headers);
+    return contentEncoding == null ? result : result.with("Content-Encoding", contentEncoding);
+  }
+
+  private HttpExchange prepareConnection(
+      HttpMethod method,
+      String url,
+      RequestBody body,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    HttpExchange exchange = openExchange(method, url, contentType, requestHeaders(headers, body));
+    if (method != HttpMethod.GET && body.isStreamable()) {
+      long contentLength = body.contentLength();
+      if (contentLength >= 0) {
+        exchange.setFixedLengthStreamingMode(contentLength);
       }
       else {
-        String result = tryReadResultString(connection, true);
-        response.responseBody(result);
+        exchange.setChunkedStreamingMode();
       }
     }
-    else {
-      String result = tryReadResultString(connection, false);
-      response.responseBody(result);
-    }
-
-    return response;
+    return exchange;
   }
 
-  private HttpURLConnection prepareConnection(HttpMethod method, String url, String contentType, Map<String, String> headers) {
+  private HttpExchange openExchange(HttpMethod method, String url, String contentType, Map<String, String> headers) {
     try {
       URL endpoint = new URL(url);
+      CallTracer tracer = CallTracer.start(eventListener, method, endpoint);
+      if (connectionPool != null) {
+        return new PooledExchange(
+            connectionPool, method, endpoint, contentType, headers, connectTimeoutMillis, readTimeoutMillis, tracer
+        );
+      }
       HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
       connection.setRequestMethod(method.name());
       connection.setRequestProperty("Content-Type", contentType);
@@ -107,27 +426,23 @@ public class HttpClientImpl implements HttpClient {
       connection.setDoOutput(true);
       connection.setConnectTimeout(connectTimeoutMillis);
       connection.setReadTimeout(readTimeoutMillis);
-      return connection;
+      return new UrlConnectionExchange(connection, tracer);
     }
     catch (IOException connectionException) {
       throw new HttpCallException(String.format("Failed to connect to url: %s", url), connectionException);
     }
   }
 
-  private void sendRequestBody(HttpURLConnection connection, String inputJson) {
-    try {
-      DataOutputStream wr = new DataOutputStream(connection.getOutputStream());
-      BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(wr, "UTF-8"));
-      writer.write(inputJson);
-      writer.flush();
-      writer.close();
+  private void sendRequestBody(HttpExchange connection, RequestBody body) {
+    try (OutputStream out = connection.getTracer().requestBody(connection.getOutputStream())) {
+      body.writeTo(out);
     }
     catch (IOException ioe) {
-      logSendRequestIOException(connection, ioe, inputJson);
+      logSendRequestIOException(connection, ioe, body.describe());
     }
   }
 
-  private int getResponseCode(HttpURLConnection connection) {
+  private int getResponseCode(HttpExchange connection) {
     try {
       return connection.getResponseCode();
     }
@@ -136,9 +451,14 @@ public class HttpClientImpl implements HttpClient {
     }
   }
 
-  private String tryReadResultString(HttpURLConnection connection, boolean success) {
+  private String tryReadResultString(
+      HttpExchange connection,
+      ResponseBodyStream body,
+      InputStream bounded,
+      boolean success
+  ) {
     try {
-      return readResultString(connection, success);
+      return readResultString(connection, body, bounded, success);
     }
     catch (IOException e) {
       throw new HttpCallException(String.format(
@@ -148,9 +468,14 @@ public class HttpClientImpl implements HttpClient {
     }
   }
 
-  private byte[] tryReadBinaryResult(HttpURLConnection connection) {
+  private void tryReadBinaryResult(
+      HttpExchange connection,
+      ResponseBodyStream body,
+      InputStream bounded,
+      HttpResponse response
+  ) {
     try {
-      return readBinaryResult(connection);
+      readBinaryResult(connection, body, bounded, response);
     }
     catch (IOException e) {
       throw new HttpCallException(String.format(
@@ -160,36 +485,93 @@ public class HttpClientImpl implements HttpClient {
     }
   }
 
-  private String readResultString(HttpURLConnection connection, boolean success) throws IOException {
-    InputStream stream;
-    if (success) {
-      stream = connection.getInputStream();
-    }
-    else {
-      stream = connection.getErrorStream();
+  /**
+   * Decodes the body as is, with the charset of its Content-Type or UTF-8.
+   */
+  private String readResultString(
+      HttpExchange connection,
+      ResponseBodyStream body,
+      InputStream bounded,
+      boolean success
+  ) throws IOException {
+    long expectedLength = body.isDecoded() ? -1 : contentLength(connection);
+    long limit = success ? maxBodySize : maxErrorBodySize;
+    if (limit >= 0 && expectedLength > limit) {
+      expectedLength = limit;
     }
-    InputStreamReader isReader = new InputStreamReader(stream, "UTF-8");
-    BufferedReader reader = new BufferedReader(isReader);
+    return TextDecoder.decode(bounded, expectedLength, charset(connection));
+  }
 
-    StringBuilder result = new StringBuilder();
-    String line;
-    while ((line = reader.readLine()) != null) {
-      result.append(line).append("\n");
+  private Charset charset(HttpExchange connection) {
+    return TextDecoder.charset(connection.getHeaderField("Content-Type"));
+  }
+
+  private void readBinaryResult(
+      HttpExchange connection,
+      ResponseBodyStream body,
+      InputStream bounded,
+      HttpResponse response
+  ) throws IOException {
+    long contentLength = body.isDecoded() ? -1 : contentLength(connection);
+    if (spillToFileAbove < 0 || contentLength >= 0 && contentLength <= spillToFileAbove) {
+      response.responseBinaryBody(StreamUtil.toByteArray(bounded, contentLength));
+      return;
+    }
+    byte[] head = contentLength >= 0 ? new byte[0] : StreamUtil.readAtMost(bounded, (int) spillToFileAbove + 1);
+    if (head.length <= spillToFileAbove && contentLength < 0) {
+      response.responseBinaryBody(head);
+      return;
+    }
+    Path file = spillDirectory == null
+        ? Files.createTempFile("http-client-", ".body")
+        : Files.createTempFile(spillDirectory, "http-client-", ".body");
+    try (OutputStream out = Files.newOutputStream(file)) {
+      out.write(head);
+      StreamUtil.copy(bounded, out);
+    }
+    catch (IOException e) {
+      Files.deleteIfExists(file);
+      throw e;
     }
+    response.responseBodyFile(file);
+  }
 
-    return result.toString();
+  /**
+   * @return the body, ending or failing at the size limit for its status
+   */
+  private InputStream bounded(HttpExchange connection, ResponseBodyStream body, boolean success) {
+    long limit = success ? maxBodySize : maxErrorBodySize;
+    if (limit < 0) {
+      return body;
+    }
+    long contentLength = body.isDecoded() ? -1 : contentLength(connection);
+    if (success && contentLength > limit) {
+      throw new HttpCallException(String.format(
+          "Response body of api call to %s has %d bytes, more than the limit of %d bytes",
+          connection.getURL(), contentLength, limit
+      ));
+    }
+    return new BoundedInputStream(body, limit, !success);
   }
 
-  private byte[] readBinaryResult(HttpURLConnection connection) throws IOException {
-    BufferedInputStream stream = new BufferedInputStream(connection.getInputStream());
-    return StreamUtil.toByteArray(stream);
+  private long contentLength(HttpExchange connection) {
+    String contentLength = connection.getHeaderField("Content-Length");
+    if (contentLength == null) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(contentLength.trim());
+    }
+    catch (NumberFormatException e) {
+      return -1;
+    }
   }
 
-  private boolean isOctetStream(HttpURLConnection connection) {
-    return connection.getHeaderField("Content-Type").toLowerCase().contains("application/octet-stream");
+  private boolean isBinary(HttpExchange connection) {
+    return TextDecoder.isBinary(connection.getHeaderField("Content-Type"));
   }
 
-  private void logSendRequestIOException(HttpURLConnection connection, IOException ioe, String inputJson) {
+  private void logSendRequestIOException(HttpExchange connection, IOException ioe, String inputJson) {
     int responseCode = -1;
     try {
       responseCode = getResponseCode(connection);
@@ -198,11 +580,11 @@ public class HttpClientImpl implements HttpClient {
     }
 
     String responseBody;
-    if (isOctetStream(connection)) {
+    if (isBinary(connection)) {
       responseBody = "Binary Content";
     }
     else {
-      responseBody = tryReadResultString(connection, false);
+      responseBody = readErrorBody(connection);
     }
     throw new HttpCallException(String.format(
         "Failed to call api endpoint [%s], input: [%s], status: [%s], response: %s",
@@ -210,6 +592,25 @@ public class HttpClientImpl implements HttpClient {
         inputJson,
         responseCode,
         responseBody
-    ), ioe);
+    ), ioe, responseCode, responseBody);
+  }
+
+  /**
+   * @return the start of the error body, for exception messages
+   */
+  private String readErrorBody(HttpExchange connection) {
+    try (ResponseBodyStream body = tryResponseStream(connection, false)) {
+      byte[] head = StreamUtil.readAtMost(body, ERROR_BODY_CAPTURE_BYTES + 1);
+      if (head.length <= ERROR_BODY_CAPTURE_BYTES) {
+        return new String(head, charset(connection));
+      }
+      return new String(head, 0, ERROR_BODY_CAPTURE_BYTES, charset(connection)) + "... (truncated)";
+    }
+    catch (IOException e) {
+      throw new HttpCallException(String.format(
+          "Can't read response from api call to %s",
+          connection.getURL()
+      ), e);
+    }
   }
 }
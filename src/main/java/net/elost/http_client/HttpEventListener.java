@@ -0,0 +1,57 @@
+package net.elost.http_client;
+
+import java.net.InetAddress;
+
+/**
+ * Receives timing events for every call made by an {@link HttpClientImpl}, e.g. to export metrics or traces.
+ * Timestamps are {@link System#nanoTime()} values. Callbacks run on the calling thread, so they should be cheap
+ * and must not throw.
+ * <p>
+ * Events of a successful call come in this order, with DNS and connect events only when a new connection is opened:
+ * callStart, dnsStart, dnsEnd, connectStart, connectEnd, requestBodyEnd, firstByteReceived, responseBodyEnd, callEnd.
+ * DNS events are only reported by the pooled transport, {@link java.net.HttpURLConnection} resolves the host
+ * inside its connect. A failed call ends with callFailed instead of callEnd.
+ *
+ * @see HostLatencyListener
+ */
+public interface HttpEventListener {
+
+  default void callStart(HttpCall call, long nanoTime) {
+  }
+
+  default void dnsStart(HttpCall call, String host, long nanoTime) {
+  }
+
+  default void dnsEnd(HttpCall call, String host, InetAddress address, long nanoTime) {
+  }
+
+  default void connectStart(HttpCall call, long nanoTime) {
+  }
+
+  default void connectEnd(HttpCall call, long nanoTime) {
+  }
+
+  /**
+   * The request body has been written. Not called for GET requests, which are sent without a body.
+   */
+  default void requestBodyEnd(HttpCall call, long byteCount, long nanoTime) {
+  }
+
+  /**
+   * The response status line and headers have been read.
+   */
+  default void firstByteReceived(HttpCall call, int code, long nanoTime) {
+  }
+
+  /**
+   * The response body has been read to its end, or closed before that.
+   */
+  default void responseBodyEnd(HttpCall call, long byteCount, long nanoTime) {
+  }
+
+  default void callEnd(HttpCall call, long nanoTime) {
+  }
+
+  default void callFailed(HttpCall call, Throwable error, long nanoTime) {
+  }
+}
@@ -0,0 +1,49 @@
+package net.elost.http_client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single request/response exchange as seen by {@link HttpClientImpl}.
+ * Method names mirror {@link java.net.HttpURLConnection} so both the JDK transport
+ * and the pooled socket transport can be driven by the same code.
+ */
+interface HttpExchange {
+
+  URL getURL();
+
+  CallTracer getTracer();
+
+  /**
+   * Streams the request body with a Content-Length header instead of buffering it. Must be called before connect.
+   */
+  void setFixedLengthStreamingMode(long contentLength);
+
+  /**
+   * Streams the request body in chunked transfer encoding instead of buffering it. Must be called before connect.
+   */
+  void setChunkedStreamingMode();
+
+  void connect() throws IOException;
+
+  OutputStream getOutputStream() throws IOException;
+
+  int getResponseCode() throws IOException;
+
+  String getHeaderField(String name);
+
+  Map<String, List<String>> getHeaderFields();
+
+  InputStream getInputStream() throws IOException;
+
+  InputStream getErrorStream() throws IOException;
+
+  /**
+   * Releases the underlying connection. Called exactly once, after the response has been read or the call failed.
+   */
+  void release();
+}
@@ -0,0 +1,196 @@
+package net.elost.http_client;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable request headers, looked up ignoring the case of their names. Names and values are kept in a single flat
+ * array in the order they were added, so a set of headers built once can be passed to every call without copying.
+ * <pre>
+ *   HttpHeaders headers = HttpHeaders.of("Accept", "application/json", "X-Api-Key", key);
+ *   client.sendRequest(HttpMethod.GET, url, null, "application/json", headers);
+ * </pre>
+ * Adding a header whose name is already present, in any case, replaces its value and keeps its position.
+ * <p>
+ * Headers are equal to other {@code HttpHeaders} with the same names, ignoring case, and values, in any order. Unlike
+ * other maps they are never equal to a map of another class, whose hash code depends on the case of the names.
+ */
+public final class HttpHeaders extends AbstractMap<String, String> {
+  public static final HttpHeaders EMPTY = new HttpHeaders(new String[0]);
+
+  // name at even indexes, its value at the following odd index
+  private final String[] entries;
+
+  private HttpHeaders(String[] entries) {
+    this.entries = entries;
+  }
+
+  /**
+   * @param namesAndValues header names each followed by its value
+   */
+  public static HttpHeaders of(String... namesAndValues) {
+    if (namesAndValues.length % 2 != 0) {
+      throw new IllegalArgumentException("Header names and values must come in pairs");
+    }
+    String[] entries = new String[namesAndValues.length];
+    int size = 0;
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      size = put(entries, size, namesAndValues[i], namesAndValues[i + 1]);
+    }
+    return create(entries, size);
+  }
+
+  public static HttpHeaders copyOf(Map<String, String> headers) {
+    if (headers instanceof HttpHeaders) {
+      return (HttpHeaders) headers;
+    }
+    return EMPTY.with(headers);
+  }
+
+  /**
+   * @return headers with the header added, or its value replaced if it is present
+   */
+  public HttpHeaders with(String name, String value) {
+    String[] copy = Arrays.copyOf(entries, entries.length + 2);
+    return create(copy, put(copy, entries.length, name, value));
+  }
+
+  /**
+   * @return headers with all the given headers added, replacing the values of those present
+   */
+  public HttpHeaders with(Map<String, String> headers) {
+    if (headers.isEmpty()) {
+      return this;
+    }
+    if (entries.length == 0 && headers instanceof HttpHeaders) {
+      return (HttpHeaders) headers;
+    }
+    String[] copy = Arrays.copyOf(entries, entries.length + 2 * headers.size());
+    int size = entries.length;
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      size = put(copy, size, header.getKey(), header.getValue());
+    }
+    return create(copy, size);
+  }
+
+  @Override
+  public String get(Object name) {
+    int index = name instanceof String ? indexOf(entries, entries.length, (String) name) : -1;
+    return index == -1 ? null : entries[index + 1];
+  }
+
+  @Override
+  public boolean containsKey(Object name) {
+    return name instanceof String && indexOf(entries, entries.length, (String) name) != -1;
+  }
+
+  @Override
+  public int size() {
+    return entries.length / 2;
+  }
+
+  @Override
+  public void forEach(BiConsumer<? super String, ? super String> action) {
+    for (int i = 0; i < entries.length; i += 2) {
+      action.accept(entries[i], entries[i + 1]);
+    }
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof HttpHeaders) || ((HttpHeaders) other).entries.length != entries.length) {
+      return false;
+    }
+    for (int i = 0; i < entries.length; i += 2) {
+      if (!entries[i + 1].equals(((HttpHeaders) other).get(entries[i]))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 0;
+    for (int i = 0; i < entries.length; i += 2) {
+      hash += entries[i].toLowerCase(Locale.ROOT).hashCode() ^ entries[i + 1].hashCode();
+    }
+    return hash;
+  }
+
+  @Override
+  public Set<Map.Entry<String, String>> entrySet() {
+    return new AbstractSet<Map.Entry<String, String>>() {
+      @Override
+      public Iterator<Map.Entry<String, String>> iterator() {
+        return new Iterator<Map.Entry<String, String>>() {
+          private int next;
+
+          @Override
+          public boolean hasNext() {
+            return next < entries.length;
+          }
+
+          @Override
+          public Map.Entry<String, String> next() {
+            if (next >= entries.length) {
+              throw new NoSuchElementException();
+            }
+            next += 2;
+            return new SimpleImmutableEntry<>(entries[next - 2], entries[next - 1]);
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return HttpHeaders.this.size();
+      }
+    };
+  }
+
+  private static HttpHeaders create(String[] entries, int size) {
+    if (size == 0) {
+      return EMPTY;
+    }
+    return new HttpHeaders(size == entries.length ? entries : Arrays.copyOf(entries, size));
+  }
+
+  /**
+   * Stores the header in the first {@code size} slots of the array, which has room for it.
+   *
+   * @return number of slots used afterwards
+   */
+  private static int put(String[] entries, int size, String name, String value) {
+    if (name == null || value == null) {
+      throw new IllegalArgumentException("Header names and values must not be null");
+    }
+    int index = indexOf(entries, size, name);
+    if (index != -1) {
+      entries[index + 1] = value;
+      return size;
+    }
+    entries[size] = name;
+    entries[size + 1] = value;
+    return size + 2;
+  }
+
+  private static int indexOf(String[] entries, int size, String name) {
+    for (int i = 0; i < size; i += 2) {
+      if (name.equalsIgnoreCase(entries[i])) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
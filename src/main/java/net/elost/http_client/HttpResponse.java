@@ -1,7 +1,15 @@
 package net.elost.http_client;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 public class HttpResponse {
   private HttpMethod httpMethod;
@@ -11,8 +19,14 @@ public class HttpResponse {
   private int code;
   private String responseBody;
   private byte[] responseBinaryBody;
+  private Path responseBodyFile;
 
   private Map<String, List<String>> responseHeaders;
+  private Supplier<Map<String, List<String>>> responseHeadersSource;
+  private long responseWireBytes;
+  private long responseBodyBytes;
+
+  private ParsedResults parsedResults;
 
   public HttpMethod getHttpMethod() {
     return httpMethod;
@@ -68,15 +82,107 @@ public class HttpResponse {
     return this;
   }
 
+  /**
+   * @return file holding a binary body too large to keep in memory, see {@link HttpClientImpl#spillToFileAbove},
+   *     or null. The file is left for the caller to delete.
+   */
+  public Path getResponseBodyFile() {
+    return responseBodyFile;
+  }
+
+  public HttpResponse responseBodyFile(Path responseBodyFile) {
+    this.responseBodyFile = responseBodyFile;
+    return this;
+  }
+
   public Map<String, List<String>> getResponseHeaders() {
-    return responseHeaders;
+    Map<String, List<String>> headers = responseHeaders;
+    if (headers == null && responseHeadersSource != null) {
+      headers = responseHeadersSource.get();
+      responseHeaders = headers;
+    }
+    return headers;
   }
 
   public HttpResponse responseHeaders(Map<String, List<String>> headers) {
     this.responseHeaders = headers;
+    this.responseHeadersSource = null;
+    return this;
+  }
+
+  /**
+   * Headers are only collected from the transport when they are first asked for.
+   */
+  HttpResponse responseHeaders(Supplier<Map<String, List<String>>> source) {
+    this.responseHeaders = null;
+    this.responseHeadersSource = source;
+    return this;
+  }
+
+  /**
+   * @return response body bytes received from the server, compressed if the server sent a gzip or deflate body
+   */
+  public long getResponseWireBytes() {
+    return responseWireBytes;
+  }
+
+  public HttpResponse responseWireBytes(long responseWireBytes) {
+    this.responseWireBytes = responseWireBytes;
     return this;
   }
 
+  /**
+   * @return response body bytes after decompression, equal to {@link #getResponseWireBytes()} for plain bodies
+   */
+  public long getResponseBodyBytes() {
+    return responseBodyBytes;
+  }
+
+  public HttpResponse responseBodyBytes(long responseBodyBytes) {
+    this.responseBodyBytes = responseBodyBytes;
+    return this;
+  }
+
+  void parsedResults(ParsedResults parsedResults) {
+    this.parsedResults = parsedResults;
+  }
+
+  /**
+   * Makes results parsed from this response shared by everyone holding it, unless they are shared already.
+   */
+  void shareParsedResults() {
+    if (parsedResults == null) {
+      parsedResults = new ParsedResults();
+    }
+  }
+
+  /**
+   * Deserializes the body with the parser, or returns the result parsed earlier for the same type
+   * if the response was served by a {@link CachingHttpClient}.
+   */
+  <T> T parsedBody(Type type, Supplier<T> parser) {
+    return parsedResults == null ? parser.get() : parsedResults.get(type, parser);
+  }
+
+  /**
+   * Body of an already read response as a stream, for clients that do not stream from the connection.
+   */
+  InputStream bufferedBody() {
+    if (responseBodyFile != null) {
+      try {
+        return Files.newInputStream(responseBodyFile);
+      }
+      catch (IOException e) {
+        throw new HttpCallException(String.format("Can't read response body of %s from %s", url, responseBodyFile), e);
+      }
+    }
+    if (responseBinaryBody != null) {
+      return new ByteArrayInputStream(responseBinaryBody);
+    }
+    String text = responseBody == null ? "" : responseBody;
+    return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+  }
+
   @Override
   public String toString() {
     String sizeUnit = (responseBinaryBody != null && responseBinaryBody.length == 1) ? "byte" : "bytes";
@@ -0,0 +1,23 @@
+package net.elost.http_client;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class whose Gson type adapter is generated at compile time by the {@code http-client-processor}
+ * annotation processor. {@link GsonJsonSerializer} uses the generated adapter instead of reflection, and falls back
+ * to reflection when the processor did not run.
+ * <p>
+ * Annotated classes must not be private or inner (non-static nested) classes, must have a non-private no-arg
+ * constructor, and their serialized fields must not be private.
+ *
+ * @see GeneratedAdapterFactory
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface JsonModel {
+}
@@ -0,0 +1,30 @@
+package net.elost.http_client;
+
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.util.Iterator;
+
+/**
+ * Converts request inputs to JSON and JSON responses to results for {@link RestClient}.
+ * Implementations must be thread-safe: one instance is shared by all calls of a client.
+ * Malformed JSON is reported with {@link com.google.gson.JsonParseException}.
+ */
+public interface JsonSerializer {
+
+  String toJson(Object value);
+
+  <T> T fromJson(String json, Class<T> resultClass);
+
+  <T> T fromJson(String json, Type typeOfResult);
+
+  /**
+   * Parses a single JSON document from the reader without buffering it into a String first.
+   */
+  <T> T fromJson(Reader json, Type typeOfResult);
+
+  /**
+   * Lazily parses a top-level JSON array, one element per {@link Iterator#next()} call,
+   * so only the current element is held in memory.
+   */
+  <T> Iterator<T> fromJsonArray(Reader json, Type elementType);
+}
@@ -0,0 +1,409 @@
+package net.elost.http_client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Spreads calls over replicas of a service. Calls with a relative url, e.g. {@code /users/1}, go to one of the
+ * endpoints; calls with an absolute url go to that url.
+ * <pre>
+ *   LoadBalancingHttpClient client = new LoadBalancingHttpClient(
+ *       new HttpClientImpl(1000, 5000), Arrays.asList("http://10.0.0.1:8080/api", "http://10.0.0.2:8080/api")
+ *   ).selection(LoadBalancingHttpClient.Selection.EWMA_LATENCY);
+ *   RestClient restClient = new RestClient(client);
+ * </pre>
+ * Each call picks two endpoints at random and goes to the one with the lower cost (power of two choices).
+ * An endpoint that fails several calls in a row, i.e. they threw an {@link HttpCallException} or got a 5xx status,
+ * is ejected and gets no calls until a probe request in the background succeeds. Probes are sent asynchronously
+ * and are bounded by the timeouts of the delegate. If all endpoints are ejected, calls go to all of them again.
+ */
+public class LoadBalancingHttpClient extends ForwardingHttpClient {
+  private static final ScheduledExecutorService PROBES = Executors.newSingleThreadScheduledExecutor(task -> {
+    Thread thread = new Thread(task, "http-client-lb-probe");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private static final double EWMA_WEIGHT = 0.2;
+
+  private final List<Endpoint> endpoints;
+  private Selection selection = Selection.LEAST_IN_FLIGHT;
+  private int ejectAfterFailures = 5;
+  private String probePath = "/";
+  private long probeIntervalMillis = 5000;
+  private long failureLatencyNanos = TimeUnit.SECONDS.toNanos(5);
+
+  public enum Selection {
+    /**
+     * The endpoint with fewer calls in flight.
+     */
+    LEAST_IN_FLIGHT,
+    /**
+     * The endpoint with the lower moving average of latency, weighted with its calls in flight.
+     */
+    EWMA_LATENCY
+  }
+
+  public LoadBalancingHttpClient(HttpClient delegate, List<String> endpointUrls) {
+    super(delegate);
+    if (endpointUrls.isEmpty()) {
+      throw new IllegalArgumentException("At least one endpoint is required");
+    }
+    List<Endpoint> list = new ArrayList<>(endpointUrls.size());
+    for (String url : endpointUrls) {
+      list.add(new Endpoint(url.endsWith("/") ? url.substring(0, url.length() - 1) : url));
+    }
+    this.endpoints = Collections.unmodifiableList(list);
+  }
+
+  public LoadBalancingHttpClient selection(Selection selection) {
+    this.selection = selection;
+    return this;
+  }
+
+  /**
+   * Number of failed calls in a row that ejects an endpoint. Defaults to 5.
+   */
+  public LoadBalancingHttpClient ejectAfterFailures(int failures) {
+    if (failures < 1) {
+      throw new IllegalArgumentException("failures must be positive");
+    }
+    this.ejectAfterFailures = failures;
+    return this;
+  }
+
+  /**
+   * Latency recorded for failed calls that finished sooner, so that an endpoint failing fast doesn't look fast to
+   * {@link Selection#EWMA_LATENCY}. Set it to about the read timeout of the delegate. Defaults to 5 seconds.
+   */
+  public LoadBalancingHttpClient failureLatency(long millis) {
+    this.failureLatencyNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    return this;
+  }
+
+  /**
+   * Path of the GET request that probes an ejected endpoint, and the time between probes. A probe succeeds with any
+   * status below 500. Defaults to {@code /} every 5 seconds.
+   */
+  public LoadBalancingHttpClient probe(String path, long intervalMillis) {
+    this.probePath = path;
+    this.probeIntervalMillis = intervalMillis;
+    return this;
+  }
+
+  /**
+   * @return state of each endpoint, in the order they were given
+   */
+  public Map<String, EndpointStats> getEndpoints() {
+    Map<String, EndpointStats> stats = new LinkedHashMap<>();
+    endpoints.forEach(endpoint -> stats.put(endpoint.url, endpoint.stats()));
+    return stats;
+  }
+
+  @Override
+  public HttpResponse sendRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    return balance(url, (endpointUrl, status) -> {
+      HttpResponse response = super.sendRequest(method, endpointUrl, input, contentType, headers);
+      status[0] = response.getCode();
+      return response;
+    });
+  }
+
+  @Override
+  public HttpResponse upload(
+      HttpMethod method,
+      String url,
+      RequestBody body,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    return balance(url, (endpointUrl, status) -> {
+      HttpResponse response = super.upload(method, endpointUrl, body, contentType, headers);
+      status[0] = response.getCode();
+      return response;
+    });
+  }
+
+  @Override
+  public CompletableFuture<HttpResponse> sendRequestAsync(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    if (Urls.isAbsolute(url)) {
+      return super.sendRequestAsync(method, url, input, contentType, headers);
+    }
+    Endpoint endpoint = choose();
+    endpoint.started();
+    long start = System.nanoTime();
+    CompletableFuture<HttpResponse> future;
+    try {
+      future = super.sendRequestAsync(method, endpoint.resolve(url), input, contentType, headers);
+    }
+    catch (RuntimeException | Error e) {
+      completed(endpoint, -1, e, start);
+      throw e;
+    }
+    return future.whenComplete((response, error) -> completed(
+        endpoint, response == null ? -1 : response.getCode(), error, start
+    ));
+  }
+
+  @Override
+  public <T> T sendRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers,
+      ResponseHandler<T> handler
+  ) {
+    return balance(url, (endpointUrl, status) -> super.sendRequest(
+        method, endpointUrl, input, contentType, headers, (response, body) -> {
+          status[0] = response.getCode();
+          return handler.handle(response, body);
+        }
+    ));
+  }
+
+  @Override
+  public StreamingHttpResponse sendStreamingRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    return balance(url, (endpointUrl, status) -> {
+      StreamingHttpResponse response = super.sendStreamingRequest(method, endpointUrl, input, contentType, headers);
+      status[0] = response.getCode();
+      return response;
+    });
+  }
+
+  private interface Call<T> {
+    /**
+     * @param status stores the response status as soon as it is known
+     */
+    T send(String endpointUrl, int[] status);
+  }
+
+  private <T> T balance(String url, Call<T> call) {
+    int[] status = {-1};
+    if (Urls.isAbsolute(url)) {
+      return call.send(url, status);
+    }
+    Endpoint endpoint = choose();
+    endpoint.started();
+    long start = System.nanoTime();
+    T result;
+    try {
+      result = call.send(endpoint.resolve(url), status);
+    }
+    catch (RuntimeException | Error e) {
+      completed(endpoint, status[0], e, start);
+      throw e;
+    }
+    completed(endpoint, status[0], null, start);
+    return result;
+  }
+
+  private Endpoint choose() {
+    List<Endpoint> candidates = endpoints;
+    int healthy = 0;
+    for (Endpoint endpoint : endpoints) {
+      healthy += endpoint.ejected ? 0 : 1;
+    }
+    if (healthy > 0 && healthy < endpoints.size()) {
+      candidates = new ArrayList<>(healthy);
+      for (Endpoint endpoint : endpoints) {
+        if (!endpoint.ejected) {
+          candidates.add(endpoint);
+        }
+      }
+    }
+    if (candidates.size() == 1) {
+      return candidates.get(0);
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(candidates.size());
+    int second = random.nextInt(candidates.size() - 1);
+    if (second >= first) {
+      second++;
+    }
+    Endpoint a = candidates.get(first);
+    Endpoint b = candidates.get(second);
+    return cost(a) <= cost(b) ? a : b;
+  }
+
+  private double cost(Endpoint endpoint) {
+    int inFlight = endpoint.inFlight();
+    if (selection == Selection.LEAST_IN_FLIGHT) {
+      return inFlight;
+    }
+    return endpoint.ewmaNanos() * (inFlight + 1);
+  }
+
+  private void completed(Endpoint endpoint, int status, Throwable error, long start) {
+    long elapsedNanos = System.nanoTime() - start;
+    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    boolean failed = status != -1
+        ? status >= 500
+        : cause instanceof HttpCallException && !(cause instanceof CallRejectedException);
+    boolean counted = status != -1 || failed;
+    if (failed) {
+      elapsedNanos = Math.max(elapsedNanos, failureLatencyNanos);
+    }
+    if (endpoint.completed(counted, failed, elapsedNanos, ejectAfterFailures)) {
+      scheduleProbe(endpoint);
+    }
+  }
+
+  private void scheduleProbe(Endpoint endpoint) {
+    PROBES.schedule(() -> probe(endpoint), probeIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Sends the probe with {@link HttpClient#sendRequestAsync}, so a slow endpoint doesn't hold up the probes of
+   * the others on the shared probe thread.
+   */
+  private void probe(Endpoint endpoint) {
+    CompletableFuture<HttpResponse> probe;
+    try {
+      probe = delegate().sendRequestAsync(HttpMethod.GET, endpoint.resolve(probePath), null, null);
+    }
+    catch (RuntimeException e) {
+      scheduleProbe(endpoint);
+      return;
+    }
+    probe.whenComplete((response, error) -> {
+      if (error == null && response.getCode() < 500) {
+        endpoint.reinstate();
+      }
+      else {
+        scheduleProbe(endpoint);
+      }
+    });
+  }
+
+  private static class Endpoint {
+    private final String url;
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile boolean ejected;
+    private int inFlight;
+    private double ewmaNanos;
+    private int consecutiveFailures;
+    private long requests;
+    private long failures;
+    private long ejections;
+
+    Endpoint(String url) {
+      this.url = url;
+    }
+
+    String resolve(String path) {
+      if (path.isEmpty()) {
+        return url;
+      }
+      return path.charAt(0) == '/' || path.charAt(0) == '?' ? url + path : url + '/' + path;
+    }
+
+    void started() {
+      lock.lock();
+      try {
+        inFlight++;
+        requests++;
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * @param counted whether the call had an outcome, rejected calls and failed handlers don't count
+     * @return true if the call ejected the endpoint
+     */
+    boolean completed(boolean counted, boolean failed, long elapsedNanos, int ejectAfterFailures) {
+      lock.lock();
+      try {
+        inFlight--;
+        if (!counted) {
+          return false;
+        }
+        ewmaNanos = ewmaNanos == 0 ? elapsedNanos : ewmaNanos + EWMA_WEIGHT * (elapsedNanos - ewmaNanos);
+        if (!failed) {
+          consecutiveFailures = 0;
+          return false;
+        }
+        failures++;
+        if (++consecutiveFailures >= ejectAfterFailures && !ejected) {
+          ejected = true;
+          ejections++;
+          return true;
+        }
+        return false;
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+
+    void reinstate() {
+      lock.lock();
+      try {
+        ejected = false;
+        consecutiveFailures = 0;
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+
+    int inFlight() {
+      lock.lock();
+      try {
+        return inFlight;
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+
+    double ewmaNanos() {
+      lock.lock();
+      try {
+        return ewmaNanos;
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+
+    EndpointStats stats() {
+      lock.lock();
+      try {
+        return new EndpointStats(ejected, inFlight, ewmaNanos / 1_000_000, requests, failures, ejections);
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+  }
+}
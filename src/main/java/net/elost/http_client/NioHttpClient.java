@@ -0,0 +1,597 @@
+package net.elost.http_client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking HTTP/1.1 client. All sockets are served by a single selector thread, so the number of
+ * in-flight requests is not bound to the number of threads. Connections are kept alive and reused per host,
+ * up to {@link #maxConnectionsPerHost(int)}; further requests queue until a connection is free, and fail like a
+ * connect timeout if none is free within the {@link #queueTimeoutMillis(int)}.
+ * <p>
+ * Futures are completed on the callback executor ({@link ForkJoinPool#commonPool()} by default), never on the
+ * selector thread, so dependent stages may block or do heavy work.
+ * <p>
+ * Only plain {@code http} URLs are supported; use {@link HttpClientImpl} for {@code https}.
+ * Host names are resolved on the calling thread with the {@link #dnsResolver(DnsResolver)}, so a slow lookup
+ * blocks the caller of an async method; wrap the resolver in a {@link CachingDnsResolver} to avoid repeated
+ * lookups. New connections go to the first address; unlike the pooled transport, the other addresses of a host
+ * are not raced against it.
+ */
+public class NioHttpClient implements HttpClient, Closeable {
+  private final int connectTimeoutMillis;
+  private final int readTimeoutMillis;
+  private final Executor callbackExecutor;
+  private int maxConnectionsPerHost = 20;
+  private int queueTimeoutMillis;
+  private DnsResolver dnsResolver = DnsResolver.SYSTEM;
+
+  private final Selector selector;
+  private final Queue<Call> submitted = new ConcurrentLinkedQueue<>();
+  private final Set<Call> active = new HashSet<>();
+  private final Map<String, Route> routes = new HashMap<>();
+  private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+  private volatile boolean closed;
+
+  /**
+   * Timeouts of 0 mean no timeout, as in {@link HttpClientImpl}.
+   */
+  public NioHttpClient(int connectTimeoutMillis, int readTimeoutMillis) {
+    this(connectTimeoutMillis, readTimeoutMillis, ForkJoinPool.commonPool());
+  }
+
+  public NioHttpClient(int connectTimeoutMillis, int readTimeoutMillis, Executor callbackExecutor) {
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.readTimeoutMillis = readTimeoutMillis;
+    this.queueTimeoutMillis = connectTimeoutMillis <= 0 || readTimeoutMillis <= 0
+        ? 0
+        : connectTimeoutMillis + readTimeoutMillis;
+    this.callbackExecutor = callbackExecutor;
+    try {
+      this.selector = Selector.open();
+    }
+    catch (IOException e) {
+      throw new HttpCallException("Can't open selector", e);
+    }
+    Thread loop = new Thread(this::run, "http-client-nio");
+    loop.setDaemon(true);
+    loop.start();
+  }
+
+  /**
+   * Maximum number of open connections per host. Requests over the limit wait for a free connection. Defaults to 20.
+   */
+  public NioHttpClient maxConnectionsPerHost(int maxConnectionsPerHost) {
+    if (maxConnectionsPerHost < 1) {
+      throw new IllegalArgumentException("maxConnectionsPerHost must be positive");
+    }
+    this.maxConnectionsPerHost = maxConnectionsPerHost;
+    return this;
+  }
+
+  /**
+   * How long a request over {@link #maxConnectionsPerHost(int)} waits for a free connection; 0 means no timeout.
+   * Defaults to the connect timeout plus the read timeout, the time a single call on a new connection may take.
+   */
+  public NioHttpClient queueTimeoutMillis(int queueTimeoutMillis) {
+    this.queueTimeoutMillis = queueTimeoutMillis;
+    return this;
+  }
+
+  /**
+   * Resolver for the hosts of new calls. Defaults to {@link DnsResolver#SYSTEM}, which relies on the JVM-wide
+   * address cache; a {@link CachingDnsResolver} caches addresses in the client instead.
+   */
+  public NioHttpClient dnsResolver(DnsResolver dnsResolver) {
+    this.dnsResolver = dnsResolver;
+    return this;
+  }
+
+  @Override
+  public HttpResponse sendRequest(HttpMethod method, String url, String input, String contentType) {
+    return sendRequest(method, url, input, contentType, Collections.emptyMap());
+  }
+
+  @Override
+  public HttpResponse sendRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    return upload(method, url, RequestBody.ofString(input), contentType, headers);
+  }
+
+  /**
+   * Bodies other than strings are read into memory before the request is queued,
+   * since the selector thread can't block on a stream or a writer callback.
+   */
+  @Override
+  public HttpResponse upload(
+      HttpMethod method,
+      String url,
+      RequestBody body,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    try {
+      return submit(method, url, body, contentType, headers).join();
+    }
+    catch (CompletionException e) {
+      if (e.getCause() instanceof HttpCallException) {
+        throw (HttpCallException) e.getCause();
+      }
+      throw new HttpCallException(String.format("Failed to call api endpoint [%s]", url), e.getCause());
+    }
+  }
+
+  @Override
+  public CompletableFuture<HttpResponse> sendRequestAsync(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    return submit(method, url, RequestBody.ofString(input), contentType, headers);
+  }
+
+  private CompletableFuture<HttpResponse> submit(
+      HttpMethod method,
+      String url,
+      RequestBody body,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+    try {
+      Call call = new Call(method, new URL(url), body, contentType, headers, dnsResolver, future);
+      if (closed) {
+        throw new HttpCallException("Client is closed");
+      }
+      submitted.add(call);
+      selector.wakeup();
+      if (closed && submitted.remove(call)) {
+        throw new HttpCallException("Client is closed");
+      }
+    }
+    catch (MalformedURLException | UnknownHostException e) {
+      future.completeExceptionally(new HttpCallException(String.format("Failed to connect to url: %s", url), e));
+    }
+    catch (HttpCallException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  /**
+   * Stops the selector thread, closes all connections and fails requests still in flight.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    selector.wakeup();
+  }
+
+  private void run() {
+    try {
+      while (!closed) {
+        selector.select(selectTimeoutMillis());
+        startSubmitted();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (key.isValid()) {
+            handle(key);
+          }
+        }
+        expireTimedOut();
+      }
+    }
+    catch (IOException | RuntimeException e) {
+      // a failure outside of any call, the client can't go on; calls in flight and later ones fail as closed
+      closed = true;
+    }
+    finally {
+      shutdown();
+    }
+  }
+
+  private void startSubmitted() {
+    Call call;
+    while ((call = submitted.poll()) != null) {
+      start(call);
+    }
+  }
+
+  private void start(Call call) {
+    Route route = routes.computeIfAbsent(call.route, key -> new Route());
+    SelectionKey key = pollIdle(route);
+    active.add(call);
+    if (key == null && route.open >= maxConnectionsPerHost) {
+      call.key = null;
+      call.deadlineNanos = deadline(queueTimeoutMillis);
+      route.waiting.add(call);
+      return;
+    }
+    call.parser = new Http1ResponseParser();
+    ((Buffer) call.request).rewind();
+    if (key != null) {
+      call.reused = true;
+      call.deadlineNanos = deadline(readTimeoutMillis);
+      call.key = key;
+      key.attach(call);
+      key.interestOps(SelectionKey.OP_WRITE);
+      return;
+    }
+    call.reused = false;
+    call.deadlineNanos = deadline(connectTimeoutMillis);
+    try {
+      call.key = openConnection(call);
+      route.open++;
+    }
+    catch (IOException | RuntimeException e) {
+      call.key = null;
+      fail(call, connectFailure(call, e));
+    }
+  }
+
+  private SelectionKey openConnection(Call call) throws IOException {
+    SocketChannel channel = SocketChannel.open();
+    try {
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      boolean connected = channel.connect(call.address);
+      return channel.register(selector, connected ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, call);
+    }
+    catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private SelectionKey pollIdle(Route route) {
+    SelectionKey key;
+    while ((key = route.idle.pollFirst()) != null) {
+      if (key.isValid() && key.channel().isOpen()) {
+        return key;
+      }
+      closeConnection(key, route);
+    }
+    return null;
+  }
+
+  private void handle(SelectionKey key) {
+    Object attachment = key.attachment();
+    if (attachment instanceof Route) {
+      // an idle keep-alive connection became readable: the server closed it or sent garbage
+      Route route = (Route) attachment;
+      route.idle.remove(key);
+      closeConnection(key, route);
+      return;
+    }
+    Call call = (Call) attachment;
+    SocketChannel channel = (SocketChannel) key.channel();
+    boolean connecting = (key.interestOps() & SelectionKey.OP_CONNECT) != 0;
+    try {
+      if (key.isConnectable()) {
+        channel.finishConnect();
+        call.deadlineNanos = deadline(readTimeoutMillis);
+        key.interestOps(SelectionKey.OP_WRITE);
+      }
+      else if (key.isWritable()) {
+        channel.write(call.request);
+        if (!call.request.hasRemaining()) {
+          key.interestOps(SelectionKey.OP_READ);
+        }
+      }
+      else if (key.isReadable()) {
+        read(call, channel);
+      }
+    }
+    catch (IOException e) {
+      if (call.reused && !call.retried && !call.parser.hasReceivedAny()) {
+        // a kept-alive connection went stale between requests; retry once on a fresh one
+        call.retried = true;
+        active.remove(call);
+        closeConnection(key, routes.get(call.route));
+        start(call);
+      }
+      else if (connecting) {
+        fail(call, connectFailure(call, e));
+      }
+      else {
+        fail(call, new HttpCallException(String.format("Failed to call api endpoint [%s]", call.url), e));
+      }
+    }
+    catch (RuntimeException e) {
+      // a bug or an unexpected response fails the call, not the selector thread serving all others
+      fail(call, new HttpCallException(String.format("Failed to call api endpoint [%s]", call.url), e));
+    }
+  }
+
+  private void read(Call call, SocketChannel channel) throws IOException {
+    while (true) {
+      ((Buffer) readBuffer).clear();
+      int read = channel.read(readBuffer);
+      if (read == 0) {
+        call.deadlineNanos = deadline(readTimeoutMillis);
+        return;
+      }
+      boolean complete = read == -1 ? call.parser.endOfStream() : feed(call);
+      if (complete) {
+        complete(call);
+        return;
+      }
+    }
+  }
+
+  private boolean feed(Call call) throws IOException {
+    ((Buffer) readBuffer).flip();
+    return call.parser.feed(readBuffer);
+  }
+
+  private void complete(Call call) {
+    active.remove(call);
+    SelectionKey key = call.key;
+    Route route = routes.get(call.route);
+    if (call.parser.isKeepAlive() && key.isValid()) {
+      key.attach(route);
+      key.interestOps(SelectionKey.OP_READ);
+      route.idle.addFirst(key);
+      Call next = route.waiting.poll();
+      if (next != null) {
+        start(next);
+      }
+    }
+    else {
+      closeConnection(key, route);
+    }
+    HttpResponse response = toResponse(call);
+    callbackExecutor.execute(() -> call.future.complete(response));
+  }
+
+  private HttpResponse toResponse(Call call) {
+    Http1ResponseParser parser = call.parser;
+    HttpResponse response = new HttpResponse()
+        .httpMethod(call.method)
+        .url(call.url.toString())
+        .requestBody(call.requestBody)
+        .code(parser.getCode())
+        .responseHeaders(parser.getHeaders());
+
+    String contentType = parser.getHeader("Content-Type");
+    if (parser.getCode() < 400 && TextDecoder.isBinary(contentType)) {
+      response.responseBinaryBody(parser.getBody());
+    }
+    else {
+      response.responseBody(new String(parser.getBody(), TextDecoder.charset(contentType)));
+    }
+    return response;
+  }
+
+  private void fail(Call call, HttpCallException e) {
+    active.remove(call);
+    routes.get(call.route).waiting.remove(call);
+    if (call.key != null) {
+      closeConnection(call.key, routes.get(call.route));
+      call.key = null;
+    }
+    callbackExecutor.execute(() -> call.future.completeExceptionally(e));
+  }
+
+  /**
+   * Closes a connection and hands its slot to the next request waiting for the host, if any.
+   */
+  private void closeConnection(SelectionKey key, Route route) {
+    closeQuietly(key);
+    route.open--;
+    Call next = route.waiting.poll();
+    if (next != null) {
+      start(next);
+    }
+  }
+
+  private HttpCallException connectFailure(Call call, Exception e) {
+    if (e instanceof ConnectException && dnsResolver instanceof CachingDnsResolver) {
+      // the cached address didn't take the connection, it may be stale
+      ((CachingDnsResolver) dnsResolver).invalidate(call.url.getHost());
+    }
+    return new HttpCallException(String.format(
+        "Failed to connect to url: %s. Reason: %s", call.url, e.getMessage()
+    ), e);
+  }
+
+  private long selectTimeoutMillis() {
+    long nearest = Long.MAX_VALUE;
+    for (Call call : active) {
+      nearest = Math.min(nearest, call.deadlineNanos);
+    }
+    if (nearest == Long.MAX_VALUE) {
+      return 0;
+    }
+    return Math.max(1, TimeUnit.NANOSECONDS.toMillis(nearest - System.nanoTime()) + 1);
+  }
+
+  private void expireTimedOut() {
+    long now = System.nanoTime();
+    for (Call call : new ArrayList<>(active)) {
+      if (call.deadlineNanos - now <= 0) {
+        boolean connecting = call.key == null || (call.key.isValid()
+            && (call.key.interestOps() & SelectionKey.OP_CONNECT) != 0);
+        fail(call, new HttpCallException(
+            String.format("%s timed out calling %s", connecting ? "Connect" : "Read", call.url),
+            new SocketTimeoutException()
+        ));
+      }
+    }
+  }
+
+  private long deadline(int timeoutMillis) {
+    return timeoutMillis <= 0 ? Long.MAX_VALUE : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+  }
+
+  private void shutdown() {
+    HttpCallException closedException = new HttpCallException("Client is closed");
+    for (Call call : new ArrayList<>(active)) {
+      active.remove(call);
+      callbackExecutor.execute(() -> call.future.completeExceptionally(closedException));
+    }
+    for (Route route : routes.values()) {
+      route.waiting.forEach(call -> callbackExecutor.execute(() -> call.future.completeExceptionally(closedException)));
+    }
+    Call call;
+    while ((call = submitted.poll()) != null) {
+      call.future.completeExceptionally(closedException);
+    }
+    try {
+      for (SelectionKey key : selector.keys()) {
+        closeQuietly(key);
+      }
+      selector.close();
+    }
+    catch (IOException | ClosedSelectorException ignored) {
+    }
+  }
+
+  private static void closeQuietly(SelectionKey key) {
+    key.cancel();
+    try {
+      key.channel().close();
+    }
+    catch (IOException ignored) {
+    }
+  }
+
+  private static class Route {
+    private final Deque<SelectionKey> idle = new ArrayDeque<>();
+    private final Deque<Call> waiting = new ArrayDeque<>();
+    private int open;
+  }
+
+  private static class Call {
+    private final HttpMethod method;
+    private final URL url;
+    private final String requestBody;
+    private final String route;
+    private final InetSocketAddress address;
+    private final ByteBuffer request;
+    private final CompletableFuture<HttpResponse> future;
+
+    private SelectionKey key;
+    private Http1ResponseParser parser;
+    private boolean reused;
+    private boolean retried;
+    private long deadlineNanos;
+
+    private Call(
+        HttpMethod method,
+        URL url,
+        RequestBody body,
+        String contentType,
+        Map<String, String> headers,
+        DnsResolver resolver,
+        CompletableFuture<HttpResponse> future
+    ) throws UnknownHostException {
+      if (!"http".equalsIgnoreCase(url.getProtocol())) {
+        throw new HttpCallException(String.format(
+            "NioHttpClient supports only plain http, can't call %s", url
+        ));
+      }
+      int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+      this.method = method;
+      this.url = url;
+      this.requestBody = body.describe();
+      this.route = url.getHost() + ":" + port;
+      List<InetAddress> addresses = resolver.resolve(url.getHost());
+      if (addresses.isEmpty()) {
+        throw new UnknownHostException(url.getHost());
+      }
+      this.address = new InetSocketAddress(addresses.get(0), port);
+      this.request = encodeRequest(method, url, body, contentType, headers);
+      this.future = future;
+    }
+
+    private static ByteBuffer encodeRequest(
+        HttpMethod method,
+        URL url,
+        RequestBody requestBody,
+        String contentType,
+        Map<String, String> headers
+    ) {
+      byte[] body = method == HttpMethod.GET ? null : readBody(url, requestBody);
+
+      Map<String, String> requestHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+      requestHeaders.put("Host", url.getPort() == -1 ? url.getHost() : url.getHost() + ":" + url.getPort());
+      requestHeaders.put("Accept", "*/*");
+      if (contentType != null && !contentType.isEmpty()) {
+        requestHeaders.put("Content-Type", contentType);
+      }
+      requestHeaders.putAll(headers);
+      if (method != HttpMethod.GET) {
+        requestHeaders.put("Content-Length", String.valueOf(body == null ? 0 : body.length));
+      }
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream(256 + (body == null ? 0 : body.length));
+      try {
+        String target = url.getFile().isEmpty() ? "/" : url.getFile();
+        Http1Codec.writeRequestHead(out, method.name(), target, new LinkedHashMap<>(requestHeaders));
+        if (body != null) {
+          out.write(body);
+        }
+      }
+      catch (IOException e) {
+        throw new HttpCallException(e);
+      }
+      return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    private static byte[] readBody(URL url, RequestBody body) {
+      long length = body.contentLength();
+      int size = length > 0 && length < Integer.MAX_VALUE ? (int) length : 256;
+      ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+      try {
+        body.writeTo(out);
+      }
+      catch (IOException e) {
+        throw new HttpCallException(String.format("Can't read request body for api call to %s", url), e);
+      }
+      return out.toByteArray();
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package net.elost.http_client;
+
+import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Results deserialized from one cached response, shared by every response copy served from the cache entry,
+ * so a cache hit or a 304 revalidation doesn't parse the same body again. {@link CoalescingHttpClient} shares them
+ * between the calls that joined one request in the same way.
+ */
+final class ParsedResults {
+  private static final Object NULL = new Object();
+
+  private final ConcurrentMap<Type, Object> results = new ConcurrentHashMap<>();
+
+  /**
+   * Parses at most once per type: concurrent callers for the same type wait for the first parser.
+   */
+  @SuppressWarnings("unchecked")
+  <T> T get(Type type, Supplier<T> parser) {
+    Object result = results.get(type);
+    if (result == null) {
+      result = results.computeIfAbsent(type, key -> {
+        T parsed = parser.get();
+        return parsed == null ? NULL : parsed;
+      });
+    }
+    return result == NULL ? null : (T) result;
+  }
+}
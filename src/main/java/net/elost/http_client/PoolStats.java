@@ -0,0 +1,42 @@
+package net.elost.http_client;
+
+/**
+ * Point-in-time snapshot of {@link ConnectionPool} usage.
+ */
+public class PoolStats {
+  private final int leased;
+  private final int idle;
+  private final int pending;
+
+  PoolStats(int leased, int idle, int pending) {
+    this.leased = leased;
+    this.idle = idle;
+    this.pending = pending;
+  }
+
+  /**
+   * @return connections currently handed out to in-flight requests
+   */
+  public int getLeased() {
+    return leased;
+  }
+
+  /**
+   * @return open connections waiting in the pool for reuse
+   */
+  public int getIdle() {
+    return idle;
+  }
+
+  /**
+   * @return requests waiting for a connection because the per-host limit is reached
+   */
+  public int getPending() {
+    return pending;
+  }
+
+  @Override
+  public String toString() {
+    return "leased: " + leased + ", idle: " + idle + ", pending: " + pending;
+  }
+}
@@ -0,0 +1,177 @@
+package net.elost.http_client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A keep-alive socket owned by a {@link ConnectionPool}.
+ */
+class PooledConnection {
+  private static final long PROBE_AFTER_IDLE_MILLIS = 1000;
+
+  private final String route;
+  private final Socket socket;
+  private final InputStream in;
+  private final OutputStream out;
+  private final long createdAtNanos;
+  private long idleSinceNanos;
+  private boolean reused;
+
+  private PooledConnection(String route, Socket socket) throws IOException {
+    this.route = route;
+    this.socket = socket;
+    this.in = new BufferedInputStream(socket.getInputStream());
+    this.out = new BufferedOutputStream(socket.getOutputStream());
+    this.createdAtNanos = System.nanoTime();
+    this.idleSinceNanos = createdAtNanos;
+  }
+
+  static PooledConnection open(
+      String route,
+      boolean secure,
+      String host,
+      int port,
+      int connectTimeoutMillis,
+      SSLSocketFactory sslSocketFactory,
+      DnsResolver resolver,
+      long connectStaggerMillis,
+      CallTracer tracer
+  ) throws IOException {
+    tracer.dnsStart(host);
+    List<InetAddress> addresses = resolver.resolve(host);
+    if (addresses.isEmpty()) {
+      throw new UnknownHostException(host);
+    }
+    tracer.dnsEnd(host, addresses.get(0));
+
+    tracer.connectStart();
+    Socket socket = HappyEyeballs.connect(addresses, port, connectTimeoutMillis, connectStaggerMillis);
+    try {
+      if (secure) {
+        socket = startTls(socket, host, port, sslSocketFactory);
+      }
+      tracer.connectEnd();
+      return new PooledConnection(route, socket);
+    }
+    catch (IOException | RuntimeException | Error e) {
+      closeQuietly(socket);
+      throw e;
+    }
+  }
+
+  private static Socket startTls(Socket plain, String host, int port, SSLSocketFactory factory) throws IOException {
+    SSLSocket socket = (SSLSocket) factory.createSocket(plain, host, port, true);
+    SSLParameters parameters = socket.getSSLParameters();
+    parameters.setEndpointIdentificationAlgorithm("HTTPS");
+    socket.setSSLParameters(parameters);
+    socket.startHandshake();
+    return socket;
+  }
+
+  String getRoute() {
+    return route;
+  }
+
+  InputStream getInputStream() {
+    return in;
+  }
+
+  OutputStream getOutputStream() {
+    return out;
+  }
+
+  void setReadTimeout(int readTimeoutMillis) throws SocketException {
+    socket.setSoTimeout(readTimeoutMillis);
+  }
+
+  void markIdle() {
+    idleSinceNanos = System.nanoTime();
+    reused = true;
+  }
+
+  /**
+   * @return whether the connection went back to the pool before, i.e. the server may have closed it meanwhile
+   */
+  boolean isReused() {
+    return reused;
+  }
+
+  boolean isExpired(long nowNanos, long idleTimeoutMillis, long maxLifetimeMillis) {
+    if (idleTimeoutMillis > 0 && nowNanos - idleSinceNanos > TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis)) {
+      return true;
+    }
+    return maxLifetimeMillis > 0 && nowNanos - createdAtNanos > TimeUnit.MILLISECONDS.toNanos(maxLifetimeMillis);
+  }
+
+  /**
+   * Checks that the peer has not closed the connection while it was idle.
+   * An idle HTTP/1.1 connection must have nothing to read, so both EOF and unexpected data mean it is unusable.
+   * Buffered data is seen without a system call; the 1 ms read that detects EOF is only done for connections idle
+   * longer than {@link #PROBE_AFTER_IDLE_MILLIS}, as servers don't close keep-alive connections sooner.
+   */
+  boolean isAlive() {
+    if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+      return false;
+    }
+    int readTimeout;
+    try {
+      if (in.available() > 0) {
+        return false;
+      }
+      if (System.nanoTime() - idleSinceNanos < TimeUnit.MILLISECONDS.toNanos(PROBE_AFTER_IDLE_MILLIS)) {
+        return true;
+      }
+      readTimeout = socket.getSoTimeout();
+    }
+    catch (IOException e) {
+      return false;
+    }
+    try {
+      socket.setSoTimeout(1);
+      in.mark(1);
+      if (in.read() == -1) {
+        return false;
+      }
+      in.reset();
+      return false;
+    }
+    catch (SocketTimeoutException e) {
+      return true;
+    }
+    catch (IOException e) {
+      return false;
+    }
+    finally {
+      try {
+        socket.setSoTimeout(readTimeout);
+      }
+      catch (SocketException ignored) {
+      }
+    }
+  }
+
+  void close() {
+    closeQuietly(socket);
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    }
+    catch (IOException ignored) {
+    }
+  }
+}
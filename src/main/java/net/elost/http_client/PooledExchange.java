@@ -0,0 +1,251 @@
+package net.elost.http_client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HTTP/1.1 exchange over a connection leased from a {@link ConnectionPool}.
+ * The connection goes back to the pool on release if the response body was read to its end.
+ * <p>
+ * A server may close an idle connection just as it is reused. A GET, PUT or DELETE whose body is buffered is then sent
+ * once more on a new connection, if the reused one failed before any byte of the response arrived.
+ */
+class PooledExchange implements HttpExchange {
+  private final ConnectionPool pool;
+  private final HttpMethod method;
+  private final URL url;
+  private HttpHeaders requestHeaders;
+  private final int connectTimeoutMillis;
+  private final int readTimeoutMillis;
+  private final CallTracer tracer;
+
+  private PooledConnection connection;
+  private boolean streaming;
+  private long streamingLength;
+  private OutputStream requestStream;
+  private ByteArrayOutputStream requestBody;
+  private int responseCode = -1;
+  private List<String> responseHeaderLines;
+  private Map<String, List<String>> responseHeaders;
+  private Http1Codec.BodyInputStream responseBody;
+  private boolean keepAlive;
+  private boolean responseStarted;
+  private boolean retried;
+
+  PooledExchange(
+      ConnectionPool pool,
+      HttpMethod method,
+      URL url,
+      String contentType,
+      Map<String, String> headers,
+      int connectTimeoutMillis,
+      int readTimeoutMillis,
+      CallTracer tracer
+  ) {
+    this.pool = pool;
+    this.method = method;
+    this.url = url;
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.readTimeoutMillis = readTimeoutMillis;
+    this.tracer = tracer;
+    this.requestHeaders = requestHeaders(url, contentType, headers);
+  }
+
+  private static HttpHeaders requestHeaders(URL url, String contentType, Map<String, String> headers) {
+    String host = url.getPort() == -1 ? url.getHost() : url.getHost() + ":" + url.getPort();
+    HttpHeaders defaults = contentType != null && !contentType.isEmpty()
+        ? HttpHeaders.of("Host", host, "Accept", "*/*", "Content-Type", contentType)
+        : HttpHeaders.of("Host", host, "Accept", "*/*");
+    return defaults.with(headers);
+  }
+
+  @Override
+  public URL getURL() {
+    return url;
+  }
+
+  @Override
+  public CallTracer getTracer() {
+    return tracer;
+  }
+
+  @Override
+  public void setFixedLengthStreamingMode(long contentLength) {
+    streaming = true;
+    streamingLength = contentLength;
+  }
+
+  @Override
+  public void setChunkedStreamingMode() {
+    streaming = true;
+    streamingLength = -1;
+  }
+
+  @Override
+  public void connect() throws IOException {
+    connection = lease(false);
+  }
+
+  private PooledConnection lease(boolean fresh) throws IOException {
+    int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+    return pool.lease(url.getProtocol(), url.getHost(), port, connectTimeoutMillis, readTimeoutMillis, fresh, tracer);
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    if (streaming) {
+      if (requestStream == null) {
+        requestStream = startStreamingRequest();
+      }
+      return requestStream;
+    }
+    if (requestBody == null) {
+      requestBody = new ByteArrayOutputStream();
+    }
+    return requestBody;
+  }
+
+  @Override
+  public int getResponseCode() throws IOException {
+    if (responseCode == -1) {
+      try {
+        exchange();
+      }
+      catch (IOException e) {
+        if (!isRetryable(e)) {
+          throw e;
+        }
+        // the server closed the reused connection while it was idle
+        retried = true;
+        pool.release(connection, false);
+        connection = null;
+        connection = lease(true);
+        exchange();
+      }
+    }
+    return responseCode;
+  }
+
+  private void exchange() throws IOException {
+    if (streaming) {
+      getOutputStream().close();
+    }
+    else {
+      writeRequest();
+    }
+    readResponseHead();
+  }
+
+  private boolean isRetryable(IOException e) {
+    return !retried && !streaming && !responseStarted && method != HttpMethod.POST && connection != null
+        && connection.isReused() && !(e instanceof SocketTimeoutException);
+  }
+
+  @Override
+  public String getHeaderField(String name) {
+    return responseHeaderLines == null ? null : Http1Codec.findHeader(responseHeaderLines, name);
+  }
+
+  /**
+   * Parses the header lines into a map on the first call only, most calls just look up a few headers by name.
+   */
+  @Override
+  public Map<String, List<String>> getHeaderFields() {
+    if (responseHeaders == null && responseHeaderLines != null) {
+      responseHeaders = Http1Codec.parseHeaderLines(responseHeaderLines);
+    }
+    return responseHeaders;
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    getResponseCode();
+    return responseBody;
+  }
+
+  @Override
+  public InputStream getErrorStream() throws IOException {
+    return getInputStream();
+  }
+
+  @Override
+  public void release() {
+    if (connection != null) {
+      pool.release(connection, keepAlive && responseBody != null && responseBody.isComplete());
+      connection = null;
+    }
+  }
+
+  private void writeRequest() throws IOException {
+    if (requestBody != null) {
+      requestHeaders = requestHeaders.with("Content-Length", String.valueOf(requestBody.size()));
+    }
+    OutputStream out = writeRequestHead();
+    if (requestBody != null) {
+      requestBody.writeTo(out);
+    }
+    out.flush();
+  }
+
+  private OutputStream startStreamingRequest() throws IOException {
+    if (streamingLength >= 0) {
+      requestHeaders = requestHeaders.with("Content-Length", String.valueOf(streamingLength));
+      return new Http1Codec.FixedLengthOutputStream(writeRequestHead(), streamingLength);
+    }
+    requestHeaders = requestHeaders.with("Transfer-Encoding", "chunked");
+    return new Http1Codec.ChunkedOutputStream(writeRequestHead());
+  }
+
+  private OutputStream writeRequestHead() throws IOException {
+    if (connection == null) {
+      throw new ProtocolException("Not connected to " + url);
+    }
+    String target = url.getFile().isEmpty() ? "/" : url.getFile();
+    OutputStream out = connection.getOutputStream();
+    Http1Codec.writeRequestHead(out, method.name(), target, requestHeaders);
+    return out;
+  }
+
+  private void readResponseHead() throws IOException {
+    InputStream in = connection.getInputStream();
+    in.mark(1);
+    if (in.read() == -1) {
+      throw new EOFException("Connection closed before the response");
+    }
+    in.reset();
+    responseStarted = true;
+    Http1Codec.StatusLine status;
+    do {
+      status = Http1Codec.readStatusLine(in);
+      responseHeaderLines = Http1Codec.readHeaderLines(in);
+    }
+    while (status.code >= 100 && status.code < 200);
+
+    keepAlive = Http1Codec.isKeepAlive(status, getHeaderField("Connection"));
+    responseBody = responseBody(in, status.code);
+    responseCode = status.code;
+  }
+
+  private Http1Codec.BodyInputStream responseBody(InputStream in, int code) throws ProtocolException {
+    if (code == 204 || code == 304) {
+      return new Http1Codec.EmptyInputStream();
+    }
+    String transferEncoding = getHeaderField("Transfer-Encoding");
+    if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+      return new Http1Codec.ChunkedInputStream(in);
+    }
+    String contentLength = getHeaderField("Content-Length");
+    if (contentLength != null) {
+      return new Http1Codec.FixedLengthInputStream(in, Http1Codec.parseContentLength(contentLength));
+    }
+    return new Http1Codec.UntilCloseInputStream(in);
+  }
+}
@@ -0,0 +1,178 @@
+package net.elost.http_client;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Turns inputs into url parameters. Maps give their entries, other objects their fields, named like Gson names them
+ * in inputs: by {@code @SerializedName} or the field name. Static and transient fields are left out, like Gson does.
+ * Fields are looked up once per class.
+ * <p>
+ * Null values are left out, collections and arrays repeat the parameter for each element. Strings, numbers,
+ * booleans, characters and enums are written as text; values of other types, like dates or nested objects, have no
+ * url form and are left out of the query. Inputs that are not objects with fields of their own, like strings,
+ * collections or JDK types, give no parameters.
+ */
+final class QueryEncoder {
+  private static final ConcurrentMap<Class<?>, Accessor[]> ACCESSORS = new ConcurrentHashMap<>();
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+  private QueryEncoder() {
+  }
+
+  /**
+   * @return parameter values by name, in field order for objects, empty for null
+   */
+  @SuppressWarnings("unchecked")
+  static Map<String, ?> parameters(Object input) {
+    if (input == null) {
+      return Collections.emptyMap();
+    }
+    if (input instanceof Map) {
+      return (Map<String, ?>) input;
+    }
+    if (isScalar(input) || input instanceof Iterable || input.getClass().isArray() || isPlatformType(input)) {
+      return Collections.emptyMap();
+    }
+    Accessor[] accessors = ACCESSORS.computeIfAbsent(input.getClass(), QueryEncoder::accessors);
+    Map<String, Object> parameters = new LinkedHashMap<>(accessors.length * 2);
+    for (Accessor accessor : accessors) {
+      parameters.put(accessor.name, accessor.get(input));
+    }
+    return parameters;
+  }
+
+  /**
+   * Appends the parameters that are not variables of a template as query, starting with {@code ?} or, if the url
+   * has a query already, with {@code &}.
+   */
+  static void appendQuery(StringBuilder url, Map<String, ?> parameters, List<String> variables, boolean hasQuery) {
+    char separator = hasQuery ? '&' : '?';
+    for (Map.Entry<String, ?> parameter : parameters.entrySet()) {
+      String name = String.valueOf(parameter.getKey());
+      Object value = parameter.getValue();
+      if (value == null || variables.contains(name)) {
+        continue;
+      }
+      if (value instanceof Iterable) {
+        for (Object element : (Iterable<?>) value) {
+          separator = appendParameter(url, separator, name, element);
+        }
+      }
+      else if (value.getClass().isArray()) {
+        for (int i = 0, length = Array.getLength(value); i < length; i++) {
+          separator = appendParameter(url, separator, name, Array.get(value, i));
+        }
+      }
+      else {
+        separator = appendParameter(url, separator, name, value);
+      }
+    }
+  }
+
+  private static char appendParameter(StringBuilder url, char separator, String name, Object value) {
+    if (value == null || !isScalar(value)) {
+      return separator;
+    }
+    url.append(separator);
+    encode(url, name);
+    url.append('=');
+    encode(url, text(name, value));
+    return '&';
+  }
+
+  /**
+   * @return the value as it is written in urls
+   * @throws IllegalArgumentException if the value is not a string, number, boolean, character or enum
+   */
+  static String text(String name, Object value) {
+    if (value instanceof Enum) {
+      return ((Enum<?>) value).name();
+    }
+    if (!isScalar(value)) {
+      throw new IllegalArgumentException(String.format(
+          "Can't encode %s of type %s as url parameter", name, value.getClass().getName()
+      ));
+    }
+    return value.toString();
+  }
+
+  /**
+   * Appends the text percent-encoded as UTF-8, leaving only unreserved characters as they are, so the result can be
+   * a path segment, a parameter name or a parameter value.
+   */
+  static void encode(StringBuilder url, String text) {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (isUnreserved(c)) {
+        url.append(c);
+        continue;
+      }
+      int end = Character.isHighSurrogate(c) && i + 1 < text.length() ? i + 2 : i + 1;
+      for (byte b : text.substring(i, end).getBytes(StandardCharsets.UTF_8)) {
+        url.append('%').append(HEX[b >> 4 & 0xf]).append(HEX[b & 0xf]);
+      }
+      i = end - 1;
+    }
+  }
+
+  private static boolean isUnreserved(char c) {
+    return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+        || c == '-' || c == '.' || c == '_' || c == '~';
+  }
+
+  private static boolean isScalar(Object value) {
+    return value instanceof CharSequence || value instanceof Number || value instanceof Boolean
+        || value instanceof Character || value instanceof Enum;
+  }
+
+  private static boolean isPlatformType(Object value) {
+    String name = value.getClass().getName();
+    return name.startsWith("java.") || name.startsWith("javax.");
+  }
+
+  private static Accessor[] accessors(Class<?> type) {
+    List<Accessor> accessors = new ArrayList<>();
+    for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+      for (Field field : current.getDeclaredFields()) {
+        if ((field.getModifiers() & (Modifier.STATIC | Modifier.TRANSIENT)) != 0 || field.isSynthetic()) {
+          continue;
+        }
+        field.setAccessible(true);
+        SerializedName serializedName = field.getAnnotation(SerializedName.class);
+        accessors.add(new Accessor(serializedName != null ? serializedName.value() : field.getName(), field));
+      }
+    }
+    return accessors.toArray(new Accessor[0]);
+  }
+
+  private static class Accessor {
+    private final String name;
+    private final Field field;
+
+    Accessor(String name, Field field) {
+      this.name = name;
+      this.field = field;
+    }
+
+    Object get(Object input) {
+      try {
+        return field.get(input);
+      }
+      catch (IllegalAccessException e) {
+        throw new IllegalStateException(String.format("Can't read %s of %s", field.getName(), input.getClass()), e);
+      }
+    }
+  }
+}
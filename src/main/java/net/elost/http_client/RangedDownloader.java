@@ -0,0 +1,337 @@
+package net.elost.http_client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Downloads large bodies to a file over several connections at once, one byte range per request, to fill links
+ * where a single TCP stream can't.
+ * <pre>
+ *   RangedDownloader downloader = new RangedDownloader(new HttpClientImpl(1000, 30000).connectionPool(pool))
+ *       .parallelism(8);
+ *   long size = downloader.download(url, Paths.get("artifact.tar"));
+ * </pre>
+ * The first range is requested with a {@code Range} header. A {@code 206 Partial Content} response tells the length
+ * of the body, the file is preallocated and the other ranges are fetched concurrently and written at their offsets,
+ * validated with {@code If-Range} against the strong ETag or else the Last-Modified of the first response. A server
+ * may send less than the requested range; the rest is requested next. A range that fails is requested again, from
+ * where it stopped if the connection closed early. If the body changes during the download, the download fails.
+ * <p>
+ * If the server ignores the range and sends the whole body, it is written as a single stream. So is a body whose
+ * total length the first response doesn't tell, or whose change couldn't be detected because the first response
+ * has neither a strong ETag nor Last-Modified: it is requested again without a range.
+ * <p>
+ * Concurrent ranges to one host are also limited by the per-host limit of the {@link ConnectionPool} of the client.
+ * On failure the file is left incomplete.
+ */
+public class RangedDownloader {
+  private static final ExecutorService WORKERS = Executors.newCachedThreadPool(task -> {
+    Thread thread = new Thread(task, "http-client-download");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final HttpClient client;
+  private int parallelism = 4;
+  private long rangeSize = 8 * 1024 * 1024;
+  private int maxAttempts = 3;
+
+  public RangedDownloader(HttpClient client) {
+    this.client = client;
+  }
+
+  /**
+   * Number of ranges fetched at the same time. Defaults to 4.
+   */
+  public RangedDownloader parallelism(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism must be positive");
+    }
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * Size of each range. Bodies up to this size are downloaded with one request. Defaults to 8 MB.
+   */
+  public RangedDownloader rangeSize(long rangeSize) {
+    if (rangeSize < 1) {
+      throw new IllegalArgumentException("rangeSize must be positive");
+    }
+    this.rangeSize = rangeSize;
+    return this;
+  }
+
+  /**
+   * Attempts per range before the download fails. Defaults to 3.
+   */
+  public RangedDownloader maxAttempts(int maxAttempts) {
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("maxAttempts must be positive");
+    }
+    this.maxAttempts = maxAttempts;
+    return this;
+  }
+
+  public long download(String url, Path file) {
+    return download(url, Collections.emptyMap(), file);
+  }
+
+  /**
+   * Downloads the body of a GET request to the file, replacing its content.
+   *
+   * @return length of the body
+   */
+  public long download(String url, Map<String, String> headers, Path file) {
+    // ranges are offsets into the body as stored, so it must not be compressed on the fly
+    HttpHeaders requestHeaders = HttpHeaders.copyOf(headers).with("Accept-Encoding", "identity");
+    try (FileChannel channel = FileChannel.open(
+        file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING
+    )) {
+      StreamingHttpResponse first = client.sendStreamingRequest(
+          HttpMethod.GET, url, null, null, requestHeaders.with("Range", range(0, rangeSize))
+      );
+      try {
+        if (first.getCode() == 416) {
+          // nothing to split, e.g. an empty body
+          first.close();
+          first = client.sendStreamingRequest(HttpMethod.GET, url, null, null, requestHeaders);
+        }
+        checkStatus(first);
+        if (first.getCode() != 206) {
+          return first.transferTo(channel, 0);
+        }
+        ContentRange contentRange = ContentRange.parse(first);
+        if (contentRange == null || contentRange.start != 0) {
+          throw new HttpCallException(String.format(
+              "Unsupported Content-Range %s of %s", Headers.first(first.getResponseHeaders(), "Content-Range"), url
+          ));
+        }
+        String validator = validator(first);
+        if (contentRange.total == -1 || validator == null && contentRange.total > contentRange.length()) {
+          first.close();
+          first = client.sendStreamingRequest(HttpMethod.GET, url, null, null, requestHeaders);
+          checkStatus(first);
+          return first.transferTo(channel, 0);
+        }
+        if (contentRange.total > contentRange.length()) {
+          channel.write(ByteBuffer.wrap(new byte[1]), contentRange.total - 1);
+        }
+        Download download = new Download(url, requestHeaders, channel, contentRange, validator);
+        return download.run(first);
+      }
+      finally {
+        first.close();
+      }
+    }
+    catch (IOException e) {
+      throw new HttpCallException(String.format("Can't download %s to %s", url, file), e);
+    }
+  }
+
+  private static String range(long start, long length) {
+    return "bytes=" + start + "-" + (start + length - 1);
+  }
+
+  /**
+   * @return value for If-Range, a strong ETag or else Last-Modified, or null if the response has neither
+   */
+  private static String validator(StreamingHttpResponse response) {
+    String etag = Headers.first(response.getResponseHeaders(), "ETag");
+    if (etag != null && !etag.startsWith("W/")) {
+      return etag;
+    }
+    return Headers.first(response.getResponseHeaders(), "Last-Modified");
+  }
+
+  private static void checkStatus(StreamingHttpResponse response) {
+    if (response.getCode() < 200 || response.getCode() >= 300) {
+      throw new HttpCallException(String.format(
+          "Failed to download %s with status code %s", response.getUrl(), response.getCode()
+      ), null, response.getCode(), null);
+    }
+  }
+
+  private class Download {
+    private final String url;
+    private final HttpHeaders headers;
+    private final FileChannel channel;
+    private final ContentRange first;
+    private final long total;
+    private final AtomicLong nextStart;
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+    Download(String url, HttpHeaders headers, FileChannel channel, ContentRange first, String validator) {
+      this.url = url;
+      this.headers = validator == null ? headers : headers.with("If-Range", validator);
+      this.channel = channel;
+      this.first = first;
+      this.total = first.total;
+      this.nextStart = new AtomicLong(first.end + 1);
+    }
+
+    long run(StreamingHttpResponse firstResponse) throws IOException {
+      List<Future<?>> workers = new ArrayList<>();
+      int ranges = (int) Math.min(parallelism - 1, (total - first.end - 1 + rangeSize - 1) / rangeSize);
+      for (int i = 0; i < ranges; i++) {
+        workers.add(WORKERS.submit(this::fetchRanges));
+      }
+      try {
+        long written = firstResponse.transferTo(channel, first.start);
+        if (written != first.length()) {
+          fetch(first.start + written, first.end, 1);
+        }
+        fetchRanges();
+      }
+      catch (RuntimeException e) {
+        failure.compareAndSet(null, e);
+      }
+      for (Future<?> worker : workers) {
+        try {
+          worker.get();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          failure.compareAndSet(null, new HttpCallException(String.format("Download of %s interrupted", url), e));
+        }
+        catch (ExecutionException e) {
+          failure.compareAndSet(null, new HttpCallException(
+              String.format("Download of %s failed", url), e.getCause()
+          ));
+        }
+      }
+      if (failure.get() != null) {
+        throw failure.get();
+      }
+      return total;
+    }
+
+    private void fetchRanges() {
+      long start;
+      while (failure.get() == null && (start = nextStart.getAndAdd(rangeSize)) < total) {
+        try {
+          fetch(start, Math.min(start + rangeSize, total) - 1, 0);
+        }
+        catch (RuntimeException e) {
+          failure.compareAndSet(null, e);
+        }
+      }
+    }
+
+    /**
+     * Fetches the range, requesting the rest if the server sent less or an attempt failed. Only failures count as
+     * attempts.
+     */
+    private void fetch(long start, long end, int failedAttempts) {
+      long[] position = {start};
+      int attempts = failedAttempts;
+      while (position[0] <= end) {
+        try {
+          fetchOnce(position, end);
+        }
+        catch (IOException | HttpCallException e) {
+          if (e instanceof ChangedException || e instanceof CallRejectedException || ++attempts >= maxAttempts) {
+            throw e instanceof HttpCallException ? (HttpCallException) e : new HttpCallException(String.format(
+                "Failed to download range %d-%d of %s", start, end, url
+            ), e);
+          }
+        }
+      }
+    }
+
+    /**
+     * Requests the range from the position to the end and moves the position past the bytes written. A valid
+     * {@code 206} may stop before the end.
+     *
+     * @throws IOException if the connection closed before the range the server sent was complete
+     */
+    private void fetchOnce(long[] position, long end) throws IOException {
+      long start = position[0];
+      try (StreamingHttpResponse response = client.sendStreamingRequest(
+          HttpMethod.GET, url, null, null, headers.with("Range", range(start, end - start + 1))
+      )) {
+        if (response.getCode() == 200) {
+          throw new ChangedException(url);
+        }
+        checkStatus(response);
+        ContentRange range = ContentRange.parse(response);
+        if (range == null || range.start != start || range.end < start || range.end > end || range.total != total) {
+          throw new ChangedException(url);
+        }
+        long written = response.transferTo(channel, start);
+        position[0] = start + written;
+        if (written != range.length()) {
+          throw new IOException(String.format("Range %d-%d of %s ended at %d", start, range.end, url, position[0]));
+        }
+      }
+    }
+  }
+
+  /**
+   * Value of a Content-Range header, {@code bytes start-end/total}.
+   */
+  private static class ContentRange {
+    private final long start;
+    private final long end;
+    private final long total;
+
+    private ContentRange(long start, long end, long total) {
+      this.start = start;
+      this.end = end;
+      this.total = total;
+    }
+
+    long length() {
+      return end - start + 1;
+    }
+
+    /**
+     * @return the range with a total of -1 if the total length is unknown, or null if the header is missing or
+     * malformed
+     */
+    static ContentRange parse(StreamingHttpResponse response) {
+      String value = Headers.first(response.getResponseHeaders(), "Content-Range");
+      if (value == null || !value.startsWith("bytes ")) {
+        return null;
+      }
+      int dash = value.indexOf('-');
+      int slash = value.indexOf('/');
+      if (dash == -1 || slash < dash) {
+        return null;
+      }
+      String total = value.substring(slash + 1).trim();
+      try {
+        return new ContentRange(
+            Long.parseLong(value.substring("bytes ".length(), dash).trim()),
+            Long.parseLong(value.substring(dash + 1, slash).trim()),
+            total.equals("*") ? -1 : Long.parseLong(total)
+        );
+      }
+      catch (NumberFormatException e) {
+        return null;
+      }
+    }
+  }
+
+  private static class ChangedException extends HttpCallException {
+    private static final long serialVersionUID = 1L;
+
+    ChangedException(String url) {
+      super(String.format("Body of %s changed during the download", url));
+    }
+  }
+}
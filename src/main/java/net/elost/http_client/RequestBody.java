@@ -0,0 +1,246 @@
+package net.elost.http_client;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Request body for {@link HttpClient#upload(HttpMethod, String, RequestBody, String, java.util.Map)}.
+ * <p>
+ * Bodies with a known length are sent in fixed-length streaming mode, bodies of unknown length are sent chunked,
+ * so neither is buffered in memory by the client.
+ */
+public abstract class RequestBody {
+
+  /**
+   * @return body length in bytes, or -1 if unknown
+   */
+  public abstract long contentLength();
+
+  /**
+   * Writes the body to the request stream. Does not close the stream.
+   */
+  public abstract void writeTo(OutputStream out) throws IOException;
+
+  /**
+   * Whether the client may stream the body instead of letting the transport buffer it.
+   * Only string bodies are buffered, so that redirects and authentication retries keep working for them.
+   */
+  boolean isStreamable() {
+    return true;
+  }
+
+  /**
+   * Whether the body can be written again, e.g. when the request is retried.
+   */
+  boolean isRepeatable() {
+    return false;
+  }
+
+  /**
+   * Short description used in {@link HttpResponse#getRequestBody()} and error messages.
+   */
+  String describe() {
+    long length = contentLength();
+    return length == -1 ? "<streamed body>" : "<" + length + " bytes>";
+  }
+
+  /**
+   * Value of the Content-Encoding header the body is sent with, or null if it is sent as is.
+   */
+  String contentEncoding() {
+    return null;
+  }
+
+  public static RequestBody ofString(String body) {
+    return new StringBody(body);
+  }
+
+  public static RequestBody ofBytes(byte[] body) {
+    return ofBytes(body, 0, body.length);
+  }
+
+  public static RequestBody ofBytes(byte[] body, int offset, int length) {
+    return new RequestBody() {
+      @Override
+      public long contentLength() {
+        return length;
+      }
+
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        out.write(body, offset, length);
+      }
+
+      @Override
+      boolean isRepeatable() {
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Body read from a stream, which can be sent only once. The stream is not closed.
+   *
+   * @param length number of bytes the stream will provide, or -1 if unknown
+   */
+  public static RequestBody ofStream(InputStream body, long length) {
+    return new RequestBody() {
+      @Override
+      public long contentLength() {
+        return length;
+      }
+
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = body.read(buffer)) != -1) {
+          out.write(buffer, 0, read);
+        }
+      }
+    };
+  }
+
+  public static RequestBody ofFile(Path file) {
+    long length;
+    try {
+      length = Files.size(file);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return new RequestBody() {
+      @Override
+      public long contentLength() {
+        return length;
+      }
+
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        Files.copy(file, out);
+      }
+
+      @Override
+      boolean isRepeatable() {
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Body produced by a callback, e.g. a serializer writing straight to the connection. Sent chunked.
+   */
+  public static RequestBody ofWriter(BodyWriter writer) {
+    return new RequestBody() {
+      @Override
+      public long contentLength() {
+        return -1;
+      }
+
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        writer.writeTo(out);
+      }
+    };
+  }
+
+  /**
+   * The body compressed with gzip while it is written. The compressed length isn't known up front.
+   */
+  static RequestBody gzip(RequestBody body) {
+    return new RequestBody() {
+      @Override
+      public long contentLength() {
+        return -1;
+      }
+
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(new FilterOutputStream(out) {
+          @Override
+          public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+          }
+
+          @Override
+          public void close() {
+            // the request stream is closed by the client
+          }
+        }, 8192);
+        body.writeTo(gzip);
+        gzip.close();
+      }
+
+      @Override
+      boolean isStreamable() {
+        return body.isStreamable();
+      }
+
+      @Override
+      boolean isRepeatable() {
+        return body.isRepeatable();
+      }
+
+      @Override
+      String describe() {
+        return body.describe();
+      }
+
+      @Override
+      String contentEncoding() {
+        return "gzip";
+      }
+    };
+  }
+
+  @FunctionalInterface
+  public interface BodyWriter {
+    void writeTo(OutputStream out) throws IOException;
+  }
+
+  static class StringBody extends RequestBody {
+    private final String body;
+    private final byte[] bytes;
+
+    private StringBody(String body) {
+      this.body = body;
+      this.bytes = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    String getBody() {
+      return body;
+    }
+
+    @Override
+    public long contentLength() {
+      return bytes.length;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      out.write(bytes);
+    }
+
+    @Override
+    boolean isStreamable() {
+      return false;
+    }
+
+    @Override
+    boolean isRepeatable() {
+      return true;
+    }
+
+    @Override
+    String describe() {
+      return body;
+    }
+  }
+}
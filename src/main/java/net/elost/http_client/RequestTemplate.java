@@ -0,0 +1,103 @@
+package net.elost.http_client;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Method, base url, content type and default headers of a kind of call, built once and reused for every call of
+ * that kind. Templates are immutable and can be shared between threads.
+ * <pre>
+ *   RequestTemplate getUser = new RequestTemplate(client, HttpMethod.GET, "https://api.example.com/users")
+ *       .withHeader("Authorization", "Bearer " + token);
+ *   HttpResponse response = getUser.send("/" + id, null);
+ * </pre>
+ * Calls without extra headers pass the template's headers as they are, without copying them.
+ */
+public class RequestTemplate {
+  private final HttpClient httpClient;
+  private final HttpMethod method;
+  private final String baseUrl;
+  private final String contentType;
+  private final HttpHeaders headers;
+
+  public RequestTemplate(HttpClient httpClient, HttpMethod method, String baseUrl) {
+    this(httpClient, method, trimTrailingSlash(baseUrl), "application/json", HttpHeaders.EMPTY);
+  }
+
+  private RequestTemplate(
+      HttpClient httpClient,
+      HttpMethod method,
+      String baseUrl,
+      String contentType,
+      HttpHeaders headers
+  ) {
+    this.httpClient = httpClient;
+    this.method = method;
+    this.baseUrl = baseUrl;
+    this.contentType = contentType;
+    this.headers = headers;
+  }
+
+  /**
+   * @return template sending the content type instead, application/json by default
+   */
+  public RequestTemplate withContentType(String contentType) {
+    return new RequestTemplate(httpClient, method, baseUrl, contentType, headers);
+  }
+
+  /**
+   * @return template also sending the header, or sending this value if it has the header already
+   */
+  public RequestTemplate withHeader(String name, String value) {
+    return new RequestTemplate(httpClient, method, baseUrl, contentType, headers.with(name, value));
+  }
+
+  public RequestTemplate withHeaders(Map<String, String> headers) {
+    return new RequestTemplate(httpClient, method, baseUrl, contentType, this.headers.with(headers));
+  }
+
+  public HttpMethod getMethod() {
+    return method;
+  }
+
+  public HttpHeaders getHeaders() {
+    return headers;
+  }
+
+  /**
+   * @param path appended to the base url, with a slash in between if it doesn't start with one
+   */
+  public String url(String path) {
+    if (path == null || path.isEmpty()) {
+      return baseUrl;
+    }
+    return path.charAt(0) == '/' || path.charAt(0) == '?' ? baseUrl + path : baseUrl + '/' + path;
+  }
+
+  public HttpResponse send(String path, String input) {
+    return httpClient.sendRequest(method, url(path), input, contentType, headers);
+  }
+
+  /**
+   * @param extraHeaders sent in addition to the template's headers, replacing those with the same names
+   */
+  public HttpResponse send(String path, String input, Map<String, String> extraHeaders) {
+    return httpClient.sendRequest(method, url(path), input, contentType, headers.with(extraHeaders));
+  }
+
+  public <T> T send(String path, String input, ResponseHandler<T> handler) {
+    return httpClient.sendRequest(method, url(path), input, contentType, headers, handler);
+  }
+
+  public CompletableFuture<HttpResponse> sendAsync(String path, String input) {
+    return httpClient.sendRequestAsync(method, url(path), input, contentType, headers);
+  }
+
+  public StreamingHttpResponse sendStreaming(String path, String input) {
+    return httpClient.sendStreamingRequest(method, url(path), input, contentType, headers);
+  }
+
+  private static String trimTrailingSlash(String url) {
+    return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+  }
+}
@@ -0,0 +1,172 @@
+package net.elost.http_client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Response body decoded according to its Content-Encoding, counting the bytes read from the wire
+ * and the bytes returned after decompression.
+ */
+final class ResponseBodyStream extends FilterInputStream {
+  private final CountingInputStream wire;
+  private final boolean decoded;
+  private long bodyBytes;
+
+  private ResponseBodyStream(InputStream in, CountingInputStream wire, boolean decoded) {
+    super(in);
+    this.wire = wire;
+    this.decoded = decoded;
+  }
+
+  /**
+   * @param contentEncoding "gzip", "deflate", or null for a body to pass through as is
+   */
+  static ResponseBodyStream open(InputStream raw, String contentEncoding) throws IOException {
+    CountingInputStream wire = new CountingInputStream(raw);
+    if (contentEncoding == null) {
+      return new ResponseBodyStream(wire, wire, false);
+    }
+    PushbackInputStream peek = new PushbackInputStream(wire, 2);
+    int first = peek.read();
+    if (first == -1) {
+      // e.g. a HEAD response or an empty error body that still declares its encoding
+      return new ResponseBodyStream(peek, wire, false);
+    }
+    peek.unread(first);
+    if ("gzip".equals(contentEncoding)) {
+      return new ResponseBodyStream(new GZIPInputStream(peek, 8192), wire, true);
+    }
+    return new ResponseBodyStream(inflater(peek, first), wire, true);
+  }
+
+  /**
+   * "deflate" should be zlib-wrapped, but some servers send raw deflate data, so the zlib header is checked.
+   */
+  private static InputStream inflater(PushbackInputStream in, int first) throws IOException {
+    in.read();
+    int second = in.read();
+    if (second != -1) {
+      in.unread(second);
+    }
+    in.unread(first);
+    boolean zlib = (first & 0x0f) == 8 && second != -1 && ((first << 8) | second) % 31 == 0;
+    Inflater inflater = new Inflater(!zlib);
+    return new InflaterInputStream(in, inflater, 8192) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        }
+        finally {
+          inflater.end();
+        }
+      }
+    };
+  }
+
+  /**
+   * @return whether the body is being decompressed
+   */
+  boolean isDecoded() {
+    return decoded;
+  }
+
+  long getWireBytes() {
+    return wire.count;
+  }
+
+  long getBodyBytes() {
+    return bodyBytes;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = in.read();
+    if (b != -1) {
+      bodyBytes++;
+    }
+    else {
+      drainWire();
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int read = in.read(b, off, len);
+    if (read > 0) {
+      bodyBytes += read;
+    }
+    else if (read == -1) {
+      drainWire();
+    }
+    return read;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = in.skip(n);
+    bodyBytes += skipped;
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  /**
+   * The decompressor stops at the end of the compressed data, which can leave the end of a chunked body
+   * unread. Reading the wire stream to its end lets a pooled connection be reused.
+   */
+  private void drainWire() throws IOException {
+    if (decoded) {
+      while (wire.skip(Long.MAX_VALUE) > 0 || wire.read() != -1) {
+        // discard trailing bytes
+      }
+    }
+  }
+
+  private static final class CountingInputStream extends FilterInputStream {
+    private long count;
+
+    private CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = in.read();
+      if (b != -1) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = in.read(b, off, len);
+      if (read > 0) {
+        count += read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = in.skip(n);
+      count += skipped;
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,273 @@
+package net.elost.http_client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Storage for {@link CachingHttpClient}: an in-memory LRU bounded by the approximate size of the cached responses,
+ * with an optional disk tier that takes the entries evicted from memory. The disk tier survives restarts,
+ * entries found in the directory are loaded lazily. One cache can be shared between clients.
+ */
+public class ResponseCache {
+  private static final String FILE_SUFFIX = ".cache";
+
+  // a lock rather than monitors, so that disk reads and writes don't pin virtual threads
+  private final ReentrantLock lock = new ReentrantLock();
+  private final LinkedHashMap<String, CacheEntry> memory = new LinkedHashMap<>(16, 0.75f, true);
+  private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+  private long maxMemoryBytes = 10 * 1024 * 1024;
+  private long memoryBytes;
+  private Path diskDirectory;
+  private long maxDiskBytes;
+  private long diskBytes;
+  private volatile boolean shared;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder revalidations = new LongAdder();
+
+  /**
+   * Maximum approximate heap size of the responses kept in memory. Defaults to 10 MB.
+   */
+  public ResponseCache maxMemoryBytes(long maxMemoryBytes) {
+    lock.lock();
+    try {
+      this.maxMemoryBytes = maxMemoryBytes;
+      evictMemory();
+      return this;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Enables the disk tier in the directory, created if missing, and indexes the entries already there.
+   */
+  public ResponseCache diskDirectory(Path diskDirectory, long maxDiskBytes) {
+    lock.lock();
+    try {
+      Files.createDirectories(diskDirectory);
+      this.diskDirectory = diskDirectory;
+      this.maxDiskBytes = maxDiskBytes;
+      loadDiskIndex();
+      return this;
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Whether the cache serves several users, e.g. clients sending different credentials. A shared cache doesn't store
+   * responses marked {@code private}. Defaults to false.
+   */
+  public ResponseCache shared(boolean shared) {
+    this.shared = shared;
+    return this;
+  }
+
+  boolean isShared() {
+    return shared;
+  }
+
+  public CacheStats getStats() {
+    return new CacheStats(hits.sum(), misses.sum(), revalidations.sum());
+  }
+
+  /**
+   * Removes all entries from memory and disk.
+   */
+  public void clear() {
+    lock.lock();
+    try {
+      memory.clear();
+      memoryBytes = 0;
+      new ArrayList<>(disk.keySet()).forEach(this::removeFromDisk);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  CacheEntry get(String key) {
+    lock.lock();
+    try {
+      CacheEntry entry = memory.get(key);
+      if (entry != null || !disk.containsKey(key)) {
+        return entry;
+      }
+      entry = readFromDisk(key);
+      removeFromDisk(key);
+      if (entry != null) {
+        putInMemory(key, entry);
+      }
+      return entry;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  void put(String key, CacheEntry entry) {
+    lock.lock();
+    try {
+      remove(key);
+      putInMemory(key, entry);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  void remove(String key) {
+    lock.lock();
+    try {
+      CacheEntry removed = memory.remove(key);
+      if (removed != null) {
+        memoryBytes -= removed.size();
+      }
+      if (disk.containsKey(key)) {
+        removeFromDisk(key);
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  void recordHit() {
+    hits.increment();
+  }
+
+  void recordMiss() {
+    misses.increment();
+  }
+
+  void recordRevalidation() {
+    revalidations.increment();
+  }
+
+  private void putInMemory(String key, CacheEntry entry) {
+    if (entry.size() > maxMemoryBytes) {
+      writeToDisk(key, entry);
+      return;
+    }
+    memory.put(key, entry);
+    memoryBytes += entry.size();
+    evictMemory();
+  }
+
+  private void evictMemory() {
+    Iterator<Map.Entry<String, CacheEntry>> eldest = memory.entrySet().iterator();
+    while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+      Map.Entry<String, CacheEntry> evicted = eldest.next();
+      eldest.remove();
+      memoryBytes -= evicted.getValue().size();
+      writeToDisk(evicted.getKey(), evicted.getValue());
+    }
+  }
+
+  private void writeToDisk(String key, CacheEntry entry) {
+    if (diskDirectory == null) {
+      return;
+    }
+    Path file = file(key);
+    try {
+      Path temp = Files.createTempFile(diskDirectory, "entry", ".tmp");
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        entry.writeTo(key, out);
+      }
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+      long size = Files.size(file);
+      Long previous = disk.put(key, size);
+      diskBytes += size - (previous == null ? 0 : previous);
+      evictDisk();
+    }
+    catch (IOException e) {
+      // the disk tier is best effort, the entry is dropped
+      removeFromDisk(key);
+    }
+  }
+
+  private CacheEntry readFromDisk(String key) {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file(key))))) {
+      return CacheEntry.readFrom(in);
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
+
+  private void removeFromDisk(String key) {
+    Long size = disk.remove(key);
+    if (size != null) {
+      diskBytes -= size;
+    }
+    try {
+      Files.deleteIfExists(file(key));
+    }
+    catch (IOException ignored) {
+    }
+  }
+
+  private void evictDisk() {
+    while (diskBytes > maxDiskBytes && !disk.isEmpty()) {
+      removeFromDisk(disk.keySet().iterator().next());
+    }
+  }
+
+  private void loadDiskIndex() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(diskDirectory, "*" + FILE_SUFFIX)) {
+      stream.forEach(files::add);
+    }
+    files.sort((a, b) -> Long.compare(a.toFile().lastModified(), b.toFile().lastModified()));
+    for (Path file : files) {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+        long size = Files.size(file);
+        Long previous = disk.put(CacheEntry.readKey(in), size);
+        diskBytes += size - (previous == null ? 0 : previous);
+      }
+      catch (IOException e) {
+        Files.deleteIfExists(file);
+      }
+    }
+    evictDisk();
+  }
+
+  private Path file(String key) {
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+      StringBuilder name = new StringBuilder(hash.length * 2 + FILE_SUFFIX.length());
+      for (byte b : hash) {
+        name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return diskDirectory.resolve(name.append(FILE_SUFFIX).toString());
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
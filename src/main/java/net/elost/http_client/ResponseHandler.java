@@ -0,0 +1,19 @@
+package net.elost.http_client;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Consumes a response body as a stream instead of having it buffered into {@link HttpResponse}.
+ *
+ * @param <T> result of handling the response
+ */
+@FunctionalInterface
+public interface ResponseHandler<T> {
+
+  /**
+   * @param response status, headers and request details; the body fields are not set
+   * @param body     response body, or error body for statuses of 400 and above. Closed by the client after the handler returns
+   */
+  T handle(HttpResponse response, InputStream body) throws IOException;
+}
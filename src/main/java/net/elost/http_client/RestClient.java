@@ -1,15 +1,35 @@
 package net.elost.http_client;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import com.google.gson.FieldNamingPolicy;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonSyntaxException;
+import com.google.gson.JsonParseException;
 
 public class RestClient {
+  private static final JsonSerializer DEFAULT_SERIALIZER = new GsonJsonSerializer();
+
   private final String endpointUrl;
   private HttpClient httpClient;
+  private final JsonSerializer serializer;
+  private BodyCodec codec;
+  private Map<String, String> acceptHeaders = Collections.emptyMap();
+  private final ConcurrentMap<String, UrlTemplate> templates = new ConcurrentHashMap<>();
 
   /**
    * <b>IMPORTANT</b>
@@ -23,13 +43,63 @@ public class RestClient {
   private RestClient(String endpointUrl) {
     this.endpointUrl = endpointUrl;
     httpClient = new HttpClientImpl();
+    serializer = DEFAULT_SERIALIZER;
   }
 
   public RestClient(String endpointUrl, int connectTimeoutMillis, int readTimeoutMillis) {
     this.endpointUrl = endpointUrl;
     httpClient = new HttpClientImpl(connectTimeoutMillis, readTimeoutMillis);
+    serializer = DEFAULT_SERIALIZER;
+  }
+
+  /**
+   * Uses the given client for all calls, e.g. an {@link HttpClientImpl} with a {@link ConnectionPool}
+   * or a {@link NioHttpClient} for non-blocking async calls.
+   */
+  public RestClient(String endpointUrl, HttpClient httpClient) {
+    this(endpointUrl, httpClient, DEFAULT_SERIALIZER);
+  }
+
+  /**
+   * Uses the given serializer for inputs and results, e.g. a {@link GsonJsonSerializer} with custom type adapters
+   * or one warmed up with the result types of this client.
+   */
+  public RestClient(String endpointUrl, HttpClient httpClient, JsonSerializer serializer) {
+    this.endpointUrl = endpointUrl;
+    this.httpClient = httpClient;
+    this.serializer = serializer;
+  }
+
+  /**
+   * Spreads calls over the endpoints of the given client. Paths relative to the endpoints, e.g. {@code /users/1},
+   * go to one of them, absolute urls go where they point.
+   */
+  public RestClient(LoadBalancingHttpClient httpClient) {
+    this(httpClient, DEFAULT_SERIALIZER);
   }
 
+  public RestClient(LoadBalancingHttpClient httpClient, JsonSerializer serializer) {
+    this("", httpClient, serializer);
+  }
+
+  /**
+   * Sends inputs encoded with the codec instead of JSON and asks for results in its format, e.g. CBOR with
+   * {@link CborCodec}. Results are decoded with the codec when the response has its content type and parsed as JSON
+   * otherwise, so servers that don't support the format keep working.
+   * Async calls send their inputs as JSON; streamed array results ({@code getEach}, {@code getStream}) stay JSON.
+   */
+  public RestClient codec(BodyCodec codec) {
+    this.codec = codec;
+    this.acceptHeaders = HttpHeaders.of("Accept", codec.contentType() + ", application/json;q=0.9");
+    return this;
+  }
+
+  /**
+   * Paths are resolved against the endpoint url unless they are absolute urls, and may have {@code {variables}}
+   * filled in from the fields or entries of the input, e.g. {@code /users/{id}/orders}. The other non-null values of
+   * a GET input are sent as query parameters, except values with no url form like dates or nested objects; inputs of
+   * other methods are sent as the body.
+   */
   public void get(String path, Object input) {
     sendRequest(HttpMethod.GET, path, input);
   }
@@ -42,6 +112,30 @@ public class RestClient {
     return sendRequest(HttpMethod.GET, path, input, typeOfResult);
   }
 
+  /**
+   * Streams a top-level JSON array result, passing elements to the action one by one as they are parsed.
+   * Memory use does not depend on the size of the array.
+   */
+  public <T> void getEach(String path, Object input, Class<T> elementClass, Consumer<? super T> action) {
+    sendRequestForEach(HttpMethod.GET, path, input, elementClass, action);
+  }
+
+  public <T> void getEach(String path, Object input, Type elementType, Consumer<? super T> action) {
+    sendRequestForEach(HttpMethod.GET, path, input, elementType, action);
+  }
+
+  /**
+   * Streams a top-level JSON array result lazily, parsing elements as the stream is consumed.
+   * The returned stream holds the connection and must be closed, e.g. with try-with-resources.
+   */
+  public <T> Stream<T> getStream(String path, Object input, Class<T> elementClass) {
+    return sendStreamingRequest(HttpMethod.GET, path, input, elementClass);
+  }
+
+  public <T> Stream<T> getStream(String path, Object input, Type elementType) {
+    return sendStreamingRequest(HttpMethod.GET, path, input, elementType);
+  }
+
   public void post(String path, Object input) {
     sendRequest(HttpMethod.POST, path, input);
   }
@@ -54,6 +148,22 @@ public class RestClient {
     return sendRequest(HttpMethod.POST, path, input, typeOfResult);
   }
 
+  public <T> void postEach(String path, Object input, Class<T> elementClass, Consumer<? super T> action) {
+    sendRequestForEach(HttpMethod.POST, path, input, elementClass, action);
+  }
+
+  public <T> void postEach(String path, Object input, Type elementType, Consumer<? super T> action) {
+    sendRequestForEach(HttpMethod.POST, path, input, elementType, action);
+  }
+
+  public <T> Stream<T> postStream(String path, Object input, Class<T> elementClass) {
+    return sendStreamingRequest(HttpMethod.POST, path, input, elementClass);
+  }
+
+  public <T> Stream<T> postStream(String path, Object input, Type elementType) {
+    return sendStreamingRequest(HttpMethod.POST, path, input, elementType);
+  }
+
   public void put(String path, Object input) {
     sendRequest(HttpMethod.PUT, path, input);
   }
@@ -78,55 +188,253 @@ public class RestClient {
     return sendRequest(HttpMethod.DELETE, path, input, typeOfResult);
   }
 
+  public CompletableFuture<Void> getAsync(String path, Object input) {
+    return sendRequestAsync(HttpMethod.GET, path, input);
+  }
+
+  public <T> CompletableFuture<T> getAsync(String path, Object input, Class<T> resultClass) {
+    return sendRequestAsync(HttpMethod.GET, path, input, resultClass);
+  }
+
+  public <T> CompletableFuture<T> getAsync(String path, Object input, Type typeOfResult) {
+    return sendRequestAsync(HttpMethod.GET, path, input, typeOfResult);
+  }
+
+  public CompletableFuture<Void> postAsync(String path, Object input) {
+    return sendRequestAsync(HttpMethod.POST, path, input);
+  }
+
+  public <T> CompletableFuture<T> postAsync(String path, Object input, Class<T> resultClass) {
+    return sendRequestAsync(HttpMethod.POST, path, input, resultClass);
+  }
+
+  public <T> CompletableFuture<T> postAsync(String path, Object input, Type typeOfResult) {
+    return sendRequestAsync(HttpMethod.POST, path, input, typeOfResult);
+  }
+
+  public CompletableFuture<Void> putAsync(String path, Object input) {
+    return sendRequestAsync(HttpMethod.PUT, path, input);
+  }
+
+  public <T> CompletableFuture<T> putAsync(String path, Object input, Class<T> resultClass) {
+    return sendRequestAsync(HttpMethod.PUT, path, input, resultClass);
+  }
+
+  public <T> CompletableFuture<T> putAsync(String path, Object input, Type typeOfResult) {
+    return sendRequestAsync(HttpMethod.PUT, path, input, typeOfResult);
+  }
+
+  public CompletableFuture<Void> deleteAsync(String path, Object input) {
+    return sendRequestAsync(HttpMethod.DELETE, path, input);
+  }
+
+  public <T> CompletableFuture<T> deleteAsync(String path, Object input, Class<T> resultClass) {
+    return sendRequestAsync(HttpMethod.DELETE, path, input, resultClass);
+  }
+
+  public <T> CompletableFuture<T> deleteAsync(String path, Object input, Type typeOfResult) {
+    return sendRequestAsync(HttpMethod.DELETE, path, input, typeOfResult);
+  }
+
   private void sendRequest(HttpMethod method, String path, Object input) {
-    String inputJson = new Gson().toJson(input);
-    HttpResponse response = httpClient.sendRequest(method, path, inputJson, "application/json");
+    if (codec != null) {
+      checkResponseCode(upload(method, path, input));
+      return;
+    }
+    String url = url(method, path, input);
+    HttpResponse response = httpClient.sendRequest(method, url, body(method, input), "application/json");
     checkResponseCode(response);
   }
 
   private <T> T sendRequest(HttpMethod method, String path, Object input, Class<T> resultClass) {
-    String inputJson = new Gson().toJson(input);
-    HttpResponse response = httpClient.sendRequest(method, path, inputJson, "application/json");
-    checkResponseCode(response);
-    return deserializeResult(response, resultClass);
+    return sendRequest(method, path, input, (Type) resultClass);
   }
 
   private <T> T sendRequest(HttpMethod method, String path, Object input, Type typeOfResult) {
-    String inputJson = new Gson().toJson(input);
-    HttpResponse response = httpClient.sendRequest(method, path, inputJson, "application/json");
-    checkResponseCode(response);
-    return deserializeResult(response, typeOfResult);
+    if (codec != null) {
+      HttpResponse response = upload(method, path, input);
+      checkResponseCode(response);
+      return deserializeResult(response, typeOfResult);
+    }
+    String url = url(method, path, input);
+    return httpClient.sendRequest(method, url, body(method, input), "application/json", Collections.emptyMap(),
+        (response, body) -> {
+          checkResponseCode(response);
+          return deserializeResult(response, body, typeOfResult);
+        }
+    );
+  }
+
+  private <T> void sendRequestForEach(
+      HttpMethod method,
+      String path,
+      Object input,
+      Type elementType,
+      Consumer<? super T> action
+  ) {
+    String url = url(method, path, input);
+    httpClient.sendRequest(method, url, body(method, input), "application/json", Collections.emptyMap(),
+        (response, body) -> {
+          checkResponseCode(response);
+          try {
+            Reader reader = reader(body, contentType(response.getResponseHeaders()));
+            Iterator<T> elements = serializer.fromJsonArray(reader, elementType);
+            elements.forEachRemaining(action);
+            return null;
+          }
+          catch (JsonParseException e) {
+            throw malformedResponse(response, e);
+          }
+        }
+    );
   }
 
-  private String getUrl(String path) {
-    String url = endpointUrl;
-    if (!url.endsWith("/")) {
-      url += '/';
+  private <T> Stream<T> sendStreamingRequest(HttpMethod method, String path, Object input, Type elementType) {
+    String inputJson = body(method, input);
+    StreamingHttpResponse response = httpClient.sendStreamingRequest(
+        method, url(method, path, input), inputJson, "application/json", Collections.emptyMap()
+    );
+    try {
+      checkResponseCode(response.getCode(), response.getUrl(), inputJson);
+      Iterator<T> elements = serializer.fromJsonArray(
+          reader(response.getBody(), contentType(response.getResponseHeaders())), elementType
+      );
+      Iterator<T> checkedElements = new Iterator<T>() {
+        @Override
+        public boolean hasNext() {
+          try {
+            return elements.hasNext();
+          }
+          catch (JsonParseException e) {
+            throw malformedResponse(method, response.getUrl(), e);
+          }
+        }
+
+        @Override
+        public T next() {
+          try {
+            return elements.next();
+          }
+          catch (JsonParseException e) {
+            throw malformedResponse(method, response.getUrl(), e);
+          }
+        }
+      };
+      return StreamSupport
+          .stream(Spliterators.spliteratorUnknownSize(checkedElements, Spliterator.ORDERED | Spliterator.NONNULL), false)
+          .onClose(response::close);
+    }
+    catch (RuntimeException e) {
+      response.close();
+      throw e;
     }
+  }
+
+  private CompletableFuture<Void> sendRequestAsync(HttpMethod method, String path, Object input) {
+    String url = url(method, path, input);
+    return httpClient.sendRequestAsync(method, url, body(method, input), "application/json", acceptHeaders)
+        .thenAccept(this::checkResponseCode);
+  }
+
+  private <T> CompletableFuture<T> sendRequestAsync(HttpMethod method, String path, Object input, Class<T> resultClass) {
+    String url = url(method, path, input);
+    return httpClient.sendRequestAsync(method, url, body(method, input), "application/json", acceptHeaders)
+        .thenApply(response -> {
+          checkResponseCode(response);
+          return deserializeResult(response, resultClass);
+        });
+  }
+
+  private <T> CompletableFuture<T> sendRequestAsync(HttpMethod method, String path, Object input, Type typeOfResult) {
+    String url = url(method, path, input);
+    return httpClient.sendRequestAsync(method, url, body(method, input), "application/json", acceptHeaders)
+        .thenApply(response -> {
+          checkResponseCode(response);
+          return deserializeResult(response, typeOfResult);
+        });
+  }
 
-    if (path.startsWith("/") && path.length() > 1) {
-      url += path.substring(1);
+  /**
+   * Sends the input encoded with the codec, as bytes. GET requests have no body, they only ask for the format.
+   */
+  private HttpResponse upload(HttpMethod method, String path, Object input) {
+    String url = url(method, path, input);
+    if (method == HttpMethod.GET) {
+      return httpClient.sendRequest(method, url, null, "application/json", acceptHeaders);
+    }
+    EncodedBody body = new EncodedBody();
+    try {
+      codec.encode(input, body);
     }
-    else {
-      url += path;
+    catch (IOException e) {
+      throw new HttpCallException(String.format("Can't encode input for api call to %s", url), e);
     }
-    return url;
+    return httpClient.upload(method, url, body.toRequestBody(), codec.contentType(), acceptHeaders);
+  }
+
+  /**
+   * Resolves the path against the endpoint url and fills in its {@code {variables}} from the input, see
+   * {@link UrlTemplate}. Templates are parsed once per path. The input of a GET request is sent as query parameters,
+   * since the request has no body.
+   */
+  private String url(HttpMethod method, String path, Object input) {
+    if (path.indexOf('{') != -1) {
+      UrlTemplate template = templates.computeIfAbsent(path, key -> UrlTemplate.parse(resolve(key)));
+      return method == HttpMethod.GET ? template.expand(input) : template.expandPath(input);
+    }
+    String url = resolve(path);
+    if (method != HttpMethod.GET || input == null) {
+      return url;
+    }
+    StringBuilder query = new StringBuilder(url.length() + 64).append(url);
+    QueryEncoder.appendQuery(query, QueryEncoder.parameters(input), Collections.emptyList(), url.indexOf('?') != -1);
+    return query.toString();
+  }
+
+  /**
+   * @return the path appended to the endpoint url, or as it is if it is an absolute url
+   */
+  private String resolve(String path) {
+    if (endpointUrl.isEmpty() || Urls.isAbsolute(path)) {
+      return path;
+    }
+    boolean endpointSlash = endpointUrl.endsWith("/");
+    boolean pathSlash = path.startsWith("/");
+    if (endpointSlash && pathSlash) {
+      return endpointUrl.concat(path.substring(1));
+    }
+    return endpointSlash || pathSlash ? endpointUrl.concat(path) : endpointUrl + '/' + path;
+  }
+
+  private String body(HttpMethod method, Object input) {
+    return method == HttpMethod.GET ? null : serializer.toJson(input);
   }
 
   private void checkResponseCode(HttpResponse response) {
-    if (response.getCode() < 200 || response.getCode() >= 300) {
+    checkResponseCode(response.getCode(), response.getUrl(), response.getRequestBody());
+  }
+
+  private void checkResponseCode(int code, String url, String requestBody) {
+    if (code < 200 || code >= 300) {
       throw new HttpCallException(String.format(
           "Failed to call api endpoint %s with status code %s, input: %s",
-          response.getUrl(), response.getCode(), response.getRequestBody())
+          url, code, requestBody)
       );
     }
   }
 
   private <T> T deserializeResult(HttpResponse response, Class<T> resultClass) {
+    return response.parsedBody(resultClass, () -> parseResult(response, resultClass));
+  }
+
+  private <T> T parseResult(HttpResponse response, Class<T> resultClass) {
+    if (isEncoded(response)) {
+      return decodeResult(response, resultClass);
+    }
     try {
-      return gson().fromJson(response.getResponseBody(), resultClass);
+      return serializer.fromJson(response.getResponseBody(), resultClass);
     }
-    catch (JsonSyntaxException e) {
+    catch (JsonParseException e) {
       throw new HttpCallException(String.format(
           "Malformed response for api call to [%s] [%s] : [%s]",
           response.getHttpMethod().name(), response.getUrl(), response.getResponseBody()
@@ -135,10 +443,17 @@ public class RestClient {
   }
 
   private <T> T deserializeResult(HttpResponse response, Type typeOfResult) {
+    return response.parsedBody(typeOfResult, () -> parseResult(response, typeOfResult));
+  }
+
+  private <T> T parseResult(HttpResponse response, Type typeOfResult) {
+    if (isEncoded(response)) {
+      return decodeResult(response, typeOfResult);
+    }
     try {
-      return gson().fromJson(response.getResponseBody(), typeOfResult);
+      return serializer.fromJson(response.getResponseBody(), typeOfResult);
     }
-    catch (JsonSyntaxException e) {
+    catch (JsonParseException e) {
       throw new HttpCallException(String.format(
           "Malformed response for api call to [%s] [%s] : [%s]",
           response.getHttpMethod().name(), response.getUrl(), response.getResponseBody()
@@ -146,10 +461,73 @@ public class RestClient {
     }
   }
 
-  private Gson gson() {
-    GsonBuilder builder = new GsonBuilder();
-    builder.setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES);
-    return builder.create();
+  private <T> T deserializeResult(HttpResponse response, InputStream body, Type typeOfResult) {
+    return response.parsedBody(typeOfResult, () -> parseResult(response, body, typeOfResult));
+  }
+
+  private <T> T parseResult(HttpResponse response, InputStream body, Type typeOfResult) {
+    try {
+      return serializer.fromJson(reader(body, contentType(response.getResponseHeaders())), typeOfResult);
+    }
+    catch (JsonParseException e) {
+      throw malformedResponse(response, e);
+    }
+  }
+
+  private boolean isEncoded(HttpResponse response) {
+    if (codec == null) {
+      return false;
+    }
+    String contentType = Headers.first(response.getResponseHeaders(), "Content-Type");
+    return contentType != null && TextDecoder.mediaType(contentType).equals(codec.contentType());
+  }
+
+  private <T> T decodeResult(HttpResponse response, Type typeOfResult) {
+    if (response.getResponseBinaryBody() == null && response.getResponseBodyFile() == null) {
+      throw new HttpCallException(String.format(
+          "Response of api call to [%s] [%s] with content type %s was read as text",
+          response.getHttpMethod().name(), response.getUrl(), codec.contentType()
+      ));
+    }
+    try (InputStream body = response.bufferedBody()) {
+      return codec.decode(body, typeOfResult);
+    }
+    catch (JsonParseException e) {
+      throw malformedResponse(response, e);
+    }
+    catch (IOException e) {
+      throw new HttpCallException(String.format("Can't read response from api call to %s", response.getUrl()), e);
+    }
+  }
+
+  /**
+   * @return reader decoding the body with the charset of the content type, like {@link TextDecoder} does
+   */
+  private Reader reader(InputStream body, String contentType) {
+    return new InputStreamReader(body, TextDecoder.charset(contentType));
+  }
+
+  private static String contentType(Map<String, List<String>> headers) {
+    return Headers.first(headers, "Content-Type");
   }
 
+  private HttpCallException malformedResponse(HttpResponse response, JsonParseException e) {
+    return malformedResponse(response.getHttpMethod(), response.getUrl(), e);
+  }
+
+  private HttpCallException malformedResponse(HttpMethod method, String url, JsonParseException e) {
+    return new HttpCallException(String.format(
+        "Malformed response for api call to [%s] [%s]",
+        method.name(), url
+    ), e);
+  }
+
+  /**
+   * Encoded input, sent from the stream's buffer without copying it.
+   */
+  private static class EncodedBody extends ByteArrayOutputStream {
+    RequestBody toRequestBody() {
+      return RequestBody.ofBytes(buf, 0, count);
+    }
+  }
 }
@@ -0,0 +1,56 @@
+package net.elost.http_client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits retries and hedged requests to a fraction of the requests, so that retries can't multiply the load
+ * on a server that is already failing. Every request deposits {@code retryRatio} tokens, every retry takes one.
+ * The balance starts at and is capped to {@code burst} tokens.
+ * <p>
+ * Share one budget between the clients calling the same service to limit their retries together.
+ */
+public class RetryBudget {
+  private static final long TOKEN = 1000;
+
+  private final long deposit;
+  private final long maxBalance;
+  private final AtomicLong balance;
+
+  /**
+   * @param retryRatio retries allowed per request in the long run, e.g. 0.1 for at most 10% extra requests
+   * @param burst      retries allowed at once after a period without retries
+   */
+  public RetryBudget(double retryRatio, int burst) {
+    if (retryRatio < 0 || burst < 0) {
+      throw new IllegalArgumentException("retryRatio and burst must not be negative");
+    }
+    this.deposit = Math.round(retryRatio * TOKEN);
+    this.maxBalance = burst * TOKEN;
+    this.balance = new AtomicLong(maxBalance);
+  }
+
+  /**
+   * @return number of retries currently allowed
+   */
+  public long getAvailableRetries() {
+    return balance.get() / TOKEN;
+  }
+
+  void recordRequest() {
+    if (deposit > 0) {
+      balance.accumulateAndGet(deposit, (current, added) -> Math.min(maxBalance, current + added));
+    }
+  }
+
+  boolean tryAcquire() {
+    long current;
+    do {
+      current = balance.get();
+      if (current < TOKEN) {
+        return false;
+      }
+    }
+    while (!balance.compareAndSet(current, current - TOKEN));
+    return true;
+  }
+}
@@ -0,0 +1,442 @@
+package net.elost.http_client;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.MalformedURLException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Retries failed calls with exponential backoff and full jitter, and optionally hedges slow GETs.
+ * <pre>
+ *   HttpClient client = new RetryingHttpClient(new HttpClientImpl(1000, 5000))
+ *       .maxAttempts(3)
+ *       .backoff(100, 5000)
+ *       .hedgeGets(95);
+ * </pre>
+ * Idempotent calls (GET, PUT, DELETE) are retried when they fail with an I/O error or get one of the
+ * {@link #retryOnStatus(int...) retryable statuses}; a 429 or 503 response is retried after its Retry-After delay,
+ * or returned if the server asks to wait longer than the maximum backoff. POST calls are retried only when the
+ * connection was refused, since the server can't have seen the request, unless {@link #retryNonIdempotent(boolean)}
+ * is set. The last attempt's response or exception is returned. All retries take a token from the
+ * {@link RetryBudget}.
+ * <p>
+ * With hedging, a GET that takes longer than the given percentile of the latencies seen so far is sent a second
+ * time, and the first response wins. Hedged GETs are sent with {@link HttpClient#sendRequestAsync} and buffered,
+ * also when called with a {@link ResponseHandler}. Uploads are retried only if their body can be written again,
+ * e.g. bytes or a file.
+ */
+public class RetryingHttpClient extends ForwardingHttpClient {
+  private static final int MIN_HEDGE_SAMPLES = 20;
+  private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(task -> {
+    Thread thread = new Thread(task, "http-client-retry-timer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private int maxAttempts = 3;
+  private long initialBackoffMillis = 100;
+  private long maxBackoffMillis = 10_000;
+  private Set<Integer> retryStatuses = new HashSet<>(Arrays.asList(429, 502, 503, 504));
+  private boolean retryNonIdempotent;
+  private RetryBudget budget = new RetryBudget(0.2, 10);
+  private double hedgePercentile;
+  private final LatencyHistogram latencies = new LatencyHistogram();
+
+  public RetryingHttpClient(HttpClient delegate) {
+    super(delegate);
+  }
+
+  /**
+   * Attempts per call including the first one. Defaults to 3.
+   */
+  public RetryingHttpClient maxAttempts(int maxAttempts) {
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("maxAttempts must be positive");
+    }
+    this.maxAttempts = maxAttempts;
+    return this;
+  }
+
+  /**
+   * Backoff before the first retry, doubled for each further retry up to the maximum. The actual delay is a random
+   * value up to the backoff. Defaults to 100 ms and 10 s.
+   */
+  public RetryingHttpClient backoff(long initialMillis, long maxMillis) {
+    if (initialMillis < 0 || maxMillis < initialMillis) {
+      throw new IllegalArgumentException("Backoff must not be negative and initialMillis must not exceed maxMillis");
+    }
+    this.initialBackoffMillis = initialMillis;
+    this.maxBackoffMillis = maxMillis;
+    return this;
+  }
+
+  /**
+   * Response statuses that are retried. Defaults to 429, 502, 503 and 504.
+   */
+  public RetryingHttpClient retryOnStatus(int... statuses) {
+    this.retryStatuses = Arrays.stream(statuses).boxed().collect(Collectors.toSet());
+    return this;
+  }
+
+  /**
+   * Whether POST calls are retried like idempotent ones. Defaults to false.
+   */
+  public RetryingHttpClient retryNonIdempotent(boolean retryNonIdempotent) {
+    this.retryNonIdempotent = retryNonIdempotent;
+    return this;
+  }
+
+  /**
+   * Budget the retries and hedged requests are taken from. Defaults to a budget of the client's own allowing
+   * 20% extra requests with bursts of 10.
+   */
+  public RetryingHttpClient retryBudget(RetryBudget budget) {
+    this.budget = budget;
+    return this;
+  }
+
+  /**
+   * Hedges GETs slower than the percentile of the GET latencies, e.g. 95. Hedging starts once
+   * 20 GETs were timed. 0 disables hedging, which is the default.
+   */
+  public RetryingHttpClient hedgeGets(double percentile) {
+    if (percentile < 0 || percentile >= 100) {
+      throw new IllegalArgumentException("percentile must be at least 0 and below 100");
+    }
+    this.hedgePercentile = percentile;
+    return this;
+  }
+
+  /**
+   * @return latencies of the GETs sent while hedging is enabled, which the hedge delay is taken from
+   */
+  public LatencyHistogram getLatencies() {
+    return latencies;
+  }
+
+  @Override
+  public HttpResponse sendRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    if (isHedged(method)) {
+      return join(sendRequestAsync(method, url, input, contentType, headers));
+    }
+    return withRetries(method, attempt -> checkStatus(
+        method, attempt, super.sendRequest(method, url, input, contentType, headers)
+    ));
+  }
+
+  @Override
+  public HttpResponse upload(
+      HttpMethod method,
+      String url,
+      RequestBody body,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    if (!body.isRepeatable()) {
+      return super.upload(method, url, body, contentType, headers);
+    }
+    return withRetries(method, attempt -> checkStatus(
+        method, attempt, super.upload(method, url, body, contentType, headers)
+    ));
+  }
+
+  @Override
+  public CompletableFuture<HttpResponse> sendRequestAsync(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    Supplier<CompletableFuture<HttpResponse>> send = () -> super.sendRequestAsync(
+        method, url, input, contentType, headers
+    );
+    budget.recordRequest();
+    CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+    attemptAsync(method, isHedged(method) ? () -> hedged(send) : send, 1, result);
+    return result;
+  }
+
+  @Override
+  public <T> T sendRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers,
+      ResponseHandler<T> handler
+  ) {
+    if (isHedged(method)) {
+      HttpResponse response = sendRequest(method, url, input, contentType, headers);
+      try {
+        return handler.handle(response, response.bufferedBody());
+      }
+      catch (IOException e) {
+        throw new HttpCallException(String.format("Can't read response from api call to %s", url), e);
+      }
+    }
+    return withRetries(method, attempt -> super.sendRequest(method, url, input, contentType, headers,
+        (response, body) -> handler.handle(checkStatus(method, attempt, response), body)
+    ));
+  }
+
+  @Override
+  public StreamingHttpResponse sendStreamingRequest(
+      HttpMethod method,
+      String url,
+      String input,
+      String contentType,
+      Map<String, String> headers
+  ) {
+    return withRetries(method, attempt -> {
+      StreamingHttpResponse response = super.sendStreamingRequest(method, url, input, contentType, headers);
+      long delayMillis = statusRetryDelay(method, attempt, response.getCode(), response.getResponseHeaders());
+      if (delayMillis >= 0) {
+        response.close();
+        throw new RetryableStatus(delayMillis);
+      }
+      return response;
+    });
+  }
+
+  private <T> T withRetries(HttpMethod method, IntFunction<T> call) {
+    budget.recordRequest();
+    for (int attempt = 1; ; attempt++) {
+      long delayMillis;
+      try {
+        return call.apply(attempt);
+      }
+      catch (RetryableStatus e) {
+        delayMillis = e.delayMillis;
+      }
+      catch (HttpCallException e) {
+        if (!shouldRetry(method, attempt, e)) {
+          throw e;
+        }
+        delayMillis = backoffMillis(attempt);
+      }
+      sleep(delayMillis);
+    }
+  }
+
+  private void attemptAsync(
+      HttpMethod method,
+      Supplier<CompletableFuture<HttpResponse>> call,
+      int attempt,
+      CompletableFuture<HttpResponse> result
+  ) {
+    call.get().whenComplete((response, error) -> {
+      long delayMillis;
+      if (error == null) {
+        delayMillis = statusRetryDelay(method, attempt, response.getCode(), response.getResponseHeaders());
+        if (delayMillis < 0) {
+          result.complete(response);
+          return;
+        }
+      }
+      else {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (!shouldRetry(method, attempt, cause)) {
+          result.completeExceptionally(cause);
+          return;
+        }
+        delayMillis = backoffMillis(attempt);
+      }
+      TIMER.schedule(
+          () -> ForkJoinPool.commonPool().execute(() -> attemptAsync(method, call, attempt + 1, result)),
+          delayMillis,
+          TimeUnit.MILLISECONDS
+      );
+    });
+  }
+
+  /**
+   * Sends the call, and a second time if no response arrived within the hedge delay. The first successful response
+   * completes the result, a failure only if the other attempt failed too or was never sent.
+   */
+  private CompletableFuture<HttpResponse> hedged(Supplier<CompletableFuture<HttpResponse>> call) {
+    CompletableFuture<HttpResponse> first = timed(call);
+    long delayNanos = latencies.getCount() < MIN_HEDGE_SAMPLES ? -1 : latencies.getPercentileNanos(hedgePercentile);
+    if (delayNanos < 0) {
+      return first;
+    }
+    CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+    AtomicInteger outstanding = new AtomicInteger(2);
+    AtomicReference<Throwable> lastError = new AtomicReference<>();
+    BiConsumer<HttpResponse, Throwable> complete = (response, error) -> {
+      if (error == null) {
+        result.complete(response);
+      }
+      else {
+        lastError.set(error);
+        if (outstanding.decrementAndGet() == 0) {
+          result.completeExceptionally(error);
+        }
+      }
+    };
+    first.whenComplete(complete);
+    TIMER.schedule(() -> {
+      if (!first.isDone() && budget.tryAcquire()) {
+        ForkJoinPool.commonPool().execute(() -> timed(call).whenComplete(complete));
+      }
+      else if (outstanding.decrementAndGet() == 0) {
+        result.completeExceptionally(lastError.get());
+      }
+    }, delayNanos, TimeUnit.NANOSECONDS);
+    return result;
+  }
+
+  private CompletableFuture<HttpResponse> timed(Supplier<CompletableFuture<HttpResponse>> call) {
+    long start = System.nanoTime();
+    return call.get().whenComplete((response, error) -> {
+      if (error == null) {
+        latencies.record(System.nanoTime() - start);
+      }
+    });
+  }
+
+  private boolean isHedged(HttpMethod method) {
+    return method == HttpMethod.GET && hedgePercentile > 0;
+  }
+
+  private HttpResponse checkStatus(HttpMethod method, int attempt, HttpResponse response) {
+    long delayMillis = statusRetryDelay(method, attempt, response.getCode(), response.getResponseHeaders());
+    if (delayMillis >= 0) {
+      throw new RetryableStatus(delayMillis);
+    }
+    return response;
+  }
+
+  /**
+   * @return delay before retrying a response with the status, or -1 if it is not retried
+   */
+  private long statusRetryDelay(HttpMethod method, int attempt, int code, Map<String, List<String>> headers) {
+    if (attempt >= maxAttempts || !retryStatuses.contains(code) || !isIdempotent(method)) {
+      return -1;
+    }
+    long delayMillis = backoffMillis(attempt);
+    if ((code == 429 || code == 503) && headers != null) {
+      long retryAfterMillis = retryAfterMillis(Headers.first(headers, "Retry-After"));
+      if (retryAfterMillis > maxBackoffMillis) {
+        return -1;
+      }
+      if (retryAfterMillis >= 0) {
+        delayMillis = retryAfterMillis;
+      }
+    }
+    return budget.tryAcquire() ? delayMillis : -1;
+  }
+
+  private boolean shouldRetry(HttpMethod method, int attempt, Throwable e) {
+    if (attempt >= maxAttempts || !(e instanceof HttpCallException)) {
+      return false;
+    }
+    boolean retryable = hasCause(e, ConnectException.class)
+        || isIdempotent(method) && hasCause(e, IOException.class) && !hasCause(e, MalformedURLException.class);
+    return retryable && budget.tryAcquire();
+  }
+
+  private boolean isIdempotent(HttpMethod method) {
+    return method != HttpMethod.POST || retryNonIdempotent;
+  }
+
+  private long backoffMillis(int attempt) {
+    long backoff = initialBackoffMillis << Math.min(attempt - 1, 30);
+    if (backoff > maxBackoffMillis || backoff < 0) {
+      backoff = maxBackoffMillis;
+    }
+    return ThreadLocalRandom.current().nextLong(backoff + 1);
+  }
+
+  /**
+   * @return delay in milliseconds given as seconds or an HTTP date, or -1 if there is none
+   */
+  static long retryAfterMillis(String retryAfter) {
+    if (retryAfter == null) {
+      return -1;
+    }
+    try {
+      return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+    }
+    catch (NumberFormatException e) {
+      try {
+        ZonedDateTime at = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+        return Math.max(0, at.toInstant().toEpochMilli() - System.currentTimeMillis());
+      }
+      catch (DateTimeParseException notADate) {
+        return -1;
+      }
+    }
+  }
+
+  private static boolean hasCause(Throwable e, Class<? extends Throwable> type) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (type.isInstance(cause)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HttpCallException("Interrupted while waiting to retry", e);
+    }
+  }
+
+  private static HttpResponse join(CompletableFuture<HttpResponse> future) {
+    try {
+      return future.join();
+    }
+    catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Thrown out of an attempt whose response is retried, before the response is handed to the caller.
+   */
+  private static class RetryableStatus extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final long delayMillis;
+
+    RetryableStatus(long delayMillis) {
+      super(null, null, false, false);
+      this.delayMillis = delayMillis;
+    }
+  }
+}
@@ -4,8 +4,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 public class StreamUtil {
+  private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+  // expected lengths are only trusted this far up front, the array grows as more data actually arrives
+  private static final int MAX_PRESIZE = 64 * 1024;
+
   /**
    * Reads all bytes from an input stream into a byte array. Does not close the stream.
    * The method is adopted from
@@ -25,6 +30,70 @@ public class StreamUtil {
     return out.toByteArray();
   }
 
+  /**
+   * Reads all bytes from an input stream whose length is known up front, e.g. from Content-Length.
+   * Reads directly into an array growing towards the expected size, starting at no more than 64 KiB, so a wrong
+   * length can't force a large allocation. A stream of the expected length needs no final copy, unlike with
+   * {@link #toByteArray(InputStream)}. Does not close the stream.
+   *
+   * @param in             the input stream to read from
+   * @param expectedLength expected number of bytes, or a negative value if unknown
+   * @return a byte array containing all the bytes from the stream
+   * @throws IOException if an I/O error occurs
+   */
+  public static byte[] toByteArray(InputStream in, long expectedLength) throws IOException {
+    if (expectedLength < 0 || expectedLength > MAX_ARRAY_LENGTH) {
+      return toByteArray(in);
+    }
+    byte[] bytes = new byte[(int) Math.min(expectedLength, MAX_PRESIZE)];
+    int offset = 0;
+    while (offset < expectedLength) {
+      if (offset == bytes.length) {
+        bytes = Arrays.copyOf(bytes, (int) Math.min(expectedLength, bytes.length * 2L));
+      }
+      int r = in.read(bytes, offset, bytes.length - offset);
+      if (r == -1) {
+        return Arrays.copyOf(bytes, offset);
+      }
+      offset += r;
+    }
+
+    int next = in.read();
+    if (next == -1) {
+      return bytes;
+    }
+    // the stream is longer than expected, fall back to growing the result
+    ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 2 + 1);
+    out.write(bytes);
+    out.write(next);
+    copy(in, out);
+    return out.toByteArray();
+  }
+
+  /**
+   * Reads bytes until the end of the stream or until {@code limit} bytes were read. Does not close the stream.
+   * The result grows with the bytes read, a large limit doesn't allocate a large array up front.
+   *
+   * @param in    the input stream to read from
+   * @param limit maximum number of bytes to read
+   * @return the bytes read, fewer than the limit only if the stream ended
+   * @throws IOException if an I/O error occurs
+   */
+  public static byte[] readAtMost(InputStream in, int limit) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(limit, 8192));
+    byte[] buf = new byte[Math.min(limit, 8192)];
+    int remaining = limit;
+    while (remaining > 0) {
+      int r = in.read(buf, 0, Math.min(buf.length, remaining));
+      if (r == -1) {
+        break;
+      }
+      out.write(buf, 0, r);
+      remaining -= r;
+    }
+    return out.toByteArray();
+  }
+
   /**
    * Copies all bytes from the input stream to the output stream. Does not close or flush either
    * stream.
@@ -37,7 +106,7 @@ public class StreamUtil {
    * @return the number of bytes copied
    * @throws IOException if an I/O error occurs
    */
-  private static long copy(InputStream from, OutputStream to) throws IOException {
+  static long copy(InputStream from, OutputStream to) throws IOException {
     validateArguments(from, to);
     byte[] buf = new byte[8192];
     long total = 0;
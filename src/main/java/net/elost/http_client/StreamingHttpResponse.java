@@ -0,0 +1,139 @@
+package net.elost.http_client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Response whose body has not been read yet. The body is read straight from the connection,
+ * so the response must be closed to release the connection:
+ * <pre>
+ *   try (StreamingHttpResponse response = client.sendStreamingRequest(HttpMethod.GET, url, null, "", headers)) {
+ *     response.transferTo(target);
+ *   }
+ * </pre>
+ */
+public class StreamingHttpResponse implements Closeable {
+  private static final long TRANSFER_CHUNK_SIZE = 1024 * 1024;
+
+  private final HttpResponse response;
+  private final InputStream body;
+  private final long contentLength;
+  private final Runnable release;
+  private ReadableByteChannel channel;
+  private boolean closed;
+
+  StreamingHttpResponse(HttpResponse response, InputStream body, long contentLength, Runnable release) {
+    this.response = response;
+    this.body = body;
+    this.contentLength = contentLength;
+    this.release = release;
+  }
+
+  /**
+   * Wraps the response so that the given callback runs once it has been closed.
+   */
+  StreamingHttpResponse(StreamingHttpResponse response, Runnable onClose) {
+    this(response.response, response.body, response.contentLength, () -> {
+      try {
+        response.close();
+      }
+      finally {
+        onClose.run();
+      }
+    });
+  }
+
+  public HttpMethod getHttpMethod() {
+    return response.getHttpMethod();
+  }
+
+  public String getUrl() {
+    return response.getUrl();
+  }
+
+  public int getCode() {
+    return response.getCode();
+  }
+
+  public Map<String, List<String>> getResponseHeaders() {
+    return response.getResponseHeaders();
+  }
+
+  /**
+   * @return value of the Content-Length header, or -1 if the length is not known up front
+   */
+  public long getContentLength() {
+    return contentLength;
+  }
+
+  /**
+   * @return response body, or error body for statuses of 400 and above
+   */
+  public InputStream getBody() {
+    return body;
+  }
+
+  public ReadableByteChannel getChannel() {
+    if (channel == null) {
+      channel = Channels.newChannel(body);
+    }
+    return channel;
+  }
+
+  /**
+   * Writes the remaining body to the file, replacing its content. Data is moved in fixed-size chunks,
+   * so memory use does not depend on the body size.
+   *
+   * @return number of bytes written
+   */
+  public long transferTo(Path file) throws IOException {
+    try (FileChannel target = FileChannel.open(
+        file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING
+    )) {
+      return transferTo(target, 0);
+    }
+  }
+
+  /**
+   * Writes the remaining body to the file channel starting at the given position.
+   *
+   * @return number of bytes written
+   */
+  public long transferTo(FileChannel target, long position) throws IOException {
+    ReadableByteChannel source = getChannel();
+    long written = 0;
+    long transferred;
+    while ((transferred = target.transferFrom(source, position + written, TRANSFER_CHUNK_SIZE)) > 0) {
+      written += transferred;
+    }
+    return written;
+  }
+
+  /**
+   * Closes the body and releases the connection. A connection from a {@link ConnectionPool} is only reused
+   * if the body was read to its end.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      body.close();
+    }
+    catch (IOException ignored) {
+    }
+    finally {
+      release.run();
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package net.elost.http_client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Decodes text response bodies in one pass with the charset declared in their Content-Type.
+ * Bodies are read into a per-thread buffer, so decoding a response allocates little more than the resulting string.
+ */
+final class TextDecoder {
+  private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+  // larger buffers are dropped after use instead of being held by the thread
+  private static final int MAX_RETAINED_BUFFER = 1024 * 1024;
+  // Content-Length is only trusted this far up front, the buffer grows as more data actually arrives
+  private static final int MAX_PRESIZE = 64 * 1024;
+  private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[8192]);
+
+  private TextDecoder() {
+  }
+
+  /**
+   * Reads the stream to its end and decodes it. Does not close the stream.
+   *
+   * @param expectedLength expected number of bytes, e.g. from Content-Length, or a negative value if unknown;
+   *                       presizes the buffer up to 64 KiB
+   */
+  static String decode(InputStream in, long expectedLength, Charset charset) throws IOException {
+    byte[] buffer = BUFFERS.get();
+    if (expectedLength > buffer.length && buffer.length < MAX_PRESIZE) {
+      buffer = new byte[(int) Math.min(expectedLength, MAX_PRESIZE)];
+    }
+    int length = 0;
+    while (true) {
+      if (length == buffer.length) {
+        int next = in.read();
+        if (next == -1) {
+          break;
+        }
+        buffer = grow(buffer);
+        buffer[length++] = (byte) next;
+      }
+      int read = in.read(buffer, length, buffer.length - length);
+      if (read == -1) {
+        break;
+      }
+      length += read;
+    }
+    if (buffer.length <= MAX_RETAINED_BUFFER) {
+      BUFFERS.set(buffer);
+    }
+    return new String(buffer, 0, length, charset);
+  }
+
+  /**
+   * @return charset parameter of the content type, or UTF-8 if it has none or it isn't supported
+   */
+  static Charset charset(String contentType) {
+    if (contentType == null) {
+      return StandardCharsets.UTF_8;
+    }
+    for (String parameter : contentType.split(";")) {
+      String trimmed = parameter.trim();
+      if (trimmed.toLowerCase(Locale.ROOT).startsWith("charset=")) {
+        String name = trimmed.substring("charset=".length()).trim();
+        if (name.length() > 1 && name.startsWith("\"") && name.endsWith("\"")) {
+          name = name.substring(1, name.length() - 1);
+        }
+        try {
+          return Charset.forName(name);
+        }
+        catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+          return StandardCharsets.UTF_8;
+        }
+      }
+    }
+    return StandardCharsets.UTF_8;
+  }
+
+  /**
+   * Whether bodies of the content type are binary and kept as bytes instead of being decoded:
+   * {@code application/octet-stream} and the CBOR and MessagePack formats of {@link BodyCodec}s.
+   */
+  static boolean isBinary(String contentType) {
+    if (contentType == null) {
+      return false;
+    }
+    String type = mediaType(contentType);
+    return type.equals("application/octet-stream")
+        || type.equals("application/cbor")
+        || type.endsWith("+cbor")
+        || type.equals("application/msgpack")
+        || type.equals("application/x-msgpack")
+        || type.endsWith("+msgpack");
+  }
+
+  /**
+   * @return the content type without parameters, in lower case
+   */
+  static String mediaType(String contentType) {
+    int parameters = contentType.indexOf(';');
+    String type = parameters == -1 ? contentType : contentType.substring(0, parameters);
+    return type.trim().toLowerCase(Locale.ROOT);
+  }
+
+  private static byte[] grow(byte[] buffer) throws IOException {
+    if (buffer.length == MAX_ARRAY_LENGTH) {
+      throw new IOException("Response body is too large to decode as text");
+    }
+    return Arrays.copyOf(buffer, (int) Math.min(MAX_ARRAY_LENGTH, buffer.length * 2L));
+  }
+}
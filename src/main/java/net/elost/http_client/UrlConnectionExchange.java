@@ -0,0 +1,83 @@
+package net.elost.http_client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+class UrlConnectionExchange implements HttpExchange {
+  private static final int CHUNK_LENGTH = 8192;
+
+  private final HttpURLConnection connection;
+  private final CallTracer tracer;
+
+  UrlConnectionExchange(HttpURLConnection connection, CallTracer tracer) {
+    this.connection = connection;
+    this.tracer = tracer;
+  }
+
+  @Override
+  public URL getURL() {
+    return connection.getURL();
+  }
+
+  @Override
+  public CallTracer getTracer() {
+    return tracer;
+  }
+
+  @Override
+  public void setFixedLengthStreamingMode(long contentLength) {
+    connection.setFixedLengthStreamingMode(contentLength);
+  }
+
+  @Override
+  public void setChunkedStreamingMode() {
+    connection.setChunkedStreamingMode(CHUNK_LENGTH);
+  }
+
+  @Override
+  public void connect() throws IOException {
+    tracer.connectStart();
+    connection.connect();
+    tracer.connectEnd();
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    return connection.getOutputStream();
+  }
+
+  @Override
+  public int getResponseCode() throws IOException {
+    return connection.getResponseCode();
+  }
+
+  @Override
+  public String getHeaderField(String name) {
+    return connection.getHeaderField(name);
+  }
+
+  @Override
+  public Map<String, List<String>> getHeaderFields() {
+    return connection.getHeaderFields();
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    return connection.getInputStream();
+  }
+
+  @Override
+  public InputStream getErrorStream() {
+    return connection.getErrorStream();
+  }
+
+  @Override
+  public void release() {
+    connection.disconnect();
+  }
+}
@@ -0,0 +1,121 @@
+package net.elost.http_client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Url with {@code {variables}}, parsed once and expanded for each call.
+ * <pre>
+ *   UrlTemplate orders = UrlTemplate.parse("https://api.example.com/users/{id}/orders");
+ *   String url = orders.expand(query); // https://api.example.com/users/7/orders?status=open&amp;limit=20
+ * </pre>
+ * Values are taken from a map or from the fields of an object, named like Gson names them in inputs. Variables
+ * are percent-encoded as path segments, so a {@code /} in a value doesn't start a new segment. Templates are
+ * immutable and can be shared between threads.
+ */
+public final class UrlTemplate {
+  private final String template;
+  private final String[] literals;
+  private final List<String> variables;
+  private final int literalLength;
+  private final boolean hasQuery;
+
+  private UrlTemplate(String template, String[] literals, List<String> variables) {
+    this.template = template;
+    this.literals = literals;
+    this.variables = variables;
+    int length = 0;
+    for (String literal : literals) {
+      length += literal.length();
+    }
+    this.literalLength = length;
+    this.hasQuery = template.indexOf('?') != -1;
+  }
+
+  /**
+   * @throws IllegalArgumentException if a brace is not closed or a variable has no name
+   */
+  public static UrlTemplate parse(String template) {
+    List<String> literals = new ArrayList<>();
+    List<String> variables = new ArrayList<>();
+    int start = 0;
+    int open;
+    while ((open = template.indexOf('{', start)) != -1) {
+      int close = template.indexOf('}', open);
+      if (close == -1) {
+        throw new IllegalArgumentException(String.format(
+            "Unclosed variable at %d in url template %s", open, template
+        ));
+      }
+      String name = template.substring(open + 1, close).trim();
+      if (name.isEmpty()) {
+        throw new IllegalArgumentException(String.format(
+            "Variable without name at %d in url template %s", open, template
+        ));
+      }
+      literals.add(template.substring(start, open));
+      variables.add(name);
+      start = close + 1;
+    }
+    literals.add(template.substring(start));
+    return new UrlTemplate(template, literals.toArray(new String[0]), Collections.unmodifiableList(variables));
+  }
+
+  public String getTemplate() {
+    return template;
+  }
+
+  public List<String> getVariables() {
+    return variables;
+  }
+
+  /**
+   * Fills in the variables and appends the other non-null values as query parameters.
+   *
+   * @param values a map or an object with a value for every variable
+   * @throws IllegalArgumentException if a variable has no value
+   */
+  public String expand(Object values) {
+    Map<String, ?> parameters = QueryEncoder.parameters(values);
+    StringBuilder url = expandPath(parameters);
+    QueryEncoder.appendQuery(url, parameters, variables, hasQuery);
+    return url.toString();
+  }
+
+  /**
+   * Fills in the variables only, e.g. for a request sending the values in its body.
+   *
+   * @param values a map or an object with a value for every variable
+   * @throws IllegalArgumentException if a variable has no value
+   */
+  public String expandPath(Object values) {
+    if (variables.isEmpty()) {
+      return template;
+    }
+    return expandPath(QueryEncoder.parameters(values)).toString();
+  }
+
+  private StringBuilder expandPath(Map<String, ?> parameters) {
+    StringBuilder url = new StringBuilder(literalLength + 16 * variables.size() + 16 * parameters.size());
+    url.append(literals[0]);
+    for (int i = 0; i < variables.size(); i++) {
+      String name = variables.get(i);
+      Object value = parameters.get(name);
+      if (value == null) {
+        throw new IllegalArgumentException(String.format(
+            "No value for variable %s of url template %s", name, template
+        ));
+      }
+      QueryEncoder.encode(url, QueryEncoder.text(name, value));
+      url.append(literals[i + 1]);
+    }
+    return url;
+  }
+
+  @Override
+  public String toString() {
+    return template;
+  }
+}
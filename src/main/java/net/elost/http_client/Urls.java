@@ -0,0 +1,32 @@
+package net.elost.http_client;
+
+/**
+ * Checks on url strings that don't need a parsed {@link java.net.URL}.
+ */
+final class Urls {
+
+  private Urls() {
+  }
+
+  /**
+   * @return whether the url starts with a scheme followed by {@code ://}, unlike paths that may carry urls in their
+   * query, e.g. {@code /login?next=http://example.com}
+   */
+  static boolean isAbsolute(String url) {
+    int colon = url.indexOf(':');
+    if (colon < 1 || !url.startsWith("//", colon + 1) || !isAsciiLetter(url.charAt(0))) {
+      return false;
+    }
+    for (int i = 1; i < colon; i++) {
+      char c = url.charAt(i);
+      if (!isAsciiLetter(c) && !(c >= '0' && c <= '9') && c != '+' && c != '-' && c != '.') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isAsciiLetter(char c) {
+    return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+  }
+}
@@ -0,0 +1,64 @@
+package net.elost.http_client;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executors running each task on its own virtual thread, available on JDK 21 and later.
+ * <p>
+ * The library is compiled for Java 8, so the JDK 21 API is looked up reflectively. Blocking calls are cheap on
+ * virtual threads: a call waiting for the server only parks its virtual thread, and the client holds no monitors
+ * around socket reads and writes, which would pin the carrier thread. Use the executor for
+ * {@link HttpClientImpl#asyncExecutor(java.util.concurrent.Executor)} or
+ * {@link BatchExecutor#executor(ExecutorService)}, or run blocking {@link RestClient} calls on it directly.
+ */
+public final class VirtualThreads {
+  private static final Method OF_VIRTUAL = method(Thread.class, "ofVirtual");
+  private static final Method NEW_THREAD_PER_TASK_EXECUTOR = method(
+      Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class
+  );
+
+  private VirtualThreads() {
+  }
+
+  /**
+   * @return whether the JVM supports virtual threads
+   */
+  public static boolean isSupported() {
+    return OF_VIRTUAL != null && NEW_THREAD_PER_TASK_EXECUTOR != null;
+  }
+
+  /**
+   * Executor starting a new virtual thread for each task. The threads are named with the prefix and a counter.
+   *
+   * @throws UnsupportedOperationException if the JVM doesn't support virtual threads
+   */
+  public static ExecutorService newExecutor(String namePrefix) {
+    if (!isSupported()) {
+      throw new UnsupportedOperationException(String.format(
+          "Virtual threads need JDK 21 or later, running on %s", System.getProperty("java.version")
+      ));
+    }
+    try {
+      Object builder = OF_VIRTUAL.invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+      ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+      return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+    }
+    catch (ReflectiveOperationException e) {
+      throw new UnsupportedOperationException("Can't create a virtual thread executor", e);
+    }
+  }
+
+  private static Method method(Class<?> type, String name, Class<?>... parameterTypes) {
+    try {
+      return type.getMethod(name, parameterTypes);
+    }
+    catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package net.elost.http_client;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockClassRule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchExecutorTest {
+
+  @Rule
+  public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+  @ClassRule
+  public static WireMockClassRule server = new WireMockClassRule(
+      wireMockConfig().dynamicPort()
+  );
+
+  private HttpClientImpl client = new HttpClientImpl(1000, 2000);
+
+  private BatchExecutor batches = new BatchExecutor();
+
+  @Before
+  public void init() {
+    server.stubFor(WireMock
+        .get(WireMock.urlPathMatching("/api/users/[0-9]+"))
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "application/json")
+            .withStatus(200)
+            .withBody("{\"user_name\": \"tim\"}")
+        )
+    );
+    server.stubFor(WireMock
+        .get("/api/users/404")
+        .willReturn(aResponse().withStatus(404))
+    );
+    server.stubFor(WireMock
+        .get("/api/slow")
+        .willReturn(aResponse().withStatus(200).withBody("slow").withFixedDelay(300))
+    );
+  }
+
+  @After
+  public void close() {
+    batches.close();
+  }
+
+  @Test
+  public void returnsResultsInOrderWithFailuresPerCall() {
+    RestClient restClient = new RestClient(baseUrl("localhost"), client);
+    List<BatchCall<User>> calls = Stream.of("1", "404", "3")
+        .map(id -> baseUrl("localhost") + "users/" + id)
+        .map(url -> BatchCall.of(url, () -> restClient.get(url, null, User.class)))
+        .collect(Collectors.toList());
+
+    List<BatchResult<User>> results = batches.executeAll(calls);
+
+    assertEquals(3, results.size());
+    assertEquals("tim", results.get(0).get().userName);
+    assertFalse(results.get(1).isSuccess());
+    assertTrue(results.get(1).getError() instanceof HttpCallException);
+    assertNull(results.get(1).getValue());
+    assertEquals("tim", results.get(2).getValue().userName);
+    try {
+      results.get(1).get();
+      fail("Expected the call's exception");
+    }
+    catch (HttpCallException expected) {
+    }
+  }
+
+  @Test
+  public void limitsConcurrencyPerHostAndInTotal() {
+    batches.maxConcurrency(3).maxConcurrencyPerHost(2);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    ConcurrentHashMap<String, AtomicInteger> runningPerHost = new ConcurrentHashMap<>();
+    ConcurrentHashMap<String, Integer> maxRunningPerHost = new ConcurrentHashMap<>();
+
+    List<BatchCall<HttpResponse>> calls = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      String host = i % 2 == 0 ? "localhost" : "127.0.0.1";
+      String url = baseUrl(host) + "slow";
+      calls.add(BatchCall.of(url, () -> {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        int hostRunning = runningPerHost.computeIfAbsent(host, h -> new AtomicInteger()).incrementAndGet();
+        maxRunningPerHost.merge(host, hostRunning, Math::max);
+        try {
+          return client.sendRequest(HttpMethod.GET, url, null, "");
+        }
+        finally {
+          runningPerHost.get(host).decrementAndGet();
+          running.decrementAndGet();
+        }
+      }));
+    }
+
+    List<BatchResult<HttpResponse>> results = batches.executeAll(calls);
+
+    assertTrue(results.stream().allMatch(BatchResult::isSuccess));
+    assertEquals(3, maxRunning.get());
+    assertTrue(maxRunningPerHost.values().stream().allMatch(max -> max <= 2));
+  }
+
+  @Test
+  public void returnsResultsAsTheyComplete() {
+    List<BatchCall<HttpResponse>> calls = Arrays.asList(
+        BatchCall.request(client, HttpMethod.GET, baseUrl("localhost") + "slow", null, "", Collections.emptyMap()),
+        BatchCall.request(client, HttpMethod.GET, baseUrl("localhost") + "users/2", null, "", Collections.emptyMap())
+    );
+
+    List<Integer> order;
+    try (Stream<BatchResult<HttpResponse>> results = batches.executeAsCompleted(calls)) {
+      order = results.map(BatchResult::getIndex).collect(Collectors.toList());
+    }
+
+    assertEquals(Arrays.asList(1, 0), order);
+  }
+
+  private String baseUrl(String host) {
+    return "http://" + host + ":" + server.port() + "/api/";
+  }
+
+  private static class User {
+    String userName;
+  }
+}
@@ -0,0 +1,140 @@
+package net.elost.http_client;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockClassRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BodySizeLimitTest {
+
+  private static final byte[] LARGE = new byte[64 * 1024];
+
+  static {
+    Arrays.fill(LARGE, (byte) 'a');
+  }
+
+  @Rule
+  public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @ClassRule
+  public static WireMockClassRule server = new WireMockClassRule(
+      wireMockConfig().dynamicPort()
+  );
+
+  @Before
+  public void init() throws IOException {
+    server.stubFor(WireMock
+        .get("/api/large")
+        .willReturn(aResponse().withStatus(200).withBody(LARGE))
+    );
+    server.stubFor(WireMock
+        .get("/api/gzip")
+        .willReturn(aResponse().withStatus(200).withHeader("Content-Encoding", "gzip").withBody(gzip(LARGE)))
+    );
+    server.stubFor(WireMock
+        .get("/api/error")
+        .willReturn(aResponse().withStatus(500).withBody(LARGE))
+    );
+    server.stubFor(WireMock
+        .get("/api/binary")
+        .willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/octet-stream").withBody(LARGE))
+    );
+  }
+
+  @Test
+  public void failsOnBodiesOverTheLimit() {
+    for (HttpClientImpl client : clients()) {
+      client.maxBodySize(1024);
+      assertTooLarge(client, "large");
+      assertTooLarge(client, "gzip");
+    }
+  }
+
+  @Test
+  public void truncatesErrorBodies() {
+    for (HttpClientImpl client : clients()) {
+      HttpResponse response = client.maxErrorBodySize(10).sendRequest(HttpMethod.GET, baseUrl() + "error", null, null);
+
+      assertEquals(500, response.getCode());
+      assertEquals("aaaaaaaaaa", response.getResponseBody().trim());
+    }
+  }
+
+  @Test
+  public void spillsLargeBinaryBodiesToFile() throws IOException {
+    for (HttpClientImpl client : clients()) {
+      Path directory = folder.newFolder().toPath();
+      HttpResponse response = client
+          .spillToFileAbove(1024, directory)
+          .sendRequest(HttpMethod.GET, baseUrl() + "binary", null, null);
+
+      assertNull(response.getResponseBinaryBody());
+      assertEquals(directory, response.getResponseBodyFile().getParent());
+      assertArrayEquals(LARGE, Files.readAllBytes(response.getResponseBodyFile()));
+      assertArrayEquals(LARGE, StreamUtil.toByteArray(response.bufferedBody()));
+    }
+  }
+
+  @Test
+  public void keepsSmallBinaryBodiesInMemory() {
+    HttpResponse response = new HttpClientImpl(1000, 2000)
+        .spillToFileAbove(LARGE.length, null)
+        .sendRequest(HttpMethod.GET, baseUrl() + "binary", null, null);
+
+    assertNull(response.getResponseBodyFile());
+    assertArrayEquals(LARGE, response.getResponseBinaryBody());
+  }
+
+  private void assertTooLarge(HttpClient client, String path) {
+    try {
+      client.sendRequest(HttpMethod.GET, baseUrl() + path, null, null);
+      fail("Expected the body to exceed the limit");
+    }
+    catch (HttpCallException e) {
+      String message = e.getCause() == null ? e.getMessage() : e.getCause().getMessage();
+      assertTrue(message, message.contains("limit of 1024 bytes"));
+    }
+  }
+
+  private static HttpClientImpl[] clients() {
+    return new HttpClientImpl[] {
+        new HttpClientImpl(1000, 2000),
+        new HttpClientImpl(1000, 2000).connectionPool(new ConnectionPool())
+    };
+  }
+
+  private static byte[] gzip(byte[] bytes) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(bytes);
+    }
+    return out.toByteArray();
+  }
+
+  private String baseUrl() {
+    return "http://localhost:" + server.port() + "/api/";
+  }
+}
@@ -0,0 +1,179 @@
+package net.elost.http_client;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockClassRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.matching;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class CachingHttpClientTest {
+
+  @Rule
+  public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @ClassRule
+  public static WireMockClassRule server = new WireMockClassRule(
+      wireMockConfig().dynamicPort()
+  );
+
+  private ResponseCache cache = new ResponseCache();
+
+  private CachingHttpClient client = new CachingHttpClient(new HttpClientImpl(1000, 1000), cache);
+
+  @Before
+  public void init() {
+    server.resetAll();
+    stub("/api/fresh", "max-age=60");
+    stub("/api/no-store", "no-store");
+    server.stubFor(WireMock
+        .get("/api/etag")
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "application/json")
+            .withHeader("Cache-Control", "no-cache")
+            .withHeader("ETag", "\"v1\"")
+            .withStatus(200)
+            .withBody("{\"user_name\": \"tim\", \"user_id\": 7}")
+        )
+    );
+    server.stubFor(WireMock
+        .get("/api/etag")
+        .atPriority(1)
+        // WireMock's Jetty appends --gzip to the ETag of responses it compresses
+        .withHeader("If-None-Match", matching("\"v1(--gzip)?\""))
+        .willReturn(aResponse()
+            .withHeader("ETag", "\"v1\"")
+            .withStatus(304)
+        )
+    );
+    server.stubFor(WireMock
+        .post("/api/fresh")
+        .willReturn(aResponse().withStatus(204))
+    );
+  }
+
+  @Test
+  public void servesFreshResponseFromCache() {
+    HttpResponse first = client.sendRequest(HttpMethod.GET, baseUrl() + "fresh", null, "");
+    HttpResponse second = client.sendRequest(HttpMethod.GET, baseUrl() + "fresh", null, "");
+
+    assertEquals("cached", first.getResponseBody().trim());
+    assertEquals("cached", second.getResponseBody().trim());
+    server.verify(1, getRequestedFor(urlEqualTo("/api/fresh")));
+    assertEquals(1, cache.getStats().getHits());
+    assertEquals(1, cache.getStats().getMisses());
+  }
+
+  @Test
+  public void revalidatesWithEtagWithoutParsingAgain() {
+    RestClient restClient = new RestClient(baseUrl(), client);
+
+    User first = restClient.get(baseUrl() + "etag", null, User.class);
+    User second = restClient.get(baseUrl() + "etag", null, User.class);
+
+    assertEquals("tim", first.userName);
+    assertSame(first, second);
+    server.verify(getRequestedFor(urlEqualTo("/api/etag")).withHeader("If-None-Match", matching("\"v1(--gzip)?\"")));
+    assertEquals(1, cache.getStats().getMisses());
+    assertEquals(1, cache.getStats().getRevalidations());
+  }
+
+  @Test
+  public void doesNotStoreNoStoreResponses() {
+    client.sendRequest(HttpMethod.GET, baseUrl() + "no-store", null, "");
+    client.sendRequest(HttpMethod.GET, baseUrl() + "no-store", null, "");
+
+    server.verify(2, getRequestedFor(urlEqualTo("/api/no-store")));
+  }
+
+  @Test
+  public void invalidatesOnUnsafeMethod() {
+    client.sendRequest(HttpMethod.GET, baseUrl() + "fresh", null, "");
+    client.sendRequest(HttpMethod.POST, baseUrl() + "fresh", "{}", "application/json");
+    client.sendRequest(HttpMethod.GET, baseUrl() + "fresh", null, "");
+
+    server.verify(2, getRequestedFor(urlEqualTo("/api/fresh")));
+  }
+
+  @Test
+  public void keepsEntriesInDiskTierAcrossInstances() throws Exception {
+    Path directory = folder.newFolder().toPath();
+    ResponseCache diskOnly = new ResponseCache().maxMemoryBytes(0).diskDirectory(directory, 1024 * 1024);
+    new CachingHttpClient(new HttpClientImpl(1000, 1000), diskOnly)
+        .sendRequest(HttpMethod.GET, baseUrl() + "fresh", null, "");
+
+    ResponseCache restarted = new ResponseCache().diskDirectory(directory, 1024 * 1024);
+    HttpResponse response = new CachingHttpClient(new HttpClientImpl(1000, 1000), restarted)
+        .sendRequest(HttpMethod.GET, baseUrl() + "fresh", null, "");
+
+    assertEquals("cached", response.getResponseBody().trim());
+    assertEquals(1, restarted.getStats().getHits());
+    server.verify(1, getRequestedFor(urlEqualTo("/api/fresh")));
+  }
+
+  @Test
+  public void storesAuthorizedResponsesOnlyIfPublic() {
+    stub("/api/public", "public, max-age=60");
+    Map<String, String> credentials = Collections.singletonMap("Authorization", "Bearer a");
+
+    client.sendRequest(HttpMethod.GET, baseUrl() + "fresh", null, "", credentials);
+    client.sendRequest(HttpMethod.GET, baseUrl() + "fresh", null, "");
+    client.sendRequest(HttpMethod.GET, baseUrl() + "public", null, "", credentials);
+    client.sendRequest(HttpMethod.GET, baseUrl() + "public", null, "");
+
+    server.verify(2, getRequestedFor(urlEqualTo("/api/fresh")));
+    server.verify(1, getRequestedFor(urlEqualTo("/api/public")));
+  }
+
+  @Test
+  public void sharedCacheDoesNotStorePrivateResponses() {
+    stub("/api/private", "private, max-age=60");
+    CachingHttpClient shared = new CachingHttpClient(new HttpClientImpl(1000, 1000), new ResponseCache().shared(true));
+
+    client.sendRequest(HttpMethod.GET, baseUrl() + "private", null, "");
+    client.sendRequest(HttpMethod.GET, baseUrl() + "private", null, "");
+    shared.sendRequest(HttpMethod.GET, baseUrl() + "private", null, "");
+    shared.sendRequest(HttpMethod.GET, baseUrl() + "private", null, "");
+
+    server.verify(3, getRequestedFor(urlEqualTo("/api/private")));
+  }
+
+  private void stub(String url, String cacheControl) {
+    server.stubFor(WireMock
+        .get(url)
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "application/text")
+            .withHeader("Cache-Control", cacheControl)
+            .withStatus(200)
+            .withBody("cached")
+        )
+    );
+  }
+
+  private String baseUrl() {
+    return "http://localhost:" + server.port() + "/api/";
+  }
+
+  private static class User {
+    private String userName;
+    private int userId;
+  }
+}
@@ -0,0 +1,171 @@
+package net.elost.http_client;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockClassRule;
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CborCodecTest {
+
+  @Rule
+  public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+  @ClassRule
+  public static WireMockClassRule server = new WireMockClassRule(
+      wireMockConfig().dynamicPort()
+  );
+
+  private CborCodec codec = new CborCodec();
+  private RestClient client = new RestClient(baseUrl(), new HttpClientImpl(1000, 5000)).codec(codec);
+
+  @Before
+  public void init() throws IOException {
+    server.resetAll();
+    Map<String, Object> user = new LinkedHashMap<>();
+    user.put("user_name", "tim");
+    user.put("user_id", 7);
+    server.stubFor(WireMock
+        .any(urlEqualTo("/api/user"))
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "application/cbor")
+            .withStatus(200)
+            .withBody(encode(user))
+        )
+    );
+    server.stubFor(WireMock
+        .get("/api/json-user")
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "application/json")
+            .withStatus(200)
+            .withBody("{\"user_name\": \"tim\", \"user_id\": 7}")
+        )
+    );
+    server.stubFor(WireMock
+        .get("/api/truncated")
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "application/cbor")
+            .withStatus(200)
+            .withBody(new byte[] {(byte) 0xbf, 0x69})
+        )
+    );
+  }
+
+  @Test
+  public void sendsAndReadsCbor() {
+    User input = new User();
+    input.userName = "ann";
+    input.userId = 2;
+
+    User user = client.post(baseUrl() + "user", input, User.class);
+
+    assertEquals("tim", user.userName);
+    assertEquals(7, user.userId);
+    server.verify(postRequestedFor(urlEqualTo("/api/user"))
+        .withHeader("Content-Type", equalTo("application/cbor"))
+        .withHeader("Accept", containing("application/cbor")));
+    byte[] body = server.findAll(postRequestedFor(urlEqualTo("/api/user"))).get(0).getBody();
+    assertEquals(new JsonParser().parse("{\"userName\": \"ann\", \"userId\": 2}"), CborParser.parse(body));
+  }
+
+  @Test
+  public void readsCborResultsOfAsyncCalls() {
+    assertEquals("tim", client.getAsync(baseUrl() + "user", null, User.class).join().userName);
+  }
+
+  @Test
+  public void fallsBackToJsonResponses() {
+    assertEquals("tim", client.get(baseUrl() + "json-user", null, User.class).userName);
+  }
+
+  @Test
+  public void reportsMalformedCbor() {
+    try {
+      client.get(baseUrl() + "truncated", null, User.class);
+      fail();
+    }
+    catch (HttpCallException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed response for api call to [GET]"));
+    }
+  }
+
+  @Test
+  public void encodesLikeJson() throws IOException {
+    Map<String, Object> value = new LinkedHashMap<>();
+    value.put("text", "gr\u00fc\u00dfe");
+    value.put("small", 23);
+    value.put("negative", -500);
+    value.put("large", Long.MAX_VALUE);
+    value.put("huge", new BigInteger("-123456789012345678901234567890"));
+    value.put("fraction", 0.1);
+    value.put("flag", true);
+    value.put("missing", null);
+    value.put("list", Arrays.asList(1.5, "two", Arrays.asList()));
+
+    byte[] cbor = encode(value);
+
+    assertEquals(new Gson().toJsonTree(value), CborParser.parse(cbor));
+    Map<String, Object> decoded = codec.decode(new ByteArrayInputStream(cbor), Map.class);
+    assertEquals("gr\u00fc\u00dfe", decoded.get("text"));
+    assertEquals(-500.0, decoded.get("negative"));
+    assertEquals(Arrays.asList(1.5, "two", Arrays.asList()), decoded.get("list"));
+  }
+
+  @Test
+  public void writesShortestHeads() throws IOException {
+    assertArrayEquals(new byte[] {0x17}, encode(23));
+    assertArrayEquals(new byte[] {0x18, 0x18}, encode(24));
+    assertArrayEquals(new byte[] {0x39, 0x01, (byte) 0xf3}, encode(-500));
+    assertArrayEquals(new byte[] {(byte) 0xfa, 0x3f, (byte) 0xc0, 0, 0}, encode(1.5));
+    assertArrayEquals(new byte[] {(byte) 0xf6}, encode(null));
+    List<Integer> empty = Arrays.asList();
+    assertArrayEquals(new byte[] {(byte) 0x9f, (byte) 0xff}, encode(empty));
+  }
+
+  @Test
+  public void readsDefiniteLengthsAndHalfFloats() {
+    byte[] cbor = {(byte) 0xa2, 0x61, 0x61, (byte) 0x82, 0x01, 0x20, 0x61, 0x62, (byte) 0xf9, 0x3e, 0x00};
+
+    assertEquals(new JsonParser().parse("{\"a\": [1, -1], \"b\": 1.5}"), CborParser.parse(cbor));
+  }
+
+  private byte[] encode(Object value) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    codec.encode(value, out);
+    return out.toByteArray();
+  }
+
+  private static String baseUrl() {
+    return "http://localhost:" + server.port() + "/api/";
+  }
+
+  private static class User {
+    private String userName;
+    private int userId;
+  }
+}
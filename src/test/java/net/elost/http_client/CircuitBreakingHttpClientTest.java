@@ -0,0 +1,122 @@
+package net.elost.http_client;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockClassRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakingHttpClientTest {
+
+  @Rule
+  public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+  @ClassRule
+  public static WireMockClassRule server = new WireMockClassRule(
+      wireMockConfig().dynamicPort()
+  );
+
+  private CircuitBreakingHttpClient client = new CircuitBreakingHttpClient(new HttpClientImpl(1000, 2000))
+      .window(4, 4)
+      .openDuration(200)
+      .halfOpenProbes(2);
+
+  @Before
+  public void init() {
+    server.resetAll();
+    stub(500, 0);
+  }
+
+  @Test
+  public void opensOnFailureRateAndRejectsCalls() {
+    for (int i = 0; i < 4; i++) {
+      assertEquals(500, client.sendRequest(HttpMethod.GET, url(), null, null).getCode());
+    }
+
+    assertRejected();
+    server.verify(4, getRequestedFor(urlEqualTo("/api/status")));
+    CircuitStats stats = client.getCircuits().get(host());
+    assertEquals(CircuitBreakingHttpClient.State.OPEN, stats.getState());
+    assertEquals(100, stats.getFailureRate(), 0);
+    assertEquals(1, stats.getRejected());
+  }
+
+  @Test
+  public void closesAfterSuccessfulProbes() throws InterruptedException {
+    open();
+    stub(200, 0);
+    Thread.sleep(250);
+
+    assertEquals(200, client.sendRequest(HttpMethod.GET, url(), null, null).getCode());
+    assertEquals(CircuitBreakingHttpClient.State.HALF_OPEN, client.getCircuits().get(host()).getState());
+    assertEquals(200, client.sendRequestAsync(HttpMethod.GET, url(), null, null).join().getCode());
+
+    assertEquals(CircuitBreakingHttpClient.State.CLOSED, client.getCircuits().get(host()).getState());
+  }
+
+  @Test
+  public void reopensWhenProbeFails() throws InterruptedException {
+    open();
+    Thread.sleep(250);
+
+    assertEquals(500, client.sendRequest(HttpMethod.GET, url(), null, null).getCode());
+
+    assertEquals(CircuitBreakingHttpClient.State.OPEN, client.getCircuits().get(host()).getState());
+    assertRejected();
+  }
+
+  @Test
+  public void opensOnSlowCalls() {
+    stub(200, 200);
+    client.slowCallThreshold(100, 50);
+
+    for (int i = 0; i < 4; i++) {
+      client.sendRequest(HttpMethod.GET, url(), null, null);
+    }
+
+    assertRejected();
+    assertEquals(100, client.getCircuits().get(host()).getSlowCallRate(), 0);
+  }
+
+  private void open() {
+    for (int i = 0; i < 4; i++) {
+      client.sendRequest(HttpMethod.GET, url(), null, null);
+    }
+    assertRejected();
+  }
+
+  private void assertRejected() {
+    try {
+      client.sendRequest(HttpMethod.GET, url(), null, null);
+      fail("Expected the circuit to be open");
+    }
+    catch (CallRejectedException expected) {
+    }
+  }
+
+  private void stub(int status, int delayMillis) {
+    server.stubFor(WireMock
+        .get("/api/status")
+        .willReturn(aResponse().withStatus(status).withFixedDelay(delayMillis))
+    );
+  }
+
+  private String host() {
+    return "localhost:" + server.port();
+  }
+
+  private String url() {
+    return "http://" + host() + "/api/status";
+  }
+}
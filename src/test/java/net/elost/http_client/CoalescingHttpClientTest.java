@@ -0,0 +1,166 @@
+package net.elost.http_client;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockClassRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CoalescingHttpClientTest {
+
+  @Rule
+  public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+  @ClassRule
+  public static WireMockClassRule server = new WireMockClassRule(
+      wireMockConfig().dynamicPort()
+  );
+
+  private CoalescingHttpClient client = new CoalescingHttpClient(new HttpClientImpl(1000, 5000))
+      .ignoreHeaders("X-Request-Id");
+
+  @Before
+  public void init() {
+    server.resetRequests();
+    server.stubFor(WireMock
+        .get("/api/users/1")
+        .willReturn(aResponse()
+            .withStatus(200)
+            .withFixedDelay(500)
+            .withBody("{\"user_name\": \"tim\", \"user_id\": 1}")
+        )
+    );
+  }
+
+  @Test
+  public void sharesOneCallAndResult() throws Exception {
+    RestClient restClient = new RestClient(baseUrl(), client);
+    int callers = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(callers);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<User>> users = new ArrayList<>();
+    for (int i = 0; i < callers; i++) {
+      users.add(executor.submit(() -> {
+        start.await();
+        return restClient.get(baseUrl() + "users/1", null, User.class);
+      }));
+    }
+    start.countDown();
+
+    User first = users.get(0).get();
+    for (Future<User> user : users) {
+      assertSame(first, user.get());
+    }
+    assertEquals("tim", first.userName);
+    server.verify(1, getRequestedFor(urlEqualTo("/api/users/1")));
+    assertEquals(1, client.getStats().getFlights());
+    assertEquals(callers - 1, client.getStats().getCoalesced());
+    assertEquals(callers - 1, client.getStats().getMaxCoalesced());
+    assertEquals(0, client.getStats().getInFlight());
+    executor.shutdown();
+  }
+
+  @Test
+  public void coalescesAsyncRequestsIgnoringHeaders() {
+    CompletableFuture<HttpResponse> first = client.sendRequestAsync(
+        HttpMethod.GET, baseUrl() + "users/1", null, null, HttpHeaders.of("X-Request-Id", "1")
+    );
+    CompletableFuture<HttpResponse> second = client.sendRequestAsync(
+        HttpMethod.GET, baseUrl() + "users/1", null, null, HttpHeaders.of("x-request-id", "2")
+    );
+    CompletableFuture<HttpResponse> other = client.sendRequestAsync(
+        HttpMethod.GET, baseUrl() + "users/1", null, null, HttpHeaders.of("Accept-Language", "de")
+    );
+
+    assertSame(first.join(), second.join());
+    assertEquals(200, other.join().getCode());
+    server.verify(2, getRequestedFor(urlEqualTo("/api/users/1")));
+    assertEquals(1, client.getStats().getCoalesced());
+  }
+
+  @Test
+  public void sendsSequentialRequestsSeparately() {
+    client.sendRequest(HttpMethod.GET, baseUrl() + "users/1", null, null);
+    client.sendRequest(HttpMethod.GET, baseUrl() + "users/1", null, null);
+
+    server.verify(2, getRequestedFor(urlEqualTo("/api/users/1")));
+    assertEquals(0, client.getStats().getCoalesced());
+  }
+
+  @Test
+  public void failsJoinedCallersWhenTheCallThrowsAnError() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    CoalescingHttpClient failing = new CoalescingHttpClient(new ForwardingHttpClient(new HttpClientImpl(1000, 5000)) {
+      @Override
+      public HttpResponse sendRequest(
+          HttpMethod method,
+          String url,
+          String input,
+          String contentType,
+          Map<String, String> headers
+      ) {
+        try {
+          release.await();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        throw new StackOverflowError();
+      }
+    });
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    List<Future<HttpResponse>> calls = new ArrayList<>();
+    calls.add(executor.submit(() -> failing.sendRequest(HttpMethod.GET, baseUrl() + "users/1", null, null)));
+    while (failing.getStats().getInFlight() == 0) {
+      Thread.sleep(1);
+    }
+    calls.add(executor.submit(() -> failing.sendRequest(HttpMethod.GET, baseUrl() + "users/1", null, null)));
+    while (failing.getStats().getCoalesced() == 0) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+
+    for (Future<HttpResponse> call : calls) {
+      try {
+        call.get();
+        fail("Expected the error of the call");
+      }
+      catch (ExecutionException e) {
+        assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof StackOverflowError);
+      }
+    }
+    assertEquals(0, failing.getStats().getInFlight());
+    executor.shutdown();
+  }
+
+  private String baseUrl() {
+    return "http://localhost:" + server.port() + "/api/";
+  }
+
+  private static class User {
+    private String userName;
+    private int userId;
+  }
+}
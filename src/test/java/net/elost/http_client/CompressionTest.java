@@ -0,0 +1,148 @@
+package net.elost.http_client;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockClassRule;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompressionTest {
+
+  private static final String TEXT = repeat("{\"name\":\"compressible\"}", 200);
+
+  @Rule
+  public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+  @ClassRule
+  public static WireMockClassRule server = new WireMockClassRule(
+      wireMockConfig().dynamicPort()
+  );
+
+  @Test
+  public void decodesGzipResponses() throws IOException {
+    stubCompressed("/api/gzip", "gzip", gzip(TEXT));
+
+    for (HttpClientImpl client : clients()) {
+      HttpResponse response = client.sendRequest(HttpMethod.GET, baseUrl() + "gzip", null, null);
+
+      assertEquals(TEXT, response.getResponseBody().trim());
+      assertNull(response.getResponseHeaders().get("Content-Encoding"));
+      assertEquals(TEXT.length(), response.getResponseBodyBytes());
+      assertTrue(response.getResponseWireBytes() < response.getResponseBodyBytes());
+    }
+    server.verify(getRequestedFor(urlEqualTo("/api/gzip")).withHeader("Accept-Encoding", equalTo("gzip, deflate")));
+  }
+
+  @Test
+  public void decodesDeflateResponses() throws IOException {
+    stubCompressed("/api/deflate", "deflate", deflate(TEXT));
+
+    for (HttpClientImpl client : clients()) {
+      HttpResponse response = client.sendRequest(HttpMethod.GET, baseUrl() + "deflate", null, null);
+
+      assertEquals(TEXT, response.getResponseBody().trim());
+    }
+  }
+
+  @Test
+  public void leavesResponsesEncodedWhenDisabled() throws IOException {
+    byte[] compressed = gzip(TEXT);
+    server.stubFor(WireMock
+        .get("/api/raw")
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "application/octet-stream")
+            .withHeader("Content-Encoding", "gzip")
+            .withBody(compressed)
+        )
+    );
+
+    HttpResponse response = new HttpClientImpl(1000, 1000)
+        .acceptCompressedResponses(false)
+        .sendRequest(HttpMethod.GET, baseUrl() + "raw", null, null);
+
+    assertEquals(compressed.length, response.getResponseBinaryBody().length);
+  }
+
+  @Test
+  public void compressesLargeRequestBodies() throws IOException {
+    server.stubFor(WireMock.post("/api/upload").willReturn(aResponse().withStatus(204)));
+    HttpClientImpl client = new HttpClientImpl(1000, 1000).compressRequestsAbove(1024);
+
+    client.sendRequest(HttpMethod.POST, baseUrl() + "upload", "small", "application/json");
+    client.upload(
+        HttpMethod.POST, baseUrl() + "upload", RequestBody.ofString(TEXT), "application/json", Collections.emptyMap()
+    );
+
+    server.verify(postRequestedFor(urlEqualTo("/api/upload"))
+        .withoutHeader("Content-Encoding")
+        .withRequestBody(equalTo("small")));
+    server.verify(postRequestedFor(urlEqualTo("/api/upload"))
+        .withHeader("Content-Encoding", equalTo("gzip"))
+        .withRequestBody(equalTo(TEXT)));
+  }
+
+  private void stubCompressed(String url, String encoding, byte[] body) {
+    server.stubFor(WireMock
+        .get(url)
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "application/json")
+            .withHeader("Content-Encoding", encoding)
+            .withBody(body)
+        )
+    );
+  }
+
+  private static HttpClientImpl[] clients() {
+    return new HttpClientImpl[] {
+        new HttpClientImpl(1000, 1000),
+        new HttpClientImpl(1000, 1000).connectionPool(new ConnectionPool())
+    };
+  }
+
+  private static byte[] gzip(String text) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] deflate(String text) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (DeflaterOutputStream deflate = new DeflaterOutputStream(out)) {
+      deflate.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+    return out.toByteArray();
+  }
+
+  private static String repeat(String text, int times) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < times; i++) {
+      result.append(text);
+    }
+    return result.toString();
+  }
+
+  private String baseUrl() {
+    return "http://localhost:" + server.port() + "/api/";
+  }
+}
@@ -0,0 +1,186 @@
+package net.elost.http_client;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockClassRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConcurrencyLimitingHttpClientTest {
+
+  @Rule
+  public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+  @ClassRule
+  public static WireMockClassRule server = new WireMockClassRule(
+      wireMockConfig().dynamicPort()
+  );
+
+  private ConcurrencyLimitingHttpClient client = new ConcurrencyLimitingHttpClient(new HttpClientImpl(1000, 2000));
+
+  @Before
+  public void init() {
+    server.stubFor(WireMock
+        .get("/api/slow")
+        .willReturn(aResponse().withStatus(200).withFixedDelay(300))
+    );
+    server.stubFor(WireMock
+        .get("/api/ok")
+        .willReturn(aResponse().withStatus(200))
+    );
+    server.stubFor(WireMock
+        .get("/api/error")
+        .willReturn(aResponse().withStatus(500))
+    );
+    server.stubFor(WireMock
+        .get("/api/slow-error")
+        .willReturn(aResponse().withStatus(500).withFixedDelay(200))
+    );
+  }
+
+  @Test
+  public void rejectsCallsOverTheLimit() {
+    client.limits(2, 1, 10);
+    CompletableFuture<HttpResponse> first = client.sendRequestAsync(HttpMethod.GET, baseUrl() + "slow", null, null);
+    CompletableFuture<HttpResponse> second = client.sendRequestAsync(HttpMethod.GET, baseUrl() + "slow", null, null);
+
+    try {
+      client.sendRequestAsync(HttpMethod.GET, baseUrl() + "slow", null, null).join();
+      fail("Expected the call to be rejected");
+    }
+    catch (CompletionException e) {
+      assertTrue(e.getCause() instanceof CallRejectedException);
+    }
+    assertEquals(2, client.getLimits().get(host()).getInFlight());
+
+    assertEquals(200, first.join().getCode());
+    assertEquals(200, second.join().getCode());
+    assertEquals(0, client.getLimits().get(host()).getInFlight());
+    assertEquals(1, client.getLimits().get(host()).getRejected());
+  }
+
+  @Test
+  public void lowersLimitOnFailuresAndRaisesItUnderLoad() {
+    client.limits(10, 1, 20);
+    for (int i = 0; i < 5; i++) {
+      client.sendRequest(HttpMethod.GET, baseUrl() + "error", null, null);
+    }
+    // 10 * 0.9^5
+    assertEquals(5, client.getLimits().get(host()).getLimit());
+
+    client.limits(1, 1, 20);
+    for (int i = 0; i < 5; i++) {
+      client.sendRequest(HttpMethod.GET, "http://127.0.0.1:" + server.port() + "/api/ok", null, null);
+    }
+    // one call at a time uses half the limit only up to a limit of 2
+    assertEquals(3, client.getLimits().get("127.0.0.1:" + server.port()).getLimit());
+  }
+
+  @Test
+  public void lowersLimitOncePerRoundTrip() {
+    client.limits(10, 1, 20);
+    List<CompletableFuture<HttpResponse>> calls = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      calls.add(client.sendRequestAsync(HttpMethod.GET, baseUrl() + "slow-error", null, null));
+    }
+    calls.forEach(CompletableFuture::join);
+    assertEquals(9, client.getLimits().get(host()).getLimit());
+
+    client.sendRequest(HttpMethod.GET, baseUrl() + "error", null, null);
+    // 10 * 0.9^2
+    assertEquals(8, client.getLimits().get(host()).getLimit());
+  }
+
+  @Test
+  public void releasesPermitWhenTheCallThrowsAnError() {
+    ConcurrencyLimitingHttpClient failing = new ConcurrencyLimitingHttpClient(
+        new ForwardingHttpClient(new HttpClientImpl(1000, 2000)) {
+          @Override
+          public HttpResponse sendRequest(
+              HttpMethod method,
+              String url,
+              String input,
+              String contentType,
+              Map<String, String> headers
+          ) {
+            throw new StackOverflowError();
+          }
+        }
+    ).limits(1, 1, 10);
+
+    try {
+      failing.sendRequest(HttpMethod.GET, baseUrl() + "ok", null, null);
+      fail("Expected the error to be rethrown");
+    }
+    catch (StackOverflowError expected) {
+    }
+    assertEquals(0, failing.getLimits().get(host()).getInFlight());
+    assertEquals(1, failing.getLimits().get(host()).getLimit());
+  }
+
+  @Test
+  public void keepsLimitForCallsWithoutOutcome() {
+    CircuitBreakingHttpClient breaker = new CircuitBreakingHttpClient(new HttpClientImpl(1000, 2000));
+    ConcurrencyLimitingHttpClient limited = new ConcurrencyLimitingHttpClient(breaker).limits(2, 1, 10);
+    while (breaker.getCircuits().get(host()) == null
+        || breaker.getCircuits().get(host()).getState() != CircuitBreakingHttpClient.State.OPEN) {
+      limited.sendRequest(HttpMethod.GET, baseUrl() + "error", null, null);
+    }
+    int limit = limited.getLimits().get(host()).getLimit();
+
+    for (int i = 0; i < 20; i++) {
+      try {
+        limited.sendRequest(HttpMethod.GET, baseUrl() + "ok", null, null);
+        fail("Expected the open circuit to reject the call");
+      }
+      catch (CallRejectedException expected) {
+      }
+    }
+    assertEquals(limit, limited.getLimits().get(host()).getLimit());
+    assertEquals(0, limited.getLimits().get(host()).getInFlight());
+  }
+
+  @Test
+  public void holdsPermitOfStreamingCallsUntilTheResponseIsClosed() {
+    client.limits(1, 1, 10);
+    StreamingHttpResponse response = client.sendStreamingRequest(
+        HttpMethod.GET, baseUrl() + "ok", null, "", Collections.emptyMap()
+    );
+    assertEquals(1, client.getLimits().get(host()).getInFlight());
+    try {
+      client.sendRequest(HttpMethod.GET, baseUrl() + "ok", null, null);
+      fail("Expected the call to be rejected while the response is open");
+    }
+    catch (CallRejectedException expected) {
+    }
+
+    response.close();
+    response.close();
+    assertEquals(0, client.getLimits().get(host()).getInFlight());
+    assertEquals(200, client.sendRequest(HttpMethod.GET, baseUrl() + "ok", null, null).getCode());
+  }
+
+  private String host() {
+    return "localhost:" + server.port();
+  }
+
+  private String baseUrl() {
+    return "http://" + host() + "/api/";
+  }
+}
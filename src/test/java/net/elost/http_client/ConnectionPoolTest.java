@@ -0,0 +1,253 @@
+package net.elost.http_client;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockClassRule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.binaryEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConnectionPoolTest {
+
+  @Rule
+  public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+  @ClassRule
+  public static WireMockClassRule server = new WireMockClassRule(
+      wireMockConfig().dynamicPort()
+  );
+
+  private ConnectionPool pool = new ConnectionPool().maxConnectionsPerHost(1);
+
+  private HttpClientImpl client = new HttpClientImpl(1000, 5000).connectionPool(pool);
+
+  @Before
+  public void init() {
+    server.stubFor(WireMock
+        .get("/api/fast")
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "application/text")
+            .withStatus(200)
+            .withBody("fast")
+        )
+    );
+    server.stubFor(WireMock
+        .post("/api/fast")
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "application/text")
+            .withStatus(201)
+            .withBody("created")
+        )
+    );
+    server.stubFor(WireMock
+        .get("/api/slow")
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "application/text")
+            .withStatus(200)
+            .withFixedDelay(300)
+            .withBody("slow")
+        )
+    );
+  }
+
+  @After
+  public void closePool() {
+    pool.close();
+  }
+
+  @Test
+  public void reusesConnectionForSequentialRequests() {
+    for (int i = 0; i < 5; i++) {
+      HttpResponse response = client.sendRequest(HttpMethod.GET, baseUrl() + "fast", null, "");
+      assertEquals(200, response.getCode());
+      assertEquals("fast", response.getResponseBody().trim());
+    }
+    HttpResponse response = client.sendRequest(HttpMethod.POST, baseUrl() + "fast", "{}", "application/json");
+    assertEquals(201, response.getCode());
+    assertEquals("created", response.getResponseBody().trim());
+
+    PoolStats stats = pool.getStats();
+    assertEquals(0, stats.getLeased());
+    assertEquals(1, stats.getIdle());
+    assertEquals(0, stats.getPending());
+  }
+
+  @Test
+  public void waitsForConnectionWhenHostLimitIsReached() throws Exception {
+    CompletableFuture<HttpResponse> slow = CompletableFuture.supplyAsync(
+        () -> client.sendRequest(HttpMethod.GET, baseUrl() + "slow", null, "")
+    );
+    awaitLeased(1);
+    CompletableFuture<HttpResponse> fast = CompletableFuture.supplyAsync(
+        () -> client.sendRequest(HttpMethod.GET, baseUrl() + "fast", null, "")
+    );
+
+    assertEquals("slow", slow.get().getResponseBody().trim());
+    assertEquals("fast", fast.get().getResponseBody().trim());
+    assertEquals(1, pool.getStats().getIdle());
+  }
+
+  @Test
+  public void failsWhenLeaseTimesOut() throws Exception {
+    pool.leaseTimeoutMillis(50);
+    CompletableFuture<HttpResponse> slow = CompletableFuture.supplyAsync(
+        () -> client.sendRequest(HttpMethod.GET, baseUrl() + "slow", null, "")
+    );
+    awaitLeased(1);
+
+    try {
+      client.sendRequest(HttpMethod.GET, baseUrl() + "fast", null, "");
+      fail("Expected lease timeout");
+    }
+    catch (HttpCallException expected) {
+    }
+    assertEquals("slow", slow.get().getResponseBody().trim());
+  }
+
+  @Test
+  public void streamsRequestBodiesOverPooledConnection() {
+    byte[] content = new byte[100_000];
+    new Random(7).nextBytes(content);
+
+    HttpResponse fixed = client.upload(
+        HttpMethod.POST, baseUrl() + "fast", RequestBody.ofBytes(content), "application/octet-stream",
+        Collections.emptyMap()
+    );
+    HttpResponse chunked = client.upload(
+        HttpMethod.POST, baseUrl() + "fast", RequestBody.ofStream(new ByteArrayInputStream(content), -1),
+        "application/octet-stream", Collections.emptyMap()
+    );
+
+    assertEquals(201, fixed.getCode());
+    assertEquals(201, chunked.getCode());
+    server.verify(2, postRequestedFor(urlEqualTo("/api/fast")).withRequestBody(binaryEqualTo(content)));
+    assertEquals(1, pool.getStats().getIdle());
+  }
+
+  @Test
+  public void replacesIdleConnectionsClosedByServer() throws Exception {
+    try (ServerSocket listener = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      PooledConnection first = lease(listener);
+      Socket firstPeer = listener.accept();
+      pool.release(first, true);
+      firstPeer.getOutputStream().write('x');
+      while (first.getInputStream().available() == 0) {
+        Thread.sleep(1);
+      }
+
+      PooledConnection second = lease(listener);
+      Socket secondPeer = listener.accept();
+      assertNotSame(first, second);
+      pool.release(second, true);
+      assertSame(second, lease(listener));
+      pool.release(second, true);
+      secondPeer.close();
+      Thread.sleep(1100);
+
+      PooledConnection third = lease(listener);
+      assertNotSame(second, third);
+      pool.release(third, false);
+      firstPeer.close();
+    }
+  }
+
+  private PooledConnection lease(ServerSocket listener) throws IOException {
+    return pool.lease("http", "127.0.0.1", listener.getLocalPort(), 1000, 5000, false, CallTracer.NONE);
+  }
+
+  @Test
+  public void closesHttp10ConnectionsWithoutKeepAlive() throws Exception {
+    try (ServerSocket listener = respondOnceAndClose("HTTP/1.0 200 OK\r\nContent-Length: 2\r\n\r\nok")) {
+      for (int i = 0; i < 2; i++) {
+        assertEquals("ok", client.sendRequest(HttpMethod.GET, rawUrl(listener), null, null).getResponseBody());
+        assertEquals(0, pool.getStats().getIdle());
+      }
+    }
+  }
+
+  @Test
+  public void retriesIdempotentCallsOnConnectionsClosedWhileIdle() throws Exception {
+    try (ServerSocket listener = respondOnceAndClose("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok")) {
+      assertEquals("ok", client.sendRequest(HttpMethod.GET, rawUrl(listener), null, null).getResponseBody());
+      assertEquals(1, pool.getStats().getIdle());
+
+      assertEquals("ok", client.sendRequest(HttpMethod.GET, rawUrl(listener), null, null).getResponseBody());
+      try {
+        client.sendRequest(HttpMethod.POST, rawUrl(listener), "{}", "application/json");
+        fail("Expected POST not to be retried");
+      }
+      catch (HttpCallException expected) {
+      }
+    }
+  }
+
+  @Test
+  public void rejectsNegativeContentLength() throws Exception {
+    try (ServerSocket listener = respondOnceAndClose("HTTP/1.1 200 OK\r\nContent-Length: -2\r\n\r\nok")) {
+      client.sendRequest(HttpMethod.GET, rawUrl(listener), null, null);
+      fail("Expected malformed Content-Length");
+    }
+    catch (HttpCallException e) {
+      assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof ProtocolException);
+    }
+  }
+
+  /**
+   * Starts a server that answers one request per connection with the response and then closes the connection.
+   */
+  private static ServerSocket respondOnceAndClose(String response) throws IOException {
+    ServerSocket listener = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    Thread acceptor = new Thread(() -> {
+      while (!listener.isClosed()) {
+        try (Socket socket = listener.accept()) {
+          socket.getInputStream().read(new byte[8192]);
+          socket.getOutputStream().write(response.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        catch (IOException ignored) {
+        }
+      }
+    });
+    acceptor.setDaemon(true);
+    acceptor.start();
+    return listener;
+  }
+
+  private static String rawUrl(ServerSocket listener) {
+    return "http://127.0.0.1:" + listener.getLocalPort() + "/raw";
+  }
+
+  private void awaitLeased(int leased) throws InterruptedException {
+    while (pool.getStats().getLeased() < leased) {
+      Thread.sleep(5);
+    }
+  }
+
+  private String baseUrl() {
+    return "http://localhost:" + server.port() + "/api/";
+  }
+}
@@ -0,0 +1,172 @@
+package net.elost.http_client;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockClassRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DnsResolverTest {
+
+  @Rule
+  public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+  @ClassRule
+  public static WireMockClassRule server = new WireMockClassRule(
+      wireMockConfig().dynamicPort().bindAddress("127.0.0.1")
+  );
+
+  private final StubResolver resolver = new StubResolver();
+
+  @Before
+  public void init() {
+    server.stubFor(WireMock
+        .get("/api/hello")
+        .willReturn(aResponse().withStatus(200).withBody("hello"))
+    );
+  }
+
+  @Test
+  public void resolvesWithTheConfiguredResolver() throws Exception {
+    resolver.add("api.test", "127.0.0.1");
+
+    assertEquals("hello", client().sendRequest(HttpMethod.GET, url("api.test"), null, null).getResponseBody());
+    assertEquals(1, resolver.lookups.get());
+  }
+
+  @Test
+  public void resolvesNonBlockingCallsWithTheConfiguredResolver() throws Exception {
+    resolver.add("api.test", "127.0.0.1");
+
+    try (NioHttpClient client = new NioHttpClient(5000, 2000).dnsResolver(resolver)) {
+      assertEquals("hello", client.sendRequest(HttpMethod.GET, url("api.test"), null, null).getResponseBody());
+      try {
+        client.sendRequest(HttpMethod.GET, url("unknown.test"), null, null);
+        fail("Expected the host to be unknown");
+      }
+      catch (HttpCallException e) {
+        assertTrue(e.getCause() instanceof UnknownHostException);
+      }
+    }
+    assertEquals(2, resolver.lookups.get());
+  }
+
+  @Test
+  public void failsOverToTheNextAddress() throws Exception {
+    // nothing listens on 127.0.0.2, the connect is refused
+    resolver.add("refusing.test", "127.0.0.2", "127.0.0.3", "127.0.0.1");
+
+    assertEquals(200, client().sendRequest(HttpMethod.GET, url("refusing.test"), null, null).getCode());
+  }
+
+  @Test
+  public void failsWhenNoAddressConnects() throws Exception {
+    resolver.add("down.test", "127.0.0.2", "127.0.0.3");
+
+    try {
+      client().sendRequest(HttpMethod.GET, url("down.test"), null, null);
+      fail("Expected the connect to fail");
+    }
+    catch (HttpCallException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Failed to connect to url"));
+    }
+  }
+
+  @Test
+  public void cachesAddresses() throws Exception {
+    resolver.add("api.test", "127.0.0.1");
+    CachingDnsResolver cache = new CachingDnsResolver(resolver).ttlMillis(60_000);
+
+    cache.resolve("api.test");
+    cache.resolve("api.test");
+    assertEquals(1, resolver.lookups.get());
+
+    cache.invalidate("api.test");
+    cache.resolve("api.test");
+    assertEquals(2, resolver.lookups.get());
+  }
+
+  @Test
+  public void refreshesAddressesInTheBackground() throws Exception {
+    resolver.add("api.test", "127.0.0.1");
+    CachingDnsResolver cache = new CachingDnsResolver(resolver).ttlMillis(300).refreshAfter(0.25);
+
+    cache.resolve("api.test");
+    Thread.sleep(100);
+    resolver.add("api.test", "127.0.0.2");
+    assertEquals(InetAddress.getByName("127.0.0.1"), cache.resolve("api.test").get(0));
+    while (resolver.lookups.get() < 2) {
+      Thread.sleep(10);
+    }
+    while (!cache.resolve("api.test").get(0).equals(InetAddress.getByName("127.0.0.2"))) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void usesTtlsReportedByTheResolver() throws Exception {
+    resolver.add("api.test", "127.0.0.1");
+    resolver.ttlMillis = 0;
+    CachingDnsResolver cache = new CachingDnsResolver(resolver);
+
+    cache.resolve("api.test");
+    cache.resolve("api.test");
+    assertEquals(2, resolver.lookups.get());
+  }
+
+  private HttpClient client() {
+    ConnectionPool pool = new ConnectionPool().dnsResolver(resolver).connectStaggerMillis(100);
+    return new HttpClientImpl(5000, 2000).connectionPool(pool);
+  }
+
+  private static String url(String host) {
+    return "http://" + host + ":" + server.port() + "/api/hello";
+  }
+
+  private static class StubResolver implements DnsResolver {
+    private final Map<String, List<InetAddress>> hosts = new ConcurrentHashMap<>();
+    private final AtomicInteger lookups = new AtomicInteger();
+    private volatile long ttlMillis = -1;
+
+    void add(String host, String... addresses) throws UnknownHostException {
+      InetAddress[] resolved = new InetAddress[addresses.length];
+      for (int i = 0; i < addresses.length; i++) {
+        resolved[i] = InetAddress.getByName(addresses[i]);
+      }
+      hosts.put(host, Arrays.asList(resolved));
+    }
+
+    @Override
+    public List<InetAddress> resolve(String host) throws UnknownHostException {
+      lookups.incrementAndGet();
+      List<InetAddress> addresses = hosts.getOrDefault(host, Collections.emptyList());
+      if (addresses.isEmpty()) {
+        throw new UnknownHostException(host);
+      }
+      return addresses;
+    }
+
+    @Override
+    public long ttlMillis(String host, List<InetAddress> addresses) {
+      return ttlMillis;
+    }
+  }
+}
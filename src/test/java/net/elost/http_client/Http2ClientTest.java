@@ -0,0 +1,353 @@
+package net.elost.http_client;
+
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class Http2ClientTest {
+  private static final byte[] LARGE = new byte[1024 * 1024];
+
+  @Rule
+  public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+  private static Server server;
+
+  private Http2Client client = new Http2Client(1000, 2000);
+
+  @BeforeClass
+  public static void startServer() throws Exception {
+    for (int i = 0; i < LARGE.length; i++) {
+      LARGE[i] = (byte) i;
+    }
+    server = new Server();
+    ServerConnector connector = new ServerConnector(server, new HTTP2CServerConnectionFactory(new HttpConfiguration()));
+    server.addConnector(connector);
+    server.setHandler(new AbstractHandler() {
+      @Override
+      public void handle(
+          String target,
+          Request baseRequest,
+          HttpServletRequest request,
+          HttpServletResponse response
+      ) throws IOException {
+        baseRequest.setHandled(true);
+        response.setHeader("X-Protocol", request.getProtocol());
+        switch (target) {
+          case "/api/hello":
+            response.setContentType("text/plain");
+            response.getWriter().print("hello " + request.getHeader("X-Name"));
+            break;
+          case "/api/echo":
+            response.setContentType(request.getContentType());
+            copy(request.getInputStream(), response.getOutputStream());
+            break;
+          case "/api/checksum":
+            CRC32 checksum = new CRC32();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = request.getInputStream().read(buffer)) != -1) {
+              checksum.update(buffer, 0, read);
+            }
+            response.getWriter().print(checksum.getValue());
+            break;
+          case "/api/port":
+            sleep(request.getParameter("delay"));
+            response.getWriter().print(request.getRemotePort());
+            break;
+          case "/api/large":
+            response.setContentType("application/octet-stream");
+            response.setContentLength(LARGE.length);
+            response.getOutputStream().write(LARGE);
+            break;
+          case "/api/users/1":
+            response.setContentType("application/json");
+            response.getWriter().print("{\"user_name\": \"tim\"}");
+            break;
+          default:
+            response.setStatus(404);
+            response.getWriter().print("not found");
+        }
+      }
+    });
+    server.start();
+  }
+
+  @AfterClass
+  public static void stopServer() throws Exception {
+    server.stop();
+  }
+
+  @After
+  public void close() {
+    client.close();
+  }
+
+  @Test
+  public void sendsRequestsOverHttp2() {
+    HttpResponse response = client.sendRequest(
+        HttpMethod.GET, baseUrl() + "hello", null, null, Collections.singletonMap("X-Name", "tim")
+    );
+
+    assertEquals(200, response.getCode());
+    assertEquals("hello tim", response.getResponseBody());
+    assertEquals("HTTP/2.0", Headers.first(response.getResponseHeaders(), "X-Protocol"));
+
+    HttpResponse notFound = client.sendRequest(HttpMethod.GET, baseUrl() + "missing", null, null);
+    assertEquals(404, notFound.getCode());
+    assertEquals("not found", notFound.getResponseBody());
+  }
+
+  @Test
+  public void postsBody() {
+    HttpResponse response = client.sendRequest(
+        HttpMethod.POST, baseUrl() + "echo", "{\"id\": 1}", "application/json"
+    );
+
+    assertEquals(200, response.getCode());
+    assertEquals("{\"id\": 1}", response.getResponseBody());
+  }
+
+  @Test
+  public void multiplexesConcurrentRequestsOverOneConnection() {
+    List<CompletableFuture<HttpResponse>> futures = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      futures.add(client.sendRequestAsync(HttpMethod.GET, baseUrl() + "port?delay=100", null, null));
+    }
+
+    Set<String> clientPorts = new HashSet<>();
+    for (CompletableFuture<HttpResponse> future : futures) {
+      HttpResponse response = future.join();
+      assertEquals(200, response.getCode());
+      clientPorts.add(response.getResponseBody());
+    }
+    assertEquals(1, clientPorts.size());
+  }
+
+  @Test
+  public void streamsLargeBodiesBeyondTheFlowControlWindows() throws IOException {
+    client.initialWindowSize(65535).connectionWindowSize(65535);
+
+    HttpResponse upload = client.upload(
+        HttpMethod.PUT, baseUrl() + "checksum", RequestBody.ofBytes(LARGE), "application/octet-stream",
+        Collections.emptyMap()
+    );
+    CRC32 checksum = new CRC32();
+    checksum.update(LARGE);
+    assertEquals(String.valueOf(checksum.getValue()), upload.getResponseBody());
+
+    try (StreamingHttpResponse download = client.sendStreamingRequest(
+        HttpMethod.GET, baseUrl() + "large", null, null, Collections.emptyMap()
+    )) {
+      assertEquals(LARGE.length, download.getContentLength());
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      copy(download.getBody(), body);
+      assertArrayEquals(LARGE, body.toByteArray());
+    }
+  }
+
+  @Test
+  public void failsOnReadTimeout() throws Exception {
+    Http2Client impatientClient = new Http2Client(1000, 100);
+    try {
+      impatientClient.sendRequestAsync(HttpMethod.GET, baseUrl() + "port?delay=1000", null, null).get();
+      fail("Expected read timeout");
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof HttpCallException);
+    }
+    finally {
+      impatientClient.close();
+    }
+  }
+
+  @Test
+  public void failsConnectionOnMalformedFrame() throws Exception {
+    try (ServerSocket rawServer = rawServer((in, out) -> {
+      // WINDOW_UPDATE without its 4 byte increment
+      Http2Codec.writeFrame(out, Http2Codec.TYPE_WINDOW_UPDATE, 0, 0, new byte[0]);
+      out.flush();
+    })) {
+      Http2Client patientClient = new Http2Client(1000, 0);
+      try {
+        patientClient.sendRequest(HttpMethod.GET, rawUrl(rawServer), null, null);
+        fail("Expected malformed frame");
+      }
+      catch (HttpCallException e) {
+        assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IOException);
+      }
+      finally {
+        patientClient.close();
+      }
+    }
+  }
+
+  @Test
+  public void boundsWaitForConcurrentStreamSlot() throws Exception {
+    try (ServerSocket rawServer = rawServer((in, out) -> {
+      Http2Codec.Frame frame;
+      while ((frame = Http2Codec.readFrame(in, Http2Codec.DEFAULT_MAX_FRAME_SIZE)) != null) {
+        if (frame.type == Http2Codec.TYPE_HEADERS) {
+          // :status 200 from the static table, the stream stays open
+          Http2Codec.writeFrame(
+              out, Http2Codec.TYPE_HEADERS, Http2Codec.FLAG_END_HEADERS, frame.streamId, new byte[] {(byte) 0x88}
+          );
+          out.flush();
+        }
+      }
+    }, Http2Codec.SETTINGS_MAX_CONCURRENT_STREAMS, 1)) {
+      Http2Client impatientClient = new Http2Client(1000, 300);
+      try (StreamingHttpResponse open = impatientClient.sendStreamingRequest(
+          HttpMethod.GET, rawUrl(rawServer), null, null, Collections.emptyMap()
+      )) {
+        assertEquals(200, open.getCode());
+        impatientClient.sendRequest(HttpMethod.GET, rawUrl(rawServer), null, null);
+        fail("Expected timeout waiting for a stream");
+      }
+      catch (HttpCallException e) {
+        assertTrue(String.valueOf(e.getCause()), e.getCause().getMessage().contains("concurrent streams"));
+      }
+      finally {
+        impatientClient.close();
+      }
+    }
+  }
+
+  @Test
+  public void restClientUsesHttp2Client() {
+    RestClient restClient = new RestClient(baseUrl(), client);
+
+    Map<?, ?> result = restClient.get(baseUrl() + "users/1", null, Map.class);
+
+    assertEquals("tim", result.get("user_name"));
+  }
+
+  @Test
+  public void resolvesHostsWithTheConfiguredResolver() {
+    Http2Client resolving = new Http2Client(1000, 2000)
+        .dnsResolver(host -> Collections.singletonList(InetAddress.getLoopbackAddress()));
+    String url = "http://h2.test:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + "/api/hello";
+    try {
+      assertEquals("hello tim", resolving.sendRequest(
+          HttpMethod.GET, url, null, null, Collections.singletonMap("X-Name", "tim")
+      ).getResponseBody());
+    }
+    finally {
+      resolving.close();
+    }
+  }
+
+  private String baseUrl() {
+    return "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + "/api/";
+  }
+
+  private static String rawUrl(ServerSocket rawServer) {
+    return "http://localhost:" + rawServer.getLocalPort() + "/api/raw";
+  }
+
+  /**
+   * Starts a server that, for every connection, reads the connection preface, sends SETTINGS with the given values
+   * and then hands the connection to the script.
+   */
+  private static ServerSocket rawServer(RawScript script, int... settings) throws IOException {
+    ServerSocket rawServer = new ServerSocket(0);
+    startDaemon(() -> {
+      try {
+        while (true) {
+          Socket socket = rawServer.accept();
+          startDaemon(() -> serveRaw(socket, script, settings));
+        }
+      }
+      catch (IOException ignored) {
+        // the server socket is closed
+      }
+    });
+    return rawServer;
+  }
+
+  private static void serveRaw(Socket socket, RawScript script, int[] settings) {
+    try (Socket connection = socket) {
+      InputStream in = connection.getInputStream();
+      OutputStream out = connection.getOutputStream();
+      byte[] preface = new byte[Http2Codec.CONNECTION_PREFACE.length];
+      for (int read = 0; read < preface.length; ) {
+        int count = in.read(preface, read, preface.length - read);
+        if (count == -1) {
+          return;
+        }
+        read += count;
+      }
+      Http2Codec.writeFrame(out, Http2Codec.TYPE_SETTINGS, 0, 0, Http2Codec.settings(settings));
+      out.flush();
+      script.run(in, out);
+      while (in.read() != -1) {
+        // keeps the connection open until the client closes it
+      }
+    }
+    catch (IOException ignored) {
+    }
+  }
+
+  private static void startDaemon(Runnable task) {
+    Thread thread = new Thread(task);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private interface RawScript {
+    void run(InputStream in, OutputStream out) throws IOException;
+  }
+
+  private static void copy(InputStream in, OutputStream out) throws IOException {
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+  }
+
+  private static void sleep(String millis) {
+    if (millis == null) {
+      return;
+    }
+    try {
+      Thread.sleep(Long.parseLong(millis));
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
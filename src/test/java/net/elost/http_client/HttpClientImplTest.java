@@ -6,16 +6,33 @@ import org.junit.Before;
 import org.junit.ClassRule;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.rules.Timeout;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.binaryEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.putRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 /**
  * @author Tim Urmancheev
@@ -25,6 +42,9 @@ public class HttpClientImplTest {
   @Rule
   public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   @ClassRule
   public static WireMockClassRule server = new WireMockClassRule(
       wireMockConfig().dynamicPort()
@@ -133,6 +153,157 @@ public class HttpClientImplTest {
     }
   }
 
+  @Test
+  public void readsBinaryResponse() {
+    byte[] content = binaryContent();
+
+    HttpResponse response = client.sendRequest(HttpMethod.GET, baseUrl() + "binary", null, "");
+
+    assertEquals(200, response.getCode());
+    assertArrayEquals(content, response.getResponseBinaryBody());
+  }
+
+  @Test
+  public void streamsResponseBodyToFile() throws Exception {
+    byte[] content = binaryContent();
+    Path target = folder.newFile().toPath();
+
+    try (StreamingHttpResponse response = client.sendStreamingRequest(
+        HttpMethod.GET, baseUrl() + "binary", null, "", Collections.emptyMap()
+    )) {
+      assertEquals(200, response.getCode());
+      assertEquals(content.length, response.transferTo(target));
+    }
+
+    assertArrayEquals(content, Files.readAllBytes(target));
+  }
+
+  @Test
+  public void streamsFileRequestBody() throws Exception {
+    byte[] content = binaryContent();
+    Path source = folder.newFile().toPath();
+    Files.write(source, content);
+
+    HttpResponse response = client.upload(
+        HttpMethod.POST, baseUrl() + "200", RequestBody.ofFile(source), "application/octet-stream",
+        Collections.emptyMap()
+    );
+
+    assertEquals(200, response.getCode());
+    server.verify(postRequestedFor(urlEqualTo("/api/200"))
+        .withHeader("Content-Length", equalTo(String.valueOf(content.length)))
+        .withRequestBody(binaryEqualTo(content))
+    );
+  }
+
+  @Test
+  public void streamsWriterRequestBodyChunked() {
+    HttpResponse response = client.upload(
+        HttpMethod.PUT, baseUrl() + "200", RequestBody.ofWriter(out -> {
+          for (int i = 0; i < 1000; i++) {
+            out.write(("line-" + i + "\n").getBytes(StandardCharsets.UTF_8));
+          }
+        }), "application/text", Collections.emptyMap()
+    );
+
+    assertEquals(200, response.getCode());
+    assertEquals("<streamed body>", response.getRequestBody());
+    server.verify(putRequestedFor(urlEqualTo("/api/200"))
+        .withHeader("Transfer-Encoding", equalTo("chunked"))
+        .withRequestBody(containing("line-999\n"))
+    );
+  }
+
+  @Test
+  public void runsAsyncCallsOnConfiguredExecutor() throws Exception {
+    AtomicInteger executed = new AtomicInteger();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    client.asyncExecutor(task -> {
+      executed.incrementAndGet();
+      executor.execute(task);
+    });
+
+    HttpResponse response = client.sendRequestAsync(HttpMethod.GET, baseUrl() + 200, null, "").get();
+
+    assertEquals("get-200", response.getResponseBody().trim());
+    assertEquals(1, executed.get());
+    executor.shutdown();
+  }
+
+  @Test
+  public void runsBlockingCallsOnVirtualThreadsWhereSupported() throws Exception {
+    if (!VirtualThreads.isSupported()) {
+      try {
+        VirtualThreads.newExecutor("http-");
+        fail("Expected virtual threads to be unsupported");
+      }
+      catch (UnsupportedOperationException expected) {
+      }
+      return;
+    }
+    ExecutorService executor = VirtualThreads.newExecutor("http-");
+    client.asyncExecutor(executor);
+
+    HttpResponse response = client.sendRequestAsync(HttpMethod.GET, baseUrl() + 200, null, "").get();
+
+    assertEquals("get-200", response.getResponseBody().trim());
+    executor.shutdown();
+  }
+
+  @Test
+  public void keepsTextBodiesAsSent() {
+    String body = "first\r\nsecond\n" + String.join(",", Collections.nCopies(20_000, "\"value\""));
+    server.stubFor(WireMock
+        .get("/api/text")
+        .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody(body))
+    );
+
+    for (HttpClientImpl textClient : new HttpClientImpl[] {
+        client,
+        new HttpClientImpl(20, 1000).connectionPool(new ConnectionPool())
+    }) {
+      assertEquals(body, textClient.sendRequest(HttpMethod.GET, baseUrl() + "text", null, "").getResponseBody());
+    }
+  }
+
+  @Test
+  public void decodesTextWithDeclaredCharset() {
+    server.stubFor(WireMock
+        .get("/api/latin1")
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "text/plain; charset=\"ISO-8859-1\"")
+            .withBody("caf\u00e9".getBytes(StandardCharsets.ISO_8859_1))
+        )
+    );
+    server.stubFor(WireMock
+        .get("/api/unknown-charset")
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "text/plain; charset=no-such-charset")
+            .withBody("caf\u00e9".getBytes(StandardCharsets.UTF_8))
+        )
+    );
+
+    assertEquals("caf\u00e9", client.sendRequest(HttpMethod.GET, baseUrl() + "latin1", null, "").getResponseBody());
+    assertEquals(
+        "caf\u00e9",
+        client.sendRequest(HttpMethod.GET, baseUrl() + "unknown-charset", null, "").getResponseBody()
+    );
+  }
+
+  private byte[] binaryContent() {
+    byte[] content = new byte[3 * 1024 * 1024 + 17];
+    new Random(42).nextBytes(content);
+    server.stubFor(WireMock
+        .get("/api/binary")
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "application/octet-stream")
+            .withStatus(200)
+            .withBody(content)
+        )
+    );
+    return content;
+  }
+
   private String baseUrl() {
     return "http://localhost:" + server.port() + "/api/";
   }
@@ -0,0 +1,219 @@
+package net.elost.http_client;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockClassRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpEventListenerTest {
+
+  @Rule
+  public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+  @ClassRule
+  public static WireMockClassRule server = new WireMockClassRule(
+      wireMockConfig().dynamicPort()
+  );
+
+  private RecordingListener events = new RecordingListener();
+
+  @Before
+  public void init() {
+    server.stubFor(WireMock
+        .post("/api/users")
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "application/json")
+            .withStatus(201)
+            .withBody("{\"id\":1}")
+        )
+    );
+  }
+
+  @Test
+  public void reportsEventsOfCall() {
+    HttpClientImpl client = new HttpClientImpl(1000, 1000).eventListener(events);
+
+    client.sendRequest(HttpMethod.POST, baseUrl() + "users", "{\"name\":\"a\"}", "application/json");
+
+    assertEquals(Arrays.asList(
+        "callStart", "connectStart", "connectEnd", "requestBodyEnd 12", "firstByteReceived 201",
+        "responseBodyEnd 8", "callEnd"
+    ), events.events);
+  }
+
+  @Test
+  public void reportsDnsAndConnectOnlyForNewPooledConnections() {
+    try (ConnectionPool pool = new ConnectionPool()) {
+      HttpClientImpl client = new HttpClientImpl(1000, 1000).connectionPool(pool).eventListener(events);
+
+      client.sendRequest(HttpMethod.POST, baseUrl() + "users", "{}", "application/json");
+      client.sendRequest(HttpMethod.POST, baseUrl() + "users", "{}", "application/json");
+
+      assertEquals(Arrays.asList(
+          "callStart", "dnsStart localhost", "dnsEnd localhost", "connectStart", "connectEnd", "requestBodyEnd 2",
+          "firstByteReceived 201", "responseBodyEnd 8", "callEnd",
+          "callStart", "requestBodyEnd 2", "firstByteReceived 201", "responseBodyEnd 8", "callEnd"
+      ), events.events);
+    }
+  }
+
+  @Test
+  public void reportsFailedDnsAndConnectOfPooledConnections() {
+    try (ConnectionPool pool = new ConnectionPool()) {
+      HttpClientImpl client = new HttpClientImpl(1000, 1000).connectionPool(pool).eventListener(events);
+
+      for (String url : Arrays.asList("http://localhost:1/api/users", "http://unknown.invalid/api/users")) {
+        try {
+          client.sendRequest(HttpMethod.GET, url, null, "", Collections.emptyMap());
+          fail("Expected connection failure");
+        }
+        catch (HttpCallException expected) {
+        }
+      }
+
+      assertEquals(Arrays.asList(
+          "callStart", "dnsStart localhost", "dnsEnd localhost", "connectStart", "callFailed",
+          "callStart", "dnsStart unknown.invalid", "callFailed"
+      ), events.events);
+    }
+  }
+
+  @Test
+  public void reportsResolverErrorsAndFreesTheLease() {
+    boolean[] failing = {true};
+    try (ConnectionPool pool = new ConnectionPool().maxConnectionsPerHost(1).leaseTimeoutMillis(100)) {
+      pool.dnsResolver(host -> {
+        if (failing[0]) {
+          throw new StackOverflowError();
+        }
+        return DnsResolver.SYSTEM.resolve(host);
+      });
+      HttpClientImpl client = new HttpClientImpl(1000, 1000).connectionPool(pool).eventListener(events);
+
+      try {
+        client.sendRequest(HttpMethod.POST, baseUrl() + "users", "{}", "application/json");
+        fail("Expected the error to be rethrown");
+      }
+      catch (StackOverflowError expected) {
+      }
+      failing[0] = false;
+
+      assertEquals(201, client.sendRequest(HttpMethod.POST, baseUrl() + "users", "{}", "application/json").getCode());
+      assertEquals(Arrays.asList("callStart", "dnsStart localhost", "callFailed"), events.events.subList(0, 3));
+    }
+  }
+
+  @Test
+  public void keepsPerHostLatency() {
+    HostLatencyListener metrics = new HostLatencyListener();
+    HttpClientImpl client = new HttpClientImpl(1000, 1000).eventListener(metrics);
+
+    for (int i = 0; i < 3; i++) {
+      client.sendRequest(HttpMethod.POST, baseUrl() + "users", "{}", "application/json");
+    }
+    try {
+      client.sendRequest(HttpMethod.GET, "http://localhost:1/api/users", null, "", Collections.emptyMap());
+      fail("Expected connection failure");
+    }
+    catch (HttpCallException expected) {
+    }
+
+    HostLatencyListener.HostLatency latency = metrics.getHost("localhost");
+    assertEquals(3, latency.getLatency().getCount());
+    assertEquals(3, latency.getTimeToFirstByte().getCount());
+    assertEquals(1, latency.getFailures());
+    assertTrue(latency.getLatency().getPercentileNanos(50) >= latency.getTimeToFirstByte().getPercentileNanos(50));
+  }
+
+  @Test
+  public void histogramPercentilesAreWithinBucketPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long i = 1; i <= 1000; i++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+    }
+
+    assertEquals(1000, histogram.getCount());
+    assertEquals(TimeUnit.MICROSECONDS.toNanos(1000), histogram.getMaxNanos());
+    assertWithin(TimeUnit.MICROSECONDS.toNanos(500), histogram.getPercentileNanos(50));
+    assertWithin(TimeUnit.MICROSECONDS.toNanos(990), histogram.getPercentileNanos(99));
+    assertEquals(TimeUnit.MICROSECONDS.toNanos(1000), histogram.getPercentileNanos(100));
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue(actual + " is not within 12.5% of " + expected, Math.abs(actual - expected) <= expected / 8);
+  }
+
+  private String baseUrl() {
+    return "http://localhost:" + server.port() + "/api/";
+  }
+
+  private static class RecordingListener implements HttpEventListener {
+    private final List<String> events = new ArrayList<>();
+
+    @Override
+    public void callStart(HttpCall call, long nanoTime) {
+      events.add("callStart");
+    }
+
+    @Override
+    public void dnsStart(HttpCall call, String host, long nanoTime) {
+      events.add("dnsStart " + host);
+    }
+
+    @Override
+    public void dnsEnd(HttpCall call, String host, InetAddress address, long nanoTime) {
+      events.add("dnsEnd " + host);
+    }
+
+    @Override
+    public void connectStart(HttpCall call, long nanoTime) {
+      events.add("connectStart");
+    }
+
+    @Override
+    public void connectEnd(HttpCall call, long nanoTime) {
+      events.add("connectEnd");
+    }
+
+    @Override
+    public void requestBodyEnd(HttpCall call, long byteCount, long nanoTime) {
+      events.add("requestBodyEnd " + byteCount);
+    }
+
+    @Override
+    public void firstByteReceived(HttpCall call, int code, long nanoTime) {
+      events.add("firstByteReceived " + code);
+    }
+
+    @Override
+    public void responseBodyEnd(HttpCall call, long byteCount, long nanoTime) {
+      events.add("responseBodyEnd " + byteCount);
+    }
+
+    @Override
+    public void callEnd(HttpCall call, long nanoTime) {
+      events.add("callEnd");
+    }
+
+    @Override
+    public void callFailed(HttpCall call, Throwable error, long nanoTime) {
+      events.add("callFailed");
+    }
+  }
+}
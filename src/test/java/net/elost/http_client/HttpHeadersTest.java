@@ -0,0 +1,26 @@
+package net.elost.http_client;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+public class HttpHeadersTest {
+
+  @Test
+  public void equalsIgnoringCaseOfNamesAndOrder() {
+    HttpHeaders headers = HttpHeaders.of("Accept", "text/plain", "X-Trace", "1");
+    HttpHeaders same = HttpHeaders.of("x-trace", "1", "ACCEPT", "text/plain");
+
+    assertEquals(headers, same);
+    assertEquals(same, headers);
+    assertEquals(headers.hashCode(), same.hashCode());
+    assertNotEquals(headers, HttpHeaders.of("Accept", "text/plain", "X-Trace", "2"));
+    assertNotEquals(headers, HttpHeaders.of("Accept", "text/plain"));
+    assertFalse(HttpHeaders.of("Accept", "text/plain").equals(Collections.singletonMap("Accept", "text/plain")));
+    assertEquals(HttpHeaders.EMPTY, HttpHeaders.of());
+  }
+}
@@ -0,0 +1,222 @@
+package net.elost.http_client;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockClassRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LoadBalancingHttpClientTest {
+
+  @Rule
+  public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+  @ClassRule
+  public static WireMockClassRule first = new WireMockClassRule(
+      wireMockConfig().dynamicPort()
+  );
+
+  @ClassRule
+  public static WireMockClassRule second = new WireMockClassRule(
+      wireMockConfig().dynamicPort()
+  );
+
+  @Before
+  public void init() {
+    for (WireMockClassRule server : Arrays.asList(first, second)) {
+      server.resetAll();
+      server.stubFor(WireMock
+          .get("/api/users/1")
+          .willReturn(aResponse()
+              .withStatus(200)
+              .withBody("{\"user_name\": \"tim\", \"user_id\": 1}")
+          )
+      );
+    }
+  }
+
+  @Test
+  public void spreadsCallsOverEndpoints() {
+    LoadBalancingHttpClient client = newClient();
+    RestClient restClient = new RestClient(client);
+    for (int i = 0; i < 50; i++) {
+      assertEquals("tim", restClient.get("/users/1", null, User.class).userName);
+    }
+
+    long firstRequests = client.getEndpoints().get(baseUrl(first)).getRequests();
+    long secondRequests = client.getEndpoints().get(baseUrl(second)).getRequests();
+    assertEquals(50, firstRequests + secondRequests);
+    assertTrue(firstRequests > 0 && secondRequests > 0);
+    first.verify((int) firstRequests, getRequestedFor(urlEqualTo("/api/users/1")));
+  }
+
+  @Test
+  public void ejectsFailingEndpointUntilProbeSucceeds() throws Exception {
+    second.stubFor(WireMock.get("/api/users/1").willReturn(aResponse().withStatus(503)));
+    second.stubFor(WireMock.get("/api/health").willReturn(aResponse().withStatus(503)));
+    LoadBalancingHttpClient client = newClient()
+        .ejectAfterFailures(2)
+        .probe("/health", 50);
+
+    while (!client.getEndpoints().get(baseUrl(second)).isEjected()) {
+      client.sendRequest(HttpMethod.GET, "users/1", null, null);
+    }
+    for (int i = 0; i < 20; i++) {
+      assertEquals(200, client.sendRequest(HttpMethod.GET, "users/1", null, null).getCode());
+    }
+    EndpointStats stats = client.getEndpoints().get(baseUrl(second));
+    assertEquals(2, stats.getFailures());
+    assertEquals(1, stats.getEjections());
+
+    second.stubFor(WireMock.get("/api/health").willReturn(aResponse().withStatus(200)));
+    while (client.getEndpoints().get(baseUrl(second)).isEjected()) {
+      Thread.sleep(20);
+    }
+    assertFalse(client.getEndpoints().get(baseUrl(second)).isEjected());
+  }
+
+  @Test
+  public void slowProbeDoesNotHoldUpOtherEndpoints() throws Exception {
+    first.stubFor(WireMock.get("/api/users/1").willReturn(aResponse().withStatus(503)));
+    first.stubFor(WireMock.get("/api/health").willReturn(aResponse().withStatus(200).withFixedDelay(4000)));
+    second.stubFor(WireMock.get("/api/health").willReturn(aResponse().withStatus(200)));
+    LoadBalancingHttpClient client = newClient()
+        .ejectAfterFailures(1)
+        .probe("/health", 50);
+
+    while (!client.getEndpoints().get(baseUrl(first)).isEjected()) {
+      client.sendRequest(HttpMethod.GET, "users/1", null, null);
+    }
+    // let the probe of the first endpoint start
+    Thread.sleep(200);
+    second.stubFor(WireMock.get("/api/users/1").willReturn(aResponse().withStatus(503)));
+    client.sendRequest(HttpMethod.GET, "users/1", null, null);
+    assertTrue(client.getEndpoints().get(baseUrl(second)).isEjected());
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+    while (client.getEndpoints().get(baseUrl(second)).isEjected()) {
+      assertTrue("Probe of the second endpoint waited for the first", System.nanoTime() < deadline);
+      Thread.sleep(20);
+    }
+    assertTrue(client.getEndpoints().get(baseUrl(first)).isEjected());
+  }
+
+  @Test
+  public void failedCallsCountAsSlow() {
+    second.stubFor(WireMock.get("/api/users/1").willReturn(aResponse().withStatus(503)));
+    LoadBalancingHttpClient client = newClient()
+        .selection(LoadBalancingHttpClient.Selection.EWMA_LATENCY)
+        .ejectAfterFailures(100)
+        .failureLatency(1000);
+
+    for (int i = 0; i < 20; i++) {
+      client.sendRequest(HttpMethod.GET, "users/1", null, null);
+    }
+    EndpointStats failing = client.getEndpoints().get(baseUrl(second));
+    assertTrue(failing.getFailures() > 0);
+    assertTrue(String.valueOf(failing.getEwmaLatencyMillis()), failing.getEwmaLatencyMillis() >= 1000);
+    assertTrue(client.getEndpoints().get(baseUrl(first)).getRequests() > failing.getRequests());
+  }
+
+  @Test
+  public void sendsAbsoluteUrlsAsTheyAre() {
+    LoadBalancingHttpClient client = newClient().selection(LoadBalancingHttpClient.Selection.EWMA_LATENCY);
+
+    client.sendRequest(HttpMethod.GET, baseUrl(first) + "/users/1", null, null);
+    client.sendRequestAsync(HttpMethod.GET, baseUrl(first) + "/users/1", null, null).join();
+
+    first.verify(2, getRequestedFor(urlEqualTo("/api/users/1")));
+    assertEquals(0, client.getEndpoints().get(baseUrl(first)).getRequests());
+  }
+
+  @Test
+  public void balancesRelativeUrlsWithUrlInQuery() {
+    for (WireMockClassRule server : Arrays.asList(first, second)) {
+      server.stubFor(WireMock.get(urlPathEqualTo("/api/users/1")).willReturn(aResponse().withStatus(200)));
+    }
+    LoadBalancingHttpClient client = newClient();
+
+    HttpResponse response = client.sendRequest(HttpMethod.GET, "users/1?next=http://localhost/", null, null);
+
+    assertEquals(200, response.getCode());
+    assertEquals(1, client.getEndpoints().get(baseUrl(first)).getRequests()
+        + client.getEndpoints().get(baseUrl(second)).getRequests());
+  }
+
+  @Test
+  public void releasesEndpointWhenTheCallThrowsAnError() {
+    LoadBalancingHttpClient client = new LoadBalancingHttpClient(
+        new ForwardingHttpClient(new HttpClientImpl(1000, 5000)) {
+          @Override
+          public HttpResponse sendRequest(
+              HttpMethod method,
+              String url,
+              String input,
+              String contentType,
+              Map<String, String> headers
+          ) {
+            throw new StackOverflowError();
+          }
+
+          @Override
+          public CompletableFuture<HttpResponse> sendRequestAsync(
+              HttpMethod method,
+              String url,
+              String input,
+              String contentType,
+              Map<String, String> headers
+          ) {
+            throw new StackOverflowError();
+          }
+        },
+        Collections.singletonList(baseUrl(first))
+    );
+
+    try {
+      client.sendRequest(HttpMethod.GET, "users/1", null, null);
+      fail("Expected the error to be rethrown");
+    }
+    catch (StackOverflowError expected) {
+    }
+    try {
+      client.sendRequestAsync(HttpMethod.GET, "users/1", null, null);
+      fail("Expected the error to be rethrown");
+    }
+    catch (StackOverflowError expected) {
+    }
+    assertEquals(0, client.getEndpoints().get(baseUrl(first)).getInFlight());
+  }
+
+  private LoadBalancingHttpClient newClient() {
+    return new LoadBalancingHttpClient(
+        new HttpClientImpl(1000, 5000), Arrays.asList(baseUrl(first) + "/", baseUrl(second))
+    );
+  }
+
+  private String baseUrl(WireMockClassRule server) {
+    return "http://localhost:" + server.port() + "/api";
+  }
+
+  private static class User {
+    private String userName;
+    private int userId;
+  }
+}
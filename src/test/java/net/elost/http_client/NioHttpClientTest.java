@@ -0,0 +1,196 @@
+package net.elost.http_client;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockClassRule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NioHttpClientTest {
+
+  @Rule
+  public Timeout timeout = new Timeout(20, TimeUnit.SECONDS);
+
+  @ClassRule
+  public static WireMockClassRule server = new WireMockClassRule(
+      wireMockConfig().dynamicPort()
+  );
+
+  private NioHttpClient client = new NioHttpClient(1000, 2000);
+
+  @Before
+  public void init() {
+    for (int code = 200; code < 600; code++) {
+      server.stubFor(WireMock
+          .get("/api/" + code)
+          .willReturn(aResponse()
+              .withHeader("Content-Type", "application/text")
+              .withStatus(code)
+              .withBody("get-" + code)
+          )
+      );
+    }
+    server.stubFor(WireMock
+        .post("/api/echo")
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "application/json")
+            .withStatus(200)
+            .withBody("{\"user_name\": \"tim\"}")
+        )
+    );
+    server.stubFor(WireMock
+        .get("/api/slow")
+        .willReturn(aResponse()
+            .withStatus(200)
+            .withFixedDelay(1000)
+            .withBody("slow")
+        )
+    );
+  }
+
+  @After
+  public void close() {
+    client.close();
+  }
+
+  @Test
+  public void readsResponseOnAllHttpStatuses() {
+    Set<Integer> httpStatusesThatDoesNotHaveResponseBody = new HashSet<>(Arrays.asList(
+        204, 304
+    ));
+
+    for (int code = 200; code < 600; code++) {
+      HttpResponse response = client.sendRequest(
+          HttpMethod.GET, baseUrl() + code, null, "application/json"
+      );
+
+      assertEquals(code, response.getCode());
+      if (!httpStatusesThatDoesNotHaveResponseBody.contains(code)) {
+        assertEquals("get-" + code, response.getResponseBody().trim());
+      }
+    }
+  }
+
+  @Test
+  public void completesManyConcurrentRequests() {
+    List<CompletableFuture<HttpResponse>> futures = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      futures.add(client.sendRequestAsync(HttpMethod.GET, baseUrl() + 200, null, ""));
+    }
+
+    for (CompletableFuture<HttpResponse> future : futures) {
+      HttpResponse response = future.join();
+      assertEquals(200, response.getCode());
+      assertEquals("get-200", response.getResponseBody());
+    }
+  }
+
+  @Test
+  public void failsOnReadTimeout() throws Exception {
+    NioHttpClient impatientClient = new NioHttpClient(1000, 100);
+    try {
+      impatientClient.sendRequestAsync(HttpMethod.GET, baseUrl() + "slow", null, "").get();
+      fail("Expected read timeout");
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof HttpCallException);
+    }
+    finally {
+      impatientClient.close();
+    }
+  }
+
+  @Test
+  public void failsOnlyTheCallWithMalformedLengths() throws Exception {
+    for (String head : Arrays.asList("Content-Length: -1", "Transfer-Encoding: chunked")) {
+      try (ServerSocket rawServer = new ServerSocket(0)) {
+        Thread responder = new Thread(() -> {
+          try (Socket socket = rawServer.accept()) {
+            socket.getInputStream().read(new byte[1024]);
+            socket.getOutputStream().write(
+                ("HTTP/1.1 200 OK\r\n" + head + "\r\n\r\n-5\r\n").getBytes(StandardCharsets.ISO_8859_1)
+            );
+            socket.getInputStream().read();
+          }
+          catch (IOException ignored) {
+          }
+        });
+        responder.setDaemon(true);
+        responder.start();
+
+        try {
+          client.sendRequest(HttpMethod.GET, "http://localhost:" + rawServer.getLocalPort() + "/", null, null);
+          fail("Expected malformed length");
+        }
+        catch (HttpCallException e) {
+          assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof ProtocolException);
+        }
+      }
+    }
+
+    assertEquals("get-200", client.sendRequest(HttpMethod.GET, baseUrl() + 200, null, null).getResponseBody());
+  }
+
+  @Test
+  public void failsQueuedCallsAfterQueueTimeout() throws Exception {
+    NioHttpClient singleConnection = new NioHttpClient(200, 5000).maxConnectionsPerHost(1).queueTimeoutMillis(200);
+    try {
+      CompletableFuture<HttpResponse> slow = singleConnection.sendRequestAsync(
+          HttpMethod.GET, baseUrl() + "slow", null, ""
+      );
+      CompletableFuture<HttpResponse> queued = singleConnection.sendRequestAsync(
+          HttpMethod.GET, baseUrl() + 200, null, ""
+      );
+      try {
+        queued.get();
+        fail("Expected connect timeout");
+      }
+      catch (ExecutionException e) {
+        assertTrue(e.getCause().getMessage(), e.getCause().getMessage().startsWith("Connect timed out"));
+      }
+      assertFalse(slow.isDone());
+      assertEquals("slow", slow.get().getResponseBody());
+    }
+    finally {
+      singleConnection.close();
+    }
+  }
+
+  @Test
+  public void restClientDeserializesAsyncResult() {
+    RestClient restClient = new RestClient(baseUrl(), client);
+
+    Map<?, ?> result = restClient.postAsync(baseUrl() + "echo", new Object(), Map.class).join();
+
+    assertEquals("tim", result.get("user_name"));
+  }
+
+  private String baseUrl() {
+    return "http://localhost:" + server.port() + "/api/";
+  }
+}
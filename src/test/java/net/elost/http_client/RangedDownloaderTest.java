@@ -0,0 +1,182 @@
+package net.elost.http_client;
+
+import com.github.tomakehurst.wiremock.client.MappingBuilder;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockClassRule;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RangedDownloaderTest {
+  private static final String ETAG = "\"v1\"";
+
+  @Rule
+  public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @ClassRule
+  public static WireMockClassRule server = new WireMockClassRule(
+      wireMockConfig().dynamicPort()
+  );
+
+  private byte[] content = new byte[1000];
+  private RangedDownloader downloader = new RangedDownloader(new HttpClientImpl(1000, 5000))
+      .rangeSize(100)
+      .parallelism(3);
+
+  @Before
+  public void init() {
+    server.resetAll();
+    new Random(42).nextBytes(content);
+    server.stubFor(WireMock
+        .get("/api/file")
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "application/octet-stream")
+            .withHeader("ETag", ETAG)
+            .withStatus(200)
+            .withBody(content)
+        )
+    );
+    for (int start = 0; start < content.length; start += 100) {
+      server.stubFor(range(start, Math.min(start + 100, content.length) - 1).willReturn(partial(start, 100)));
+    }
+  }
+
+  @Test
+  public void downloadsRangesConcurrently() throws Exception {
+    Path file = folder.newFile().toPath();
+
+    assertEquals(content.length, downloader.download(baseUrl() + "file", file));
+
+    assertArrayEquals(content, Files.readAllBytes(file));
+    server.verify(10, getRequestedFor(urlEqualTo("/api/file")).withHeader("Accept-Encoding", equalTo("identity")));
+    server.verify(9, getRequestedFor(urlEqualTo("/api/file")).withHeader("If-Range", equalTo(ETAG)));
+  }
+
+  @Test
+  public void fallsBackToSingleStream() throws Exception {
+    server.resetAll();
+    server.stubFor(WireMock
+        .get("/api/file")
+        .willReturn(aResponse().withStatus(200).withBody(content))
+    );
+    Path file = folder.newFile().toPath();
+    Files.write(file, new byte[5000]);
+
+    assertEquals(content.length, downloader.download(baseUrl() + "file", file));
+
+    assertArrayEquals(content, Files.readAllBytes(file));
+    server.verify(1, getRequestedFor(urlEqualTo("/api/file")));
+  }
+
+  @Test
+  public void fallsBackToSingleStreamWithoutValidator() throws Exception {
+    server.stubFor(range(0, 99).willReturn(partial(0, 100).withHeader("ETag", "W/" + ETAG)));
+    Path file = folder.newFile().toPath();
+
+    assertEquals(content.length, downloader.download(baseUrl() + "file", file));
+
+    assertArrayEquals(content, Files.readAllBytes(file));
+    server.verify(2, getRequestedFor(urlEqualTo("/api/file")));
+    server.verify(1, getRequestedFor(urlEqualTo("/api/file")).withoutHeader("Range"));
+  }
+
+  @Test
+  public void fallsBackToSingleStreamWhenTotalLengthIsUnknown() throws Exception {
+    server.stubFor(range(0, 99).willReturn(partial(0, 100).withHeader("Content-Range", "bytes 0-99/*")));
+    Path file = folder.newFile().toPath();
+
+    assertEquals(content.length, downloader.download(baseUrl() + "file", file));
+
+    assertArrayEquals(content, Files.readAllBytes(file));
+    server.verify(2, getRequestedFor(urlEqualTo("/api/file")));
+  }
+
+  @Test
+  public void requestsRestOfShortRangeWithoutCountingAnAttempt() throws Exception {
+    server.stubFor(range(300, 399)
+        .inScenario("flaky")
+        .whenScenarioStateIs(Scenario.STARTED)
+        .willReturn(aResponse().withStatus(503))
+        .willSetStateTo("short")
+    );
+    server.stubFor(range(300, 399)
+        .inScenario("flaky")
+        .whenScenarioStateIs("short")
+        .willReturn(partial(300, 40))
+        .willSetStateTo("recovered")
+    );
+    server.stubFor(range(340, 399)
+        .inScenario("flaky")
+        .whenScenarioStateIs("recovered")
+        .willReturn(partial(340, 60))
+    );
+    Path file = folder.newFile().toPath();
+
+    assertEquals(content.length, downloader.maxAttempts(2).download(baseUrl() + "file", file));
+
+    assertArrayEquals(content, Files.readAllBytes(file));
+    server.verify(1, getRequestedFor(urlEqualTo("/api/file")).withHeader("Range", equalTo("bytes=340-399")));
+  }
+
+  @Test
+  public void failsWhenBodyChanges() throws Exception {
+    server.stubFor(range(500, 599).willReturn(aResponse().withStatus(200).withBody(new byte[1200])));
+    Path file = folder.newFile().toPath();
+
+    try {
+      downloader.download(baseUrl() + "file", file);
+      fail();
+    }
+    catch (HttpCallException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("changed during the download"));
+    }
+  }
+
+  private MappingBuilder range(int start, int end) {
+    return WireMock
+        .get("/api/file")
+        .atPriority(1)
+        .withHeader("Range", equalTo("bytes=" + start + "-" + end));
+  }
+
+  /**
+   * @return response with the range of the content starting at the offset, which the server may cut short
+   */
+  private ResponseDefinitionBuilder partial(int start, int length) {
+    int end = Math.min(start + length, content.length);
+    return aResponse()
+        .withStatus(206)
+        .withHeader("Content-Type", "application/octet-stream")
+        .withHeader("ETag", ETAG)
+        .withHeader("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + content.length)
+        .withBody(Arrays.copyOfRange(content, start, end));
+  }
+
+  private static String baseUrl() {
+    return "http://localhost:" + server.port() + "/api/";
+  }
+}
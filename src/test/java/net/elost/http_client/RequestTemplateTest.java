@@ -0,0 +1,114 @@
+package net.elost.http_client;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockClassRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RequestTemplateTest {
+
+  @Rule
+  public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+  @ClassRule
+  public static WireMockClassRule server = new WireMockClassRule(
+      wireMockConfig().dynamicPort()
+  );
+
+  @Before
+  public void init() {
+    server.resetRequests();
+    server.stubFor(WireMock
+        .get("/api/users/1")
+        .willReturn(aResponse().withStatus(200).withHeader("X-Request-Id", "abc").withBody("{\"id\":1}"))
+    );
+    server.stubFor(WireMock
+        .post("/api/users")
+        .willReturn(aResponse().withStatus(201))
+    );
+    server.stubFor(WireMock
+        .get("/api/missing")
+        .willReturn(aResponse().withStatus(404).withHeader("X-Request-Id", "def"))
+    );
+  }
+
+  @Test
+  public void sendsDefaultHeaders() {
+    RequestTemplate getUser = new RequestTemplate(new HttpClientImpl(1000, 2000), HttpMethod.GET, baseUrl())
+        .withHeader("X-Api-Key", "secret")
+        .withHeader("Accept", "application/json");
+
+    HttpResponse response = getUser.send("users/1", null);
+
+    assertEquals(200, response.getCode());
+    assertEquals("{\"id\":1}", response.getResponseBody().trim());
+    server.verify(getRequestedFor(urlEqualTo("/api/users/1"))
+        .withHeader("X-Api-Key", equalTo("secret"))
+        .withHeader("Accept", equalTo("application/json")));
+  }
+
+  @Test
+  public void extraHeadersReplaceDefaults() {
+    RequestTemplate createUser = new RequestTemplate(
+        new HttpClientImpl(1000, 2000).connectionPool(new ConnectionPool()), HttpMethod.POST, baseUrl() + "users/"
+    ).withHeader("X-Tenant", "a");
+
+    HttpResponse response = createUser.send("", "{}", HttpHeaders.of("x-tenant", "b", "X-Trace", "1"));
+
+    assertEquals(201, response.getCode());
+    server.verify(postRequestedFor(urlEqualTo("/api/users"))
+        .withHeader("X-Tenant", equalTo("b"))
+        .withHeader("X-Trace", equalTo("1"))
+        .withHeader("Content-Type", equalTo("application/json")));
+  }
+
+  @Test
+  public void readsResponseHeadersOnDemand() {
+    for (HttpClientImpl client : new HttpClientImpl[] {
+        new HttpClientImpl(1000, 2000),
+        new HttpClientImpl(1000, 2000).connectionPool(new ConnectionPool())
+    }) {
+      RequestTemplate get = new RequestTemplate(client, HttpMethod.GET, baseUrl());
+
+      assertEquals("abc", Headers.first(get.send("users/1", null).getResponseHeaders(), "x-request-id"));
+      assertEquals("def", Headers.first(get.send("missing", null).getResponseHeaders(), "X-Request-Id"));
+    }
+    server.verify(2, getRequestedFor(urlEqualTo("/api/users/1")));
+    server.verify(2, getRequestedFor(urlEqualTo("/api/missing")));
+  }
+
+  @Test
+  public void headersIgnoreCase() {
+    HttpHeaders headers = HttpHeaders.of("Accept", "text/plain", "X-Trace", "1");
+    HttpHeaders replaced = headers.with("accept", "application/json");
+
+    assertEquals("text/plain", headers.get("ACCEPT"));
+    assertEquals("application/json", replaced.get("Accept"));
+    assertEquals("Accept", replaced.keySet().iterator().next());
+    assertEquals(2, replaced.size());
+    assertTrue(replaced.containsKey("x-trace"));
+    assertNull(replaced.get("X-Missing"));
+    assertSame(headers, headers.with(HttpHeaders.EMPTY));
+    assertSame(headers, HttpHeaders.EMPTY.with(headers));
+  }
+
+  private static String baseUrl() {
+    return "http://localhost:" + server.port() + "/api/";
+  }
+}
@@ -0,0 +1,191 @@
+package net.elost.http_client;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockClassRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class RestClientTest {
+
+  @Rule
+  public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+  @ClassRule
+  public static WireMockClassRule server = new WireMockClassRule(
+      wireMockConfig().dynamicPort()
+  );
+
+  private RestClient client = new RestClient(baseUrl(), 1000, 1000);
+
+  @Before
+  public void init() {
+    server.stubFor(WireMock
+        .get("/api/user")
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "application/json")
+            .withStatus(200)
+            .withBody("{\"user_name\": \"tim\", \"user_id\": 7}")
+        )
+    );
+    StringBuilder users = new StringBuilder("[");
+    for (int i = 0; i < 1000; i++) {
+      users.append(i == 0 ? "" : ",")
+          .append("{\"user_name\": \"user-").append(i).append("\", \"user_id\": ").append(i).append('}');
+    }
+    server.stubFor(WireMock
+        .get("/api/users")
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "application/json")
+            .withStatus(200)
+            .withBody(users.append(']').toString())
+        )
+    );
+    server.stubFor(WireMock
+        .get("/api/malformed")
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "application/json")
+            .withStatus(200)
+            .withBody("{\"user_name\": ")
+        )
+    );
+  }
+
+  @Test
+  public void deserializesResultFromStream() {
+    User user = client.get(baseUrl() + "user", null, User.class);
+
+    assertEquals("tim", user.userName);
+    assertEquals(7, user.userId);
+  }
+
+  @Test
+  public void streamsArrayElements() {
+    List<User> users = new ArrayList<>();
+    client.getEach(baseUrl() + "users", null, User.class, users::add);
+
+    assertEquals(1000, users.size());
+    assertEquals("user-999", users.get(999).userName);
+  }
+
+  @Test
+  public void streamsArrayLazily() {
+    try (Stream<User> users = client.getStream(baseUrl() + "users", null, User.class)) {
+      List<Integer> ids = users
+          .filter(user -> user.userId % 100 == 0)
+          .map(user -> user.userId)
+          .collect(Collectors.toList());
+
+      assertEquals(10, ids.size());
+      assertEquals(900, (int) ids.get(9));
+    }
+  }
+
+  @Test
+  public void decodesResultsWithDeclaredCharset() {
+    server.stubFor(WireMock
+        .get("/api/latin1")
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "application/json; charset=ISO-8859-1")
+            .withStatus(200)
+            .withBody("[{\"user_name\": \"ren\u00e9\"}]".getBytes(StandardCharsets.ISO_8859_1))
+        )
+    );
+
+    List<User> users = new ArrayList<>();
+    client.getEach(baseUrl() + "latin1", null, User.class, users::add);
+    try (Stream<User> stream = client.getStream(baseUrl() + "latin1", null, User.class)) {
+      users.addAll(stream.collect(Collectors.toList()));
+    }
+
+    assertEquals(2, users.size());
+    assertEquals("ren\u00e9", users.get(0).userName);
+    assertEquals("ren\u00e9", users.get(1).userName);
+  }
+
+  @Test
+  public void sendsGetInputAsQuery() {
+    Query query = new Query();
+    query.status = "on hold";
+    query.tags = Arrays.asList("a&b", "c");
+    server.stubFor(WireMock
+        .get(urlPathEqualTo("/api/users/7/orders"))
+        .withQueryParam("status", equalTo("on hold"))
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "application/json")
+            .withStatus(200)
+            .withBody("{\"user_name\": \"tim\", \"user_id\": 7}")
+        )
+    );
+
+    User user = client.get("/users/{id}/orders", query, User.class);
+
+    assertEquals("tim", user.userName);
+    server.verify(getRequestedFor(urlEqualTo("/api/users/7/orders?status=on%20hold&tags=a%26b&tags=c")));
+  }
+
+  @Test
+  public void resolvesPathsAgainstEndpoint() {
+    assertEquals("tim", client.get("user", null, User.class).userName);
+    assertEquals("tim", client.getAsync("/user", null, User.class).join().userName);
+  }
+
+  @Test
+  public void resolvesPathsWithUrlInQuery() {
+    server.stubFor(WireMock
+        .get(urlPathEqualTo("/api/login"))
+        .willReturn(aResponse()
+            .withHeader("Content-Type", "application/json")
+            .withStatus(200)
+            .withBody("{\"user_name\": \"tim\", \"user_id\": 7}")
+        )
+    );
+
+    assertEquals("tim", client.get("login?next=http://localhost/", null, User.class).userName);
+  }
+
+  @Test
+  public void failsOnMalformedResponse() {
+    try {
+      client.get(baseUrl() + "malformed", null, User.class);
+      fail("Expected malformed response");
+    }
+    catch (HttpCallException expected) {
+    }
+  }
+
+  private static String baseUrl() {
+    return "http://localhost:" + server.port() + "/api/";
+  }
+
+  private static class User {
+    private String userName;
+    private int userId;
+  }
+
+  private static class Query {
+    private int id = 7;
+    private String status;
+    private List<String> tags;
+    private String cursor;
+  }
+}
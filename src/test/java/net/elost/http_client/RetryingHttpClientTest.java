@@ -0,0 +1,204 @@
+package net.elost.http_client;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockClassRule;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryingHttpClientTest {
+
+  @Rule
+  public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+  @ClassRule
+  public static WireMockClassRule server = new WireMockClassRule(
+      wireMockConfig().dynamicPort()
+  );
+
+  private RetryingHttpClient client = new RetryingHttpClient(new HttpClientImpl(1000, 5000)).backoff(10, 100);
+
+  @Before
+  public void init() {
+    server.resetAll();
+    stubSequence("/api/flaky", 503, 503, 200);
+    server.stubFor(WireMock
+        .get("/api/fast")
+        .willReturn(aResponse().withStatus(200).withBody("fast"))
+    );
+    server.stubFor(WireMock
+        .post("/api/unavailable")
+        .willReturn(aResponse().withStatus(503))
+    );
+    server.stubFor(WireMock
+        .get("/api/unavailable")
+        .willReturn(aResponse().withStatus(503))
+    );
+  }
+
+  @Test
+  public void retriesRetryableStatuses() {
+    HttpResponse response = client.sendRequest(HttpMethod.GET, baseUrl() + "flaky", null, null);
+
+    assertEquals(200, response.getCode());
+    assertEquals("{\"status\": \"ok\"}", response.getResponseBody().trim());
+    server.verify(3, getRequestedFor(urlEqualTo("/api/flaky")));
+  }
+
+  @Test
+  public void restClientSeesOnlyTheFinalResponse() {
+    RestClient restClient = new RestClient(baseUrl(), client);
+
+    Map<?, ?> result = restClient.get(baseUrl() + "flaky", null, Map.class);
+
+    assertEquals("ok", result.get("status"));
+  }
+
+  @Test
+  public void retriesAsyncCalls() {
+    HttpResponse response = client.sendRequestAsync(HttpMethod.GET, baseUrl() + "flaky", null, null).join();
+
+    assertEquals(200, response.getCode());
+    server.verify(3, getRequestedFor(urlEqualTo("/api/flaky")));
+  }
+
+  @Test
+  public void waitsForRetryAfter() {
+    server.stubFor(WireMock
+        .get("/api/throttled")
+        .inScenario("throttled")
+        .whenScenarioStateIs(Scenario.STARTED)
+        .willReturn(aResponse().withStatus(429).withHeader("Retry-After", "1"))
+        .willSetStateTo("served")
+    );
+    server.stubFor(WireMock
+        .get("/api/throttled")
+        .inScenario("throttled")
+        .whenScenarioStateIs("served")
+        .willReturn(aResponse().withStatus(200))
+    );
+    client.backoff(10, 2000);
+
+    long start = System.nanoTime();
+    HttpResponse response = client.sendRequest(HttpMethod.GET, baseUrl() + "throttled", null, null);
+
+    assertEquals(200, response.getCode());
+    assertTrue(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(1));
+  }
+
+  @Test
+  public void returnsResponseWhenRetryAfterExceedsMaxBackoff() {
+    server.stubFor(WireMock
+        .get("/api/overloaded")
+        .willReturn(aResponse().withStatus(503).withHeader("Retry-After", "60"))
+    );
+
+    HttpResponse response = client.sendRequest(HttpMethod.GET, baseUrl() + "overloaded", null, null);
+
+    assertEquals(503, response.getCode());
+    server.verify(1, getRequestedFor(urlEqualTo("/api/overloaded")));
+  }
+
+  @Test
+  public void doesNotRetryPostOnServerErrors() {
+    HttpResponse response = client.sendRequest(
+        HttpMethod.POST, baseUrl() + "unavailable", "{}", "application/json"
+    );
+
+    assertEquals(503, response.getCode());
+    server.verify(1, postRequestedFor(urlEqualTo("/api/unavailable")));
+  }
+
+  @Test
+  public void retriesRefusedConnectionsForPost() throws IOException {
+    int closedPort;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      closedPort = socket.getLocalPort();
+    }
+    RetryBudget budget = new RetryBudget(0, 10);
+    client.retryBudget(budget);
+
+    try {
+      client.sendRequest(HttpMethod.POST, "http://localhost:" + closedPort + "/api/", "{}", "application/json");
+      fail("Expected connect failure");
+    }
+    catch (HttpCallException expected) {
+    }
+    assertEquals(8, budget.getAvailableRetries());
+  }
+
+  @Test
+  public void stopsRetryingWhenBudgetIsExhausted() {
+    client.retryBudget(new RetryBudget(0, 1));
+
+    assertEquals(503, client.sendRequest(HttpMethod.GET, baseUrl() + "unavailable", null, null).getCode());
+    assertEquals(503, client.sendRequest(HttpMethod.GET, baseUrl() + "unavailable", null, null).getCode());
+
+    server.verify(3, getRequestedFor(urlEqualTo("/api/unavailable")));
+  }
+
+  @Test
+  public void hedgesSlowGets() {
+    server.stubFor(WireMock
+        .get("/api/hedged")
+        .inScenario("hedged")
+        .whenScenarioStateIs(Scenario.STARTED)
+        .willReturn(aResponse().withStatus(200).withBody("slow").withFixedDelay(3000))
+        .willSetStateTo("hedge")
+    );
+    server.stubFor(WireMock
+        .get("/api/hedged")
+        .inScenario("hedged")
+        .whenScenarioStateIs("hedge")
+        .willReturn(aResponse().withStatus(200).withBody("hedge"))
+    );
+    client.hedgeGets(95);
+    for (int i = 0; i < 20; i++) {
+      client.sendRequest(HttpMethod.GET, baseUrl() + "fast", null, null);
+    }
+
+    long start = System.nanoTime();
+    HttpResponse response = client.sendRequest(HttpMethod.GET, baseUrl() + "hedged", null, null);
+
+    assertEquals("hedge", response.getResponseBody().trim());
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+    server.verify(2, getRequestedFor(urlEqualTo("/api/hedged")));
+  }
+
+  private void stubSequence(String url, int... statuses) {
+    for (int i = 0; i < statuses.length; i++) {
+      server.stubFor(WireMock
+          .get(url)
+          .inScenario(url)
+          .whenScenarioStateIs(i == 0 ? Scenario.STARTED : "attempt-" + i)
+          .willReturn(aResponse()
+              .withHeader("Content-Type", "application/json")
+              .withStatus(statuses[i])
+              .withBody(statuses[i] == 200 ? "{\"status\": \"ok\"}" : "")
+          )
+          .willSetStateTo("attempt-" + (i + 1))
+      );
+    }
+  }
+
+  private String baseUrl() {
+    return "http://localhost:" + server.port() + "/api/";
+  }
+}
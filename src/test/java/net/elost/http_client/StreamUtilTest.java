@@ -0,0 +1,29 @@
+package net.elost.http_client;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class StreamUtilTest {
+
+  @Test
+  public void doesNotTrustHugeExpectedLength() throws IOException {
+    byte[] body = {1, 2, 3};
+
+    assertArrayEquals(body, StreamUtil.toByteArray(new ByteArrayInputStream(body), Integer.MAX_VALUE - 8));
+  }
+
+  @Test
+  public void readsBodiesOfExpectedAndOtherLengths() throws IOException {
+    byte[] body = new byte[300 * 1024 + 7];
+    new Random(42).nextBytes(body);
+
+    assertArrayEquals(body, StreamUtil.toByteArray(new ByteArrayInputStream(body), body.length));
+    assertArrayEquals(body, StreamUtil.toByteArray(new ByteArrayInputStream(body), body.length - 100));
+    assertArrayEquals(body, StreamUtil.toByteArray(new ByteArrayInputStream(body), body.length + 100));
+  }
+}
@@ -0,0 +1,35 @@
+package net.elost.http_client;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class TextDecoderTest {
+
+  @Test
+  public void doesNotTrustHugeContentLength() throws IOException {
+    byte[] body = "hello".getBytes(StandardCharsets.UTF_8);
+
+    String text = TextDecoder.decode(new ByteArrayInputStream(body), Integer.MAX_VALUE - 8, StandardCharsets.UTF_8);
+
+    assertEquals("hello", text);
+  }
+
+  @Test
+  public void growsBeyondPresizedBuffer() throws IOException {
+    char[] chars = new char[200 * 1024];
+    Arrays.fill(chars, 'x');
+    String expected = new String(chars);
+
+    String text = TextDecoder.decode(
+        new ByteArrayInputStream(expected.getBytes(StandardCharsets.UTF_8)), chars.length, StandardCharsets.UTF_8
+    );
+
+    assertEquals(expected, text);
+  }
+}
@@ -0,0 +1,98 @@
+package net.elost.http_client;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.annotations.SerializedName;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UrlTemplateTest {
+
+  @Test
+  public void expandsVariablesAndQuery() {
+    UrlTemplate template = UrlTemplate.parse("https://api.example.com/users/{id}/files/{name}");
+    Map<String, Object> values = new LinkedHashMap<>();
+    values.put("name", "a/b c.txt");
+    values.put("id", 7);
+    values.put("q", "gr\u00fc\u00dfe");
+    values.put("skip", null);
+    values.put("sizes", new int[] {1, 2});
+
+    assertEquals(Arrays.asList("id", "name"), template.getVariables());
+    assertEquals(
+        "https://api.example.com/users/7/files/a%2Fb%20c.txt?q=gr%C3%BC%C3%9Fe&sizes=1&sizes=2",
+        template.expand(values)
+    );
+    assertEquals("https://api.example.com/users/7/files/a%2Fb%20c.txt", template.expandPath(values));
+  }
+
+  @Test
+  public void readsFieldsOfObjects() {
+    Filter filter = new Filter();
+    filter.kind = Kind.OPEN;
+
+    assertEquals("/search?v=2&page_size=20&kind=OPEN", UrlTemplate.parse("/search?v=2").expand(filter));
+  }
+
+  @Test
+  public void leavesValuesWithoutUrlFormOutOfQuery() {
+    Map<String, Object> values = new LinkedHashMap<>();
+    values.put("since", new Date(0));
+    values.put("filter", new Filter());
+    values.put("ids", Arrays.asList(1, new Filter(), 2));
+    values.put("q", "x");
+    UrlTemplate template = UrlTemplate.parse("/search");
+
+    assertEquals("/search?ids=1&ids=2&q=x", template.expand(values));
+    assertEquals("/search", template.expand("x"));
+    assertEquals("/search", template.expand(Arrays.asList("x", "y")));
+    assertEquals("/search", template.expand(new Date(0)));
+  }
+
+  @Test
+  public void rejectsVariablesWithoutUrlForm() {
+    try {
+      UrlTemplate.parse("/users/{id}").expand(Collections.singletonMap("id", new Filter()));
+      fail();
+    }
+    catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Can't encode id of type"));
+    }
+  }
+
+  @Test
+  public void rejectsMissingVariables() {
+    try {
+      UrlTemplate.parse("/users/{id}").expand(new Filter());
+      fail();
+    }
+    catch (IllegalArgumentException e) {
+      assertEquals("No value for variable id of url template /users/{id}", e.getMessage());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnclosedVariables() {
+    UrlTemplate.parse("/users/{id");
+  }
+
+  private enum Kind {
+    OPEN
+  }
+
+  private static class Filter {
+    private static final int MAX = 100;
+    @SerializedName("page_size")
+    private int pageSize = 20;
+    private Kind kind;
+    private transient String cache = "x";
+  }
+}